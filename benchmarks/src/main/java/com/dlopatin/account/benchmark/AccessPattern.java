@@ -0,0 +1,109 @@
+package com.dlopatin.account.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How accounts are picked for operations. Account ids start from one.
+ */
+public enum AccessPattern {
+
+    /**
+     * Every account is picked equally often
+     */
+    UNIFORM {
+        @Override
+        public Sampler sampler(int accounts) {
+            return new Sampler() {
+                @Override
+                public int nextFrom(ThreadLocalRandom random) {
+                    return random.nextInt(accounts) + 1;
+                }
+
+                @Override
+                public int nextTo(ThreadLocalRandom random) {
+                    return random.nextInt(accounts) + 1;
+                }
+            };
+        }
+    },
+
+    /**
+     * Accounts are picked by Zipf distribution, a few accounts take most of operations
+     */
+    ZIPF {
+        @Override
+        public Sampler sampler(int accounts) {
+            double[] cumulative = new double[accounts];
+            double sum = 0;
+            for (int rank = 1; rank <= accounts; rank++) {
+                sum += 1 / Math.pow(rank, ZIPF_EXPONENT);
+                cumulative[rank - 1] = sum;
+            }
+            // ids are drawn in advance, so picking one costs as little as uniform pick
+            int[] samples = new int[ZIPF_SAMPLES];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < samples.length; i++) {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                samples[i] = Math.min(accounts, (index < 0 ? -index - 1 : index) + 1);
+            }
+            return new Sampler() {
+                @Override
+                public int nextFrom(ThreadLocalRandom random) {
+                    return samples[random.nextInt(samples.length)];
+                }
+
+                @Override
+                public int nextTo(ThreadLocalRandom random) {
+                    return samples[random.nextInt(samples.length)];
+                }
+            };
+        }
+    },
+
+    /**
+     * Money goes from random accounts to a single account, like payments to a merchant
+     */
+    HOT {
+        @Override
+        public Sampler sampler(int accounts) {
+            return new Sampler() {
+                @Override
+                public int nextFrom(ThreadLocalRandom random) {
+                    return random.nextInt(accounts) + 1;
+                }
+
+                @Override
+                public int nextTo(ThreadLocalRandom random) {
+                    return HOT_ACCOUNT;
+                }
+            };
+        }
+    };
+
+    public static final int HOT_ACCOUNT = 1;
+
+    private static final double ZIPF_EXPONENT = 0.99;
+    private static final int ZIPF_SAMPLES = 1 << 20;
+
+    /**
+     * @param accounts number of accounts to pick from
+     */
+    public abstract Sampler sampler(int accounts);
+
+    /**
+     * Picks account ids, thread safe.
+     */
+    public interface Sampler {
+
+        /**
+         * @return account to withdraw money from
+         */
+        int nextFrom(ThreadLocalRandom random);
+
+        /**
+         * @return account to put money to, also used for reads
+         */
+        int nextTo(ThreadLocalRandom random);
+    }
+}
@@ -0,0 +1,58 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.AppConfig.AccountStorage;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory taken by accounts of every storage. Every call fills a new storage, so run with <code>-prof gc</code>:
+ * <code>gc.alloc.rate.norm</code> divided by number of accounts is bytes allocated per account. Accounts are
+ * stored in bulk, which allocates nothing but the storage, so it's the footprint plus garbage of growing
+ * storage, e.g. tables of a map rehashed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AccountFootprintBenchmark {
+
+    private static final int ACCOUNTS = 1_000_000;
+
+    @Param({"MAP", "ARRAY"})
+    private AccountStorage storage;
+
+    private final Currency[] currencies = new Currency[ACCOUNTS];
+    private final long[] balances = new long[ACCOUNTS];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Arrays.fill(currencies, Currency.USD);
+        Arrays.fill(balances, 100);
+    }
+
+    @Benchmark
+    public AccountDao fill() {
+        AccountDao accountDao = Storages.accountDao(storage);
+        accountDao.createAll(1, currencies, balances);
+        return accountDao;
+    }
+}
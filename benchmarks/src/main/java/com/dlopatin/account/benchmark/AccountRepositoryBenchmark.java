@@ -0,0 +1,61 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.AppConfig.AccountStorage;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of account lookups for every storage and access pattern.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AccountRepositoryBenchmark {
+
+    private static final int ACCOUNTS = 100_000;
+
+    @Param({"MAP", "ARRAY"})
+    private AccountStorage storage;
+
+    @Param({"UNIFORM", "ZIPF"})
+    private AccessPattern pattern;
+
+    private AccessPattern.Sampler sampler;
+    private AccountDao accountDao;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sampler = pattern.sampler(ACCOUNTS);
+        accountDao = Storages.accountDao(storage);
+        for (int id = 1; id <= ACCOUNTS; id++) {
+            accountDao.create(new Account(id, Currency.USD, id));
+        }
+    }
+
+    @Benchmark
+    public Optional<Account> get() {
+        return accountDao.get(sampler.nextTo(ThreadLocalRandom.current()));
+    }
+}
@@ -0,0 +1,187 @@
+package com.dlopatin.account.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs benchmarks for a range of thread counts and stores all results in one JSON file, or compares two
+ * such files, e.g. of two releases.
+ * <pre>
+ * run [--include regex] [--threads 1,2,4] [--param name=value1,value2] [--output file] [--quick]
+ * compare base.json current.json [--threshold percent]
+ * </pre>
+ * Comparison exits with code 2 if any score got worse by more than threshold, 10% by default.
+ */
+public final class BenchmarkRunner {
+
+    private static final String DEFAULT_INCLUDE = "com.dlopatin.account.benchmark.*";
+    private static final double DEFAULT_THRESHOLD_PERCENT = 10;
+    private static final int REGRESSION_EXIT_CODE = 2;
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        if (args.length > 0 && args[0].equals("run")) {
+            run(args);
+        } else if (args.length >= 3 && args[0].equals("compare")) {
+            compare(args);
+        } else {
+            System.err.println("Usage:\n"
+                    + "  run [--include regex] [--threads 1,2,4] [--param name=value1,value2] [--output file]"
+                    + " [--quick]\n"
+                    + "  compare base.json current.json [--threshold percent]");
+            System.exit(1);
+        }
+    }
+
+    private static void run(String[] args) throws RunnerException, IOException {
+        String include = DEFAULT_INCLUDE;
+        List<Integer> threads = defaultThreads();
+        Map<String, String[]> params = new LinkedHashMap<>();
+        Path output = Paths.get("benchmarks", "results", "benchmarks-"
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+        boolean quick = false;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--include":
+                    include = args[++i];
+                    break;
+                case "--threads":
+                    threads = new ArrayList<>();
+                    for (String value : args[++i].split(",")) {
+                        threads.add(Integer.parseInt(value.trim()));
+                    }
+                    break;
+                case "--param":
+                    String[] param = args[++i].split("=", 2);
+                    params.put(param[0], param[1].split(","));
+                    break;
+                case "--output":
+                    output = Paths.get(args[++i]);
+                    break;
+                case "--quick":
+                    quick = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        List<RunResult> results = new ArrayList<>();
+        for (int threadCount : threads) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadCount)
+                    .shouldFailOnError(true);
+            params.forEach(options::param);
+            if (quick) {
+                options.warmupIterations(1)
+                        .warmupTime(TimeValue.seconds(1))
+                        .measurementIterations(2)
+                        .measurementTime(TimeValue.seconds(1));
+            }
+            results.addAll(new Runner(options.build()).run());
+        }
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, output.toString()).writeOut(results);
+        System.out.println("Results stored to " + output);
+    }
+
+    /**
+     * @return 1, 2, 4 and so on up to number of processors, which is included as well
+     */
+    private static List<Integer> defaultThreads() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> threads = new ArrayList<>();
+        for (int count = 1; count < processors; count *= 2) {
+            threads.add(count);
+        }
+        threads.add(processors);
+        return threads;
+    }
+
+    private static void compare(String[] args) throws IOException {
+        double threshold = DEFAULT_THRESHOLD_PERCENT;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--threshold")) {
+                threshold = Double.parseDouble(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        Map<String, JsonNode> base = readScores(Paths.get(args[1]));
+        Map<String, JsonNode> current = readScores(Paths.get(args[2]));
+
+        boolean regression = false;
+        System.out.printf("%-80s %14s %14s %9s%n", "Benchmark", "Base", "Current", "Change");
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode baseResult = base.get(entry.getKey());
+            JsonNode metric = entry.getValue().get("primaryMetric");
+            if (baseResult == null) {
+                System.out.printf("%-80s %14s %14.3f %9s%n", entry.getKey(), "-", metric.get("score").asDouble(),
+                        "new");
+                continue;
+            }
+            double baseScore = baseResult.get("primaryMetric").get("score").asDouble();
+            double currentScore = metric.get("score").asDouble();
+            // throughput is better when higher, time modes are better when lower
+            boolean higherIsBetter = entry.getValue().get("mode").asText().equals("thrpt");
+            double change = (currentScore - baseScore) / baseScore * 100;
+            double worsening = higherIsBetter ? -change : change;
+            boolean worse = worsening > threshold;
+            regression |= worse;
+            System.out.printf("%-80s %14.3f %14.3f %+8.1f%% %s%n", entry.getKey(), baseScore, currentScore, change,
+                    worse ? "WORSE" : "");
+        }
+        if (regression) {
+            System.exit(REGRESSION_EXIT_CODE);
+        }
+    }
+
+    /**
+     * @return results by benchmark name, mode, threads and parameters
+     */
+    private static Map<String, JsonNode> readScores(Path path) throws IOException {
+        Map<String, JsonNode> scores = new TreeMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(path.toFile())) {
+            String benchmark = result.get("benchmark").asText();
+            StringBuilder key = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.',
+                    benchmark.lastIndexOf('.') - 1) + 1))
+                    .append(' ').append(result.get("mode").asText())
+                    .append(" t=").append(result.get("threads").asInt());
+            JsonNode params = result.get("params");
+            if (params != null) {
+                for (Iterator<Map.Entry<String, JsonNode>> it = params.fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> param = it.next();
+                    key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+                }
+            }
+            scores.put(key.toString(), result);
+        }
+        return scores;
+    }
+}
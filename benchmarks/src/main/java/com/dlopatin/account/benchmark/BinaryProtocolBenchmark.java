@@ -0,0 +1,180 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.binary.BinaryClient;
+import com.dlopatin.account.binary.BinaryServer;
+import com.dlopatin.account.controller.AccountController;
+import com.dlopatin.account.http.NioHttpServer;
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountArrayDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of transfers sent over loopback by binary protocol, one at a time per thread and pipelined,
+ * and as JSON over HTTP to NIO engine by a minimal keep-alive client, so the difference is protocol cost,
+ * not cost of client library. All binary requests share a single client connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BinaryProtocolBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+    private static final int PIPELINE = 64;
+
+    private final AtomicInteger operationIds = new AtomicInteger();
+    private BinaryServer binaryServer;
+    private NioHttpServer httpServer;
+    private BinaryClient client;
+    private int httpPort;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AccountServiceImpl accountService = new AccountServiceImpl(new AccountArrayDao(),
+                new TransactionInMemoryDao());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountService.create(Currency.USD, INITIAL_BALANCE);
+        }
+        Metrics metrics = new Metrics();
+        binaryServer = new BinaryServer(0, accountService, metrics, new QueuedThreadPool());
+        int binaryPort = binaryServer.start();
+        httpServer = new NioHttpServer(0, new QueuedThreadPool());
+        new AccountController(accountService, new ObjectMapper(), metrics).init(httpServer);
+        httpPort = httpServer.start();
+        client = BinaryClient.connect("localhost", binaryPort);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        binaryServer.stop();
+        httpServer.stop();
+    }
+
+    @Benchmark
+    public void binary() {
+        int from = randomAccount();
+        client.transfer(from, otherAccount(from), 1, operationIds.incrementAndGet()).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void binaryPipelined() {
+        CompletableFuture<?>[] transfers = new CompletableFuture[PIPELINE];
+        for (int i = 0; i < PIPELINE; i++) {
+            int from = randomAccount();
+            transfers[i] = client.transfer(from, otherAccount(from), 1, operationIds.incrementAndGet());
+        }
+        CompletableFuture.allOf(transfers).join();
+    }
+
+    @Benchmark
+    public void http(HttpConnection connection) throws IOException {
+        int from = randomAccount();
+        String body = String.format("{\"accountFrom\":%d,\"accountTo\":%d,\"amount\":1,\"operationId\":%d}",
+                from, otherAccount(from), operationIds.incrementAndGet());
+        connection.post("/api/v1/account/transfer", body);
+    }
+
+    private static int randomAccount() {
+        return ThreadLocalRandom.current().nextInt(ACCOUNTS) + 1;
+    }
+
+    private static int otherAccount(int account) {
+        return account % ACCOUNTS + 1;
+    }
+
+    /**
+     * Keep-alive connection of benchmark thread, expects responses with length.
+     */
+    @State(Scope.Thread)
+    public static class HttpConnection {
+
+        private final byte[] response = new byte[4096];
+        private Socket socket;
+        private OutputStream out;
+        private InputStream in;
+
+        @Setup(Level.Trial)
+        public void connect(BinaryProtocolBenchmark benchmark) throws IOException {
+            socket = new Socket("localhost", benchmark.httpPort);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = socket.getInputStream();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        void post(String path, String body) throws IOException {
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            out.write(("POST " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n"
+                    + "Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.write(content);
+            out.flush();
+            int read = 0;
+            int total = -1;
+            while (total < 0 || read < total) {
+                int count = in.read(response, read, response.length - read);
+                if (count < 0) {
+                    throw new EOFException("Connection closed by server");
+                }
+                read += count;
+                if (total < 0) {
+                    total = responseLength(read);
+                }
+            }
+            if (response[9] != '2') {
+                throw new IllegalStateException(new String(response, 0, read, StandardCharsets.ISO_8859_1));
+            }
+        }
+
+        /**
+         * @return length of response, negative if head is not read yet
+         */
+        private int responseLength(int read) {
+            String head = new String(response, 0, read, StandardCharsets.ISO_8859_1);
+            int headEnd = head.indexOf("\r\n\r\n");
+            if (headEnd < 0) {
+                return -1;
+            }
+            int lengthStart = head.indexOf("Content-Length: ") + "Content-Length: ".length();
+            return headEnd + 4 + Integer.parseInt(head.substring(lengthStart, head.indexOf('\r', lengthStart)));
+        }
+    }
+}
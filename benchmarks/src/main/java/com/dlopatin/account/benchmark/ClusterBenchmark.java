@@ -0,0 +1,118 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.binary.BinaryClient;
+import com.dlopatin.account.binary.BinaryServer;
+import com.dlopatin.account.cluster.ClusterAccountService;
+import com.dlopatin.account.cluster.ClusterNode;
+import com.dlopatin.account.cluster.ConsistentHashRing;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.metrics.ContentionProfiler;
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of transfers between random accounts of cluster, sent by binary protocol to random nodes,
+ * all nodes running in this process. Nodes share cores of one machine here, so the numbers show cost
+ * of forwarding and of transfers between nodes rather than scaling, which needs a machine per node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ClusterBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    @Param({"1", "2", "4"})
+    public int nodeCount;
+
+    private final AtomicInteger operationIds = new AtomicInteger();
+    private ClusterAccountService[] services;
+    private BinaryServer[] servers;
+    private BinaryClient[] clients;
+    private int[] accounts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ConsistentHashRing ring = new ConsistentHashRing(nodeCount, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        List<ClusterNode> nodes = new ArrayList<>();
+        for (int node = 0; node < nodeCount; node++) {
+            nodes.add(new ClusterNode("localhost", 0, freePort()));
+        }
+        services = new ClusterAccountService[nodeCount];
+        servers = new BinaryServer[nodeCount];
+        clients = new BinaryClient[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            int self = node;
+            AccountServiceImpl local = new AccountServiceImpl(new AccountInMemoryDao(), new TransactionInMemoryDao(),
+                    new IdempotencyIndex(), NoJournal.INSTANCE, ContentionProfiler.DISABLED,
+                    id -> ring.owner(id) == self);
+            services[node] = new ClusterAccountService(local, nodes, node, ring);
+            servers[node] = new BinaryServer(nodes.get(node).getBinaryPort(), services[node], local, new Metrics(),
+                    new QueuedThreadPool());
+            servers[node].start();
+        }
+        accounts = new int[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = services[i % nodeCount].create(Currency.USD, INITIAL_BALANCE).getId();
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            clients[node] = BinaryClient.connect("localhost", nodes.get(node).getBinaryPort());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (int node = 0; node < nodeCount; node++) {
+            clients[node].close();
+            services[node].close();
+            servers[node].stop();
+        }
+    }
+
+    @Benchmark
+    public void transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNTS);
+        int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+        clients[random.nextInt(nodeCount)].transfer(accounts[from], accounts[to], 1, operationIds.incrementAndGet())
+                .join();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.journal.DurabilityMode;
+import com.dlopatin.account.journal.MappedJournal;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountService;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.CoalescingAccountService;
+import com.dlopatin.account.service.IdempotencyIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Throughput and latency distribution of concurrent single transfers with journal, executed one by one
+ * and coalesced into batches with different max delay. Mean batch size is printed after every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(32)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CoalescingBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    /**
+     * Max delay of coalescing in microseconds, negative to execute transfers one by one.
+     */
+    @Param({"-1", "0", "100"})
+    private long delayMicros;
+
+    @Param({"PER_OP", "BATCHED"})
+    private DurabilityMode durability;
+
+    private final AtomicInteger operationIds = new AtomicInteger();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedTransfers = new LongAdder();
+    private Path directory;
+    private MappedJournal journal;
+    private AccountService accountService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("coalescing-benchmark");
+        journal = new MappedJournal(directory, durability);
+        accountService = new AccountServiceImpl(new AccountInMemoryDao(), new TransactionInMemoryDao(),
+                new IdempotencyIndex(), journal);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountService.create(Currency.USD, INITIAL_BALANCE);
+        }
+        if (delayMicros >= 0) {
+            accountService = new CoalescingAccountService(accountService, delayMicros,
+                    CoalescingAccountService.DEFAULT_MAX_BATCH_SIZE, size -> {
+                batches.increment();
+                batchedTransfers.add(size);
+            });
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void printBatchSize() {
+        long count = batches.sumThenReset();
+        long transfers = batchedTransfers.sumThenReset();
+        if (count > 0) {
+            System.out.printf("mean batch size %.1f%n", (double) transfers / count);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (accountService instanceof CoalescingAccountService) {
+            ((CoalescingAccountService) accountService).close();
+        }
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNTS) + 1;
+        int to = random.nextInt(ACCOUNTS) + 1;
+        accountService.transfer(from, to, 1, operationIds.incrementAndGet());
+    }
+}
@@ -0,0 +1,80 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.controller.JsonCodec;
+import com.dlopatin.account.controller.dto.GetAccountResponse;
+import com.dlopatin.account.controller.dto.TransferRequest;
+import com.dlopatin.account.controller.dto.TransferResponse;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading request and writing response of transfer and of account lookup, by string based object mapper
+ * calls the app used before and by codec. Run with <code>-prof gc</code> to see bytes allocated per request
+ * as <code>gc.alloc.rate.norm</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(1)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CodecBenchmark {
+
+    private static final byte[] TRANSFER_BODY = ("{\"accountFrom\":12345,\"accountTo\":67890,\"amount\":1000,"
+            + "\"operationId\":424242}").getBytes(StandardCharsets.UTF_8);
+
+    @Param({"STRING", "CODEC"})
+    private Path path;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonCodec codec = new JsonCodec(objectMapper);
+    private final GetAccountResponse account = GetAccountResponse.from(new Account(12345, Currency.GBP, 100_000));
+    // stands for response stream, content is sent by container
+    private final OutputStream out = OutputStream.nullOutputStream();
+
+    @Benchmark
+    public long transfer() throws IOException {
+        TransferRequest request;
+        if (path == Path.STRING) {
+            request = objectMapper.readValue(new String(TRANSFER_BODY, StandardCharsets.UTF_8),
+                    TransferRequest.class);
+            out.write(objectMapper.writeValueAsString(TransferResponse.successful()).getBytes(StandardCharsets.UTF_8));
+        } else {
+            request = codec.read(new ByteArrayInputStream(TRANSFER_BODY), TransferRequest.class);
+            codec.write(out, TransferResponse.successful());
+        }
+        return request.getAmount();
+    }
+
+    @Benchmark
+    public void getAccount() throws IOException {
+        if (path == Path.STRING) {
+            out.write(objectMapper.writeValueAsString(account).getBytes(StandardCharsets.UTF_8));
+        } else {
+            codec.write(out, account);
+        }
+    }
+
+    public enum Path {
+        STRING, CODEC
+    }
+}
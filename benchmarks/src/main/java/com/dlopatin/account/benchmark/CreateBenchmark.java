@@ -0,0 +1,80 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.AppConfig.AccountStorage;
+import com.dlopatin.account.benchmark.Storages.TransactionStorage;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Account creation throughput for every storage. Service is created anew for every iteration,
+ * so storage size doesn't depend on number of iterations. Bulk creation is measured as time to create
+ * a migration sized batch of accounts at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CreateBenchmark {
+
+    @Param({"MAP", "ARRAY"})
+    private AccountStorage storage;
+
+    @Param({"IN_MEMORY"})
+    private TransactionStorage transactions;
+
+    private static final int BATCH_SIZE = 10_000_000;
+
+    private final Currency[] currencies = new Currency[BATCH_SIZE];
+    private final long[] balances = new long[BATCH_SIZE];
+    private AccountServiceImpl accountService;
+
+    @Setup(Level.Trial)
+    public void setUpBatch() {
+        Arrays.fill(currencies, Currency.USD);
+        Arrays.fill(balances, 100);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        accountService = new AccountServiceImpl(Storages.accountDao(storage), Storages.transactionDao(transactions),
+                new IdempotencyIndex(), NoJournal.INSTANCE);
+    }
+
+    @Benchmark
+    public Account create() {
+        return accountService.create(Currency.USD, 100);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    @Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 3)
+    public int[] createBatch() {
+        return accountService.createBatch(currencies, balances);
+    }
+}
@@ -0,0 +1,108 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.AppConfig.AccountStorage;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency of account reads while transfers keep changing the same accounts. Reads are done either
+ * optimistically by sequence lock or holding the account lock, which transfers hold as well.
+ * Reads and transfers pick accounts by the same pattern, so skewed patterns read the most changed accounts.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GetAccountBenchmark {
+
+    private static final int ACCOUNTS = 100_000;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    @Param({"SEQUENCE_LOCK", "ACCOUNT_LOCK"})
+    private ReadMode readMode;
+
+    @Param({"MAP", "ARRAY"})
+    private AccountStorage storage;
+
+    @Param({"UNIFORM", "ZIPF", "HOT"})
+    private AccessPattern pattern;
+
+    private final AtomicInteger operationIds = new AtomicInteger();
+    private AccessPattern.Sampler sampler;
+    private AccountDao accountDao;
+    private AccountServiceImpl accountService;
+
+    @Setup(Level.Trial)
+    public void setUpSampler() {
+        sampler = pattern.sampler(ACCOUNTS);
+    }
+
+    /**
+     * Stored transactions grow with every transfer, so service is created anew for every iteration.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        accountDao = Storages.accountDao(storage);
+        accountService = new AccountServiceImpl(accountDao, new TransactionInMemoryDao(), new IdempotencyIndex(),
+                NoJournal.INSTANCE);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountService.create(Currency.USD, INITIAL_BALANCE);
+        }
+    }
+
+    @Benchmark
+    @Group("underTransfers")
+    @GroupThreads(4)
+    public long get() {
+        int id = sampler.nextTo(ThreadLocalRandom.current());
+        switch (readMode) {
+            case SEQUENCE_LOCK:
+                return accountService.get(id).map(Account::getBalance).orElseThrow();
+            case ACCOUNT_LOCK:
+                Account account = accountDao.get(id).orElseThrow();
+                synchronized (account.getLock()) {
+                    return account.getBalance();
+                }
+            default:
+                throw new IllegalStateException("Unknown read mode: " + readMode);
+        }
+    }
+
+    @Benchmark
+    @Group("underTransfers")
+    @GroupThreads(4)
+    public void transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        accountService.transfer(sampler.nextFrom(random), sampler.nextTo(random), 1, operationIds.incrementAndGet());
+    }
+
+    public enum ReadMode {
+        SEQUENCE_LOCK,
+        ACCOUNT_LOCK
+    }
+}
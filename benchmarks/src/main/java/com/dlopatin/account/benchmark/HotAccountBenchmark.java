@@ -0,0 +1,81 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.AppConfig.AccountStorage;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import com.dlopatin.account.service.TransferException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transfers from random accounts to a single hot account, with credits of the hot account striped or taken
+ * under its lock. Gain of stripes grows with number of cores, it is not seen on a single core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(16)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HotAccountBenchmark {
+
+    private static final int ACCOUNTS = 100_000;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    @Param({"false", "true"})
+    private boolean striped;
+
+    @Param({"MAP", "ARRAY"})
+    private AccountStorage storage;
+
+    private final AtomicInteger operationIds = new AtomicInteger();
+    private AccessPattern.Sampler sampler;
+    private AccountServiceImpl accountService;
+
+    @Setup(Level.Trial)
+    public void setUpSampler() {
+        sampler = AccessPattern.HOT.sampler(ACCOUNTS);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        accountService = new AccountServiceImpl(Storages.accountDao(storage), new TransactionInMemoryDao(),
+                new IdempotencyIndex(), NoJournal.INSTANCE);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountService.create(Currency.USD, INITIAL_BALANCE);
+        }
+        if (striped) {
+            accountService.makeHot(AccessPattern.HOT_ACCOUNT, Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    @Benchmark
+    public void transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            accountService.transfer(sampler.nextFrom(random), sampler.nextTo(random), 1,
+                    operationIds.incrementAndGet());
+        } catch (TransferException e) {
+            // balance is large enough, but keeps benchmark running if it's not
+        }
+    }
+}
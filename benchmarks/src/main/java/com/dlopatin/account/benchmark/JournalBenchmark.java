@@ -0,0 +1,83 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.journal.DurabilityMode;
+import com.dlopatin.account.journal.MappedJournal;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Transfers per second with journal in every durability mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JournalBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    @Param({"PER_OP", "BATCHED", "ASYNC"})
+    private DurabilityMode durability;
+
+    private final AtomicInteger operationIds = new AtomicInteger();
+    private Path directory;
+    private MappedJournal journal;
+    private AccountServiceImpl accountService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal-benchmark");
+        journal = new MappedJournal(directory, durability);
+        accountService = new AccountServiceImpl(new AccountInMemoryDao(), new TransactionInMemoryDao(),
+                new IdempotencyIndex(), journal);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountService.create(Currency.USD, INITIAL_BALANCE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNTS) + 1;
+        int to = random.nextInt(ACCOUNTS) + 1;
+        accountService.transfer(from, to, 1, operationIds.incrementAndGet());
+    }
+}
@@ -0,0 +1,354 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.App;
+import com.dlopatin.account.AppConfig;
+import com.dlopatin.account.model.Currency;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load generator for REST API. Requests are sent at a fixed rate whether previous responses came or not,
+ * and latency is measured from the moment request was scheduled, not actually sent. So a stalled server is
+ * charged for all requests which should have been sent meanwhile, i.e. results are free of coordinated omission.
+ * <pre>
+ * [--url http://host:port] [--rate 1000] [--duration 30] [--warmup 10] [--accounts 10000]
+ * [--mix get=80,transfer=20,create=0] [--pattern UNIFORM|ZIPF|HOT] [--max-in-flight 1024] [--timeout 10]
+ * </pre>
+ * Without url application is started in this JVM on a free port and configured by system properties,
+ * e.g. <code>-Daccount.service=partitioned</code>.
+ */
+public final class LoadGenerator {
+
+    private static final String ACCOUNT_PATH = "/api/v1/account";
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+    private static final int CREATE_CONCURRENCY = 64;
+    private static final int HISTOGRAM_DIGITS = 3;
+
+    private final HttpClient client;
+    private final String url;
+    private final Options options;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Stats[] stats = new Stats[Operation.values().length];
+    // how late requests were sent comparing to schedule, shows if generator itself keeps up with rate
+    private final Histogram sendLag = new ConcurrentHistogram(HISTOGRAM_DIGITS);
+    private final AtomicInteger operationIds = new AtomicInteger(
+            ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE / 2));
+    private int[] accountIds;
+
+    private LoadGenerator(HttpClient client, String url, Options options) {
+        this.client = client;
+        this.url = url;
+        this.options = options;
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        String url = options.url != null ? options.url : "http://localhost:" + startApp();
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(options.timeoutSeconds))
+                .build();
+        LoadGenerator generator = new LoadGenerator(client, url, options);
+        generator.createAccounts();
+        generator.run();
+        generator.report(System.out);
+        // server threads are not daemons
+        System.exit(0);
+    }
+
+    private static int startApp() {
+        Properties properties = new Properties();
+        properties.putAll(System.getProperties());
+        properties.putIfAbsent("server.port", "0");
+        return App.start(new AppConfig(properties));
+    }
+
+    private void createAccounts() throws InterruptedException {
+        System.out.printf("Creating %d accounts at %s%n", options.accounts, url);
+        accountIds = new int[options.accounts];
+        Semaphore inFlight = new Semaphore(CREATE_CONCURRENCY);
+        Map<Integer, Throwable> failures = new ConcurrentHashMap<>();
+        for (int i = 0; i < accountIds.length; i++) {
+            int index = i;
+            inFlight.acquire();
+            client.sendAsync(createRequest(), BodyHandlers.ofString()).whenComplete((response, error) -> {
+                try {
+                    if (error != null) {
+                        failures.put(index, error);
+                    } else if (response.statusCode() != 201) {
+                        failures.put(index, new IllegalStateException(
+                                "Unexpected status " + response.statusCode() + ": " + response.body()));
+                    } else {
+                        accountIds[index] = objectMapper.readTree(response.body()).get("id").asInt();
+                    }
+                } catch (IOException e) {
+                    failures.put(index, e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+        inFlight.acquire(CREATE_CONCURRENCY);
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException(failures.size() + " accounts were not created",
+                    failures.values().iterator().next());
+        }
+    }
+
+    private void run() throws InterruptedException {
+        System.out.printf("Sending %d requests per second for %d s after %d s of warmup, mix %s, pattern %s%n",
+                options.rate, options.durationSeconds, options.warmupSeconds, options.mixDescription(),
+                options.pattern);
+        AccessPattern.Sampler sampler = options.pattern.sampler(accountIds.length);
+        Semaphore inFlight = new Semaphore(options.maxInFlight);
+        double intervalNanos = (double) TimeUnit.SECONDS.toNanos(1) / options.rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long i = 0; ; i++) {
+            long scheduled = start + (long) (i * intervalNanos);
+            if (scheduled >= end) {
+                break;
+            }
+            long delay = scheduled - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            // waiting for a free slot delays sending, but not the schedule latency is measured from
+            inFlight.acquire();
+            boolean measured = scheduled >= measureFrom;
+            if (measured) {
+                sendLag.recordValue(Math.max(0, System.nanoTime() - scheduled) / 1_000);
+            }
+            Operation operation = options.nextOperation(random);
+            Stats operationStats = stats[operation.ordinal()];
+            client.sendAsync(request(operation, sampler, random), BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        long latencyMicros = (System.nanoTime() - scheduled) / 1_000;
+                        inFlight.release();
+                        if (measured) {
+                            operationStats.record(latencyMicros, response != null
+                                    ? String.valueOf(response.statusCode())
+                                    : unwrap(error).getClass().getSimpleName());
+                        }
+                    });
+        }
+        if (!inFlight.tryAcquire(options.maxInFlight, options.timeoutSeconds + 1, TimeUnit.SECONDS)) {
+            System.out.println("Some requests are still in flight and not counted");
+        }
+    }
+
+    private HttpRequest request(Operation operation, AccessPattern.Sampler sampler, ThreadLocalRandom random) {
+        switch (operation) {
+            case GET:
+                return HttpRequest.newBuilder(URI.create(url + ACCOUNT_PATH + "/"
+                        + accountIds[sampler.nextTo(random) - 1]))
+                        .timeout(Duration.ofSeconds(options.timeoutSeconds))
+                        .GET()
+                        .build();
+            case TRANSFER:
+                String transfer = String.format("{\"accountFrom\":%d,\"accountTo\":%d,\"amount\":1,\"operationId\":%d}",
+                        accountIds[sampler.nextFrom(random) - 1], accountIds[sampler.nextTo(random) - 1],
+                        operationIds.incrementAndGet());
+                return HttpRequest.newBuilder(URI.create(url + ACCOUNT_PATH + "/transfer"))
+                        .timeout(Duration.ofSeconds(options.timeoutSeconds))
+                        .header("Content-Type", "application/json")
+                        .POST(BodyPublishers.ofString(transfer))
+                        .build();
+            case CREATE:
+                return createRequest();
+            default:
+                throw new IllegalStateException("Unknown operation: " + operation);
+        }
+    }
+
+    private HttpRequest createRequest() {
+        return HttpRequest.newBuilder(URI.create(url + ACCOUNT_PATH))
+                .timeout(Duration.ofSeconds(options.timeoutSeconds))
+                .header("Content-Type", "application/json")
+                .POST(BodyPublishers.ofString(String.format("{\"currency\":\"%s\",\"balance\":%d}",
+                        Currency.USD, INITIAL_BALANCE)))
+                .build();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private void report(PrintStream out) {
+        Histogram all = new Histogram(HISTOGRAM_DIGITS);
+        for (Stats operationStats : stats) {
+            all.add(operationStats.latencies);
+        }
+        out.printf("%nLatency in ms, measured from scheduled send time%n");
+        out.printf("%-10s %10s %10s %9s %9s %9s %9s %9s  %s%n",
+                "Operation", "Count", "Rate/s", "p50", "p99", "p99.9", "p99.99", "max", "Responses");
+        for (Operation operation : Operation.values()) {
+            Stats operationStats = stats[operation.ordinal()];
+            if (operationStats.latencies.getTotalCount() > 0) {
+                printRow(out, operation.name(), operationStats.latencies, operationStats.responses());
+            }
+        }
+        printRow(out, "ALL", all, "");
+        out.printf("Target rate %d/s, send lag p99.9 %.3f ms, max %.3f ms%n", options.rate,
+                sendLag.getValueAtPercentile(99.9) / 1000.0, sendLag.getMaxValue() / 1000.0);
+    }
+
+    private void printRow(PrintStream out, String name, Histogram latencies, String responses) {
+        out.printf(Locale.ROOT, "%-10s %10d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f  %s%n",
+                name,
+                latencies.getTotalCount(),
+                (double) latencies.getTotalCount() / options.durationSeconds,
+                latencies.getValueAtPercentile(50) / 1000.0,
+                latencies.getValueAtPercentile(99) / 1000.0,
+                latencies.getValueAtPercentile(99.9) / 1000.0,
+                latencies.getValueAtPercentile(99.99) / 1000.0,
+                latencies.getMaxValue() / 1000.0,
+                responses);
+    }
+
+    private enum Operation {
+        GET,
+        TRANSFER,
+        CREATE
+    }
+
+    /**
+     * Latencies in microseconds and number of responses by status code or exception, thread safe.
+     */
+    private static final class Stats {
+        private final Histogram latencies = new ConcurrentHistogram(HISTOGRAM_DIGITS);
+        private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+        void record(long latencyMicros, String outcome) {
+            latencies.recordValue(latencyMicros);
+            outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+        }
+
+        String responses() {
+            StringBuilder result = new StringBuilder();
+            new TreeMap<>(outcomes).forEach((outcome, count) ->
+                    result.append(outcome).append('=').append(count.sum()).append(' '));
+            return result.toString().trim();
+        }
+    }
+
+    private static final class Options {
+        private String url;
+        private int rate = 1_000;
+        private int durationSeconds = 30;
+        private int warmupSeconds = 10;
+        private int accounts = 10_000;
+        // cumulative weights of operations in order of declaration
+        private final int[] mix = {80, 100, 100};
+        private AccessPattern pattern = AccessPattern.UNIFORM;
+        private int maxInFlight = 1_024;
+        private int timeoutSeconds = 10;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--url":
+                        options.url = args[++i];
+                        break;
+                    case "--rate":
+                        options.rate = Integer.parseInt(args[++i]);
+                        break;
+                    case "--duration":
+                        options.durationSeconds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--warmup":
+                        options.warmupSeconds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--accounts":
+                        options.accounts = Integer.parseInt(args[++i]);
+                        break;
+                    case "--mix":
+                        options.parseMix(args[++i]);
+                        break;
+                    case "--pattern":
+                        options.pattern = AccessPattern.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                        break;
+                    case "--max-in-flight":
+                        options.maxInFlight = Integer.parseInt(args[++i]);
+                        break;
+                    case "--timeout":
+                        options.timeoutSeconds = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (options.rate <= 0 || options.durationSeconds <= 0 || options.accounts <= 0) {
+                throw new IllegalArgumentException("Rate, duration and accounts must be positive");
+            }
+            return options;
+        }
+
+        /**
+         * @param value weights of operations, e.g. <code>get=80,transfer=20</code>, missing ones are zero
+         */
+        private void parseMix(String value) {
+            int[] weights = new int[Operation.values().length];
+            for (String entry : value.split(",")) {
+                String[] weight = entry.split("=", 2);
+                weights[Operation.valueOf(weight[0].trim().toUpperCase(Locale.ROOT)).ordinal()] =
+                        Integer.parseInt(weight[1].trim());
+            }
+            int sum = 0;
+            for (int i = 0; i < weights.length; i++) {
+                sum += weights[i];
+                mix[i] = sum;
+            }
+            if (sum <= 0) {
+                throw new IllegalArgumentException("Unsupported mix: " + value);
+            }
+        }
+
+        Operation nextOperation(ThreadLocalRandom random) {
+            int value = random.nextInt(mix[mix.length - 1]);
+            int index = 0;
+            while (value >= mix[index]) {
+                index++;
+            }
+            return Operation.values()[index];
+        }
+
+        String mixDescription() {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < mix.length; i++) {
+                result.append(Operation.values()[i].name().toLowerCase(Locale.ROOT)).append('=')
+                        .append(mix[i] - (i > 0 ? mix[i - 1] : 0)).append(i < mix.length - 1 ? "," : "");
+            }
+            return result.toString();
+        }
+    }
+}
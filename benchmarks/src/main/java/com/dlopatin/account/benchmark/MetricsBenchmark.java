@@ -0,0 +1,39 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.metrics.RouteMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of metrics recorded for every transfer request, concurrent threads share the same counters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MetricsBenchmark {
+
+    private final Metrics metrics = new Metrics();
+    private final RouteMetrics route = metrics.route("POST", "/api/v1/account/transfer");
+
+    @Benchmark
+    public void recordTransferRequest() {
+        route.record(ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(5)), 200);
+        metrics.recordTransfer(null);
+    }
+}
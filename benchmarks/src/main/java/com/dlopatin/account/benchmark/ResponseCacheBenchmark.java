@@ -0,0 +1,74 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.controller.JsonCodec;
+import com.dlopatin.account.controller.ResponseCache;
+import com.dlopatin.account.controller.dto.ErrorMessage;
+import com.dlopatin.account.controller.dto.ErrorResponse;
+import com.dlopatin.account.controller.dto.TransferResponse;
+import com.dlopatin.account.service.TransferException.TransferError;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing transfer response on success and on error paths, encoded per request by codec and taken
+ * from response cache. Run with <code>-prof gc</code> to see bytes allocated per response as
+ * <code>gc.alloc.rate.norm</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(1)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ResponseCacheBenchmark {
+
+    private static final TransferError[] ERRORS = TransferError.values();
+
+    @Param({"ENCODED", "CACHED"})
+    private Path path;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonCodec codec = new JsonCodec(objectMapper);
+    private final ResponseCache responses = new ResponseCache(objectMapper);
+    // stands for response stream, content is sent by container
+    private final OutputStream out = OutputStream.nullOutputStream();
+    private int next;
+
+    @Benchmark
+    public void transferSuccessful() throws IOException {
+        if (path == Path.ENCODED) {
+            codec.write(out, TransferResponse.successful());
+        } else {
+            codec.write(out, responses.transferSuccessful());
+        }
+    }
+
+    @Benchmark
+    public void transferError() throws IOException {
+        TransferError error = ERRORS[next++ % ERRORS.length];
+        if (path == Path.ENCODED) {
+            codec.write(out, new ErrorResponse(new ErrorMessage(error.toString())));
+        } else {
+            codec.write(out, responses.transferError(error));
+        }
+    }
+
+    public enum Path {
+        ENCODED, CACHED
+    }
+}
@@ -0,0 +1,42 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.AppConfig.AccountStorage;
+import com.dlopatin.account.repository.AccountArrayDao;
+import com.dlopatin.account.repository.AccountDao;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+
+/**
+ * Creates storages benchmarks run against. A new implementation gets a new enum value here,
+ * so every benchmark with storage parameter covers it.
+ */
+public final class Storages {
+
+    private Storages() {
+    }
+
+    static AccountDao accountDao(AccountStorage storage) {
+        switch (storage) {
+            case MAP:
+                return new AccountInMemoryDao();
+            case ARRAY:
+                return new AccountArrayDao();
+            default:
+                throw new IllegalStateException("Unknown account storage: " + storage);
+        }
+    }
+
+    static TransactionDao transactionDao(TransactionStorage storage) {
+        switch (storage) {
+            case IN_MEMORY:
+                return new TransactionInMemoryDao();
+            default:
+                throw new IllegalStateException("Unknown transaction storage: " + storage);
+        }
+    }
+
+    public enum TransactionStorage {
+        IN_MEMORY
+    }
+}
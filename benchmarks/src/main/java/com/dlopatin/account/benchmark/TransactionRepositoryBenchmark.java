@@ -0,0 +1,73 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.benchmark.Storages.TransactionStorage;
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.model.TransactionType;
+import com.dlopatin.account.repository.TransactionDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of transaction operations for every storage, half of lookups miss. All transactions belong
+ * to one account, so pages are read at random positions of a long history.
+ * Stored transactions grow with every insert, so storage is created anew for every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TransactionRepositoryBenchmark {
+
+    private static final int OPERATIONS = 100_000;
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"IN_MEMORY"})
+    private TransactionStorage transactions;
+
+    private final AtomicInteger operationIds = new AtomicInteger();
+    private TransactionDao transactionDao;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        transactionDao = Storages.transactionDao(transactions);
+        for (int operationId = 1; operationId <= OPERATIONS; operationId++) {
+            transactionDao.insert(new Transaction(operationId, 1, TransactionType.DEBIT, 1, 0));
+        }
+        operationIds.set(OPERATIONS);
+    }
+
+    @Benchmark
+    public void insert() {
+        transactionDao.insert(new Transaction(operationIds.incrementAndGet(), 1, TransactionType.CREDIT, 1, 0));
+    }
+
+    @Benchmark
+    public int countByAccount() {
+        // the second account has no transactions
+        return transactionDao.countByAccount(ThreadLocalRandom.current().nextInt(2) + 1);
+    }
+
+    @Benchmark
+    public List<Transaction> listByAccount() {
+        return transactionDao.listByAccount(1, ThreadLocalRandom.current().nextInt(OPERATIONS), PAGE_SIZE);
+    }
+}
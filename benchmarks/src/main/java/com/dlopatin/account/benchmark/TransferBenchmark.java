@@ -0,0 +1,111 @@
+package com.dlopatin.account.benchmark;
+
+import com.dlopatin.account.AppConfig.AccountServiceMode;
+import com.dlopatin.account.AppConfig.AccountStorage;
+import com.dlopatin.account.benchmark.Storages.TransactionStorage;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountDao;
+import com.dlopatin.account.repository.TransactionDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import com.dlopatin.account.service.PartitionedAccountService;
+import com.dlopatin.account.service.TransferException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput and latency distribution of transfers executed under account locks and by partitions,
+ * for every storage and access pattern. Skewed patterns make transfers contend for the same accounts.
+ * <p>
+ * Stored transactions grow with every transfer, so service is created anew for every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(16)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TransferBenchmark {
+
+    private static final int ACCOUNTS = 100_000;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    @Param({"LOCKING", "PARTITIONED"})
+    private AccountServiceMode service;
+
+    @Param({"MAP", "ARRAY"})
+    private AccountStorage storage;
+
+    @Param({"IN_MEMORY"})
+    private TransactionStorage transactions;
+
+    @Param({"UNIFORM", "ZIPF", "HOT"})
+    private AccessPattern pattern;
+
+    private final AtomicInteger operationIds = new AtomicInteger();
+    private AccessPattern.Sampler sampler;
+    private AccountServiceImpl accountService;
+
+    @Setup(Level.Trial)
+    public void setUpSampler() {
+        sampler = pattern.sampler(ACCOUNTS);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        AccountDao accountDao = Storages.accountDao(storage);
+        TransactionDao transactionDao = Storages.transactionDao(transactions);
+        switch (service) {
+            case LOCKING:
+                accountService = new AccountServiceImpl(accountDao, transactionDao, new IdempotencyIndex(),
+                        NoJournal.INSTANCE);
+                break;
+            case PARTITIONED:
+                accountService = new PartitionedAccountService(accountDao, transactionDao, new IdempotencyIndex(),
+                        NoJournal.INSTANCE, Runtime.getRuntime().availableProcessors(),
+                        PartitionedAccountService.DEFAULT_RING_CAPACITY);
+                break;
+            default:
+                throw new IllegalStateException("Unknown account service: " + service);
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountService.create(Currency.USD, INITIAL_BALANCE);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        if (accountService instanceof PartitionedAccountService) {
+            ((PartitionedAccountService) accountService).close();
+        }
+    }
+
+    @Benchmark
+    public void transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            accountService.transfer(sampler.nextFrom(random), sampler.nextTo(random), 1,
+                    operationIds.incrementAndGet());
+        } catch (TransferException e) {
+            // balance is large enough, but keeps benchmark running if it's not
+        }
+    }
+}
@@ -1,30 +1,262 @@
 package com.dlopatin.account;
 
+import com.dlopatin.account.binary.BinaryServer;
+import com.dlopatin.account.cluster.ClusterAccountService;
+import com.dlopatin.account.cluster.ClusterNode;
+import com.dlopatin.account.cluster.ConsistentHashRing;
 import com.dlopatin.account.controller.AccountController;
+import com.dlopatin.account.controller.AdminController;
 import com.dlopatin.account.controller.ErrorController;
-import com.dlopatin.account.controller.SparkController;
+import com.dlopatin.account.controller.ExportController;
+import com.dlopatin.account.controller.HttpController;
+import com.dlopatin.account.controller.MetricsController;
+import com.dlopatin.account.http.HttpServer;
+import com.dlopatin.account.http.NioHttpServer;
+import com.dlopatin.account.http.SparkHttpServer;
+import com.dlopatin.account.journal.Journal;
+import com.dlopatin.account.journal.MappedJournal;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.journal.SnapshotStore;
+import com.dlopatin.account.metrics.ContentionProfiler;
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.replication.ReplicaAccountService;
+import com.dlopatin.account.replication.ReplicationLog;
+import com.dlopatin.account.replication.ReplicationServer;
+import com.dlopatin.account.repository.AccountArrayDao;
+import com.dlopatin.account.repository.AccountDao;
 import com.dlopatin.account.repository.AccountInMemoryDao;
 import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountService;
 import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.CoalescingAccountService;
+import com.dlopatin.account.service.IdempotencyIndex;
+import com.dlopatin.account.service.PartitionedAccountService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
 
 public class App {
 
+    /**
+     * Header of follower responses, see {@link ReplicaAccountService#getLagMillis()}
+     */
+    public static final String REPLICATION_LAG_HEADER = "X-Replication-Lag-Millis";
+
+    private static final Logger log = LoggerFactory.getLogger(App.class);
+
     public static void main(String[] args) {
+        start(AppConfig.fromSystemProperties());
+    }
+
+    /**
+     * Recovers state and starts serving requests.
+     *
+     * @return port the server listens to, chosen by system if configured port is zero
+     */
+    public static int start(AppConfig config) {
         ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        Optional<InetSocketAddress> leader = config.getReplicationLeader();
+        if (leader.isPresent()) {
+            return startFollower(config, leader.get(), objectMapper);
+        }
 
-        List<SparkController> controllers = List.of(
-                new AccountController(new AccountServiceImpl(
-                        new AccountInMemoryDao(),
-                        new TransactionInMemoryDao()),
-                        objectMapper),
+        Journal journal = createJournal(config);
+        Optional<ReplicationLog> replicationLog = config.getReplicationPort() >= 0
+                ? Optional.of(new ReplicationLog(journal, config.getReplicationBufferRecords()))
+                : Optional.empty();
+        if (replicationLog.isPresent()) {
+            journal = replicationLog.get();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "journal-shutdown"));
+        ContentionProfiler contentionProfiler = config.getContentionSampleRate() > 0
+                ? new ContentionProfiler(config.getContentionSampleRate(), config.getContentionTopSize())
+                : ContentionProfiler.DISABLED;
+        List<ClusterNode> clusterNodes = config.getClusterNodes();
+        Optional<ConsistentHashRing> ring = clusterNodes.isEmpty()
+                ? Optional.empty()
+                : Optional.of(new ConsistentHashRing(clusterNodes.size(), config.getClusterVirtualNodes()));
+        int nodeIndex = config.getClusterNodeIndex();
+        IntPredicate ownedIds = ring.<IntPredicate>map(hashRing -> id -> hashRing.owner(id) == nodeIndex)
+                .orElse(AccountServiceImpl.ALL_IDS);
+        AccountServiceImpl accountService = createAccountService(config, journal, contentionProfiler, ownedIds);
+        Optional<SnapshotStore> snapshotStore = config.getJournalDir()
+                .flatMap(journalDir -> config.getSnapshotDir())
+                .map(SnapshotStore::new);
+        if (snapshotStore.isPresent()) {
+            accountService.recover(snapshotStore.get());
+            scheduleSnapshots(accountService, snapshotStore.get(), config.getSnapshotIntervalSeconds());
+        } else {
+            accountService.recover();
+        }
+
+        for (int id : config.getHotAccounts()) {
+            if (!accountService.makeHot(id, config.getHotAccountStripes())) {
+                log.warn("Hot account {} not found", id);
+            }
+        }
+
+        Metrics metrics = new Metrics();
+        metrics.gauge("accounts", "Number of accounts", accountService::getAccountCount);
+        metrics.gauge("idempotency_operations", "Number of transfer operations remembered to replay repeats",
+                accountService::getRememberedOperationCount);
+        metrics.gauge("watched_accounts", "Number of accounts readers wait for change of",
+                accountService::getWatchedAccountCount);
+        metrics.gauge("recovery_time_milliseconds", "Time spent by recovery on startup",
+                accountService::getRecoveryTimeMillis);
+        AccountService requestService = accountService;
+        if (config.getTransferCoalescingDelayMicros() >= 0) {
+            // coalesces transfers of local accounts only, so a slow node never holds up a batch
+            requestService = new CoalescingAccountService(accountService, config.getTransferCoalescingDelayMicros(),
+                    config.getTransferCoalescingBatchSize(), metrics::recordCoalescedBatch);
+        }
+        if (ring.isPresent()) {
+            requestService = new ClusterAccountService(accountService, requestService, clusterNodes, nodeIndex,
+                    ring.get());
+        }
+        HttpServer server = createServer(config);
+        List<HttpController> controllers = List.of(
+                new MetricsController(metrics, objectMapper),
+                new AccountController(requestService, objectMapper, metrics, config.getServerMaxWaiters()),
+                new ExportController(requestService, objectMapper, metrics),
+                new AdminController(accountService, contentionProfiler, objectMapper, metrics,
+                        config.getHotAccountStripes()),
                 new ErrorController(objectMapper));
-        controllers.forEach(SparkController::init);
+        controllers.forEach(controller -> controller.init(server));
+        int port = server.start();
+        if (config.getBinaryPort() >= 0) {
+            // shares thread settings, but not threads, with HTTP server
+            int binaryPort = new BinaryServer(config.getBinaryPort(), requestService,
+                    ring.isPresent() ? accountService : null, metrics, ServerThreadPools.create(config)).start();
+            log.info("Binary protocol served on port {}", binaryPort);
+        }
+        if (replicationLog.isPresent()) {
+            ReplicationServer replicationServer = new ReplicationServer(config.getReplicationPort(),
+                    replicationLog.get(), accountService);
+            metrics.gauge("replication_followers", "Number of connected followers",
+                    replicationServer::getFollowerCount);
+            log.info("Replication served on port {}", replicationServer.start());
+        }
+        log.info("Started {} server on port {} with {} threads in {} ms, recovery took {} ms",
+                config.getServerEngine(), port, config.getServerThreads(),
+                ManagementFactory.getRuntimeMXBean().getUptime(), accountService.getRecoveryTimeMillis());
+        if (ring.isPresent()) {
+            log.info("Node {} of cluster of {} nodes", nodeIndex, clusterNodes.size());
+        }
+        return port;
+    }
+
+    /**
+     * Starts read-only follower, state is copied from leader and kept in memory only.
+     *
+     * @return port the server listens to
+     */
+    private static int startFollower(AppConfig config, InetSocketAddress leader, ObjectMapper objectMapper) {
+        if (!config.getClusterNodes().isEmpty()) {
+            throw new IllegalArgumentException("Follower can not be a part of cluster");
+        }
+        ReplicaAccountService replica = new ReplicaAccountService(leader.getHostString(), leader.getPort(),
+                () -> new AccountServiceImpl(createAccountDao(config), new TransactionInMemoryDao()),
+                config.getReplicationReadTimeoutMillis());
+        replica.start();
+        Metrics metrics = new Metrics();
+        metrics.gauge("replication_lag_milliseconds", "Time since leader state the follower has caught up with",
+                replica::getLagMillis);
+        HttpServer server = createServer(config);
+        server.before((request, response) -> response.header(REPLICATION_LAG_HEADER,
+                String.valueOf(replica.getLagMillis())));
+        List.of(new MetricsController(metrics, objectMapper),
+                new AccountController(replica, objectMapper, metrics, config.getServerMaxWaiters()),
+                new ErrorController(objectMapper))
+                .forEach(controller -> controller.init(server));
+        int port = server.start();
+        log.info("Started {} server on port {} as follower of {}:{} in {} ms", config.getServerEngine(), port,
+                leader.getHostString(), leader.getPort(), ManagementFactory.getRuntimeMXBean().getUptime());
+        return port;
     }
 
+    private static HttpServer createServer(AppConfig config) {
+        switch (config.getServerEngine()) {
+            case SPARK:
+                return new SparkHttpServer(config.getServerPort(), ServerThreadPools.create(config));
+            case NIO:
+                return new NioHttpServer(config.getServerPort(), ServerThreadPools.create(config));
+            default:
+                throw new IllegalStateException("Unknown server engine: " + config.getServerEngine());
+        }
+    }
+
+    /**
+     * @param ownedIds ids of accounts created by this node
+     */
+    private static AccountServiceImpl createAccountService(AppConfig config, Journal journal,
+                                                           ContentionProfiler contentionProfiler,
+                                                           IntPredicate ownedIds) {
+        AccountDao accountDao = createAccountDao(config);
+        TransactionInMemoryDao transactionDao = new TransactionInMemoryDao();
+        IdempotencyIndex idempotencyIndex = new IdempotencyIndex(
+                config.getIdempotencyRetentionCount(),
+                config.getIdempotencyRetentionMillis());
+        switch (config.getAccountService()) {
+            case LOCKING:
+                return new AccountServiceImpl(accountDao, transactionDao, idempotencyIndex, journal,
+                        contentionProfiler, ownedIds);
+            case PARTITIONED:
+                if (ownedIds != AccountServiceImpl.ALL_IDS) {
+                    // credits from other nodes would change accounts owned by partition threads
+                    throw new IllegalArgumentException("Cluster requires locking account service");
+                }
+                return new PartitionedAccountService(accountDao, transactionDao, idempotencyIndex, journal,
+                        config.getPartitionCount(), config.getPartitionRingCapacity());
+            default:
+                throw new IllegalStateException("Unknown account service: " + config.getAccountService());
+        }
+    }
+
+    private static AccountDao createAccountDao(AppConfig config) {
+        switch (config.getAccountStorage()) {
+            case MAP:
+                return new AccountInMemoryDao();
+            case ARRAY:
+                return new AccountArrayDao();
+            default:
+                throw new IllegalStateException("Unknown account storage: " + config.getAccountStorage());
+        }
+    }
+
+    private static void scheduleSnapshots(AccountServiceImpl accountService, SnapshotStore snapshotStore,
+                                          long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                accountService.snapshot(snapshotStore);
+            } catch (RuntimeException e) {
+                log.error("Snapshot failed", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
 
+    private static Journal createJournal(AppConfig config) {
+        return config.getJournalDir()
+                .<Journal>map(dir -> new MappedJournal(dir, config.getJournalDurability(),
+                        config.getJournalSegmentSize()))
+                .orElse(NoJournal.INSTANCE);
+    }
 }
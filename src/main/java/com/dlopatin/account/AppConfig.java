@@ -0,0 +1,436 @@
+package com.dlopatin.account;
+
+import com.dlopatin.account.cluster.ClusterNode;
+import com.dlopatin.account.cluster.ConsistentHashRing;
+import com.dlopatin.account.journal.DurabilityMode;
+import com.dlopatin.account.journal.MappedJournal;
+import com.dlopatin.account.metrics.ContentionProfiler;
+import com.dlopatin.account.replication.ReplicationLog;
+import com.dlopatin.account.service.CoalescingAccountService;
+import com.dlopatin.account.service.IdempotencyIndex;
+import com.dlopatin.account.service.PartitionedAccountService;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application settings. Taken from system properties, e.g. <code>-Daccount.storage=array</code>.
+ */
+public class AppConfig {
+
+    static final String SERVER_PORT = "server.port";
+    static final String SERVER_ENGINE = "server.engine";
+    static final String SERVER_THREADS = "server.threads";
+    static final String SERVER_MAX_THREADS = "server.max.threads";
+    static final String SERVER_MIN_THREADS = "server.min.threads";
+    static final String SERVER_QUEUE_SIZE = "server.queue.size";
+    static final String SERVER_IDLE_TIMEOUT_MILLIS = "server.idle.timeout.millis";
+    static final String SERVER_MAX_WAITERS = "server.max.waiters";
+    static final String BINARY_PORT = "binary.port";
+    static final String CLUSTER_NODES = "cluster.nodes";
+    static final String CLUSTER_NODE = "cluster.node";
+    static final String CLUSTER_VIRTUAL_NODES = "cluster.virtual.nodes";
+    static final String REPLICATION_PORT = "replication.port";
+    static final String REPLICATION_LEADER = "replication.leader";
+    static final String REPLICATION_BUFFER_RECORDS = "replication.buffer.records";
+    static final String REPLICATION_READ_TIMEOUT_MILLIS = "replication.read.timeout.millis";
+    static final String ACCOUNT_STORAGE = "account.storage";
+    static final String ACCOUNT_SERVICE = "account.service";
+    static final String PARTITION_COUNT = "partition.count";
+    static final String PARTITION_RING_CAPACITY = "partition.ring.capacity";
+    static final String TRANSFER_COALESCING_DELAY_MICROS = "transfer.coalescing.delay.micros";
+    static final String TRANSFER_COALESCING_BATCH_SIZE = "transfer.coalescing.batch.size";
+    static final String HOT_ACCOUNTS = "hot.accounts";
+    static final String HOT_ACCOUNT_STRIPES = "hot.account.stripes";
+    static final String CONTENTION_SAMPLE_RATE = "contention.sample.rate";
+    static final String CONTENTION_TOP_SIZE = "contention.top.size";
+    static final String IDEMPOTENCY_RETENTION_COUNT = "idempotency.retention.count";
+    static final String IDEMPOTENCY_RETENTION_SECONDS = "idempotency.retention.seconds";
+    static final String JOURNAL_DIR = "journal.dir";
+    static final String JOURNAL_DURABILITY = "journal.durability";
+    static final String JOURNAL_SEGMENT_SIZE = "journal.segment.size";
+    static final String SNAPSHOT_DIR = "snapshot.dir";
+    static final String SNAPSHOT_INTERVAL_SECONDS = "snapshot.interval.seconds";
+
+    private static final int DEFAULT_SERVER_PORT = 4567;
+    // Jetty defaults
+    private static final int DEFAULT_SERVER_MAX_THREADS = 200;
+    private static final int DEFAULT_SERVER_MIN_THREADS = 8;
+    private static final int DEFAULT_SERVER_IDLE_TIMEOUT_MILLIS = 60_000;
+    private static final int DEFAULT_VIRTUAL_SERVER_MAX_WAITERS = 10_000;
+    private static final long DEFAULT_REPLICATION_READ_TIMEOUT_MILLIS = 1000;
+
+    private final Properties properties;
+
+    public AppConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static AppConfig fromSystemProperties() {
+        return new AppConfig(System.getProperties());
+    }
+
+    /**
+     * @return HTTP port, Spark default 4567 if not set, zero to let system choose a free port.
+     * Port of this node if cluster is set
+     */
+    public int getServerPort() {
+        return getClusterNode().map(ClusterNode::getHttpPort)
+                .orElseGet(() -> (int) getLong(SERVER_PORT, DEFAULT_SERVER_PORT));
+    }
+
+    public ServerEngine getServerEngine() {
+        return getEnum(SERVER_ENGINE, ServerEngine.class, ServerEngine.SPARK);
+    }
+
+    public ServerThreads getServerThreads() {
+        return getEnum(SERVER_THREADS, ServerThreads.class, ServerThreads.POOLED);
+    }
+
+    /**
+     * @return max number of threads of pooled server
+     */
+    public int getServerMaxThreads() {
+        return (int) getLong(SERVER_MAX_THREADS, DEFAULT_SERVER_MAX_THREADS);
+    }
+
+    /**
+     * @return number of threads pooled server keeps while idle
+     */
+    public int getServerMinThreads() {
+        return (int) getLong(SERVER_MIN_THREADS, DEFAULT_SERVER_MIN_THREADS);
+    }
+
+    /**
+     * @return max number of jobs waiting for a thread of pooled server, zero for unbounded queue.
+     * Connections are closed if queue is full
+     */
+    public int getServerQueueSize() {
+        return (int) getLong(SERVER_QUEUE_SIZE, 0);
+    }
+
+    /**
+     * @return time in milliseconds an idle thread above min number is kept by pooled server
+     */
+    public int getServerIdleTimeoutMillis() {
+        return (int) getLong(SERVER_IDLE_TIMEOUT_MILLIS, DEFAULT_SERVER_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @return max number of requests waiting for account change at once, half of max threads of pooled server
+     * by default, so waiting requests never take all threads
+     */
+    public int getServerMaxWaiters() {
+        return (int) getLong(SERVER_MAX_WAITERS, getServerThreads() == ServerThreads.VIRTUAL
+                ? DEFAULT_VIRTUAL_SERVER_MAX_WAITERS
+                : getServerMaxThreads() / 2);
+    }
+
+    /**
+     * @return port of binary protocol server, negative if binary protocol is disabled (default), zero to let
+     * system choose a free port. Port of this node if cluster is set
+     */
+    public int getBinaryPort() {
+        return getClusterNode().map(ClusterNode::getBinaryPort)
+                .orElseGet(() -> (int) getLong(BINARY_PORT, -1));
+    }
+
+    /**
+     * @return all nodes of cluster in order, the same on every node, empty if node is not a part of cluster
+     */
+    public List<ClusterNode> getClusterNodes() {
+        String value = properties.getProperty(CLUSTER_NODES);
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        List<ClusterNode> nodes = new ArrayList<>();
+        for (String node : value.split(",")) {
+            try {
+                nodes.add(ClusterNode.parse(node));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Unsupported %s value: %s", CLUSTER_NODES, value), e);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * @return index of this node in {@link #getClusterNodes()}, the first one by default
+     */
+    public int getClusterNodeIndex() {
+        int index = (int) getLong(CLUSTER_NODE, 0);
+        List<ClusterNode> nodes = getClusterNodes();
+        if (!nodes.isEmpty() && (index < 0 || index >= nodes.size())) {
+            throw new IllegalArgumentException(String.format("Unsupported %s value: %d", CLUSTER_NODE, index));
+        }
+        return index;
+    }
+
+    /**
+     * @return this node, if node is a part of cluster
+     */
+    public Optional<ClusterNode> getClusterNode() {
+        List<ClusterNode> nodes = getClusterNodes();
+        return nodes.isEmpty() ? Optional.empty() : Optional.of(nodes.get(getClusterNodeIndex()));
+    }
+
+    /**
+     * @return number of points every node takes on consistent hash ring
+     */
+    public int getClusterVirtualNodes() {
+        return (int) getLong(CLUSTER_VIRTUAL_NODES, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @return port followers connect to, negative if replication is disabled (default), zero to let system
+     * choose a free port
+     */
+    public int getReplicationPort() {
+        return (int) getLong(REPLICATION_PORT, -1);
+    }
+
+    /**
+     * @return replication address of leader as <code>host:port</code> if app is a read-only follower
+     */
+    public Optional<InetSocketAddress> getReplicationLeader() {
+        String value = properties.getProperty(REPLICATION_LEADER);
+        if (value == null || value.isBlank()) {
+            return Optional.empty();
+        }
+        int separator = value.lastIndexOf(':');
+        try {
+            return Optional.of(InetSocketAddress.createUnresolved(value.substring(0, separator).trim(),
+                    Integer.parseInt(value.substring(separator + 1).trim())));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unsupported %s value: %s", REPLICATION_LEADER, value),
+                    e);
+        }
+    }
+
+    /**
+     * @return number of the latest journal records leader keeps in memory, so follower reconnecting within
+     * them does not need the whole state copied
+     */
+    public int getReplicationBufferRecords() {
+        return (int) getLong(REPLICATION_BUFFER_RECORDS, ReplicationLog.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return max time follower waits for account version requested by read
+     */
+    public long getReplicationReadTimeoutMillis() {
+        return getLong(REPLICATION_READ_TIMEOUT_MILLIS, DEFAULT_REPLICATION_READ_TIMEOUT_MILLIS);
+    }
+
+    public AccountStorage getAccountStorage() {
+        return getEnum(ACCOUNT_STORAGE, AccountStorage.class, AccountStorage.MAP);
+    }
+
+    public AccountServiceMode getAccountService() {
+        return getEnum(ACCOUNT_SERVICE, AccountServiceMode.class, AccountServiceMode.LOCKING);
+    }
+
+    /**
+     * @return number of partitions of partitioned account service, number of processors by default
+     */
+    public int getPartitionCount() {
+        return (int) getLong(PARTITION_COUNT, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return max number of requests waiting in one partition of partitioned account service
+     */
+    public int getPartitionRingCapacity() {
+        return (int) getLong(PARTITION_RING_CAPACITY, PartitionedAccountService.DEFAULT_RING_CAPACITY);
+    }
+
+    /**
+     * @return max time in microseconds a transfer waits for others to be executed with as a batch,
+     * negative if transfers are not coalesced, which is default
+     */
+    public long getTransferCoalescingDelayMicros() {
+        return getLong(TRANSFER_COALESCING_DELAY_MICROS, -1);
+    }
+
+    /**
+     * @return max number of transfers coalesced into a batch
+     */
+    public int getTransferCoalescingBatchSize() {
+        return (int) getLong(TRANSFER_COALESCING_BATCH_SIZE, CoalescingAccountService.DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @return ids of accounts made hot on startup, see {@link com.dlopatin.account.model.Account#makeHot(int)}
+     */
+    public List<Integer> getHotAccounts() {
+        String value = properties.getProperty(HOT_ACCOUNTS);
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (String id : value.split(",")) {
+            try {
+                ids.add(Integer.parseInt(id.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Unsupported %s value: %s", HOT_ACCOUNTS, value), e);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return number of stripes credits of hot account are spread over, number of processors by default
+     */
+    public int getHotAccountStripes() {
+        return (int) getLong(HOT_ACCOUNT_STRIPES, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return one of how many account lock acquisitions is measured by contention profiler, zero disables it
+     */
+    public int getContentionSampleRate() {
+        return (int) getLong(CONTENTION_SAMPLE_RATE, ContentionProfiler.DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * @return max number of the most contended accounts tracked by contention profiler
+     */
+    public int getContentionTopSize() {
+        return (int) getLong(CONTENTION_TOP_SIZE, ContentionProfiler.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return min number of operations remembered to replay repeated transfers
+     */
+    public int getIdempotencyRetentionCount() {
+        return (int) getLong(IDEMPOTENCY_RETENTION_COUNT, IdempotencyIndex.DEFAULT_RETENTION_COUNT);
+    }
+
+    /**
+     * @return min time in milliseconds for operations to be remembered to replay repeated transfers
+     */
+    public long getIdempotencyRetentionMillis() {
+        return TimeUnit.SECONDS.toMillis(getLong(IDEMPOTENCY_RETENTION_SECONDS,
+                TimeUnit.MILLISECONDS.toSeconds(IdempotencyIndex.DEFAULT_RETENTION_MILLIS)));
+    }
+
+    /**
+     * @return directory of journal, if journal is enabled
+     */
+    public Optional<Path> getJournalDir() {
+        return Optional.ofNullable(properties.getProperty(JOURNAL_DIR))
+                .filter(value -> !value.isBlank())
+                .map(Paths::get);
+    }
+
+    public DurabilityMode getJournalDurability() {
+        return getEnum(JOURNAL_DURABILITY, DurabilityMode.class, DurabilityMode.BATCHED);
+    }
+
+    /**
+     * @return size of journal segment file in bytes
+     */
+    public int getJournalSegmentSize() {
+        return (int) getLong(JOURNAL_SEGMENT_SIZE, MappedJournal.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @return directory of snapshots, journal subdirectory by default. Snapshots are used with journal only
+     */
+    public Optional<Path> getSnapshotDir() {
+        return Optional.ofNullable(properties.getProperty(SNAPSHOT_DIR))
+                .filter(value -> !value.isBlank())
+                .map(Paths::get)
+                .or(() -> getJournalDir().map(dir -> dir.resolve("snapshots")));
+    }
+
+    /**
+     * @return interval between snapshots in seconds, zero disables periodic snapshots
+     */
+    public long getSnapshotIntervalSeconds() {
+        return getLong(SNAPSHOT_INTERVAL_SECONDS, 300);
+    }
+
+    private long getLong(String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Unsupported %s value: %s", name, value), e);
+        }
+    }
+
+    private <E extends Enum<E>> E getEnum(String name, Class<E> type, E defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unsupported %s value: %s", name, value), e);
+        }
+    }
+
+    public enum ServerEngine {
+
+        /**
+         * Requests are served by Spark on Jetty servlet container
+         */
+        SPARK,
+
+        /**
+         * Requests are read by single NIO event loop and handled by server threads without servlet layers
+         */
+        NIO
+    }
+
+    public enum ServerThreads {
+
+        /**
+         * Requests are handled by bounded pool of platform threads
+         */
+        POOLED,
+
+        /**
+         * Every request is handled by its own virtual thread, requires JDK 21 or later
+         */
+        VIRTUAL
+    }
+
+    public enum AccountStorage {
+
+        /**
+         * Accounts are stored as entities in concurrent hash map
+         */
+        MAP,
+
+        /**
+         * Accounts are stored in primitive arrays indexed by account id
+         */
+        ARRAY
+    }
+
+    public enum AccountServiceMode {
+
+        /**
+         * Transfers are executed by request threads holding locks of both accounts
+         */
+        LOCKING,
+
+        /**
+         * Transfers are executed by single threaded partitions owning accounts
+         */
+        PARTITIONED
+    }
+}
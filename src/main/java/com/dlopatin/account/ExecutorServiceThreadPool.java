@@ -0,0 +1,54 @@
+package com.dlopatin.account;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server thread pool running jobs in given executor, e.g. a thread per job. Threads are neither counted
+ * nor kept idle, so the pool never reports itself low on threads. Executor is shut down when the pool stops
+ * and can't be restarted.
+ */
+class ExecutorServiceThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private final ExecutorService executor;
+
+    ExecutorServiceThreadPool(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        executor.execute(job);
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int getThreads() {
+        return 0;
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        executor.shutdown();
+        if (!executor.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.dlopatin.account;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates thread pool of server. Jetty runs both connection selectors and request handlers in it, NIO engine
+ * runs request handlers only.
+ */
+final class ServerThreadPools {
+
+    private ServerThreadPools() {
+    }
+
+    static ThreadPool create(AppConfig config) {
+        switch (config.getServerThreads()) {
+            case POOLED:
+                return pooled(config.getServerMaxThreads(), config.getServerMinThreads(),
+                        config.getServerQueueSize(), config.getServerIdleTimeoutMillis());
+            case VIRTUAL:
+                return virtual();
+            default:
+                throw new IllegalStateException("Unknown server threads: " + config.getServerThreads());
+        }
+    }
+
+    /**
+     * @param queueSize max number of jobs waiting for a thread, zero for unbounded queue
+     */
+    static QueuedThreadPool pooled(int maxThreads, int minThreads, int queueSize, int idleTimeoutMillis) {
+        if (maxThreads <= 0 || minThreads < 0 || minThreads > maxThreads || queueSize < 0 || idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Unsupported server threads: max %d, min %d, queue %d, idle timeout %d ms",
+                    maxThreads, minThreads, queueSize, idleTimeoutMillis));
+        }
+        // Jetty creates growing unbounded queue if none is given
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : null;
+        QueuedThreadPool pool = new QueuedThreadPool(maxThreads, minThreads, idleTimeoutMillis, queue);
+        pool.setName("server");
+        return pool;
+    }
+
+    /**
+     * Looks the executor up reflectively, as the app is built for JDK 11.
+     *
+     * @throws IllegalStateException if JDK does not support virtual threads
+     */
+    static ExecutorServiceThreadPool virtual() {
+        ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Virtual threads require JDK 21 or later, running on "
+                    + Runtime.version(), e);
+        } catch (InvocationTargetException e) {
+            // preview API of JDK 19 and 20 is not enabled
+            throw new IllegalStateException("Virtual threads are not available: " + e.getCause().getMessage(),
+                    e.getCause());
+        }
+        return new ExecutorServiceThreadPool(executor);
+    }
+}
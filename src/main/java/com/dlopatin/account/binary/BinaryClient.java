@@ -0,0 +1,318 @@
+package com.dlopatin.account.binary;
+
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.service.TransferException;
+import com.dlopatin.account.service.TransferException.TransferError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.dlopatin.account.binary.BinaryProtocol.*;
+
+/**
+ * Client of {@link BinaryServer}, safe to share by threads. Requests are pipelined over a single connection:
+ * every call returns at once with future completed by response. Frames put by concurrent callers while
+ * a write is in progress are sent together by the next write, so busy client makes few large writes.
+ * <p>
+ * Futures are completed by reader thread, so actions attached to them must not block. Failed operations
+ * complete with the same exceptions as of account service: {@link TransferException} if transfer is rejected,
+ * {@link IllegalArgumentException} if request is invalid, {@link IllegalStateException} if server failed,
+ * {@link IOException} if connection is lost.
+ */
+public class BinaryClient implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryClient.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final Map<Integer, Request<?>> requests = new ConcurrentHashMap<>();
+    private final Thread reader;
+    // frames waiting for write, swapped with buffer being written
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean flushing;
+    private volatile IOException failure;
+
+    private BinaryClient(SocketChannel channel) {
+        this.channel = channel;
+        this.reader = new Thread(this::read, "binary-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public static BinaryClient connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return new BinaryClient(channel);
+    }
+
+    /**
+     * @see com.dlopatin.account.service.AccountService#transfer(int, int, long, int)
+     */
+    public CompletableFuture<Void> transfer(int from, int to, long amount, int operationId) {
+        Request<Void> result = new Request<>(fields -> null, null);
+        int requestId = register(result);
+        synchronized (this) {
+            reserve().putInt(TRANSFER_REQUEST_LENGTH).put(TRANSFER).putInt(requestId)
+                    .putInt(from).putInt(to).putLong(amount).putInt(operationId);
+        }
+        flush();
+        return result;
+    }
+
+    /**
+     * @return future of account, empty if account is not found
+     */
+    public CompletableFuture<Optional<Account>> get(int id) {
+        Request<Optional<Account>> result = new Request<>(fields -> Optional.of(
+                new Account(fields.getInt(), currency(fields.get()), fields.getLong())), Optional.empty());
+        int requestId = register(result);
+        synchronized (this) {
+            reserve().putInt(GET_REQUEST_LENGTH).put(GET).putInt(requestId)
+                    .putInt(id);
+        }
+        flush();
+        return result;
+    }
+
+    /**
+     * @return future of created account
+     */
+    public CompletableFuture<Account> create(Currency currency, long balance) {
+        Request<Account> result = new Request<>(fields -> new Account(fields.getInt(), currency, balance), null);
+        int requestId = register(result);
+        synchronized (this) {
+            reserve().putInt(CREATE_REQUEST_LENGTH).put(CREATE).putInt(requestId)
+                    .put(currencyCode(currency)).putLong(balance);
+        }
+        flush();
+        return result;
+    }
+
+    /**
+     * @return future completed when credit is prepared, failed with {@link TransferException} if it's refused
+     * @see com.dlopatin.account.service.CreditParticipant#prepare(int, int, int, Currency, long)
+     */
+    public CompletableFuture<Void> prepare(int operationId, int from, int to, Currency currency, long amount) {
+        Request<Void> result = new Request<>(fields -> null, null);
+        int requestId = register(result);
+        synchronized (this) {
+            reserve().putInt(PREPARE_REQUEST_LENGTH).put(PREPARE).putInt(requestId)
+                    .putInt(operationId).putInt(from).putInt(to).put(currencyCode(currency)).putLong(amount);
+        }
+        flush();
+        return result;
+    }
+
+    /**
+     * @see com.dlopatin.account.service.CreditParticipant#commit(int, int, int, long)
+     */
+    public CompletableFuture<Void> commit(int operationId, int from, int to, long amount) {
+        Request<Void> result = new Request<>(fields -> null, null);
+        int requestId = register(result);
+        synchronized (this) {
+            reserve().putInt(COMMIT_REQUEST_LENGTH).put(COMMIT).putInt(requestId)
+                    .putInt(operationId).putInt(from).putInt(to).putLong(amount);
+        }
+        flush();
+        return result;
+    }
+
+    /**
+     * @see com.dlopatin.account.service.CreditParticipant#abort(int)
+     */
+    public CompletableFuture<Void> abort(int operationId) {
+        Request<Void> result = new Request<>(fields -> null, null);
+        int requestId = register(result);
+        synchronized (this) {
+            reserve().putInt(ABORT_REQUEST_LENGTH).put(ABORT).putInt(requestId)
+                    .putInt(operationId);
+        }
+        flush();
+        return result;
+    }
+
+    /**
+     * @return <code>false</code> if connection is closed or lost, then every request fails
+     */
+    public boolean isOpen() {
+        return failure == null && channel.isOpen();
+    }
+
+    /**
+     * Closes connection, requests not responded yet fail.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int register(Request<?> result) {
+        int requestId = requestIds.incrementAndGet();
+        requests.put(requestId, result);
+        if (failure != null) {
+            // reader has failed pending requests already
+            requests.remove(requestId);
+            result.completeExceptionally(failure);
+        }
+        return requestId;
+    }
+
+    /**
+     * @return buffer with room for a frame, frame put into it is sent by the next flush
+     */
+    private ByteBuffer reserve() {
+        while (pending.remaining() < MAX_FRAME_SIZE && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // frame is put anyway, the request fails with connection
+        return pending.remaining() >= MAX_FRAME_SIZE ? pending : ByteBuffer.allocate(MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Writes pending frames unless another thread is writing already, that thread writes them next.
+     */
+    private void flush() {
+        synchronized (this) {
+            if (flushing) {
+                return;
+            }
+            flushing = true;
+        }
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (pending.position() == 0 || failure != null) {
+                        flushing = false;
+                        return;
+                    }
+                    ByteBuffer frames = pending;
+                    pending = writing;
+                    writing = frames;
+                    notifyAll();
+                }
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                writing.clear();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                flushing = false;
+            }
+            fail(e);
+        }
+    }
+
+    private void read() {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            while (true) {
+                if (channel.read(in) < 0) {
+                    throw new EOFException("Connection closed by server");
+                }
+                in.flip();
+                while (in.remaining() >= LENGTH_SIZE
+                        && in.remaining() >= LENGTH_SIZE + in.getInt(in.position())) {
+                    int length = in.getInt();
+                    int end = in.position() + length;
+                    complete(in);
+                    in.position(end);
+                }
+                in.compact();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void complete(ByteBuffer response) {
+        byte status = response.get();
+        int requestId = response.getInt();
+        Request<?> result = requests.remove(requestId);
+        if (result == null) {
+            log.warn("Response to unknown request {}", requestId);
+            return;
+        }
+        TransferError transferError = transferError(status);
+        if (status == OK) {
+            result.complete(response);
+        } else if (status == NOT_FOUND) {
+            result.completeNotFound();
+        } else if (transferError != null) {
+            result.completeExceptionally(new TransferException(transferError));
+        } else if (status == BAD_REQUEST) {
+            result.completeExceptionally(new IllegalArgumentException("Request rejected by server"));
+        } else {
+            result.completeExceptionally(new IllegalStateException("Request failed by server, status " + status));
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+            notifyAll();
+        }
+        try {
+            channel.close();
+        } catch (IOException closeError) {
+            e.addSuppressed(closeError);
+        }
+        for (Integer requestId : requests.keySet()) {
+            Request<?> result = requests.remove(requestId);
+            if (result != null) {
+                result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Future of request decoding result from response fields.
+     */
+    private static final class Request<T> extends CompletableFuture<T> {
+
+        private final Function<ByteBuffer, T> decoder;
+        private final T notFound;
+
+        /**
+         * @param decoder  reads result from fields of successful response
+         * @param notFound result if account is not found
+         */
+        private Request(Function<ByteBuffer, T> decoder, T notFound) {
+            this.decoder = decoder;
+            this.notFound = notFound;
+        }
+
+        private void complete(ByteBuffer fields) {
+            complete(decoder.apply(fields));
+        }
+
+        private void completeNotFound() {
+            complete(notFound);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.dlopatin.account.binary;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.dlopatin.account.binary.BinaryProtocol.HEADER_SIZE;
+import static com.dlopatin.account.binary.BinaryProtocol.LENGTH_SIZE;
+import static com.dlopatin.account.binary.BinaryProtocol.MAX_FRAME_LENGTH;
+import static com.dlopatin.account.binary.BinaryProtocol.MAX_FRAME_SIZE;
+
+/**
+ * Connection of {@link BinaryServer}. Owned by event loop while frames are being read and by a worker thread
+ * while they are handled, never by both: every frame read by the time worker takes connection is handled at once,
+ * and responses to all of them are sent by as few writes as fit the buffer.
+ */
+final class BinaryConnection {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryConnection.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long WRITE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final BinaryServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    // in write mode, holds frames not handled yet
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+    // hands buffers over between event loop and worker
+    private volatile boolean handling;
+    private Selector writeSelector;
+
+    BinaryConnection(BinaryServer server, SocketChannel channel, Selector selector) throws IOException {
+        this.server = server;
+        this.channel = channel;
+        this.key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Reads what has come, hands complete frames over to worker. Called by event loop.
+     */
+    void onReadable() {
+        if (handling) {
+            return;
+        }
+        try {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            if (in.position() < LENGTH_SIZE) {
+                return;
+            }
+            int length = in.getInt(0);
+            if (length < HEADER_SIZE || length > MAX_FRAME_LENGTH) {
+                log.debug("Connection closed on frame length {}", length);
+                close();
+                return;
+            }
+            if (in.position() >= LENGTH_SIZE + length) {
+                handling = true;
+                key.interestOps(0);
+                try {
+                    server.execute(this::handle);
+                } catch (RejectedExecutionException e) {
+                    log.debug("Connection closed as server is overloaded");
+                    close();
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Read failed: {}", e.toString());
+            close();
+        }
+    }
+
+    /**
+     * Handles every complete frame read, then gives connection back to event loop. Called by worker.
+     */
+    private void handle() {
+        try {
+            in.flip();
+            while (in.remaining() >= LENGTH_SIZE) {
+                int length = in.getInt(in.position());
+                if (length < HEADER_SIZE || length > MAX_FRAME_LENGTH) {
+                    log.debug("Connection closed on frame length {}", length);
+                    close();
+                    return;
+                }
+                if (in.remaining() < LENGTH_SIZE + length) {
+                    break;
+                }
+                if (out.remaining() < MAX_FRAME_SIZE) {
+                    flush();
+                }
+                in.position(in.position() + LENGTH_SIZE);
+                int end = in.position() + length;
+                server.handle(in, length, out);
+                in.position(end);
+            }
+            in.compact();
+            flush();
+            handling = false;
+            server.resume(key);
+        } catch (IOException e) {
+            log.debug("Write failed: {}", e.toString());
+            close();
+        } catch (RuntimeException e) {
+            log.error("Frame handling failed", e);
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            if (channel.write(out) == 0) {
+                awaitWritable();
+            }
+        }
+        out.clear();
+    }
+
+    private void awaitWritable() throws IOException {
+        if (writeSelector == null) {
+            // event loop does not watch connection meanwhile, so worker waits by own selector
+            writeSelector = Selector.open();
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+        }
+        if (writeSelector.select(WRITE_TIMEOUT_MILLIS) == 0) {
+            throw new IOException("Write timed out");
+        }
+        writeSelector.selectedKeys().clear();
+    }
+
+    void close() {
+        try {
+            channel.close();
+            if (writeSelector != null) {
+                writeSelector.close();
+            }
+        } catch (IOException e) {
+            log.debug("Close failed: {}", e.toString());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.dlopatin.account.binary;
+
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.service.TransferException.TransferError;
+
+/**
+ * Binary protocol of account operations, shared by {@link BinaryServer} and {@link BinaryClient}. Every frame
+ * starts with its length, not counting the length itself, followed by fixed-size fields of the operation,
+ * big-endian:
+ * <pre>
+ * request:  int length | byte operation | int request id | operation fields
+ *   TRANSFER           int from | int to | long amount | int operation id
+ *   GET                int account id
+ *   CREATE             byte currency | long balance
+ *   PREPARE            int operation id | int from | int to | byte currency | long amount
+ *   COMMIT             int operation id | int from | int to | long amount
+ *   ABORT              int operation id
+ * response: int length | byte status | int request id | result fields if status is OK
+ *   TRANSFER           -
+ *   GET                int account id | byte currency | long balance
+ *   CREATE             int account id
+ *   PREPARE, COMMIT,
+ *   ABORT              -
+ * </pre>
+ * Requests are pipelined: client sends the next request without waiting for response, responses are matched
+ * to requests by request id, which client chooses. Responses of the same connection come in order of requests.
+ * Frame of unknown operation or of wrong length is answered with {@link #BAD_REQUEST}, frame longer than
+ * {@link #MAX_FRAME_LENGTH} closes connection, as the stream can not be trusted any more.
+ * <p>
+ * PREPARE, COMMIT and ABORT are sent by nodes of cluster to each other, see
+ * {@link com.dlopatin.account.service.CreditParticipant}. Prepare refused is answered with transfer error status.
+ */
+public final class BinaryProtocol {
+
+    public static final byte TRANSFER = 1;
+    public static final byte GET = 2;
+    public static final byte CREATE = 3;
+    public static final byte PREPARE = 4;
+    public static final byte COMMIT = 5;
+    public static final byte ABORT = 6;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte INSUFFICIENT_BALANCE = 2;
+    public static final byte ACCOUNT_FROM_NOT_FOUND = 3;
+    public static final byte ACCOUNT_TO_NOT_FOUND = 4;
+    public static final byte DIFFERENT_ACCOUNT_CURRENCIES = 5;
+    public static final byte TRANSFER_ALREADY_PROCESSED = 6;
+    public static final byte BAD_REQUEST = 7;
+    public static final byte INTERNAL_ERROR = 8;
+
+    static final int LENGTH_SIZE = Integer.BYTES;
+    // operation or status and request id
+    static final int HEADER_SIZE = Byte.BYTES + Integer.BYTES;
+    static final int TRANSFER_REQUEST_LENGTH = HEADER_SIZE + 3 * Integer.BYTES + Long.BYTES;
+    static final int GET_REQUEST_LENGTH = HEADER_SIZE + Integer.BYTES;
+    static final int CREATE_REQUEST_LENGTH = HEADER_SIZE + Byte.BYTES + Long.BYTES;
+    static final int PREPARE_REQUEST_LENGTH = HEADER_SIZE + 3 * Integer.BYTES + Byte.BYTES + Long.BYTES;
+    static final int COMMIT_REQUEST_LENGTH = HEADER_SIZE + 3 * Integer.BYTES + Long.BYTES;
+    static final int ABORT_REQUEST_LENGTH = HEADER_SIZE + Integer.BYTES;
+    static final int ACCOUNT_RESPONSE_LENGTH = HEADER_SIZE + Integer.BYTES + Byte.BYTES + Long.BYTES;
+    static final int CREATED_RESPONSE_LENGTH = HEADER_SIZE + Integer.BYTES;
+    static final int MAX_FRAME_LENGTH = 64;
+    static final int MAX_FRAME_SIZE = LENGTH_SIZE + MAX_FRAME_LENGTH;
+
+    // codes are positions, so the wire format does not depend on declaration order of enums
+    private static final Currency[] CURRENCIES = {Currency.RUB, Currency.USD, Currency.EUR, Currency.GBP};
+    private static final TransferError[] TRANSFER_ERRORS = new TransferError[TRANSFER_ALREADY_PROCESSED + 1];
+
+    static {
+        TRANSFER_ERRORS[INSUFFICIENT_BALANCE] = TransferError.INSUFFICIENT_BALANCE;
+        TRANSFER_ERRORS[ACCOUNT_FROM_NOT_FOUND] = TransferError.ACCOUNT_FROM_NOT_FOUND;
+        TRANSFER_ERRORS[ACCOUNT_TO_NOT_FOUND] = TransferError.ACCOUNT_TO_NOT_FOUND;
+        TRANSFER_ERRORS[DIFFERENT_ACCOUNT_CURRENCIES] = TransferError.DIFFERENT_ACCOUNT_CURRENCIES;
+        TRANSFER_ERRORS[TRANSFER_ALREADY_PROCESSED] = TransferError.TRANSFER_ALREADY_PROCESSED;
+    }
+
+    private BinaryProtocol() {
+    }
+
+    static byte currencyCode(Currency currency) {
+        for (byte i = 0; i < CURRENCIES.length; i++) {
+            if (CURRENCIES[i] == currency) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Currency not supported: " + currency);
+    }
+
+    /**
+     * @return currency or <code>null</code> if code is unknown
+     */
+    static Currency currency(byte code) {
+        return code >= 0 && code < CURRENCIES.length ? CURRENCIES[code] : null;
+    }
+
+    static byte status(TransferError error) {
+        for (byte i = 0; i < TRANSFER_ERRORS.length; i++) {
+            if (TRANSFER_ERRORS[i] == error) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Transfer error not supported: " + error);
+    }
+
+    /**
+     * @return transfer error or <code>null</code> if status is not a transfer error
+     */
+    static TransferError transferError(byte status) {
+        return status >= 0 && status < TRANSFER_ERRORS.length ? TRANSFER_ERRORS[status] : null;
+    }
+}
@@ -0,0 +1,305 @@
+package com.dlopatin.account.binary;
+
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.service.AccountService;
+import com.dlopatin.account.service.CreditParticipant;
+import com.dlopatin.account.service.TransferException;
+import com.dlopatin.account.service.TransferException.TransferError;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.dlopatin.account.binary.BinaryProtocol.*;
+
+/**
+ * Serves account operations by {@link BinaryProtocol}: a single event loop thread accepts connections and reads
+ * frames, complete frames are handled by thread pool calling the same account service as REST controllers.
+ * Requests are validated the same way as by REST API. Credits of transfers between nodes of cluster are served
+ * if server is given participant.
+ */
+public class BinaryServer {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryServer.class);
+
+    private final int port;
+    private final AccountService accountService;
+    private final CreditParticipant participant;
+    private final Metrics metrics;
+    private final ThreadPool threadPool;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread eventLoop;
+    private volatile boolean running;
+
+    /**
+     * @param port       port to listen to, zero lets system choose a free port
+     * @param threadPool pool of threads handling frames, started and stopped with server
+     */
+    public BinaryServer(int port, AccountService accountService, Metrics metrics, ThreadPool threadPool) {
+        this(port, accountService, null, metrics, threadPool);
+    }
+
+    /**
+     * @param participant service of credits prepared by other nodes of cluster, <code>null</code> if node is not
+     *                    a part of cluster
+     * @param threadPool  pool of threads handling frames, started and stopped with server
+     */
+    public BinaryServer(int port, AccountService accountService, CreditParticipant participant, Metrics metrics,
+                        ThreadPool threadPool) {
+        this.port = port;
+        this.accountService = accountService;
+        this.participant = participant;
+        this.metrics = metrics;
+        this.threadPool = threadPool;
+    }
+
+    /**
+     * @return port the server listens to
+     */
+    public int start() {
+        try {
+            if (threadPool instanceof LifeCycle) {
+                ((LifeCycle) threadPool).start();
+            }
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Thread pool failed to start", e);
+        }
+        running = true;
+        eventLoop = new Thread(this::loop, "binary-event-loop");
+        eventLoop.start();
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops serving, frames handled at the moment may be aborted.
+     */
+    public void stop() {
+        running = false;
+        if (selector == null) {
+            return;
+        }
+        selector.wakeup();
+        try {
+            eventLoop.join(TimeUnit.SECONDS.toMillis(5));
+            if (threadPool instanceof LifeCycle) {
+                ((LifeCycle) threadPool).stop();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Thread pool failed to stop", e);
+        }
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        ((BinaryConnection) key.attachment()).onReadable();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            log.error("Event loop failed", e);
+        } finally {
+            close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                new BinaryConnection(this, channel, selector);
+            } catch (IOException e) {
+                log.debug("Accept failed: {}", e.toString());
+                channel.close();
+            }
+        }
+    }
+
+    private void close() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof BinaryConnection) {
+                ((BinaryConnection) key.attachment()).close();
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Server failed to close", e);
+        }
+    }
+
+    void execute(Runnable task) {
+        threadPool.execute(task);
+    }
+
+    /**
+     * Lets event loop read connection again, called by worker when connection has no complete frame left.
+     */
+    void resume(SelectionKey key) {
+        if (key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Handles request frame and puts response frame, called by worker.
+     *
+     * @param request positioned after frame length
+     * @param length  frame length
+     * @param response has room for response frame
+     */
+    void handle(ByteBuffer request, int length, ByteBuffer response) {
+        byte operation = request.get();
+        int requestId = request.getInt();
+        try {
+            switch (operation) {
+                case TRANSFER:
+                    if (length == TRANSFER_REQUEST_LENGTH) {
+                        transfer(request, requestId, response);
+                        return;
+                    }
+                    break;
+                case GET:
+                    if (length == GET_REQUEST_LENGTH) {
+                        get(request, requestId, response);
+                        return;
+                    }
+                    break;
+                case CREATE:
+                    if (length == CREATE_REQUEST_LENGTH) {
+                        create(request, requestId, response);
+                        return;
+                    }
+                    break;
+                case PREPARE:
+                    if (length == PREPARE_REQUEST_LENGTH && participant != null) {
+                        prepare(request, requestId, response);
+                        return;
+                    }
+                    break;
+                case COMMIT:
+                    if (length == COMMIT_REQUEST_LENGTH && participant != null) {
+                        participant.commit(request.getInt(), request.getInt(), request.getInt(), request.getLong());
+                        putHeader(response, HEADER_SIZE, OK, requestId);
+                        return;
+                    }
+                    break;
+                case ABORT:
+                    if (length == ABORT_REQUEST_LENGTH && participant != null) {
+                        participant.abort(request.getInt());
+                        putHeader(response, HEADER_SIZE, OK, requestId);
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            putHeader(response, HEADER_SIZE, BAD_REQUEST, requestId);
+        } catch (IllegalArgumentException e) {
+            putHeader(response, HEADER_SIZE, BAD_REQUEST, requestId);
+        } catch (RuntimeException e) {
+            log.error("Operation {} failed", operation, e);
+            putHeader(response, HEADER_SIZE, INTERNAL_ERROR, requestId);
+        }
+    }
+
+    private void transfer(ByteBuffer request, int requestId, ByteBuffer response) {
+        int from = request.getInt();
+        int to = request.getInt();
+        long amount = request.getLong();
+        int operationId = request.getInt();
+        if (from <= 0 || to <= 0 || amount <= 0) {
+            putHeader(response, HEADER_SIZE, BAD_REQUEST, requestId);
+            return;
+        }
+        try {
+            accountService.transfer(from, to, amount, operationId);
+        } catch (TransferException e) {
+            metrics.recordTransfer(e.getTransferError());
+            putHeader(response, HEADER_SIZE, status(e.getTransferError()), requestId);
+            return;
+        }
+        metrics.recordTransfer(null);
+        putHeader(response, HEADER_SIZE, OK, requestId);
+    }
+
+    private void get(ByteBuffer request, int requestId, ByteBuffer response) {
+        Optional<Account> account = accountService.get(request.getInt());
+        if (account.isEmpty()) {
+            putHeader(response, HEADER_SIZE, NOT_FOUND, requestId);
+            return;
+        }
+        putHeader(response, ACCOUNT_RESPONSE_LENGTH, OK, requestId);
+        response.putInt(account.get().getId())
+                .put(currencyCode(account.get().getCurrency()))
+                .putLong(account.get().getBalance());
+    }
+
+    private void create(ByteBuffer request, int requestId, ByteBuffer response) {
+        Currency currency = currency(request.get());
+        long balance = request.getLong();
+        if (currency == null) {
+            putHeader(response, HEADER_SIZE, BAD_REQUEST, requestId);
+            return;
+        }
+        Account account = accountService.create(currency, balance);
+        putHeader(response, CREATED_RESPONSE_LENGTH, OK, requestId);
+        response.putInt(account.getId());
+    }
+
+    private void prepare(ByteBuffer request, int requestId, ByteBuffer response) {
+        int operationId = request.getInt();
+        int from = request.getInt();
+        int to = request.getInt();
+        Currency currency = currency(request.get());
+        long amount = request.getLong();
+        if (currency == null) {
+            putHeader(response, HEADER_SIZE, BAD_REQUEST, requestId);
+            return;
+        }
+        TransferError error = participant.prepare(operationId, from, to, currency, amount);
+        putHeader(response, HEADER_SIZE, error == null ? OK : status(error), requestId);
+    }
+
+    private static void putHeader(ByteBuffer response, int length, byte status, int requestId) {
+        response.putInt(length).put(status).putInt(requestId);
+    }
+}
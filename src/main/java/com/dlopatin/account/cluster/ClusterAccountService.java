@@ -0,0 +1,397 @@
+package com.dlopatin.account.cluster;
+
+import com.dlopatin.account.binary.BinaryClient;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.service.AccountService;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.CreditParticipant;
+import com.dlopatin.account.service.RemoteAccountException;
+import com.dlopatin.account.service.Transfer;
+import com.dlopatin.account.service.TransferException;
+import com.dlopatin.account.service.TransferException.TransferError;
+import com.dlopatin.account.service.TransferResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Account service of a node of cluster. Accounts are spread over nodes by {@link ConsistentHashRing} of their ids,
+ * every node keeps its accounts in local service.
+ * <p>
+ * Account is created by node receiving request, which takes only ids it owns. Transfers and account reads
+ * are forwarded by binary protocol, transfer to the node keeping account money is taken from. If money is put
+ * to account of another node, transfer is done in two phases coordinated by local service, see
+ * {@link AccountServiceImpl#transferOut(int, int, long, int, CreditParticipant)}. Commit that can not be
+ * delivered is retried in background, as money is withdrawn and transfer is successful by then. Retries are kept
+ * in memory only, commit is lost if coordinator stops before it's delivered. Credit prepared here is aborted
+ * if its commit does not come in {@link #PREPARED_CREDIT_TIMEOUT_MILLIS}, so its operation id is not held forever.
+ * <p>
+ * Transactions of account kept by another node and waits for its change are not forwarded,
+ * {@link RemoteAccountException} names that node.
+ * Transactions exported by time range are the ones of accounts kept by this node.
+ * <p>
+ * Node has a few connections to every other node, opened on first use and reopened once lost: frames
+ * of a connection are handled one after another, so forwarded requests run in parallel by connections.
+ * Phases of transfer go by connections of their own: forwarded transfer waits for phases sent by the node
+ * it's forwarded to, which would deadlock if they were queued behind transfers forwarded the other way.
+ */
+public class ClusterAccountService implements AccountService, Closeable {
+
+    static final int CONNECTIONS_PER_NODE = 4;
+
+    private static final long REQUEST_TIMEOUT_SECONDS = 10;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    static final long PREPARED_CREDIT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long PREPARED_CREDIT_CHECK_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final AccountServiceImpl local;
+    private final AccountService localTransfers;
+    private final List<ClusterNode> nodes;
+    private final int self;
+    private final ConsistentHashRing ring;
+    private final BinaryClient[][] clients;
+    private final BinaryClient[][] participantClients;
+    private final CreditParticipant[] participants;
+    private final ScheduledExecutorService retries;
+
+    /**
+     * @param local service of accounts kept by this node, creating accounts with ids owned by this node only
+     * @param nodes all nodes of cluster, the same list on every node
+     * @param self  index of this node
+     */
+    public ClusterAccountService(AccountServiceImpl local, List<ClusterNode> nodes, int self,
+                                 ConsistentHashRing ring) {
+        this(local, local, nodes, self, ring);
+    }
+
+    /**
+     * @param localTransfers service executing single transfers between accounts of this node, e.g. coalescing
+     *                       transfers of local service. Transfers involving other nodes go to local service
+     *                       directly, so they never hold up transfers within this node
+     */
+    public ClusterAccountService(AccountServiceImpl local, AccountService localTransfers, List<ClusterNode> nodes,
+                                 int self, ConsistentHashRing ring) {
+        if (self < 0 || self >= nodes.size() || ring.getNodeCount() != nodes.size()) {
+            throw new IllegalArgumentException("Node index must be within nodes of ring");
+        }
+        this.local = local;
+        this.localTransfers = localTransfers;
+        this.nodes = List.copyOf(nodes);
+        this.self = self;
+        this.ring = ring;
+        clients = new BinaryClient[nodes.size()][CONNECTIONS_PER_NODE];
+        participantClients = new BinaryClient[nodes.size()][CONNECTIONS_PER_NODE];
+        participants = new CreditParticipant[nodes.size()];
+        for (int node = 0; node < nodes.size(); node++) {
+            participants[node] = node == self ? local : new RemoteParticipant(node);
+        }
+        retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-retries");
+            thread.setDaemon(true);
+            return thread;
+        });
+        retries.scheduleWithFixedDelay(() -> local.abortExpiredCredits(PREPARED_CREDIT_TIMEOUT_MILLIS),
+                PREPARED_CREDIT_CHECK_MILLIS, PREPARED_CREDIT_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Account create(Currency currency, long balance) {
+        return local.create(currency, balance);
+    }
+
+    /**
+     * Accounts are created by this node with ids it owns, so their ids are not consecutive.
+     */
+    @Override
+    public int[] createBatch(Currency[] currencies, long[] balances) {
+        return local.createBatch(currencies, balances);
+    }
+
+    @Override
+    public Optional<Account> get(int id) {
+        int owner = ring.owner(id);
+        return owner == self ? local.get(id) : await(owner, client(owner).get(id));
+    }
+
+    /**
+     * Accounts of this node are read at once, as of the same moment. Accounts of other nodes are forwarded
+     * one by one, all requests are sent before responses are awaited.
+     */
+    @Override
+    public Account[] getAll(int[] ids) {
+        if (ids.length > MAX_GET_BATCH_SIZE) {
+            throw new IllegalArgumentException("Number of ids exceeds " + MAX_GET_BATCH_SIZE);
+        }
+        int[] owners = new int[ids.length];
+        List<CompletableFuture<Optional<Account>>> forwarded = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            owners[i] = ring.owner(ids[i]);
+            if (owners[i] != self) {
+                forwarded.add(client(owners[i]).get(ids[i]));
+            }
+        }
+        int[] localIds = new int[ids.length - forwarded.size()];
+        for (int i = 0, next = 0; i < ids.length; i++) {
+            if (owners[i] == self) {
+                localIds[next++] = ids[i];
+            }
+        }
+        Account[] localAccounts = local.getAll(localIds);
+        Account[] accounts = new Account[ids.length];
+        int nextLocal = 0;
+        int nextForwarded = 0;
+        for (int i = 0; i < ids.length; i++) {
+            accounts[i] = owners[i] == self
+                    ? localAccounts[nextLocal++]
+                    : await(owners[i], forwarded.get(nextForwarded++)).orElse(null);
+        }
+        return accounts;
+    }
+
+    /**
+     * Accounts are read at once only if they are all kept by this node.
+     */
+    @Override
+    public boolean isReadAtOnce(int[] ids) {
+        if (ids.length <= 1) {
+            return true;
+        }
+        for (int id : ids) {
+            if (ring.owner(id) != self) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Not forwarded, as waiting reader would hold connection to another node for the whole wait.
+     */
+    @Override
+    public Optional<Account> awaitChange(int id, int version, long timeoutMillis) {
+        checkLocal(id);
+        return local.awaitChange(id, version, timeoutMillis);
+    }
+
+    @Override
+    public Optional<List<Transaction>> getTransactions(int id, int after, int limit) {
+        checkLocal(id);
+        return local.getTransactions(id, after, limit);
+    }
+
+    @Override
+    public boolean exportTransactions(int id, Consumer<Transaction> action) {
+        checkLocal(id);
+        return local.exportTransactions(id, action);
+    }
+
+    @Override
+    public void exportTransactions(long from, long to, Consumer<Transaction> action) {
+        local.exportTransactions(from, to, action);
+    }
+
+    @Override
+    public void transfer(int from, int to, long amount, int operationId) {
+        if (amount < 0) {
+            // the same check as of local service, before anything is sent
+            throw new IllegalArgumentException("Balance is negative");
+        }
+        int owner = ring.owner(from);
+        if (owner != self) {
+            await(owner, client(owner).transfer(from, to, amount, operationId));
+        } else if (ring.owner(to) == self) {
+            localTransfers.transfer(from, to, amount, operationId);
+        } else {
+            local.transferOut(from, to, amount, operationId, participants[ring.owner(to)]);
+        }
+    }
+
+    /**
+     * Batch of accounts kept by this node is processed by local service at once, otherwise transfers are
+     * processed one by one in batch order. If a transfer fails otherwise than by {@link TransferException},
+     * e.g. its node is not available, batch stops there: results of transfers before it are returned, outcome
+     * of the rest is unknown, so they are to be repeated by client with the same operation ids. Failure of
+     * the first transfer is thrown.
+     */
+    @Override
+    public List<TransferResult> transferBatch(List<Transfer> transfers) {
+        if (transfers.size() > MAX_TRANSFER_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size exceeds " + MAX_TRANSFER_BATCH_SIZE);
+        }
+        if (transfers.stream().allMatch(transfer -> ring.owner(transfer.getFrom()) == self
+                && ring.owner(transfer.getTo()) == self)) {
+            return local.transferBatch(transfers);
+        }
+        List<TransferResult> results = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            try {
+                transfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount(), transfer.getOperationId());
+                results.add(TransferResult.successful(transfer.getOperationId()));
+            } catch (TransferException e) {
+                results.add(TransferResult.failed(transfer.getOperationId(), e.getTransferError()));
+            } catch (RuntimeException e) {
+                if (results.isEmpty()) {
+                    throw e;
+                }
+                log.warn("Batch stopped at operation {}: {}", transfer.getOperationId(), e.toString());
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Closes connections to other nodes, commits not delivered yet are dropped.
+     */
+    @Override
+    public void close() {
+        retries.shutdownNow();
+        closeAll(clients);
+        closeAll(participantClients);
+    }
+
+    private void closeAll(BinaryClient[][] pool) {
+        for (BinaryClient[] connections : pool) {
+            synchronized (connections) {
+                for (BinaryClient client : connections) {
+                    closeQuietly(client);
+                }
+            }
+        }
+    }
+
+    private void checkLocal(int id) {
+        int owner = ring.owner(id);
+        if (owner != self) {
+            throw new RemoteAccountException(id, nodes.get(owner).getHttpAddress());
+        }
+    }
+
+    private BinaryClient client(int node) {
+        return client(clients, node);
+    }
+
+    /**
+     * @return open connection to node, chosen at random among connections of pool to that node
+     */
+    private BinaryClient client(BinaryClient[][] pool, int node) {
+        BinaryClient[] connections = pool[node];
+        int index = ThreadLocalRandom.current().nextInt(connections.length);
+        synchronized (connections) {
+            BinaryClient client = connections[index];
+            if (client == null || !client.isOpen()) {
+                closeQuietly(client);
+                ClusterNode target = nodes.get(node);
+                try {
+                    client = BinaryClient.connect(target.getHost(), target.getBinaryPort());
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Node " + target + " is not available", e);
+                }
+                connections[index] = client;
+            }
+            return client;
+        }
+    }
+
+    private void closeQuietly(BinaryClient client) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.debug("Connection failed to close: {}", e.toString());
+        }
+    }
+
+    /**
+     * @return result of request to node, failure of request is thrown as is
+     */
+    private <T> T await(int node, CompletableFuture<T> request) {
+        try {
+            return request.get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException("Request to node " + nodes.get(node) + " failed",
+                        (IOException) e.getCause());
+            }
+            throw new IllegalStateException("Request to node " + nodes.get(node) + " failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Node " + nodes.get(node) + " did not respond in time", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for node " + nodes.get(node), e);
+        }
+    }
+
+    /**
+     * Runs action, repeating it in background till it's done if it fails.
+     */
+    private void retrying(String description, Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            if (retries.isShutdown()) {
+                log.error("{} failed and dropped, as service is closed", description, e);
+                return;
+            }
+            log.warn("{} failed, retrying: {}", description, e.toString());
+            retries.schedule(() -> retrying(description, action), RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Credit participant of another node, reached by binary protocol.
+     */
+    private final class RemoteParticipant implements CreditParticipant {
+
+        private final int node;
+
+        private RemoteParticipant(int node) {
+            this.node = node;
+        }
+
+        @Override
+        public TransferError prepare(int operationId, int fromId, int toId, Currency currency, long amount) {
+            try {
+                await(node, client(participantClients, node).prepare(operationId, fromId, toId, currency, amount));
+                return null;
+            } catch (TransferException e) {
+                return e.getTransferError();
+            }
+        }
+
+        @Override
+        public void commit(int operationId, int fromId, int toId, long amount) {
+            retrying(String.format("Commit of operation %d to node %s", operationId, nodes.get(node)),
+                    () -> await(node, client(participantClients, node).commit(operationId, fromId, toId, amount)));
+        }
+
+        @Override
+        public void abort(int operationId) {
+            retrying(String.format("Abort of operation %d to node %s", operationId, nodes.get(node)),
+                    () -> await(node, client(participantClients, node).abort(operationId)));
+        }
+    }
+}
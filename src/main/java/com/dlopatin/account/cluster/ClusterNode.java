@@ -0,0 +1,57 @@
+package com.dlopatin.account.cluster;
+
+/**
+ * Address of node of cluster: host, HTTP port and binary protocol port.
+ */
+public final class ClusterNode {
+
+    private final String host;
+    private final int httpPort;
+    private final int binaryPort;
+
+    public ClusterNode(String host, int httpPort, int binaryPort) {
+        this.host = host;
+        this.httpPort = httpPort;
+        this.binaryPort = binaryPort;
+    }
+
+    /**
+     * @param value node as <code>host:httpPort:binaryPort</code>
+     * @throws IllegalArgumentException if value has other format
+     */
+    public static ClusterNode parse(String value) {
+        String[] parts = value.trim().split(":");
+        if (parts.length != 3 || parts[0].isEmpty()) {
+            throw new IllegalArgumentException("Node must be set as host:httpPort:binaryPort, but was " + value);
+        }
+        try {
+            return new ClusterNode(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Node must be set as host:httpPort:binaryPort, but was " + value, e);
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getHttpPort() {
+        return httpPort;
+    }
+
+    public int getBinaryPort() {
+        return binaryPort;
+    }
+
+    /**
+     * @return base URL of REST API of node
+     */
+    public String getHttpAddress() {
+        return "http://" + host + ":" + httpPort;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + httpPort + ":" + binaryPort;
+    }
+}
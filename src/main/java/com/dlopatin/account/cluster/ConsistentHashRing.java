@@ -0,0 +1,73 @@
+package com.dlopatin.account.cluster;
+
+import java.util.Arrays;
+
+/**
+ * Maps account ids to nodes of cluster. Every node takes a number of points on ring of 32-bit hashes,
+ * account belongs to node of the first point at or after hash of its id, wrapping around.
+ * <p>
+ * Points of node depend on its index only, so a node appended to cluster takes some accounts of every other
+ * node and no account moves between old nodes. Lookup is a binary search in a sorted array, no allocation.
+ */
+public final class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final int nodeCount;
+    // sorted hashes of points and node of every point
+    private final int[] points;
+    private final int[] nodes;
+
+    /**
+     * @param nodeCount    number of nodes, indexed from zero
+     * @param virtualNodes number of points per node, more points spread accounts more evenly
+     */
+    public ConsistentHashRing(int nodeCount, int virtualNodes) {
+        if (nodeCount <= 0 || virtualNodes <= 0) {
+            throw new IllegalArgumentException("Number of nodes and virtual nodes must be positive");
+        }
+        this.nodeCount = nodeCount;
+        // hash in high bits and node in low bits, so ties are ordered by node
+        long[] ordered = new long[nodeCount * virtualNodes];
+        for (int node = 0; node < nodeCount; node++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                int hash = mix(mix(node) + i);
+                ordered[node * virtualNodes + i] = (long) hash << Integer.SIZE | node;
+            }
+        }
+        Arrays.sort(ordered);
+        points = new int[ordered.length];
+        nodes = new int[ordered.length];
+        for (int i = 0; i < ordered.length; i++) {
+            points[i] = (int) (ordered[i] >> Integer.SIZE);
+            nodes[i] = (int) ordered[i];
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return index of node the account belongs to
+     */
+    public int owner(int accountId) {
+        int index = Arrays.binarySearch(points, mix(accountId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index == points.length ? nodes[0] : nodes[index];
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads close ids all over the ring.
+     */
+    private static int mix(int value) {
+        value ^= value >>> 16;
+        value *= 0x85ebca6b;
+        value ^= value >>> 13;
+        value *= 0xc2b2ae35;
+        value ^= value >>> 16;
+        return value;
+    }
+}
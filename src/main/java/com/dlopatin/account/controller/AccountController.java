@@ -2,71 +2,166 @@ package com.dlopatin.account.controller;
 
 import com.dlopatin.account.controller.dto.ErrorMessage;
 import com.dlopatin.account.controller.dto.ErrorResponse;
+import com.dlopatin.account.controller.dto.GetAccountBatchResponse;
 import com.dlopatin.account.controller.dto.GetAccountResponse;
+import com.dlopatin.account.controller.dto.NewAccountBatchRequest;
+import com.dlopatin.account.controller.dto.NewAccountBatchResponse;
 import com.dlopatin.account.controller.dto.NewAccountRequest;
 import com.dlopatin.account.controller.dto.NewAccountResponse;
 import com.dlopatin.account.controller.dto.StatusCodes;
+import com.dlopatin.account.controller.dto.TransactionPageResponse;
+import com.dlopatin.account.controller.dto.TransferBatchResponse;
 import com.dlopatin.account.controller.dto.TransferRequest;
-import com.dlopatin.account.controller.dto.TransferResponse;
+import com.dlopatin.account.http.Handler;
+import com.dlopatin.account.http.HttpResponse;
+import com.dlopatin.account.http.HttpServer;
+import com.dlopatin.account.metrics.Metrics;
 import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Transaction;
 import com.dlopatin.account.service.AccountService;
+import com.dlopatin.account.service.RemoteAccountException;
+import com.dlopatin.account.service.StaleReadException;
+import com.dlopatin.account.service.Transfer;
 import com.dlopatin.account.service.TransferException;
+import com.dlopatin.account.service.TransferResult;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import spark.Route;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Semaphore;
 
 import static com.dlopatin.account.controller.ContentType.APPLICATION_JSON;
-import static spark.Spark.*;
 
 /**
  * Processes requests related to account manipulation.
  */
-public class AccountController implements SparkController {
+public class AccountController implements HttpController {
 
     private static final String VALIDATION_ERROR_CODE = "VALIDATION_ERROR";
+    private static final String ACCOUNT_ON_ANOTHER_NODE_CODE = "ACCOUNT_ON_ANOTHER_NODE";
+    private static final String NOT_SUPPORTED_CODE = "NOT_SUPPORTED";
+    private static final String REPLICA_BEHIND_CODE = "REPLICA_BEHIND";
+    private static final int DEFAULT_TRANSACTION_PAGE_SIZE = 100;
+    private static final int MAX_WAIT_MILLIS = 60_000;
+    // tells whether accounts of multi-get are read as of the same moment
+    static final String READ_CONSISTENCY_HEADER = "X-Read-Consistency";
+    static final String READ_AT_ONCE = "snapshot";
+    static final String READ_ONE_BY_ONE = "per-account";
+    // half of default server threads
+    private static final int DEFAULT_MAX_WAITERS = 100;
+    private static final byte[] NO_BODY = new byte[0];
+    // bulk creation may have millions of accounts, it's enough to report the first errors
+    private static final int MAX_REPORTED_ERRORS = 100;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final AccountService accountService;
-    private final ObjectMapper objectMapper;
+    private final JsonCodec codec;
+    private final ResponseCache responses;
+    private final Metrics metrics;
+    // requests waiting for account change hold server threads, so only that many wait at once
+    private final Semaphore waiters;
 
     public AccountController(AccountService accountService, ObjectMapper objectMapper) {
+        this(accountService, objectMapper, new Metrics());
+    }
+
+    public AccountController(AccountService accountService, ObjectMapper objectMapper, Metrics metrics) {
+        this(accountService, objectMapper, metrics, DEFAULT_MAX_WAITERS);
+    }
+
+    /**
+     * @param maxWaiters max number of requests waiting for account change at once, others are answered
+     *                   with the current state at once
+     */
+    public AccountController(AccountService accountService, ObjectMapper objectMapper, Metrics metrics,
+                             int maxWaiters) {
         this.accountService = accountService;
-        this.objectMapper = objectMapper;
+        this.codec = new JsonCodec(objectMapper);
+        this.responses = new ResponseCache(objectMapper);
+        this.metrics = metrics;
+        this.waiters = new Semaphore(maxWaiters);
     }
 
     @Override
-    public void init() {
-        path("/api/v1", () ->
-                path("/account", () -> {
-                    post("", APPLICATION_JSON, processCreateAccount(), objectMapper::writeValueAsString);
-                    post("/transfer", APPLICATION_JSON, processTransfer(), objectMapper::writeValueAsString);
-                    get("/:id", APPLICATION_JSON, processGetAccount(), objectMapper::writeValueAsString);
-                }));
+    public void init(HttpServer server) {
+        server.post("/api/v1/account", APPLICATION_JSON, timed("POST", "", processCreateAccount()));
+        server.post("/api/v1/account/batch", APPLICATION_JSON, timed("POST", "/batch", processCreateAccountBatch()));
+        server.post("/api/v1/account/transfer", APPLICATION_JSON, timed("POST", "/transfer", processTransfer()));
+        server.post("/api/v1/account/transfer/batch", APPLICATION_JSON,
+                timed("POST", "/transfer/batch", processTransferBatch()));
+        server.get("/api/v1/account", APPLICATION_JSON, timed("GET", "", processGetAccounts()));
+        server.post("/api/v1/account/lookup", APPLICATION_JSON, timed("POST", "/lookup", processLookupAccounts()));
+        server.get("/api/v1/account/:id", APPLICATION_JSON, timed("GET", "/:id", processGetAccount()));
+        server.get("/api/v1/account/:id/transactions", APPLICATION_JSON, timed("GET", "/:id/transactions",
+                processGetTransactions()));
     }
 
-    private Route processCreateAccount() {
+    private Handler timed(String method, String path, Handler handler) {
+        return MetricsController.timed(metrics.route(method, "/api/v1/account" + path),
+                codec.writing(supported(handler)));
+    }
+
+    /**
+     * Answers operations service does not support, e.g. changes sent to follower, with <code>501</code>.
+     */
+    private static Handler supported(Handler handler) {
         return (request, response) -> {
-            log.debug("Request content type: {}", request.contentType());
+            try {
+                return handler.handle(request, response);
+            } catch (UnsupportedOperationException e) {
+                response.type(APPLICATION_JSON);
+                response.status(StatusCodes.NOT_IMPLEMENTED);
+                return new ErrorResponse(new ErrorMessage(NOT_SUPPORTED_CODE, e.getMessage()));
+            }
+        };
+    }
+
+    private Handler processCreateAccount() {
+        return (request, response) -> {
+            log.debug("Request content type: {}", request.header("Content-Type"));
             response.type(APPLICATION_JSON);
-            // TODO: mapping can gives 500 error code, validation should be performed and returned 400 code
-            NewAccountRequest newAccount = objectMapper.readValue(request.body(), NewAccountRequest.class);
+            NewAccountRequest newAccount = codec.read(request.body(), NewAccountRequest.class);
             Account account = accountService.create(newAccount.getCurrency(), newAccount.getBalance());
             response.status(StatusCodes.CREATED);
             return new NewAccountResponse(account.getId());
         };
     }
 
-    private Route processTransfer() {
+    private Handler processCreateAccountBatch() {
+        return (request, response) -> {
+            response.type(APPLICATION_JSON);
+            NewAccountBatchRequest newAccounts = codec.read(request.body(), NewAccountBatchRequest.class);
+
+            List<ErrorMessage> errorMessages = new ArrayList<>();
+            for (int i = 0; i < newAccounts.size() && errorMessages.size() < MAX_REPORTED_ERRORS; i++) {
+                if (newAccounts.getCurrencies()[i] == null) {
+                    errorMessages.add(new ErrorMessage(VALIDATION_ERROR_CODE,
+                            String.format("Account [%d]: Currency must be set", i)));
+                }
+                if (newAccounts.getBalances()[i] < 0) {
+                    errorMessages.add(new ErrorMessage(VALIDATION_ERROR_CODE,
+                            String.format("Account [%d]: Balance must not be negative", i)));
+                }
+            }
+            if (!errorMessages.isEmpty()) {
+                response.status(StatusCodes.BAD_REQUEST);
+                return new ErrorResponse(errorMessages);
+            }
+
+            int[] ids = accountService.createBatch(newAccounts.getCurrencies(), newAccounts.getBalances());
+            response.status(StatusCodes.CREATED);
+            return new NewAccountBatchResponse(ids);
+        };
+    }
+
+    private Handler processTransfer() {
         return (request, response) -> {
             response.type(APPLICATION_JSON);
-            // TODO: mapping can gives 500 error code, validation should be performed and returned 400 code
-            TransferRequest transferRequest = objectMapper.readValue(request.body(), TransferRequest.class);
+            TransferRequest transferRequest = codec.read(request.body(), TransferRequest.class);
 
             List<ErrorMessage> errorMessages = validateTransferRequest(transferRequest);
             if (!errorMessages.isEmpty()) {
@@ -81,11 +176,48 @@ public class AccountController implements SparkController {
                         transferRequest.getAmount(),
                         transferRequest.getOperationId());
             } catch (TransferException e) {
+                metrics.recordTransfer(e.getTransferError());
                 response.status(StatusCodes.BAD_REQUEST);
-                return new ErrorResponse(new ErrorMessage(e.getTransferError().toString()));
+                return responses.transferError(e.getTransferError());
             }
+            metrics.recordTransfer(null);
             response.status(StatusCodes.OK);
-            return TransferResponse.successful();
+            return responses.transferSuccessful();
+        };
+    }
+
+    private Handler processTransferBatch() {
+        return (request, response) -> {
+            response.type(APPLICATION_JSON);
+            TransferRequest[] transferRequests = codec.read(request.body(), TransferRequest[].class);
+
+            List<ErrorMessage> errorMessages = new ArrayList<>();
+            if (transferRequests.length > AccountService.MAX_TRANSFER_BATCH_SIZE) {
+                errorMessages.add(new ErrorMessage(VALIDATION_ERROR_CODE,
+                        "Batch size must not exceed " + AccountService.MAX_TRANSFER_BATCH_SIZE));
+            }
+            List<Transfer> transfers = new ArrayList<>(transferRequests.length);
+            for (int i = 0; i < transferRequests.length; i++) {
+                TransferRequest transferRequest = transferRequests[i];
+                for (ErrorMessage error : validateTransferRequest(transferRequest)) {
+                    errorMessages.add(new ErrorMessage(error.getCode(),
+                            String.format("Transfer [%d]: %s", i, error.getDetail())));
+                }
+                transfers.add(new Transfer(
+                        transferRequest.getAccountFrom(),
+                        transferRequest.getAccountTo(),
+                        transferRequest.getAmount(),
+                        transferRequest.getOperationId()));
+            }
+            if (!errorMessages.isEmpty()) {
+                response.status(StatusCodes.BAD_REQUEST);
+                return new ErrorResponse(errorMessages);
+            }
+
+            List<TransferResult> results = accountService.transferBatch(transfers);
+            results.forEach(result -> metrics.recordTransfer(result.getError()));
+            response.status(StatusCodes.OK);
+            return TransferBatchResponse.from(results);
         };
     }
 
@@ -103,14 +235,37 @@ public class AccountController implements SparkController {
         return errors;
     }
 
-    private Route processGetAccount() {
+    private Handler processGetTransactions() {
         return (request, response) -> {
             response.type(APPLICATION_JSON);
-            int id = Integer.parseInt(request.params(":id"));
-            Optional<Account> account = accountService.get(id);
-            if (account.isPresent()) {
+            int id = Integer.parseInt(request.param(":id"));
+            int after;
+            int limit;
+            try {
+                after = queryInt(request.queryParam("after"), 0);
+                limit = queryInt(request.queryParam("limit"), DEFAULT_TRANSACTION_PAGE_SIZE);
+            } catch (NumberFormatException e) {
+                response.status(StatusCodes.BAD_REQUEST);
+                return new ErrorResponse(new ErrorMessage(VALIDATION_ERROR_CODE, "After and limit must be integers"));
+            }
+            if (after < 0 || limit <= 0 || limit > AccountService.MAX_TRANSACTION_PAGE_SIZE) {
+                response.status(StatusCodes.BAD_REQUEST);
+                return new ErrorResponse(new ErrorMessage(VALIDATION_ERROR_CODE, String.format(
+                        "After must not be negative and limit must be from 1 to %d",
+                        AccountService.MAX_TRANSACTION_PAGE_SIZE)));
+            }
+            Optional<List<Transaction>> transactions;
+            try {
+                transactions = accountService.getTransactions(id, after, limit);
+            } catch (RemoteAccountException e) {
+                response.status(StatusCodes.TEMPORARY_REDIRECT);
+                response.header("Location", String.format("%s%s?after=%d&limit=%d", e.getNodeAddress(),
+                        request.path(), after, limit));
+                return new ErrorResponse(new ErrorMessage(ACCOUNT_ON_ANOTHER_NODE_CODE, e.getMessage()));
+            }
+            if (transactions.isPresent()) {
                 response.status(StatusCodes.OK);
-                return GetAccountResponse.from(account.get());
+                return TransactionPageResponse.from(transactions.get(), after, limit);
             } else {
                 response.status(StatusCodes.NOT_FOUND);
                 return new ErrorResponse(new ErrorMessage(
@@ -120,5 +275,164 @@ public class AccountController implements SparkController {
         };
     }
 
+    private static int queryInt(String value, int defaultValue) {
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Takes ids as comma separated query parameter, e.g. <code>?ids=1,2,3</code>.
+     */
+    private Handler processGetAccounts() {
+        return (request, response) -> {
+            response.type(APPLICATION_JSON);
+            String ids = request.queryParam("ids");
+            if (ids == null) {
+                response.status(StatusCodes.BAD_REQUEST);
+                return new ErrorResponse(new ErrorMessage(VALIDATION_ERROR_CODE, "Ids must be set"));
+            }
+            int[] parsed;
+            try {
+                parsed = parseIds(ids);
+            } catch (NumberFormatException e) {
+                response.status(StatusCodes.BAD_REQUEST);
+                return new ErrorResponse(new ErrorMessage(VALIDATION_ERROR_CODE,
+                        "Ids must be comma separated integers"));
+            }
+            return getAccounts(parsed, response);
+        };
+    }
+
+    /**
+     * Takes ids as JSON array in body, for lists too long for query string.
+     */
+    private Handler processLookupAccounts() {
+        return (request, response) -> {
+            response.type(APPLICATION_JSON);
+            return getAccounts(codec.read(request.body(), int[].class), response);
+        };
+    }
+
+    private Object getAccounts(int[] ids, HttpResponse response) {
+        if (ids.length > AccountService.MAX_GET_BATCH_SIZE) {
+            response.status(StatusCodes.BAD_REQUEST);
+            return new ErrorResponse(new ErrorMessage(VALIDATION_ERROR_CODE,
+                    "Number of ids must not exceed " + AccountService.MAX_GET_BATCH_SIZE));
+        }
+        Account[] accounts;
+        try {
+            accounts = accountService.getAll(ids);
+        } catch (StaleReadException e) {
+            response.status(StatusCodes.SERVICE_UNAVAILABLE);
+            response.header("Retry-After", "1");
+            return new ErrorResponse(new ErrorMessage(REPLICA_BEHIND_CODE, e.getMessage()));
+        }
+        response.header(READ_CONSISTENCY_HEADER, accountService.isReadAtOnce(ids) ? READ_AT_ONCE : READ_ONE_BY_ONE);
+        response.status(StatusCodes.OK);
+        return new GetAccountBatchResponse(ids, accounts);
+    }
+
+    private static int[] parseIds(String value) {
+        if (value.isEmpty()) {
+            return new int[0];
+        }
+        String[] values = value.split(",");
+        int[] ids = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ids[i] = Integer.parseInt(values[i].trim());
+        }
+        return ids;
+    }
+
+    /**
+     * Answers with <code>ETag</code> of account version. Version known to client by <code>If-None-Match</code>
+     * is answered with <code>304</code> without body, after waiting for a newer one up to <code>waitMillis</code>.
+     */
+    private Handler processGetAccount() {
+        return (request, response) -> {
+            response.type(APPLICATION_JSON);
+            int id = Integer.parseInt(request.param(":id"));
+            String minVersion = request.queryParam("minVersion");
+            int waitMillis;
+            try {
+                waitMillis = queryInt(request.queryParam("waitMillis"), 0);
+            } catch (NumberFormatException e) {
+                response.status(StatusCodes.BAD_REQUEST);
+                return new ErrorResponse(new ErrorMessage(VALIDATION_ERROR_CODE, "Wait millis must be integer"));
+            }
+            if (waitMillis < 0 || waitMillis > MAX_WAIT_MILLIS) {
+                response.status(StatusCodes.BAD_REQUEST);
+                return new ErrorResponse(new ErrorMessage(VALIDATION_ERROR_CODE,
+                        String.format("Wait millis must be from 0 to %d", MAX_WAIT_MILLIS)));
+            }
+            Optional<Account> account;
+            try {
+                account = minVersion == null || minVersion.isEmpty()
+                        ? accountService.get(id)
+                        : accountService.get(id, Integer.parseInt(minVersion));
+            } catch (NumberFormatException e) {
+                response.status(StatusCodes.BAD_REQUEST);
+                return new ErrorResponse(new ErrorMessage(VALIDATION_ERROR_CODE, "Min version must be integer"));
+            } catch (StaleReadException e) {
+                response.status(StatusCodes.SERVICE_UNAVAILABLE);
+                response.header("Retry-After", "1");
+                return new ErrorResponse(new ErrorMessage(REPLICA_BEHIND_CODE, e.getMessage()));
+            }
+            if (account.isEmpty()) {
+                response.status(StatusCodes.NOT_FOUND);
+                return new ErrorResponse(new ErrorMessage(
+                        "ACCOUNT_NOT_FOUND",
+                        String.format("Account by id=%d not found", id)));
+            }
+            String ifNoneMatch = request.header("If-None-Match");
+            if (ifNoneMatch != null && waitMillis > 0 && matches(ifNoneMatch, account.get().getVersion())) {
+                if (!waiters.tryAcquire()) {
+                    // too many waiting, poller is told the current state and when to come back
+                    response.header("Retry-After", "1");
+                } else {
+                    try {
+                        account = accountService.awaitChange(id, account.get().getVersion(), waitMillis);
+                    } catch (RemoteAccountException e) {
+                        response.status(StatusCodes.TEMPORARY_REDIRECT);
+                        response.header("Location", String.format("%s%s?waitMillis=%d%s", e.getNodeAddress(),
+                                request.path(), waitMillis, minVersion == null ? "" : "&minVersion=" + minVersion));
+                        return new ErrorResponse(new ErrorMessage(ACCOUNT_ON_ANOTHER_NODE_CODE, e.getMessage()));
+                    } finally {
+                        waiters.release();
+                    }
+                }
+            }
+            int version = account.get().getVersion();
+            response.header("ETag", etag(version));
+            if (ifNoneMatch != null && matches(ifNoneMatch, version)) {
+                response.status(StatusCodes.NOT_MODIFIED);
+                return NO_BODY;
+            }
+            response.status(StatusCodes.OK);
+            return GetAccountResponse.from(account.get());
+        };
+    }
+
+    /**
+     * Version alone identifies account state, as account never changes without version.
+     */
+    private static String etag(int version) {
+        return "\"" + version + "\"";
+    }
 
+    /**
+     * Compares entity tags of <code>If-None-Match</code> with the one of version, weak tags match as well.
+     */
+    private static boolean matches(String ifNoneMatch, int version) {
+        String etag = etag(version);
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmed = tag.trim();
+            if (trimmed.startsWith("W/")) {
+                trimmed = trimmed.substring(2);
+            }
+            if (trimmed.equals("*") || trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
\ No newline at end of file
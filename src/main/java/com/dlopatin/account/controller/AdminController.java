@@ -0,0 +1,66 @@
+package com.dlopatin.account.controller;
+
+import com.dlopatin.account.controller.dto.ErrorMessage;
+import com.dlopatin.account.controller.dto.ErrorResponse;
+import com.dlopatin.account.controller.dto.StatusCodes;
+import com.dlopatin.account.http.Handler;
+import com.dlopatin.account.http.HttpServer;
+import com.dlopatin.account.metrics.ContentionProfiler;
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static com.dlopatin.account.controller.ContentType.APPLICATION_JSON;
+
+/**
+ * Diagnostics and tuning for operators. Contention report lists accounts whose locks transfers waited for the most,
+ * deleting it starts a new profiling window. Such accounts, if they mostly receive money, can be made hot.
+ */
+public class AdminController implements HttpController {
+
+    private final AccountServiceImpl accountService;
+    private final ContentionProfiler contentionProfiler;
+    private final ObjectMapper objectMapper;
+    private final Metrics metrics;
+    private final int hotAccountStripes;
+
+    public AdminController(AccountServiceImpl accountService, ContentionProfiler contentionProfiler,
+                           ObjectMapper objectMapper, Metrics metrics, int hotAccountStripes) {
+        this.accountService = accountService;
+        this.contentionProfiler = contentionProfiler;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        this.hotAccountStripes = hotAccountStripes;
+    }
+
+    @Override
+    public void init(HttpServer server) {
+        server.get("/api/v1/admin/contention", timed("GET", "/api/v1/admin/contention", (request, response) -> {
+            response.type(APPLICATION_JSON);
+            return objectMapper.writeValueAsString(contentionProfiler.toMap());
+        }));
+        server.delete("/api/v1/admin/contention", timed("DELETE", "/api/v1/admin/contention",
+                (request, response) -> {
+                    contentionProfiler.reset();
+                    response.status(StatusCodes.NO_CONTENT);
+                    return "";
+                }));
+        server.put("/api/v1/admin/account/:id/hot", timed("PUT", "/api/v1/admin/account/:id/hot",
+                (request, response) -> {
+                    int id = Integer.parseInt(request.param(":id"));
+                    if (accountService.makeHot(id, hotAccountStripes)) {
+                        response.status(StatusCodes.NO_CONTENT);
+                        return "";
+                    }
+                    response.type(APPLICATION_JSON);
+                    response.status(StatusCodes.NOT_FOUND);
+                    return objectMapper.writeValueAsString(new ErrorResponse(new ErrorMessage(
+                            "ACCOUNT_NOT_FOUND",
+                            String.format("Account by id=%d not found", id))));
+                }));
+    }
+
+    private Handler timed(String method, String path, Handler handler) {
+        return MetricsController.timed(metrics.route(method, path), handler);
+    }
+}
@@ -2,4 +2,5 @@ package com.dlopatin.account.controller;
 
 public class ContentType {
     public static final String APPLICATION_JSON = "application/json";
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
 }
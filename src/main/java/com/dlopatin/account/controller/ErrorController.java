@@ -1,35 +1,35 @@
 package com.dlopatin.account.controller;
 
-import com.dlopatin.account.controller.dto.ErrorMessage;
-import com.dlopatin.account.controller.dto.ErrorResponse;
+import com.dlopatin.account.http.HttpServer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import static com.dlopatin.account.controller.ContentType.APPLICATION_JSON;
-import static spark.Spark.*;
 
 /**
  * Handles general errors
  */
-public class ErrorController implements SparkController {
+public class ErrorController implements HttpController {
 
-    private final ObjectMapper objectMapper;
+    private final ResponseCache responses;
 
     public ErrorController(ObjectMapper objectMapper) {
-        this.objectMapper = objectMapper;
+        this.responses = new ResponseCache(objectMapper);
     }
 
     @Override
-    public void init() {
-        notFound((request, response) -> {
+    public void init(HttpServer server) {
+        server.notFound((request, response) -> {
             response.type(APPLICATION_JSON);
-            return objectMapper.writeValueAsString(new ErrorResponse(new ErrorMessage("REQUEST_HANDLER_NOT_FOUND")));
+            return responses.handlerNotFound();
         });
-        internalServerError((request, response) -> {
+        server.badRequest((request, response) -> {
             response.type(APPLICATION_JSON);
-            return objectMapper.writeValueAsString(new ErrorResponse(new ErrorMessage("INTERNAL_SERVER_ERROR")));
+            return responses.badRequest();
+        });
+        server.internalServerError((request, response) -> {
+            response.type(APPLICATION_JSON);
+            return responses.internalServerError();
         });
-
-
     }
 
 }
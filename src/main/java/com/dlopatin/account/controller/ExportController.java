@@ -0,0 +1,137 @@
+package com.dlopatin.account.controller;
+
+import com.dlopatin.account.controller.dto.ErrorMessage;
+import com.dlopatin.account.controller.dto.ErrorResponse;
+import com.dlopatin.account.controller.dto.StatusCodes;
+import com.dlopatin.account.http.Handler;
+import com.dlopatin.account.http.HttpResponse;
+import com.dlopatin.account.http.HttpServer;
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.service.AccountService;
+import com.dlopatin.account.service.RemoteAccountException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import static com.dlopatin.account.controller.ContentType.APPLICATION_JSON;
+import static com.dlopatin.account.controller.ContentType.APPLICATION_NDJSON;
+
+/**
+ * Exports transactions as newline delimited JSON, one transaction per line. Transactions are written to response
+ * stream as they are read, so memory used does not depend on how many of them are exported. Response has
+ * no length and goes in chunks, writing blocks while client does not read, so slow client slows down
+ * export instead of making it buffer.
+ */
+public class ExportController implements HttpController {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final AccountService accountService;
+    private final ObjectMapper objectMapper;
+    private final Metrics metrics;
+
+    public ExportController(AccountService accountService, ObjectMapper objectMapper, Metrics metrics) {
+        this.accountService = accountService;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void init(HttpServer server) {
+        server.get("/api/v1/account/:id/transactions/export", timed("/api/v1/account/:id/transactions/export",
+                processExportAccount()));
+        server.get("/api/v1/transactions/export", timed("/api/v1/transactions/export", processExportRange()));
+    }
+
+    private Handler timed(String path, Handler handler) {
+        return MetricsController.timed(metrics.route("GET", path), handler);
+    }
+
+    private Handler processExportAccount() {
+        return (request, response) -> {
+            int id = Integer.parseInt(request.param(":id"));
+            boolean found;
+            try {
+                // unlike reading account, reading transactions is not forwarded, so it's known before streaming
+                // whether account is kept by another node
+                found = accountService.getTransactions(id, 0, 1).isPresent();
+            } catch (RemoteAccountException e) {
+                response.type(APPLICATION_JSON);
+                response.status(StatusCodes.TEMPORARY_REDIRECT);
+                response.header("Location", e.getNodeAddress() + request.path());
+                return objectMapper.writeValueAsString(new ErrorResponse(new ErrorMessage(
+                        "ACCOUNT_ON_ANOTHER_NODE", e.getMessage())));
+            }
+            if (!found) {
+                response.type(APPLICATION_JSON);
+                response.status(StatusCodes.NOT_FOUND);
+                return objectMapper.writeValueAsString(new ErrorResponse(new ErrorMessage(
+                        "ACCOUNT_NOT_FOUND",
+                        String.format("Account by id=%d not found", id))));
+            }
+            return stream(response, action -> accountService.exportTransactions(id, action));
+        };
+    }
+
+    private Handler processExportRange() {
+        return (request, response) -> {
+            long from;
+            long to;
+            try {
+                from = queryLong(request.queryParam("from"), 0);
+                to = queryLong(request.queryParam("to"), Long.MAX_VALUE);
+            } catch (NumberFormatException e) {
+                response.type(APPLICATION_JSON);
+                response.status(StatusCodes.BAD_REQUEST);
+                return objectMapper.writeValueAsString(new ErrorResponse(new ErrorMessage("VALIDATION_ERROR",
+                        "From and to must be epoch milliseconds")));
+            }
+            return stream(response, action -> accountService.exportTransactions(from, to, action));
+        };
+    }
+
+    /**
+     * Writes every transaction passed by export straight to response stream.
+     *
+     * @return empty body, as everything is written already
+     */
+    private String stream(HttpResponse response, Consumer<Consumer<Transaction>> export) throws IOException {
+        response.type(APPLICATION_NDJSON);
+        response.status(StatusCodes.OK);
+        try (JsonGenerator generator = objectMapper.getFactory()
+                .createGenerator(response.body())) {
+            // lines are separated explicitly, not by default space between root values
+            generator.setRootValueSeparator(null);
+            export.accept(transaction -> write(generator, transaction));
+        } catch (UncheckedIOException e) {
+            // response is committed already, nothing to report to client
+            log.debug("Export aborted: {}", e.getCause().toString());
+        }
+        return "";
+    }
+
+    private static void write(JsonGenerator generator, Transaction transaction) {
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField("accountId", transaction.getAccountId());
+            generator.writeNumberField("operationId", transaction.getOperationId());
+            generator.writeStringField("type", transaction.getType().name());
+            generator.writeNumberField("amount", transaction.getAmount());
+            generator.writeNumberField("timestamp", transaction.getTimestamp());
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long queryLong(String value, long defaultValue) {
+        return value == null || value.isEmpty() ? defaultValue : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,11 @@
+package com.dlopatin.account.controller;
+
+import com.dlopatin.account.http.HttpServer;
+
+public interface HttpController {
+
+    /**
+     * Registers controller routes in server
+     */
+    void init(HttpServer server);
+}
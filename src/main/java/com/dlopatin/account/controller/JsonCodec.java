@@ -0,0 +1,350 @@
+package com.dlopatin.account.controller;
+
+import com.dlopatin.account.controller.dto.ErrorMessage;
+import com.dlopatin.account.controller.dto.ErrorResponse;
+import com.dlopatin.account.controller.dto.GetAccountBatchResponse;
+import com.dlopatin.account.controller.dto.GetAccountResponse;
+import com.dlopatin.account.controller.dto.NewAccountBatchRequest;
+import com.dlopatin.account.controller.dto.NewAccountBatchResponse;
+import com.dlopatin.account.controller.dto.NewAccountRequest;
+import com.dlopatin.account.controller.dto.NewAccountResponse;
+import com.dlopatin.account.controller.dto.StatusCodes;
+import com.dlopatin.account.controller.dto.TransactionPageResponse;
+import com.dlopatin.account.controller.dto.TransferBatchResponse;
+import com.dlopatin.account.controller.dto.TransferRequest;
+import com.dlopatin.account.controller.dto.TransferResponse;
+import com.dlopatin.account.http.Handler;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.dlopatin.account.controller.ContentType.APPLICATION_JSON;
+
+/**
+ * Reads request DTOs from body stream and writes response DTOs straight to response stream, so neither request
+ * nor response exists as a string. Transfer requests, account and transfer responses are the most frequent,
+ * they are parsed and generated by hand without data binding. Readers and writers of other DTOs are built once,
+ * as building them takes more than reading a small body.
+ */
+public class JsonCodec {
+
+    private static final String MALFORMED_REQUEST_CODE = "MALFORMED_REQUEST";
+
+    private final ObjectMapper objectMapper;
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    public JsonCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        reader(NewAccountRequest.class);
+        List.of(NewAccountResponse.class, TransferBatchResponse.class, TransactionPageResponse.class,
+                ErrorResponse.class).forEach(this::writer);
+    }
+
+    /**
+     * @param body request body, engines keep it in memory already, so stream over it is read without copying
+     * @return value of given type read from body
+     * @throws MalformedRequestException if body is not JSON of given type
+     */
+    public <T> T read(InputStream body, Class<T> type) throws IOException {
+        Object value;
+        try {
+            if (type == TransferRequest.class || type == TransferRequest[].class) {
+                value = readTransfers(body, type == TransferRequest[].class);
+            } else if (type == NewAccountBatchRequest.class) {
+                value = readNewAccounts(body);
+            } else {
+                value = reader(type).readValue(body);
+            }
+        } catch (JsonProcessingException e) {
+            throw new MalformedRequestException(e.getOriginalMessage(), e);
+        }
+        if (value == null) {
+            throw new MalformedRequestException("Body must not be null", null);
+        }
+        return type.cast(value);
+    }
+
+    /**
+     * Writes value to stream, keeping stream open. Byte array is written as is, it is a body encoded already,
+     * see {@link ResponseCache}.
+     */
+    public void write(OutputStream out, Object value) throws IOException {
+        if (value instanceof byte[]) {
+            out.write((byte[]) value);
+            return;
+        }
+        if (value instanceof NewAccountBatchResponse) {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                writeIds(generator, (NewAccountBatchResponse) value);
+            }
+            return;
+        }
+        if (value instanceof GetAccountBatchResponse) {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                writeAccounts(generator, (GetAccountBatchResponse) value);
+            }
+            return;
+        }
+        if (value instanceof GetAccountResponse || value instanceof TransferResponse) {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                if (value instanceof GetAccountResponse) {
+                    writeAccount(generator, (GetAccountResponse) value);
+                } else {
+                    writeTransfer(generator, (TransferResponse) value);
+                }
+            }
+            return;
+        }
+        writer(value.getClass()).writeValue(out, value);
+    }
+
+    /**
+     * Transfer requests are read by hand, as they are the most frequent ones and have fixed shape. Rules are
+     * the same as of object mapper: numbers may come as strings, nulls are zeros, unknown fields are errors.
+     *
+     * @return single request or array of them, <code>null</code> for JSON null
+     */
+    private Object readTransfers(InputStream body, boolean array) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                throw new MalformedRequestException("No content to map due to end-of-input", null);
+            }
+            if (token == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (!array) {
+                return readTransfer(parser);
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw malformed(parser, "Expected array of transfers");
+            }
+            List<TransferRequest> transfers = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                transfers.add(readTransfer(parser));
+            }
+            return transfers.toArray(new TransferRequest[0]);
+        }
+    }
+
+    /**
+     * Accounts to be created in bulk are read by hand into arrays, there may be millions of them.
+     *
+     * @return accounts or <code>null</code> for JSON null
+     */
+    private NewAccountBatchRequest readNewAccounts(InputStream body) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                throw new MalformedRequestException("No content to map due to end-of-input", null);
+            }
+            if (token == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw malformed(parser, "Expected array of accounts");
+            }
+            Currency[] currencies = new Currency[16];
+            long[] balances = new long[16];
+            int count = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() != JsonToken.START_OBJECT) {
+                    throw malformed(parser, "Expected account object");
+                }
+                if (count == currencies.length) {
+                    currencies = Arrays.copyOf(currencies, count * 2);
+                    balances = Arrays.copyOf(balances, count * 2);
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "currency":
+                            currencies[count] = readCurrency(parser);
+                            break;
+                        case "balance":
+                            balances[count] = readLong(parser);
+                            break;
+                        default:
+                            throw malformed(parser, String.format("Unrecognized field \"%s\"", field));
+                    }
+                }
+                count++;
+            }
+            return new NewAccountBatchRequest(Arrays.copyOf(currencies, count), Arrays.copyOf(balances, count));
+        }
+    }
+
+    private static Currency readCurrency(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            throw malformed(parser, "Field \"currency\" must be string");
+        }
+        try {
+            return Currency.valueOf(parser.getText());
+        } catch (IllegalArgumentException e) {
+            throw malformed(parser, String.format("Unknown currency \"%s\"", parser.getText()));
+        }
+    }
+
+    private static TransferRequest readTransfer(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw malformed(parser, "Expected transfer object");
+        }
+        int accountFrom = 0;
+        int accountTo = 0;
+        long amount = 0;
+        int operationId = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            // field names are canonicalized by parser, so no string is created for them
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "accountFrom":
+                    accountFrom = toInt(parser, readLong(parser));
+                    break;
+                case "accountTo":
+                    accountTo = toInt(parser, readLong(parser));
+                    break;
+                case "amount":
+                    amount = readLong(parser);
+                    break;
+                case "operationId":
+                    operationId = toInt(parser, readLong(parser));
+                    break;
+                default:
+                    throw malformed(parser, String.format("Unrecognized field \"%s\"", field));
+            }
+        }
+        return new TransferRequest(accountFrom, accountTo, amount, operationId);
+    }
+
+    private static long readLong(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getLongValue();
+            case VALUE_STRING:
+                try {
+                    return Long.parseLong(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    throw malformed(parser, String.format("Cannot read \"%s\" of field \"%s\" as number",
+                            parser.getText(), parser.getCurrentName()));
+                }
+            case VALUE_NULL:
+                return 0;
+            default:
+                throw malformed(parser, String.format("Field \"%s\" must be number", parser.getCurrentName()));
+        }
+    }
+
+    private static int toInt(JsonParser parser, long value) throws IOException {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw malformed(parser, String.format("Value of field \"%s\" is out of range",
+                    parser.getCurrentName()));
+        }
+        return (int) value;
+    }
+
+    private static MalformedRequestException malformed(JsonParser parser, String message) {
+        return new MalformedRequestException(String.format("%s at line %d, column %d", message,
+                parser.getCurrentLocation().getLineNr(), parser.getCurrentLocation().getColumnNr()), null);
+    }
+
+    private static void writeAccount(JsonGenerator generator, GetAccountResponse account) throws IOException {
+        writeAccount(generator, account.getId(), account.getCurrency(), account.getBalance(), account.getVersion());
+    }
+
+    private static void writeAccount(JsonGenerator generator, int id, Currency currency, long balance, int version)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", id);
+        generator.writeStringField("currency", currency.name());
+        generator.writeNumberField("balance", balance);
+        generator.writeNumberField("version", version);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes accounts straight from model, without response object per account.
+     */
+    private static void writeAccounts(JsonGenerator generator, GetAccountBatchResponse accounts) throws IOException {
+        generator.writeStartArray();
+        for (int i = 0; i < accounts.size(); i++) {
+            Account account = accounts.getAccount(i);
+            if (account != null) {
+                writeAccount(generator, account.getId(), account.getCurrency(), account.getBalance(),
+                        account.getVersion());
+            } else {
+                generator.writeStartObject();
+                generator.writeNumberField("id", accounts.getId(i));
+                generator.writeStringField("error", GetAccountBatchResponse.ACCOUNT_NOT_FOUND);
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeIds(JsonGenerator generator, NewAccountBatchResponse ids) throws IOException {
+        int[] values = ids.getIds();
+        generator.writeArray(values, 0, values.length);
+    }
+
+    private static void writeTransfer(JsonGenerator generator, TransferResponse transfer) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("message", transfer.getMessage());
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes DTO returned by handler to response stream, responds with 400 code if handler could not read request.
+     * Status and content type must be set by handler.
+     */
+    public Handler writing(Handler handler) {
+        return (request, response) -> {
+            Object body;
+            try {
+                body = handler.handle(request, response);
+            } catch (MalformedRequestException e) {
+                response.type(APPLICATION_JSON);
+                response.status(StatusCodes.BAD_REQUEST);
+                body = new ErrorResponse(new ErrorMessage(MALFORMED_REQUEST_CODE, e.getMessage()));
+            }
+            write(response.body(), body);
+            return "";
+        };
+    }
+
+    private ObjectReader reader(Class<?> type) {
+        ObjectReader reader = readers.get(type);
+        return reader != null ? reader : readers.computeIfAbsent(type, objectMapper::readerFor);
+    }
+
+    private ObjectWriter writer(Class<?> type) {
+        ObjectWriter writer = writers.get(type);
+        return writer != null ? writer : writers.computeIfAbsent(type, key -> objectMapper.writerFor(key)
+                // response stream is completed by container
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET));
+    }
+}
@@ -0,0 +1,11 @@
+package com.dlopatin.account.controller;
+
+/**
+ * Thrown if request body can not be read as expected type, responded with 400 code.
+ */
+public class MalformedRequestException extends RuntimeException {
+
+    public MalformedRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,69 @@
+package com.dlopatin.account.controller;
+
+import com.dlopatin.account.http.Handler;
+import com.dlopatin.account.http.HttpRequest;
+import com.dlopatin.account.http.HttpServer;
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.metrics.RouteMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static com.dlopatin.account.controller.ContentType.APPLICATION_JSON;
+
+/**
+ * Measures every request and exposes collected metrics in Prometheus text format, or in JSON if requested
+ * by <code>format=json</code> parameter or by <code>Accept</code> header.
+ */
+public class MetricsController implements HttpController {
+
+    private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String START_ATTRIBUTE = "metrics.start";
+    private static final String ROUTE_ATTRIBUTE = "metrics.route";
+
+    private final Metrics metrics;
+    private final ObjectMapper objectMapper;
+    private final RouteMetrics unmatched;
+
+    public MetricsController(Metrics metrics, ObjectMapper objectMapper) {
+        this.metrics = metrics;
+        this.objectMapper = objectMapper;
+        this.unmatched = metrics.route("ANY", "unmatched");
+    }
+
+    /**
+     * Marks requests handled by route to be measured as requests of given route.
+     */
+    static Handler timed(RouteMetrics routeMetrics, Handler handler) {
+        return (request, response) -> {
+            request.attribute(ROUTE_ATTRIBUTE, routeMetrics);
+            return handler.handle(request, response);
+        };
+    }
+
+    @Override
+    public void init(HttpServer server) {
+        server.before((request, response) -> request.attribute(START_ATTRIBUTE, System.nanoTime()));
+        // runs after response is serialized and after exception handling as well
+        server.afterAfter((request, response) -> {
+            Long start = request.attribute(START_ATTRIBUTE);
+            if (start == null) {
+                return;
+            }
+            RouteMetrics routeMetrics = request.attribute(ROUTE_ATTRIBUTE);
+            (routeMetrics != null ? routeMetrics : unmatched).record(System.nanoTime() - start, response.status());
+        });
+        server.get("/api/v1/metrics", timed(metrics.route("GET", "/api/v1/metrics"), (request, response) -> {
+            if (isJsonRequested(request)) {
+                response.type(APPLICATION_JSON);
+                return objectMapper.writeValueAsString(metrics.toMap());
+            }
+            response.type(PROMETHEUS_TEXT);
+            return metrics.toPrometheus();
+        }));
+    }
+
+    private static boolean isJsonRequested(HttpRequest request) {
+        String accept = request.header("Accept");
+        return "json".equals(request.queryParam("format"))
+                || (accept != null && accept.contains(APPLICATION_JSON));
+    }
+}
@@ -0,0 +1,66 @@
+package com.dlopatin.account.controller;
+
+import com.dlopatin.account.controller.dto.ErrorMessage;
+import com.dlopatin.account.controller.dto.ErrorResponse;
+import com.dlopatin.account.controller.dto.TransferResponse;
+import com.dlopatin.account.service.TransferException.TransferError;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Bodies of responses which never change, encoded by object mapper once at startup, so they are the same bytes
+ * as encoded per request before. Routes return them as is: both HTTP engines and {@link JsonCodec} write byte arrays
+ * to response stream without encoding.
+ * <p>
+ * Arrays are shared by all requests and must not be modified.
+ */
+public class ResponseCache {
+
+    private final byte[] transferSuccessful;
+    private final Map<TransferError, byte[]> transferErrors = new EnumMap<>(TransferError.class);
+    private final byte[] handlerNotFound;
+    private final byte[] badRequest;
+    private final byte[] internalServerError;
+
+    public ResponseCache(ObjectMapper objectMapper) {
+        transferSuccessful = encode(objectMapper, TransferResponse.successful());
+        for (TransferError error : TransferError.values()) {
+            transferErrors.put(error, encode(objectMapper, new ErrorResponse(new ErrorMessage(error.toString()))));
+        }
+        handlerNotFound = encode(objectMapper, new ErrorResponse(new ErrorMessage("REQUEST_HANDLER_NOT_FOUND")));
+        badRequest = encode(objectMapper, new ErrorResponse(new ErrorMessage("BAD_REQUEST")));
+        internalServerError = encode(objectMapper, new ErrorResponse(new ErrorMessage("INTERNAL_SERVER_ERROR")));
+    }
+
+    private static byte[] encode(ObjectMapper objectMapper, Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public byte[] transferSuccessful() {
+        return transferSuccessful;
+    }
+
+    public byte[] transferError(TransferError error) {
+        return transferErrors.get(error);
+    }
+
+    public byte[] handlerNotFound() {
+        return handlerNotFound;
+    }
+
+    public byte[] badRequest() {
+        return badRequest;
+    }
+
+    public byte[] internalServerError() {
+        return internalServerError;
+    }
+}
@@ -1,9 +0,0 @@
-package com.dlopatin.account.controller;
-
-public interface SparkController {
-
-    /**
-     * Registers controller in spark framework
-     */
-    void init();
-}
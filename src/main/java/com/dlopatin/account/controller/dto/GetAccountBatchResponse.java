@@ -0,0 +1,84 @@
+package com.dlopatin.account.controller.dto;
+
+import com.dlopatin.account.model.Account;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accounts in the same order as requested, written as JSON array. Id of account not found has an entry
+ * with error instead of account fields.
+ */
+public class GetAccountBatchResponse {
+
+    public static final String ACCOUNT_NOT_FOUND = "ACCOUNT_NOT_FOUND";
+
+    private final int[] ids;
+    private final Account[] accounts;
+
+    /**
+     * @param accounts account per id, <code>null</code> if account is not found
+     */
+    public GetAccountBatchResponse(int[] ids, Account[] accounts) {
+        this.ids = ids;
+        this.accounts = accounts;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @return account or <code>null</code> if it's not found
+     */
+    public Account getAccount(int index) {
+        return accounts[index];
+    }
+
+    @JsonValue
+    public List<Object> getItems() {
+        List<Object> items = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            items.add(accounts[i] != null ? GetAccountResponse.from(accounts[i]) : new NotFound(ids[i]));
+        }
+        return items;
+    }
+
+    @Override
+    public String toString() {
+        return "GetAccountBatchResponse{" +
+                "items=" + getItems() +
+                '}';
+    }
+
+    public static class NotFound {
+
+        private final int id;
+        private final String error = ACCOUNT_NOT_FOUND;
+
+        private NotFound(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "NotFound{" +
+                    "id=" + id +
+                    ", error='" + error + '\'' +
+                    '}';
+        }
+    }
+}
@@ -9,15 +9,18 @@ public class GetAccountResponse {
     private final Currency currency;
     // balance is stored in cents, pinnies, etc. To avoid work with BigDecimal
     private final long balance;
+    private final int version;
 
     public static GetAccountResponse from(Account account) {
-        return new GetAccountResponse(account.getId(), account.getCurrency(), account.getBalance());
+        return new GetAccountResponse(account.getId(), account.getCurrency(), account.getBalance(),
+                account.getVersion());
     }
 
-    private GetAccountResponse(int id, Currency currency, long balance) {
+    private GetAccountResponse(int id, Currency currency, long balance, int version) {
         this.id = id;
         this.currency = currency;
         this.balance = balance;
+        this.version = version;
     }
 
     public int getId() {
@@ -32,12 +35,20 @@ public class GetAccountResponse {
         return balance;
     }
 
+    /**
+     * @return number of changes made to account, grows with every change
+     */
+    public int getVersion() {
+        return version;
+    }
+
     @Override
     public String toString() {
         return "GetAccountResponse{" +
                 "id=" + id +
                 ", currency=" + currency +
                 ", balance=" + balance +
+                ", version=" + version +
                 '}';
     }
 }
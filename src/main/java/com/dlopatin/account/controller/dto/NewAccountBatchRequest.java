@@ -0,0 +1,38 @@
+package com.dlopatin.account.controller.dto;
+
+import com.dlopatin.account.model.Currency;
+
+/**
+ * Accounts to be created in bulk, kept as arrays, as there may be millions of them.
+ * Read from JSON array of {@link NewAccountRequest} objects.
+ */
+public class NewAccountBatchRequest {
+
+    private final Currency[] currencies;
+    // balance is stored in cents, pinnies, etc. To avoid work with BigDecimal
+    private final long[] balances;
+
+    public NewAccountBatchRequest(Currency[] currencies, long[] balances) {
+        this.currencies = currencies;
+        this.balances = balances;
+    }
+
+    public Currency[] getCurrencies() {
+        return currencies;
+    }
+
+    public long[] getBalances() {
+        return balances;
+    }
+
+    public int size() {
+        return currencies.length;
+    }
+
+    @Override
+    public String toString() {
+        return "NewAccountBatchRequest{" +
+                "size=" + currencies.length +
+                '}';
+    }
+}
@@ -0,0 +1,29 @@
+package com.dlopatin.account.controller.dto;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Arrays;
+
+/**
+ * Ids of accounts created in bulk in the same order as requested, written as JSON array of ids.
+ */
+public class NewAccountBatchResponse {
+
+    private final int[] ids;
+
+    public NewAccountBatchResponse(int[] ids) {
+        this.ids = ids;
+    }
+
+    @JsonValue
+    public int[] getIds() {
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return "NewAccountBatchResponse{" +
+                "ids=" + Arrays.toString(ids) +
+                '}';
+    }
+}
@@ -7,9 +7,15 @@ public class StatusCodes {
 
     public static final int OK = 200;
     public static final int CREATED = 201;
+    public static final int NO_CONTENT = 204;
+
+    public static final int NOT_MODIFIED = 304;
+    public static final int TEMPORARY_REDIRECT = 307;
 
     public static final int BAD_REQUEST = 400;
     public static final int NOT_FOUND = 404;
 
     public static final int INTERNAL_SERVER_ERROR = 500;
+    public static final int NOT_IMPLEMENTED = 501;
+    public static final int SERVICE_UNAVAILABLE = 503;
 }
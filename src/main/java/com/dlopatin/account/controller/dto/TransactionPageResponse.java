@@ -0,0 +1,89 @@
+package com.dlopatin.account.controller.dto;
+
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.model.TransactionType;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Page of account transactions in order they were made. Next page is requested with <code>after</code>
+ * parameter equal to {@link #getNext()}, which is <code>null</code> if page is not full, i.e. the last one.
+ */
+public class TransactionPageResponse {
+
+    private final List<Item> transactions;
+    private final Integer next;
+
+    public static TransactionPageResponse from(List<Transaction> transactions, int after, int limit) {
+        return new TransactionPageResponse(transactions.stream().map(Item::from).collect(Collectors.toList()),
+                transactions.size() < limit ? null : after + transactions.size());
+    }
+
+    private TransactionPageResponse(List<Item> transactions, Integer next) {
+        this.transactions = transactions;
+        this.next = next;
+    }
+
+    public List<Item> getTransactions() {
+        return transactions;
+    }
+
+    public Integer getNext() {
+        return next;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionPageResponse{" +
+                "transactions=" + transactions +
+                ", next=" + next +
+                '}';
+    }
+
+    public static class Item {
+
+        private final int operationId;
+        private final TransactionType type;
+        private final long amount;
+        private final long timestamp;
+
+        static Item from(Transaction transaction) {
+            return new Item(transaction.getOperationId(), transaction.getType(), transaction.getAmount(),
+                    transaction.getTimestamp());
+        }
+
+        private Item(int operationId, TransactionType type, long amount, long timestamp) {
+            this.operationId = operationId;
+            this.type = type;
+            this.amount = amount;
+            this.timestamp = timestamp;
+        }
+
+        public int getOperationId() {
+            return operationId;
+        }
+
+        public TransactionType getType() {
+            return type;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return "Item{" +
+                    "operationId=" + operationId +
+                    ", type=" + type +
+                    ", amount=" + amount +
+                    ", timestamp=" + timestamp +
+                    '}';
+        }
+    }
+}
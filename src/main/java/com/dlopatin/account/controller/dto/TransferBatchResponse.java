@@ -0,0 +1,76 @@
+package com.dlopatin.account.controller.dto;
+
+import com.dlopatin.account.service.TransferResult;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Container for results of batch transfer in the same order as requested
+ */
+public class TransferBatchResponse {
+
+    private final List<Item> results;
+
+    public static TransferBatchResponse from(List<TransferResult> results) {
+        return new TransferBatchResponse(results.stream().map(Item::from).collect(Collectors.toList()));
+    }
+
+    private TransferBatchResponse(List<Item> results) {
+        this.results = results;
+    }
+
+    public List<Item> getResults() {
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferBatchResponse{" +
+                "results=" + results +
+                '}';
+    }
+
+    public static class Item {
+
+        private static final String SUCCESSFUL = "ok";
+        private static final String FAILED = "failed";
+
+        private final int operationId;
+        private final String status;
+        private final String error;
+
+        static Item from(TransferResult result) {
+            return result.isSuccessful()
+                    ? new Item(result.getOperationId(), SUCCESSFUL, null)
+                    : new Item(result.getOperationId(), FAILED, result.getError().toString());
+        }
+
+        private Item(int operationId, String status, String error) {
+            this.operationId = operationId;
+            this.status = status;
+            this.error = error;
+        }
+
+        public int getOperationId() {
+            return operationId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "Item{" +
+                    "operationId=" + operationId +
+                    ", status='" + status + '\'' +
+                    ", error='" + error + '\'' +
+                    '}';
+        }
+    }
+}
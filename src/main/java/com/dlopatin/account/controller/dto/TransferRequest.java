@@ -11,6 +11,13 @@ public class TransferRequest {
     public TransferRequest() {
     }
 
+    public TransferRequest(int accountFrom, int accountTo, long amount, int operationId) {
+        this.accountFrom = accountFrom;
+        this.accountTo = accountTo;
+        this.amount = amount;
+        this.operationId = operationId;
+    }
+
     public int getAccountFrom() {
         return accountFrom;
     }
@@ -0,0 +1,14 @@
+package com.dlopatin.account.http;
+
+/**
+ * Request can not be read as sent, e.g. query parameter has malformed escape. Server answers it with
+ * <code>400</code> by handler registered with {@link HttpServer#badRequest(Handler)}.
+ */
+public class BadRequestException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BadRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
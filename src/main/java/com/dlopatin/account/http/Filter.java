@@ -0,0 +1,10 @@
+package com.dlopatin.account.http;
+
+/**
+ * Runs for every request, whether it is matched by a route or not.
+ */
+@FunctionalInterface
+public interface Filter {
+
+    void handle(HttpRequest request, HttpResponse response) throws Exception;
+}
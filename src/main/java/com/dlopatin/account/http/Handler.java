@@ -0,0 +1,14 @@
+package com.dlopatin.account.http;
+
+/**
+ * Handles request matched by route.
+ */
+@FunctionalInterface
+public interface Handler {
+
+    /**
+     * @return response body: string written in UTF-8, byte array written as is, empty string or
+     * <code>null</code> if body is written to {@link HttpResponse#body()} already or there is no body
+     */
+    Object handle(HttpRequest request, HttpResponse response) throws Exception;
+}
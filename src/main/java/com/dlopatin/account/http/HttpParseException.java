@@ -0,0 +1,20 @@
+package com.dlopatin.account.http;
+
+/**
+ * Request can not be handled as it's malformed or exceeds limits, connection is closed after responding.
+ */
+final class HttpParseException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    HttpParseException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,46 @@
+package com.dlopatin.account.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Request as seen by handlers, whatever engine received it.
+ */
+public interface HttpRequest {
+
+    String method();
+
+    /**
+     * @return path without query string
+     */
+    String path();
+
+    /**
+     * @param name name of path parameter declared by route as <code>:name</code>, with or without colon
+     * @return decoded value of path parameter or <code>null</code> if route has no such parameter
+     */
+    String param(String name);
+
+    /**
+     * @return decoded value of query parameter or <code>null</code> if there is no such parameter
+     * @throws BadRequestException if query has malformed escape
+     */
+    String queryParam(String name);
+
+    /**
+     * @return value of header, name is case insensitive, <code>null</code> if there is no such header
+     */
+    String header(String name);
+
+    /**
+     * @return request body, read without copying where engine keeps it in memory already
+     */
+    InputStream body() throws IOException;
+
+    /**
+     * @return value set by filter or handler for the same request, <code>null</code> if not set
+     */
+    <T> T attribute(String name);
+
+    void attribute(String name, Object value);
+}
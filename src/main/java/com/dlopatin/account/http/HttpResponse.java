@@ -0,0 +1,29 @@
+package com.dlopatin.account.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Response as seen by handlers. Status and content type must be set before body is written.
+ */
+public interface HttpResponse {
+
+    /**
+     * @return response status, <code>200</code> unless set
+     */
+    int status();
+
+    void status(int status);
+
+    void type(String contentType);
+
+    /**
+     * Adds header to response, besides content type and headers set by engine.
+     */
+    void header(String name, String value);
+
+    /**
+     * @return stream body is written to, engine completes it after handler
+     */
+    OutputStream body() throws IOException;
+}
@@ -0,0 +1,83 @@
+package com.dlopatin.account.http;
+
+/**
+ * HTTP engine controllers register routes in, so they do not depend on the engine serving them. Route path is
+ * matched segment by segment, segment starting with colon matches any value and is available to handler as
+ * parameter of that name. Route with accept type matches only requests accepting it by <code>Accept</code>
+ * header, request without the header accepts any type. Everything is registered before {@link #start()}.
+ */
+public interface HttpServer {
+
+    /**
+     * Accept type of route serving whatever client accepts.
+     */
+    String ANY_TYPE = "*/*";
+
+    void route(String method, String path, String acceptType, Handler handler);
+
+    default void route(String method, String path, Handler handler) {
+        route(method, path, ANY_TYPE, handler);
+    }
+
+    default void get(String path, Handler handler) {
+        route("GET", path, handler);
+    }
+
+    default void get(String path, String acceptType, Handler handler) {
+        route("GET", path, acceptType, handler);
+    }
+
+    default void post(String path, Handler handler) {
+        route("POST", path, handler);
+    }
+
+    default void post(String path, String acceptType, Handler handler) {
+        route("POST", path, acceptType, handler);
+    }
+
+    default void put(String path, Handler handler) {
+        route("PUT", path, handler);
+    }
+
+    default void delete(String path, Handler handler) {
+        route("DELETE", path, handler);
+    }
+
+    /**
+     * Registers filter run before every request is handled.
+     */
+    void before(Filter filter);
+
+    /**
+     * Registers filter run after every response is written, including failed and unmatched requests.
+     */
+    void afterAfter(Filter filter);
+
+    /**
+     * Registers handler of requests matched by no route, status is set to <code>404</code> before it's called.
+     */
+    void notFound(Handler handler);
+
+    /**
+     * Registers handler of requests failed by {@link BadRequestException}, status is set to <code>400</code>
+     * before it's called.
+     */
+    void badRequest(Handler handler);
+
+    /**
+     * Registers handler of requests failed by exception, status is set to <code>500</code> before it's called.
+     */
+    void internalServerError(Handler handler);
+
+    /**
+     * Starts serving requests, waits until server is ready.
+     *
+     * @return port the server listens to, chosen by system if configured port is zero
+     */
+    int start();
+
+    /**
+     * Stops serving requests, requests handled at the moment may be aborted.
+     */
+    void stop();
+}
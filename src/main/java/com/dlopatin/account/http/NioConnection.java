@@ -0,0 +1,278 @@
+package com.dlopatin.account.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection of {@link NioHttpServer}. Owned by event loop while request is being read and by a worker thread
+ * while requests are handled, never by both: event loop stops watching connection when it hands complete request
+ * over, worker starts watching it again when it's done with all requests read.
+ * <p>
+ * Requests pipelined by client are handled one by one, so responses go in the same order.
+ */
+final class NioConnection {
+
+    private static final Logger log = LoggerFactory.getLogger(NioConnection.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+    private static final long WRITE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final NioHttpServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private byte[] responseBuffer;
+    // unhandled data is between start and end of buffer
+    private int start;
+    private int end;
+    // head of the next request if it's parsed already
+    private NioRequest next;
+    // interim response is sent to the next request already
+    private boolean continued;
+    // interim response not written yet
+    private ByteBuffer interim;
+    // hands buffer over between event loop and worker
+    private volatile boolean handling;
+    private volatile long lastActive = System.nanoTime();
+    private Selector writeSelector;
+
+    NioConnection(NioHttpServer server, SocketChannel channel, Selector selector) throws IOException {
+        this.server = server;
+        this.channel = channel;
+        this.key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Reads what has come, hands complete request over to worker. Called by event loop.
+     */
+    void onReadable() {
+        if (handling) {
+            return;
+        }
+        try {
+            if (end == buffer.length) {
+                makeRoom();
+            }
+            int read = channel.read(ByteBuffer.wrap(buffer, end, buffer.length - end));
+            if (read < 0) {
+                close();
+                return;
+            }
+            end += read;
+            lastActive = System.nanoTime();
+            if (hasRequest()) {
+                handOver(this::handle);
+            } else if (interim != null) {
+                // event loop never waits for client, what is not written at once is written by worker
+                channel.write(interim);
+                if (interim.hasRemaining()) {
+                    handOver(this::writeInterim);
+                } else {
+                    interim = null;
+                }
+            }
+        } catch (HttpParseException e) {
+            reject(e.getStatus(), e.getMessage());
+        } catch (IOException e) {
+            log.debug("Read failed: {}", e.toString());
+            close();
+        }
+    }
+
+    private void handOver(Runnable task) {
+        handling = true;
+        key.interestOps(0);
+        try {
+            server.execute(task);
+        } catch (RejectedExecutionException e) {
+            reject(503, "Server is overloaded");
+        }
+    }
+
+    /**
+     * @return whether connection waits for the next request for longer than given time
+     */
+    boolean isIdle(long now, long timeoutNanos) {
+        return !handling && now - lastActive > timeoutNanos;
+    }
+
+    /**
+     * Handles every complete request read, then gives connection back to event loop. Called by worker.
+     */
+    private void handle() {
+        try {
+            do {
+                NioRequest request = next;
+                next = null;
+                if (responseBuffer == null) {
+                    responseBuffer = new byte[RESPONSE_BUFFER_SIZE];
+                }
+                boolean keepAlive = server.handle(request, new NioResponse(this, request, responseBuffer));
+                start = request.end();
+                continued = false;
+                if (!keepAlive) {
+                    close();
+                    return;
+                }
+            } while (hasRequest());
+            flushInterim();
+            compact();
+            lastActive = System.nanoTime();
+            handling = false;
+            server.resume(key);
+        } catch (HttpParseException e) {
+            reject(e.getStatus(), e.getMessage());
+        } catch (IOException e) {
+            log.debug("Write failed: {}", e.toString());
+            close();
+        } catch (RuntimeException e) {
+            log.error("Request handling failed", e);
+            close();
+        }
+    }
+
+    /**
+     * Writes the rest of interim response, then gives connection back to event loop. Called by worker.
+     */
+    private void writeInterim() {
+        try {
+            flushInterim();
+            lastActive = System.nanoTime();
+            handling = false;
+            server.resume(key);
+        } catch (IOException e) {
+            log.debug("Write failed: {}", e.toString());
+            close();
+        }
+    }
+
+    private void flushInterim() throws IOException {
+        if (interim != null) {
+            write(interim);
+            interim = null;
+        }
+    }
+
+    /**
+     * @return whether buffer has the whole next request, interim response is only queued to be written by caller
+     */
+    private boolean hasRequest() throws HttpParseException, IOException {
+        if (next == null) {
+            next = NioRequest.parse(buffer, start, end);
+            if (next == null) {
+                return false;
+            }
+        }
+        if (next.end() > buffer.length) {
+            // body does not fit, head is parsed again after buffer is moved
+            grow(next.end() - start);
+            next = NioRequest.parse(buffer, start, end);
+        }
+        if (next.end() <= end) {
+            return true;
+        }
+        if (next.expectsContinue() && !continued) {
+            continued = true;
+            interim = ByteBuffer.wrap(CONTINUE);
+        }
+        return false;
+    }
+
+    private void makeRoom() throws HttpParseException {
+        if (start > 0) {
+            compact();
+        } else {
+            grow(buffer.length * 2);
+        }
+    }
+
+    private void grow(int size) throws HttpParseException {
+        if (size > NioRequest.MAX_HEAD_SIZE + NioRequest.MAX_BODY_SIZE) {
+            throw new HttpParseException(413, "Request exceeds buffer");
+        }
+        compact();
+        if (size > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(size, buffer.length * 2));
+        }
+    }
+
+    private void compact() {
+        // parsed head refers to positions being moved
+        next = null;
+        if (start == end) {
+            start = 0;
+            end = 0;
+        } else if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+    }
+
+    /**
+     * Writes all given data, waiting while client does not read.
+     */
+    void write(ByteBuffer... data) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : data) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            long written = channel.write(data);
+            remaining -= written;
+            if (written == 0) {
+                awaitWritable();
+            }
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        if (writeSelector == null) {
+            // event loop does not watch connection meanwhile, so worker waits by own selector
+            writeSelector = Selector.open();
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+        }
+        if (writeSelector.select(WRITE_TIMEOUT_MILLIS) == 0) {
+            throw new IOException("Write timed out");
+        }
+        writeSelector.selectedKeys().clear();
+    }
+
+    /**
+     * Responds with error status without body and closes connection, best effort.
+     */
+    private void reject(int status, String message) {
+        log.debug("Request rejected with {}: {}", status, message);
+        byte[] response = String.format("HTTP/1.1 %d %s\r\nContent-Length: 0\r\nConnection: close\r\n\r\n",
+                status, NioResponse.reason(status)).getBytes(StandardCharsets.ISO_8859_1);
+        try {
+            channel.write(ByteBuffer.wrap(response));
+        } catch (IOException e) {
+            log.debug("Rejection failed: {}", e.toString());
+        }
+        close();
+    }
+
+    void close() {
+        try {
+            channel.close();
+            if (writeSelector != null) {
+                writeSelector.close();
+            }
+        } catch (IOException e) {
+            log.debug("Close failed: {}", e.toString());
+        }
+    }
+}
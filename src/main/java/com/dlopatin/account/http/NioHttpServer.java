@@ -0,0 +1,269 @@
+package com.dlopatin.account.http;
+
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves routes by a single event loop thread accepting connections and reading requests, complete requests are
+ * handled by thread pool. Connections are kept alive and pipelined requests are handled in order. Request bodies
+ * are sent with length, chunked request bodies are not supported.
+ * <p>
+ * There are no servlet layers between socket and handler: request is parsed in connection buffer in place and
+ * response is written from reusable buffer, so request costs little more than handler itself.
+ */
+public class NioHttpServer implements HttpServer {
+
+    private static final Logger log = LoggerFactory.getLogger(NioHttpServer.class);
+
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+    private final int port;
+    private final ThreadPool threadPool;
+    private final Routes routes = new Routes();
+    private final List<Filter> beforeFilters = new ArrayList<>();
+    private final List<Filter> afterAfterFilters = new ArrayList<>();
+    private Handler notFound = (request, response) -> "";
+    private Handler badRequest = (request, response) -> "";
+    private Handler internalServerError = (request, response) -> "";
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread eventLoop;
+    private volatile boolean running;
+
+    /**
+     * @param port       port to listen to, zero lets system choose a free port
+     * @param threadPool pool of threads handling requests, started and stopped with server
+     */
+    public NioHttpServer(int port, ThreadPool threadPool) {
+        this.port = port;
+        this.threadPool = threadPool;
+    }
+
+    @Override
+    public void route(String method, String path, String acceptType, Handler handler) {
+        routes.add(method, path, acceptType, handler);
+    }
+
+    @Override
+    public void before(Filter filter) {
+        beforeFilters.add(filter);
+    }
+
+    @Override
+    public void afterAfter(Filter filter) {
+        afterAfterFilters.add(filter);
+    }
+
+    @Override
+    public void notFound(Handler handler) {
+        this.notFound = handler;
+    }
+
+    @Override
+    public void badRequest(Handler handler) {
+        this.badRequest = handler;
+    }
+
+    @Override
+    public void internalServerError(Handler handler) {
+        this.internalServerError = handler;
+    }
+
+    @Override
+    public int start() {
+        try {
+            if (threadPool instanceof LifeCycle) {
+                ((LifeCycle) threadPool).start();
+            }
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Thread pool failed to start", e);
+        }
+        running = true;
+        eventLoop = new Thread(this::loop, "http-event-loop");
+        eventLoop.start();
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (selector == null) {
+            return;
+        }
+        selector.wakeup();
+        try {
+            eventLoop.join(TimeUnit.SECONDS.toMillis(5));
+            if (threadPool instanceof LifeCycle) {
+                ((LifeCycle) threadPool).stop();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Thread pool failed to stop", e);
+        }
+    }
+
+    private void loop() {
+        long lastIdleCheck = System.nanoTime();
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        ((NioConnection) key.attachment()).onReadable();
+                    }
+                }
+                selector.selectedKeys().clear();
+                long now = System.nanoTime();
+                if (now - lastIdleCheck > TimeUnit.MILLISECONDS.toNanos(SELECT_TIMEOUT_MILLIS)) {
+                    closeIdle(now);
+                    lastIdleCheck = now;
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            log.error("Event loop failed", e);
+        } finally {
+            close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            try {
+                channel.configureBlocking(false);
+                // responses are written whole, so small ones must not wait for acknowledgement
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                new NioConnection(this, channel, selector);
+            } catch (IOException e) {
+                log.debug("Accept failed: {}", e.toString());
+                channel.close();
+            }
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object connection = key.attachment();
+            if (connection instanceof NioConnection && ((NioConnection) connection).isIdle(now, IDLE_TIMEOUT_NANOS)) {
+                ((NioConnection) connection).close();
+            }
+        }
+    }
+
+    private void close() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection) {
+                ((NioConnection) key.attachment()).close();
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Server failed to close", e);
+        }
+    }
+
+    void execute(Runnable task) {
+        threadPool.execute(task);
+    }
+
+    /**
+     * Lets event loop read connection again, called by worker when connection has no complete request left.
+     */
+    void resume(SelectionKey key) {
+        if (key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Handles request and sends response, called by worker.
+     *
+     * @return whether connection can take the next request
+     */
+    boolean handle(NioRequest request, NioResponse response) throws IOException {
+        boolean broken = false;
+        try {
+            for (Filter filter : beforeFilters) {
+                filter.handle(request, response);
+            }
+            Routes.Match match = routes.match(request);
+            Object body;
+            if (match != null) {
+                request.match(match);
+                try {
+                    body = match.handler().handle(request, response);
+                } catch (BadRequestException e) {
+                    if (response.isCommitted()) {
+                        throw e;
+                    }
+                    response.reset();
+                    response.status(400);
+                    body = badRequest.handle(request, response);
+                }
+            } else {
+                response.status(404);
+                body = notFound.handle(request, response);
+            }
+            response.write(body);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            if (response.isCommitted()) {
+                // part of response is sent, client can only tell it's broken by connection closed
+                log.error("Request failed after response was committed", e);
+                broken = true;
+            } else {
+                log.error("Request failed", e);
+                response.reset();
+                response.status(500);
+                try {
+                    response.write(internalServerError.handle(request, response));
+                } catch (Exception handlerError) {
+                    log.error("Internal server error handler failed", handlerError);
+                    response.reset();
+                }
+            }
+        }
+        boolean keepAlive = !broken && response.finish();
+        for (Filter filter : afterAfterFilters) {
+            try {
+                filter.handle(request, response);
+            } catch (Exception e) {
+                log.error("After filter failed", e);
+            }
+        }
+        return keepAlive;
+    }
+}
@@ -0,0 +1,345 @@
+package com.dlopatin.account.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Request parsed by {@link NioHttpServer} in place: it refers to connection buffer by offsets, header values
+ * and query parameters become strings only when asked for. Valid while request is handled only,
+ * connection buffer is reused afterwards.
+ */
+final class NioRequest implements HttpRequest {
+
+    static final int MAX_HEAD_SIZE = 8 * 1024;
+    static final int MAX_BODY_SIZE = 4 * 1024 * 1024;
+
+    private static final byte[] CONTENT_LENGTH = bytes("content-length");
+    private static final byte[] TRANSFER_ENCODING = bytes("transfer-encoding");
+    private static final byte[] CONNECTION = bytes("connection");
+    private static final byte[] CLOSE = bytes("close");
+    private static final byte[] KEEP_ALIVE = bytes("keep-alive");
+    private static final byte[] EXPECT = bytes("expect");
+    private static final byte[] CONTINUE = bytes("100-continue");
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE"};
+    private static final byte[][] METHOD_BYTES = Arrays.stream(METHODS)
+            .map(method -> method.getBytes(StandardCharsets.ISO_8859_1))
+            .toArray(byte[][]::new);
+
+    private final byte[] buffer;
+    private final String method;
+    private final String path;
+    private final int queryStart;
+    private final int queryEnd;
+    private final boolean http11;
+    // name start, name end, value start, value end of every header
+    private final int[] headers;
+    private final int headerCount;
+    private final int bodyStart;
+    private final int contentLength;
+    private final boolean keepAlive;
+    private final boolean expectsContinue;
+    private Routes.Match match;
+    private Map<String, String> queryParams;
+    private Map<String, Object> attributes;
+
+    private NioRequest(byte[] buffer, String method, String path, int queryStart, int queryEnd, boolean http11,
+                       int[] headers, int headerCount, int bodyStart, int contentLength, boolean keepAlive,
+                       boolean expectsContinue) {
+        this.buffer = buffer;
+        this.method = method;
+        this.path = path;
+        this.queryStart = queryStart;
+        this.queryEnd = queryEnd;
+        this.http11 = http11;
+        this.headers = headers;
+        this.headerCount = headerCount;
+        this.bodyStart = bodyStart;
+        this.contentLength = contentLength;
+        this.keepAlive = keepAlive;
+        this.expectsContinue = expectsContinue;
+    }
+
+    /**
+     * Parses request line and headers, body is not required to be read yet.
+     *
+     * @param start position request starts at
+     * @param end   position read data ends at
+     * @return request or <code>null</code> if head is not read completely yet
+     * @throws HttpParseException if request is malformed or too large
+     */
+    static NioRequest parse(byte[] buffer, int start, int end) throws HttpParseException {
+        int headEnd = indexOfEmptyLine(buffer, start, Math.min(end, start + MAX_HEAD_SIZE));
+        if (headEnd < 0) {
+            if (end - start >= MAX_HEAD_SIZE) {
+                throw new HttpParseException(431, "Request head exceeds " + MAX_HEAD_SIZE + " bytes");
+            }
+            return null;
+        }
+        int lineEnd = indexOfLineEnd(buffer, start, headEnd);
+        int methodEnd = indexOf(buffer, (byte) ' ', start, lineEnd);
+        int targetEnd = methodEnd < 0 ? -1 : indexOf(buffer, (byte) ' ', methodEnd + 1, lineEnd);
+        if (targetEnd < 0 || buffer[methodEnd + 1] != '/') {
+            throw new HttpParseException(400, "Malformed request line");
+        }
+        String version = ascii(buffer, targetEnd + 1, lineEnd);
+        if (!version.startsWith("HTTP/1.")) {
+            throw new HttpParseException(505, "Version not supported: " + version);
+        }
+        boolean http11 = !version.equals("HTTP/1.0");
+        int queryMark = indexOf(buffer, (byte) '?', methodEnd + 1, targetEnd);
+        int pathEnd = queryMark < 0 ? targetEnd : queryMark;
+        checkEscapes(buffer, methodEnd + 1, pathEnd);
+
+        int[] headers = new int[32];
+        int headerCount = 0;
+        long contentLength = 0;
+        boolean keepAlive = http11;
+        boolean expectsContinue = false;
+        int position = lineEnd + 2;
+        while (position < headEnd) {
+            int headerEnd = indexOfLineEnd(buffer, position, headEnd);
+            int colon = indexOf(buffer, (byte) ':', position, headerEnd);
+            if (colon <= position) {
+                throw new HttpParseException(400, "Malformed header");
+            }
+            int valueStart = colon + 1;
+            while (valueStart < headerEnd && isSpace(buffer[valueStart])) {
+                valueStart++;
+            }
+            int valueEnd = headerEnd;
+            while (valueEnd > valueStart && isSpace(buffer[valueEnd - 1])) {
+                valueEnd--;
+            }
+            if (headerCount * 4 == headers.length) {
+                headers = Arrays.copyOf(headers, headers.length * 2);
+            }
+            headers[headerCount * 4] = position;
+            headers[headerCount * 4 + 1] = colon;
+            headers[headerCount * 4 + 2] = valueStart;
+            headers[headerCount * 4 + 3] = valueEnd;
+            headerCount++;
+            if (equalsIgnoreCase(buffer, position, colon, CONTENT_LENGTH)) {
+                contentLength = parseLength(buffer, valueStart, valueEnd);
+            } else if (equalsIgnoreCase(buffer, position, colon, TRANSFER_ENCODING)) {
+                throw new HttpParseException(501, "Transfer encoding not supported");
+            } else if (equalsIgnoreCase(buffer, position, colon, CONNECTION)) {
+                if (equalsIgnoreCase(buffer, valueStart, valueEnd, CLOSE)) {
+                    keepAlive = false;
+                } else if (equalsIgnoreCase(buffer, valueStart, valueEnd, KEEP_ALIVE)) {
+                    keepAlive = true;
+                }
+            } else if (equalsIgnoreCase(buffer, position, colon, EXPECT)) {
+                expectsContinue = http11 && equalsIgnoreCase(buffer, valueStart, valueEnd, CONTINUE);
+            }
+            position = headerEnd + 2;
+        }
+        if (contentLength > MAX_BODY_SIZE) {
+            throw new HttpParseException(413, "Request body exceeds " + MAX_BODY_SIZE + " bytes");
+        }
+        return new NioRequest(buffer, method(buffer, start, methodEnd), ascii(buffer, methodEnd + 1, pathEnd),
+                queryMark < 0 ? -1 : queryMark + 1, targetEnd, http11, headers, headerCount, headEnd + 4,
+                (int) contentLength, keepAlive, expectsContinue);
+    }
+
+    /**
+     * @return position next request starts at
+     */
+    int end() {
+        return bodyStart + contentLength;
+    }
+
+    boolean isHttp11() {
+        return http11;
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @return whether client waits for interim response before sending body
+     */
+    boolean expectsContinue() {
+        return expectsContinue && contentLength > 0;
+    }
+
+    void match(Routes.Match match) {
+        this.match = match;
+    }
+
+    @Override
+    public String method() {
+        return method;
+    }
+
+    @Override
+    public String path() {
+        return path;
+    }
+
+    @Override
+    public String param(String name) {
+        return match != null ? match.param(name) : null;
+    }
+
+    @Override
+    public String queryParam(String name) {
+        if (queryStart < 0) {
+            return null;
+        }
+        if (queryParams == null) {
+            queryParams = new HashMap<>();
+            for (String pair : ascii(buffer, queryStart, queryEnd).split("&")) {
+                int equals = pair.indexOf('=');
+                try {
+                    String key = decode(equals < 0 ? pair : pair.substring(0, equals));
+                    String value = equals < 0 ? "" : decode(pair.substring(equals + 1));
+                    queryParams.putIfAbsent(key, value);
+                } catch (IllegalArgumentException e) {
+                    queryParams = null;
+                    throw new BadRequestException("Malformed query", e);
+                }
+            }
+        }
+        return queryParams.get(name);
+    }
+
+    @Override
+    public String header(String name) {
+        byte[] lowerCase = bytes(name);
+        for (int i = 0; i < headerCount; i++) {
+            if (equalsIgnoreCase(buffer, headers[i * 4], headers[i * 4 + 1], lowerCase)) {
+                return new String(buffer, headers[i * 4 + 2], headers[i * 4 + 3] - headers[i * 4 + 2],
+                        StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public InputStream body() {
+        return new ByteArrayInputStream(buffer, bodyStart, contentLength);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T attribute(String name) {
+        return attributes != null ? (T) attributes.get(name) : null;
+    }
+
+    @Override
+    public void attribute(String name, Object value) {
+        if (attributes == null) {
+            attributes = new HashMap<>();
+        }
+        attributes.put(name, value);
+    }
+
+    private static String method(byte[] buffer, int start, int end) {
+        // common methods are not allocated for every request, methods are case sensitive
+        for (int i = 0; i < METHODS.length; i++) {
+            if (Arrays.equals(buffer, start, end, METHOD_BYTES[i], 0, METHOD_BYTES[i].length)) {
+                return METHODS[i];
+            }
+        }
+        return ascii(buffer, start, end);
+    }
+
+    private static long parseLength(byte[] buffer, int start, int end) throws HttpParseException {
+        if (start == end || end - start > 18) {
+            throw new HttpParseException(400, "Malformed content length");
+        }
+        long length = 0;
+        for (int i = start; i < end; i++) {
+            if (buffer[i] < '0' || buffer[i] > '9') {
+                throw new HttpParseException(400, "Malformed content length");
+            }
+            length = length * 10 + buffer[i] - '0';
+        }
+        return length;
+    }
+
+    /**
+     * Path is decoded by parameters only, but a malformed escape is rejected before request is handled,
+     * the same way servlet container does it.
+     */
+    private static void checkEscapes(byte[] buffer, int start, int end) throws HttpParseException {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == '%' && (i + 2 >= end || !isHex(buffer[i + 1]) || !isHex(buffer[i + 2]))) {
+                throw new HttpParseException(400, "Malformed escape in path");
+            }
+        }
+    }
+
+    private static boolean isHex(byte value) {
+        return value >= '0' && value <= '9' || value >= 'a' && value <= 'f' || value >= 'A' && value <= 'F';
+    }
+
+    private static int indexOfEmptyLine(byte[] buffer, int start, int end) {
+        for (int i = start; i + 3 < end; i++) {
+            if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfLineEnd(byte[] buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int indexOf(byte[] buffer, byte value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param lowerCase expected value in lower case ASCII
+     */
+    private static boolean equalsIgnoreCase(byte[] buffer, int start, int end, byte[] lowerCase) {
+        if (end - start != lowerCase.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte value = buffer[start + i];
+            if (value >= 'A' && value <= 'Z') {
+                value += 'a' - 'A';
+            }
+            if (value != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte value) {
+        return value == ' ' || value == '\t';
+    }
+
+    private static String ascii(byte[] buffer, int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
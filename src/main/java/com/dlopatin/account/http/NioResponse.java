@@ -0,0 +1,226 @@
+package com.dlopatin.account.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Response of {@link NioHttpServer}. Body is collected in connection buffer and sent with its length once
+ * handler is done. Body outgrowing the buffer is streamed in chunks as buffer fills, or till connection
+ * is closed for HTTP/1.0 client.
+ */
+final class NioResponse implements HttpResponse {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final NioConnection connection;
+    private final boolean http11;
+    private final byte[] buffer;
+    private final OutputStream body = new BodyStream();
+    private boolean keepAlive;
+    private int count;
+    private int status = 200;
+    private String type;
+    // extra header lines, null if there are none
+    private StringBuilder headers;
+    // head is sent, so body is streamed
+    private boolean committed;
+
+    NioResponse(NioConnection connection, NioRequest request, byte[] buffer) {
+        this.connection = connection;
+        this.http11 = request.isHttp11();
+        this.keepAlive = request.isKeepAlive();
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int status() {
+        return status;
+    }
+
+    @Override
+    public void status(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public void type(String contentType) {
+        this.type = contentType;
+    }
+
+    @Override
+    public void header(String name, String value) {
+        if (headers == null) {
+            headers = new StringBuilder();
+        }
+        headers.append(name).append(": ").append(value).append("\r\n");
+    }
+
+    @Override
+    public OutputStream body() {
+        return body;
+    }
+
+    /**
+     * Writes body returned by handler after whatever handler has written itself.
+     */
+    void write(Object value) throws IOException {
+        if (value instanceof byte[]) {
+            body.write((byte[]) value);
+        } else if (value != null) {
+            body.write(value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Drops everything written, so another body can be written instead, e.g. error.
+     *
+     * @throws IllegalStateException if response is sent partially already
+     */
+    void reset() {
+        if (committed) {
+            throw new IllegalStateException("Response is committed");
+        }
+        count = 0;
+        type = null;
+        headers = null;
+    }
+
+    /**
+     * Sends the rest of response.
+     *
+     * @return whether connection can take the next request
+     */
+    boolean finish() throws IOException {
+        if (!committed) {
+            boolean hasBody = status != 204 && status != 304;
+            connection.write(ByteBuffer.wrap(head(hasBody ? count : -1, false)),
+                    ByteBuffer.wrap(buffer, 0, hasBody ? count : 0));
+        } else if (http11) {
+            writeChunk();
+            connection.write(ByteBuffer.wrap(LAST_CHUNK));
+        } else {
+            connection.write(ByteBuffer.wrap(buffer, 0, count));
+        }
+        count = 0;
+        return keepAlive;
+    }
+
+    /**
+     * Sends head and buffered part of body, as buffer is full.
+     */
+    private void overflow() throws IOException {
+        if (!committed) {
+            committed = true;
+            if (!http11) {
+                // HTTP/1.0 body without length ends with connection
+                keepAlive = false;
+            }
+            connection.write(ByteBuffer.wrap(head(-1, http11)));
+        }
+        if (http11) {
+            writeChunk();
+        } else {
+            connection.write(ByteBuffer.wrap(buffer, 0, count));
+        }
+        count = 0;
+    }
+
+    private void writeChunk() throws IOException {
+        if (count > 0) {
+            connection.write(ByteBuffer.wrap((Integer.toHexString(count) + "\r\n")
+                            .getBytes(StandardCharsets.ISO_8859_1)),
+                    ByteBuffer.wrap(buffer, 0, count), ByteBuffer.wrap(CRLF));
+        }
+    }
+
+    /**
+     * @param contentLength length of body, negative if it's not sent
+     */
+    private byte[] head(int contentLength, boolean chunked) {
+        StringBuilder head = new StringBuilder(128)
+                .append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        if (type != null) {
+            head.append("Content-Type: ").append(type).append("\r\n");
+        }
+        if (headers != null) {
+            head.append(headers);
+        }
+        if (chunked) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else if (contentLength >= 0) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        if (!keepAlive) {
+            head.append("Connection: close\r\n");
+        } else if (!http11) {
+            head.append("Connection: keep-alive\r\n");
+        }
+        return head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 201:
+                return "Created";
+            case 204:
+                return "No Content";
+            case 304:
+                return "Not Modified";
+            case 307:
+                return "Temporary Redirect";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 413:
+                return "Payload Too Large";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 500:
+                return "Internal Server Error";
+            case 501:
+                return "Not Implemented";
+            case 503:
+                return "Service Unavailable";
+            case 505:
+                return "HTTP Version Not Supported";
+            default:
+                // reason phrase is optional
+                return "";
+        }
+    }
+
+    private final class BodyStream extends OutputStream {
+
+        @Override
+        public void write(int value) throws IOException {
+            if (count == buffer.length) {
+                overflow();
+            }
+            buffer[count++] = (byte) value;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) {
+                    overflow();
+                }
+                int copied = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, copied);
+                count += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+    }
+}
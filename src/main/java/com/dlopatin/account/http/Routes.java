@@ -0,0 +1,156 @@
+package com.dlopatin.account.http;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes of {@link NioHttpServer}. Path is compared with route segments in place, nothing is allocated
+ * unless route has parameters. Routes are tried in order they were added, the first matching wins.
+ * <p>
+ * Route with accept type is matched if any media range of <code>Accept</code> header covers it, quality values
+ * are not weighed.
+ */
+final class Routes {
+
+    private static final String[] NO_VALUES = new String[0];
+
+    private final Map<String, List<Route>> routes = new HashMap<>();
+
+    void add(String method, String path, String acceptType, Handler handler) {
+        routes.computeIfAbsent(method, key -> new ArrayList<>()).add(new Route(path, acceptType, handler));
+    }
+
+    /**
+     * @return matching route with values of its parameters, <code>null</code> if no route matches
+     */
+    Match match(HttpRequest request) {
+        List<Route> candidates = routes.get(request.method());
+        if (candidates == null) {
+            return null;
+        }
+        String path = request.path();
+        for (Route route : candidates) {
+            String[] values = route.match(path);
+            if (values != null && route.accepted(request)) {
+                return new Match(route, values);
+            }
+        }
+        return null;
+    }
+
+    static final class Route {
+
+        private final String[] segments;
+        // parameter names in order of parameter segments
+        private final String[] params;
+        private final String acceptType;
+        private final Handler handler;
+
+        private Route(String path, String acceptType, Handler handler) {
+            if (!path.startsWith("/")) {
+                throw new IllegalArgumentException("Path must start with slash: " + path);
+            }
+            this.segments = path.substring(1).split("/", -1);
+            List<String> names = new ArrayList<>();
+            for (String segment : segments) {
+                if (segment.startsWith(":")) {
+                    names.add(segment.substring(1));
+                }
+            }
+            this.params = names.toArray(new String[0]);
+            this.acceptType = acceptType;
+            this.handler = handler;
+        }
+
+        /**
+         * @return whether request accepts type of route, header is read only if route has a specific type
+         */
+        private boolean accepted(HttpRequest request) {
+            if (acceptType.equals(HttpServer.ANY_TYPE)) {
+                return true;
+            }
+            String accept = request.header("Accept");
+            if (accept == null || accept.isBlank()) {
+                return true;
+            }
+            int slash = acceptType.indexOf('/');
+            for (String range : accept.split(",")) {
+                int parameters = range.indexOf(';');
+                String type = (parameters < 0 ? range : range.substring(0, parameters)).trim();
+                if (type.equals(HttpServer.ANY_TYPE) || type.equalsIgnoreCase(acceptType)
+                        || type.endsWith("/*") && type.regionMatches(true, 0, acceptType, 0, slash + 1)
+                        && type.length() == slash + 2) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return parameter values if path matches
+         */
+        private String[] match(String path) {
+            String[] values = params.length == 0 ? NO_VALUES : null;
+            int param = 0;
+            int position = 0;
+            for (String segment : segments) {
+                if (position >= path.length() || path.charAt(position) != '/') {
+                    return null;
+                }
+                int end = path.indexOf('/', position + 1);
+                if (end < 0) {
+                    end = path.length();
+                }
+                if (segment.startsWith(":")) {
+                    if (end == position + 1) {
+                        return null;
+                    }
+                    if (values == null) {
+                        values = new String[params.length];
+                    }
+                    values[param++] = path.substring(position + 1, end);
+                } else if (end - position - 1 != segment.length()
+                        || !path.regionMatches(position + 1, segment, 0, segment.length())) {
+                    return null;
+                }
+                position = end;
+            }
+            return position == path.length() ? values : null;
+        }
+    }
+
+    static final class Match {
+
+        private final Route route;
+        private final String[] values;
+
+        private Match(Route route, String[] values) {
+            this.route = route;
+            this.values = values;
+        }
+
+        Handler handler() {
+            return route.handler;
+        }
+
+        /**
+         * @param name parameter name, with or without colon
+         * @return decoded value, request path is checked for malformed escapes while it's parsed
+         */
+        String param(String name) {
+            String key = name.startsWith(":") ? name.substring(1) : name;
+            for (int i = 0; i < route.params.length; i++) {
+                if (route.params[i].equals(key)) {
+                    return values[i].indexOf('%') < 0 && values[i].indexOf('+') < 0
+                            ? values[i]
+                            : URLDecoder.decode(values[i], StandardCharsets.UTF_8);
+                }
+            }
+            return null;
+        }
+    }
+}
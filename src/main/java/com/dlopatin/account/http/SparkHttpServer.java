@@ -0,0 +1,199 @@
+package com.dlopatin.account.http;
+
+import org.eclipse.jetty.http.BadMessageException;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import spark.Request;
+import spark.Route;
+import spark.Spark;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Serves routes by Spark, i.e. by Jetty servlet container. Spark is configured statically,
+ * so there can be only one such server in JVM. Path with malformed escape is answered with <code>400</code>
+ * by Jetty before routes are matched.
+ */
+public class SparkHttpServer implements HttpServer {
+
+    private Handler badRequest = (request, response) -> "";
+
+    /**
+     * @param port       port to listen to, zero lets system choose a free port
+     * @param threadPool pool of Jetty threads, Spark default if <code>null</code>
+     */
+    public SparkHttpServer(int port, ThreadPool threadPool) {
+        Spark.port(port);
+        if (threadPool != null) {
+            EmbeddedServers.add(EmbeddedServers.defaultIdentifier(),
+                    new EmbeddedJettyFactory().withThreadPool(threadPool));
+        }
+    }
+
+    @Override
+    public void route(String method, String path, String acceptType, Handler handler) {
+        Route route = route(handler);
+        switch (method) {
+            case "GET":
+                Spark.get(path, acceptType, route);
+                break;
+            case "POST":
+                Spark.post(path, acceptType, route);
+                break;
+            case "PUT":
+                Spark.put(path, acceptType, route);
+                break;
+            case "DELETE":
+                Spark.delete(path, acceptType, route);
+                break;
+            default:
+                throw new IllegalStateException("Unknown method: " + method);
+        }
+    }
+
+    @Override
+    public void before(Filter filter) {
+        Spark.before((request, response) -> filter.handle(new SparkRequest(request), new SparkResponse(response)));
+    }
+
+    @Override
+    public void afterAfter(Filter filter) {
+        Spark.afterAfter((request, response) -> filter.handle(new SparkRequest(request),
+                new SparkResponse(response)));
+    }
+
+    @Override
+    public void notFound(Handler handler) {
+        Spark.notFound(route(handler));
+    }
+
+    @Override
+    public void badRequest(Handler handler) {
+        this.badRequest = handler;
+    }
+
+    @Override
+    public void internalServerError(Handler handler) {
+        Spark.internalServerError(route(handler));
+    }
+
+    @Override
+    public int start() {
+        Spark.init();
+        Spark.awaitInitialization();
+        return Spark.port();
+    }
+
+    @Override
+    public void stop() {
+        Spark.stop();
+    }
+
+    private Route route(Handler handler) {
+        return (request, response) -> {
+            SparkRequest sparkRequest = new SparkRequest(request);
+            SparkResponse sparkResponse = new SparkResponse(response);
+            Object body;
+            try {
+                body = handler.handle(sparkRequest, sparkResponse);
+            } catch (BadRequestException e) {
+                response.status(400);
+                body = badRequest.handle(sparkRequest, sparkResponse);
+            }
+            // Spark takes null for unmatched request
+            return body != null ? body : "";
+        };
+    }
+
+    private static final class SparkRequest implements HttpRequest {
+
+        private final Request request;
+
+        private SparkRequest(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public String method() {
+            return request.requestMethod();
+        }
+
+        @Override
+        public String path() {
+            return request.pathInfo();
+        }
+
+        @Override
+        public String param(String name) {
+            return request.params(name);
+        }
+
+        @Override
+        public String queryParam(String name) {
+            try {
+                return request.queryParams(name);
+            } catch (BadMessageException | IllegalArgumentException e) {
+                // Jetty reports malformed query by either
+                throw new BadRequestException("Malformed query", e);
+            }
+        }
+
+        @Override
+        public String header(String name) {
+            return request.headers(name);
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            // Spark keeps body in memory, stream goes over it
+            return request.raw().getInputStream();
+        }
+
+        @Override
+        public <T> T attribute(String name) {
+            return request.attribute(name);
+        }
+
+        @Override
+        public void attribute(String name, Object value) {
+            request.attribute(name, value);
+        }
+    }
+
+    private static final class SparkResponse implements HttpResponse {
+
+        private final spark.Response response;
+
+        private SparkResponse(spark.Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public int status() {
+            return response.status();
+        }
+
+        @Override
+        public void status(int status) {
+            response.status(status);
+        }
+
+        @Override
+        public void type(String contentType) {
+            response.type(contentType);
+        }
+
+        @Override
+        public void header(String name, String value) {
+            response.header(name, value);
+        }
+
+        @Override
+        public OutputStream body() throws IOException {
+            return response.raw().getOutputStream();
+        }
+    }
+}
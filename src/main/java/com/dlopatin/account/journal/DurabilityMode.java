@@ -0,0 +1,22 @@
+package com.dlopatin.account.journal;
+
+/**
+ * Defines when appended journal records are forced to disk.
+ */
+public enum DurabilityMode {
+
+    /**
+     * Every operation forces journal on its own before responding
+     */
+    PER_OP,
+
+    /**
+     * Group commit: concurrent operations wait for one force that covers all of them
+     */
+    BATCHED,
+
+    /**
+     * Operations respond immediately, journal is forced in background periodically
+     */
+    ASYNC
+}
@@ -0,0 +1,73 @@
+package com.dlopatin.account.journal;
+
+import com.dlopatin.account.model.Currency;
+
+import java.io.Closeable;
+
+/**
+ * Append-only log of committed changes, used to restore state after restart.
+ */
+public interface Journal extends Closeable {
+
+    /**
+     * Version of transfer side kept by another node, so the record changes only one account. Real versions
+     * after transfer are always greater.
+     */
+    int REMOTE_VERSION = 0;
+
+    /**
+     * Appends account creation. Must be called before account becomes visible to other operations.
+     */
+    void appendCreate(int accountId, Currency currency, long balance);
+
+    /**
+     * Appends committed transfer. Must be called by the only writer of both accounts, e.g. holding their locks.
+     * Records of one account may be appended out of version order, when its changes are made by different writers.
+     * Side of transfer between nodes kept by another node has {@link #REMOTE_VERSION}.
+     *
+     * @param fromVersion version of account to withdraw money after transfer
+     * @param toVersion   version of account to put money after transfer
+     */
+    void appendTransfer(int operationId, int fromId, int fromVersion, int toId, int toVersion,
+                        long amount, long timestamp);
+
+    /**
+     * Makes all records appended so far durable according to {@link DurabilityMode}.
+     * Should be called without holding account locks.
+     */
+    void flush();
+
+    /**
+     * Forces all records appended so far to disk regardless of {@link DurabilityMode}.
+     */
+    void sync();
+
+    /**
+     * @return position after the last appended record, positions grow with every append
+     */
+    long position();
+
+    /**
+     * Reads all stored records in the order they were appended.
+     */
+    default void replay(JournalListener listener) {
+        replay(0, listener);
+    }
+
+    /**
+     * Reads stored records starting from given position in the order they were appended.
+     *
+     * @param fromPosition position returned by {@link #position()}
+     */
+    void replay(long fromPosition, JournalListener listener);
+
+    /**
+     * Drops stored records before given position, some of them may be kept.
+     *
+     * @param beforePosition position returned by {@link #position()}
+     */
+    void truncate(long beforePosition);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,14 @@
+package com.dlopatin.account.journal;
+
+import com.dlopatin.account.model.Currency;
+
+/**
+ * Receives journal records during replay.
+ */
+public interface JournalListener {
+
+    void onCreate(int accountId, Currency currency, long balance);
+
+    void onTransfer(int operationId, int fromId, int fromVersion, int toId, int toVersion,
+                    long amount, long timestamp);
+}
@@ -0,0 +1,311 @@
+package com.dlopatin.account.journal;
+
+import com.dlopatin.account.model.Currency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Journal stored in memory mapped segment files of fixed size.
+ * <p>
+ * Records have fixed size per type: type byte, fields in big-endian order and CRC32 of type and fields.
+ * Record never crosses segment border, zero type byte marks end of records in segment.
+ * Replay stops reading segment at first broken record, e.g. torn by crash during write.
+ * <p>
+ * Appends are serialized and only copy record to mapped memory. Forcing to disk is done by {@link #flush()}
+ * according to {@link DurabilityMode}.
+ * <p>
+ * Position of record consists of segment number in high 32 bits and offset in segment in low 32 bits,
+ * so positions stay comparable when segment size is changed between restarts.
+ */
+public class MappedJournal implements Journal {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    static final byte CREATE = 1;
+    static final byte TRANSFER = 2;
+    // type, id, currency, balance, crc
+    static final int CREATE_SIZE = 1 + 4 + 1 + 8 + 4;
+    // type, operation id, from id, from version, to id, to version, amount, timestamp, crc
+    static final int TRANSFER_SIZE = 1 + 4 + 4 + 4 + 4 + 4 + 8 + 8 + 4;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final long ASYNC_FLUSH_MILLIS = 100;
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Path directory;
+    private final DurabilityMode durabilityMode;
+    private final int segmentSize;
+    private final ScheduledExecutorService asyncFlusher;
+
+    // guarded by this
+    private final ByteBuffer record = ByteBuffer.allocate(Math.max(CREATE_SIZE, TRANSFER_SIZE));
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer segment;
+    private long segmentNumber;
+    private int offset;
+    /**
+     * Position after the last appended record
+     */
+    private volatile long written;
+
+    private final Object flushLock = new Object();
+    // guarded by flushLock
+    private long durable;
+
+    public MappedJournal(Path directory, DurabilityMode durabilityMode) {
+        this(directory, durabilityMode, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedJournal(Path directory, DurabilityMode durabilityMode, int segmentSize) {
+        if (segmentSize < Math.max(CREATE_SIZE, TRANSFER_SIZE)) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.durabilityMode = durabilityMode;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not create journal directory " + directory, e);
+        }
+        List<Long> segments = listSegments();
+        // new records always go to the new segment, existing ones may end with torn record
+        segmentNumber = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+        offset = segmentSize;
+        written = position(segmentNumber, 0);
+        durable = written;
+        if (durabilityMode == DurabilityMode.ASYNC) {
+            asyncFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            asyncFlusher.scheduleWithFixedDelay(this::force, ASYNC_FLUSH_MILLIS, ASYNC_FLUSH_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            asyncFlusher = null;
+        }
+    }
+
+    @Override
+    public synchronized void appendCreate(int accountId, Currency currency, long balance) {
+        record.clear();
+        record.put(CREATE)
+                .putInt(accountId)
+                .put((byte) currency.ordinal())
+                .putLong(balance);
+        append();
+    }
+
+    @Override
+    public synchronized void appendTransfer(int operationId, int fromId, int fromVersion, int toId, int toVersion,
+                                            long amount, long timestamp) {
+        record.clear();
+        record.put(TRANSFER)
+                .putInt(operationId)
+                .putInt(fromId)
+                .putInt(fromVersion)
+                .putInt(toId)
+                .putInt(toVersion)
+                .putLong(amount)
+                .putLong(timestamp);
+        append();
+    }
+
+    private void append() {
+        crc.reset();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+        if (offset + record.remaining() > segmentSize) {
+            roll();
+        }
+        segment.position(offset);
+        segment.put(record);
+        offset = segment.position();
+        written = position(segmentNumber, offset);
+    }
+
+    private void roll() {
+        if (segment != null) {
+            // previous segment becomes durable here, so flush has to care about the current one only
+            segment.force();
+            segmentNumber++;
+        }
+        Path path = directory.resolve(segmentName(segmentNumber));
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not create journal segment " + path, e);
+        }
+        offset = 0;
+        log.debug("Journal segment {} created", path);
+    }
+
+    @Override
+    public void flush() {
+        switch (durabilityMode) {
+            case PER_OP:
+                force();
+                break;
+            case BATCHED:
+                long target = written;
+                synchronized (flushLock) {
+                    // the first waiting operation forces records of all others appended meanwhile
+                    if (durable < target) {
+                        force();
+                    }
+                }
+                break;
+            case ASYNC:
+                break;
+            default:
+                throw new IllegalStateException("Unknown durability mode: " + durabilityMode);
+        }
+    }
+
+    @Override
+    public void sync() {
+        force();
+    }
+
+    private void force() {
+        MappedByteBuffer current;
+        long position;
+        synchronized (this) {
+            current = segment;
+            position = written;
+        }
+        if (current != null) {
+            current.force();
+        }
+        synchronized (flushLock) {
+            durable = Math.max(durable, position);
+        }
+    }
+
+    @Override
+    public long position() {
+        return written;
+    }
+
+    @Override
+    public void replay(long fromPosition, JournalListener listener) {
+        for (long number : listSegments()) {
+            if (number < segmentNumber(fromPosition)) {
+                continue;
+            }
+            Path path = directory.resolve(segmentName(number));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (number == segmentNumber(fromPosition)) {
+                    buffer.position((int) Math.min(buffer.limit(), segmentOffset(fromPosition)));
+                }
+                replaySegment(buffer, path, listener);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can not read journal segment " + path, e);
+            }
+        }
+    }
+
+    private void replaySegment(ByteBuffer buffer, Path path, JournalListener listener) {
+        CRC32 checksum = new CRC32();
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            byte type = buffer.get(start);
+            int size = type == CREATE ? CREATE_SIZE : type == TRANSFER ? TRANSFER_SIZE : 0;
+            if (size == 0 || buffer.remaining() < size) {
+                return;
+            }
+            ByteBuffer content = buffer.duplicate();
+            content.limit(start + size - 4);
+            checksum.reset();
+            checksum.update(content);
+            if ((int) checksum.getValue() != buffer.getInt(start + size - 4)) {
+                log.warn("Journal segment {} has broken record at {}, rest of segment is skipped", path, start);
+                return;
+            }
+            buffer.get();
+            if (type == CREATE) {
+                listener.onCreate(buffer.getInt(), CURRENCIES[buffer.get()], buffer.getLong());
+            } else {
+                listener.onTransfer(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                        buffer.getInt(), buffer.getLong(), buffer.getLong());
+            }
+            buffer.position(start + size);
+        }
+    }
+
+    @Override
+    public void truncate(long beforePosition) {
+        for (long number : listSegments()) {
+            if (number >= segmentNumber(beforePosition) || number >= segmentNumber(written)) {
+                return;
+            }
+            Path path = directory.resolve(segmentName(number));
+            try {
+                Files.deleteIfExists(path);
+                log.info("Journal segment {} deleted", path);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can not delete journal segment " + path, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (asyncFlusher != null) {
+            asyncFlusher.shutdownNow();
+        }
+        force();
+    }
+
+    private List<Long> listSegments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not list journal directory " + directory, e);
+        }
+    }
+
+    private static long position(long segmentNumber, int offset) {
+        return segmentNumber << Integer.SIZE | offset;
+    }
+
+    private static long segmentNumber(long position) {
+        return position >>> Integer.SIZE;
+    }
+
+    private static long segmentOffset(long position) {
+        return position & 0xFFFFFFFFL;
+    }
+
+    private static String segmentName(long number) {
+        return String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+    }
+}
@@ -0,0 +1,55 @@
+package com.dlopatin.account.journal;
+
+import com.dlopatin.account.model.Currency;
+
+/**
+ * Journal that keeps nothing, state lives in memory only.
+ */
+public final class NoJournal implements Journal {
+
+    public static final NoJournal INSTANCE = new NoJournal();
+
+    private NoJournal() {
+    }
+
+    @Override
+    public void appendCreate(int accountId, Currency currency, long balance) {
+        // nothing to store
+    }
+
+    @Override
+    public void appendTransfer(int operationId, int fromId, int fromVersion, int toId, int toVersion,
+                               long amount, long timestamp) {
+        // nothing to store
+    }
+
+    @Override
+    public void flush() {
+        // nothing to flush
+    }
+
+    @Override
+    public void sync() {
+        // nothing to sync
+    }
+
+    @Override
+    public long position() {
+        return 0;
+    }
+
+    @Override
+    public void replay(long fromPosition, JournalListener listener) {
+        // nothing to replay
+    }
+
+    @Override
+    public void truncate(long beforePosition) {
+        // nothing to truncate
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+}
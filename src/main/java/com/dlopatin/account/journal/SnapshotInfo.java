@@ -0,0 +1,56 @@
+package com.dlopatin.account.journal;
+
+/**
+ * Describes stored snapshot.
+ */
+public class SnapshotInfo {
+
+    private final long journalPosition;
+    private final int lastAccountId;
+    private final long accounts;
+    private final long operations;
+    private final long transactions;
+
+    public SnapshotInfo(long journalPosition, int lastAccountId, long accounts, long operations,
+                        long transactions) {
+        this.journalPosition = journalPosition;
+        this.lastAccountId = lastAccountId;
+        this.accounts = accounts;
+        this.operations = operations;
+        this.transactions = transactions;
+    }
+
+    /**
+     * @return journal position snapshot was started at, records before it are included in snapshot
+     */
+    public long getJournalPosition() {
+        return journalPosition;
+    }
+
+    public int getLastAccountId() {
+        return lastAccountId;
+    }
+
+    public long getAccounts() {
+        return accounts;
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public long getTransactions() {
+        return transactions;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotInfo{" +
+                "journalPosition=" + journalPosition +
+                ", lastAccountId=" + lastAccountId +
+                ", accounts=" + accounts +
+                ", operations=" + operations +
+                ", transactions=" + transactions +
+                '}';
+    }
+}
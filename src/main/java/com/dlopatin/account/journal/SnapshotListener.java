@@ -0,0 +1,25 @@
+package com.dlopatin.account.journal;
+
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.model.Transaction;
+
+/**
+ * Receives content of snapshot during loading.
+ */
+public interface SnapshotListener {
+
+    /**
+     * Called concurrently from several threads, accounts come in no particular order.
+     */
+    void onAccount(int id, Currency currency, long balance, int version);
+
+    /**
+     * Called after all accounts are loaded.
+     */
+    void onOperation(int operationId, int fingerprint, int outcome);
+
+    /**
+     * Called after all operations are loaded, by a single thread in order transactions were written.
+     */
+    void onTransaction(Transaction transaction);
+}
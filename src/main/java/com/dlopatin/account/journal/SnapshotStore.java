@@ -0,0 +1,298 @@
+package com.dlopatin.account.journal;
+
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.model.TransactionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Stores point-in-time snapshots of accounts, remembered operations and transactions in binary files.
+ * <p>
+ * Snapshot is written while operations keep running, so it is fuzzy: changes journaled after snapshot start
+ * may be included or not. Every account is stored with its version, so replay of journal records after
+ * snapshot start is able to skip already included changes. Transactions are the history of accounts, which
+ * journal records before snapshot start are not kept for.
+ * <p>
+ * File consists of header, fixed size account records, fixed size operation records and fixed size transaction
+ * records, all in big-endian order. Snapshot of the previous format, with transactions without timestamps,
+ * is still loaded.
+ * Snapshot is written to temporary file and renamed when complete, so only complete snapshots are visible.
+ * Accounts are decoded in parallel from memory mapped file regions.
+ */
+public class SnapshotStore {
+
+    static final int MAGIC = 0x41435332;
+    // magic, journal position, last account id, accounts, operations, transactions
+    static final int HEADER_SIZE = 4 + 8 + 4 + 8 + 8 + 8;
+    // id, currency, balance, version
+    static final int ACCOUNT_SIZE = 4 + 1 + 8 + 4;
+    // operation id, fingerprint, outcome
+    static final int OPERATION_SIZE = 4 + 4 + 4;
+    // account id, operation id, type, amount, timestamp
+    static final int TRANSACTION_SIZE = 4 + 4 + 1 + 8 + 8;
+    // the same with transactions without timestamps
+    static final int NO_TIMESTAMPS_MAGIC = 0x41435331;
+    static final int NO_TIMESTAMP_TRANSACTION_SIZE = TRANSACTION_SIZE - 8;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int KEPT_SNAPSHOTS = 2;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int MIN_ACCOUNTS_PER_CHUNK = 1 << 16;
+    private static final Currency[] CURRENCIES = Currency.values();
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Path directory;
+
+    public SnapshotStore(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not create snapshot directory " + directory, e);
+        }
+    }
+
+    /**
+     * Writes new snapshot and deletes outdated ones.
+     *
+     * @param journalPosition journal position taken before content is read
+     * @param content         writes accounts, operations and transactions
+     * @return journal position records before which are not needed anymore
+     */
+    public synchronized long write(long journalPosition, Consumer<SnapshotWriter> content) {
+        Path path = directory.resolve(snapshotName(journalPosition));
+        Path temp = directory.resolve(snapshotName(journalPosition) + TEMP_SUFFIX);
+        SnapshotInfo info;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            FileSnapshotWriter writer = new FileSnapshotWriter(channel);
+            content.accept(writer);
+            info = writer.finish(journalPosition);
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not write snapshot " + temp, e);
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not store snapshot " + path, e);
+        }
+        log.info("Snapshot {} written: {}", path, info);
+
+        List<Long> positions = listSnapshots();
+        for (int i = 0; i < positions.size() - KEPT_SNAPSHOTS; i++) {
+            delete(directory.resolve(snapshotName(positions.get(i))));
+        }
+        return positions.get(Math.max(0, positions.size() - KEPT_SNAPSHOTS));
+    }
+
+    /**
+     * Loads the latest snapshot.
+     *
+     * @return loaded snapshot or empty if there is no snapshot
+     */
+    public Optional<SnapshotInfo> load(SnapshotListener listener) {
+        List<Long> positions = listSnapshots();
+        if (positions.isEmpty()) {
+            return Optional.empty();
+        }
+        Path path = directory.resolve(snapshotName(positions.get(positions.size() - 1)));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            int magic = header.getInt();
+            if (magic != MAGIC && magic != NO_TIMESTAMPS_MAGIC) {
+                throw new IllegalStateException("Unsupported snapshot format: " + path);
+            }
+            int transactionSize = magic == MAGIC ? TRANSACTION_SIZE : NO_TIMESTAMP_TRANSACTION_SIZE;
+            SnapshotInfo info = new SnapshotInfo(header.getLong(), header.getInt(), header.getLong(),
+                    header.getLong(), header.getLong());
+            long operationsStart = HEADER_SIZE + info.getAccounts() * ACCOUNT_SIZE;
+            long transactionsStart = operationsStart + info.getOperations() * OPERATION_SIZE;
+            if (channel.size() != transactionsStart + info.getTransactions() * transactionSize) {
+                throw new IllegalStateException("Snapshot is damaged: " + path);
+            }
+            loadAccounts(channel, info.getAccounts(), listener);
+            ByteBuffer operations = channel.map(FileChannel.MapMode.READ_ONLY, operationsStart,
+                    info.getOperations() * OPERATION_SIZE);
+            while (operations.hasRemaining()) {
+                listener.onOperation(operations.getInt(), operations.getInt(), operations.getInt());
+            }
+            loadTransactions(channel, transactionsStart, info.getTransactions(), transactionSize, listener);
+            log.info("Snapshot {} loaded: {}", path, info);
+            return Optional.of(info);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read snapshot " + path, e);
+        }
+    }
+
+    private void loadAccounts(FileChannel channel, long accounts, SnapshotListener listener) {
+        int chunks = (int) Math.max(1, Math.min(accounts / MIN_ACCOUNTS_PER_CHUNK,
+                Runtime.getRuntime().availableProcessors() * 4L));
+        long chunkSize = (accounts + chunks - 1) / chunks;
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            long from = chunk * chunkSize;
+            long count = Math.min(chunkSize, accounts - from);
+            if (count <= 0) {
+                return;
+            }
+            ByteBuffer buffer;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + from * ACCOUNT_SIZE,
+                        count * ACCOUNT_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can not read snapshot", e);
+            }
+            while (buffer.hasRemaining()) {
+                listener.onAccount(buffer.getInt(), CURRENCIES[buffer.get()], buffer.getLong(), buffer.getInt());
+            }
+        });
+    }
+
+    /**
+     * Reads transactions region by region, as history may exceed max size of a single mapping.
+     * Transactions without timestamps get zero one.
+     */
+    private void loadTransactions(FileChannel channel, long start, long transactions, int transactionSize,
+                                  SnapshotListener listener) throws IOException {
+        long perRegion = Integer.MAX_VALUE / transactionSize;
+        for (long loaded = 0; loaded < transactions; loaded += perRegion) {
+            long count = Math.min(perRegion, transactions - loaded);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start + loaded * transactionSize,
+                    count * transactionSize);
+            while (buffer.hasRemaining()) {
+                int accountId = buffer.getInt();
+                int operationId = buffer.getInt();
+                TransactionType type = TYPES[buffer.get()];
+                long amount = buffer.getLong();
+                long timestamp = transactionSize == TRANSACTION_SIZE ? buffer.getLong() : 0;
+                listener.onTransaction(new Transaction(operationId, accountId, type, amount, timestamp));
+            }
+        }
+    }
+
+    private List<Long> listSnapshots() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX))
+                    .map(name -> Long.parseUnsignedLong(name.substring(SNAPSHOT_PREFIX.length(),
+                            name.length() - SNAPSHOT_SUFFIX.length()), 16))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not list snapshot directory " + directory, e);
+        }
+    }
+
+    private void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            log.info("Snapshot {} deleted", path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not delete snapshot " + path, e);
+        }
+    }
+
+    private static String snapshotName(long journalPosition) {
+        return String.format("%s%016x%s", SNAPSHOT_PREFIX, journalPosition, SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Writes records through buffer, header is written when all records are known.
+     */
+    private static class FileSnapshotWriter implements SnapshotWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private int lastAccountId;
+        private long accounts;
+        private long operations;
+        private long transactions;
+
+        private FileSnapshotWriter(FileChannel channel) throws IOException {
+            this.channel = channel;
+            channel.position(HEADER_SIZE);
+        }
+
+        @Override
+        public void writeAccount(int id, Currency currency, long balance, int version) {
+            if (operations > 0 || transactions > 0) {
+                throw new IllegalStateException("Accounts must be written before operations");
+            }
+            ensureRemaining(ACCOUNT_SIZE);
+            buffer.putInt(id).put((byte) currency.ordinal()).putLong(balance).putInt(version);
+            lastAccountId = Math.max(lastAccountId, id);
+            accounts++;
+        }
+
+        @Override
+        public void writeOperation(int operationId, int fingerprint, int outcome) {
+            if (transactions > 0) {
+                throw new IllegalStateException("Operations must be written before transactions");
+            }
+            ensureRemaining(OPERATION_SIZE);
+            buffer.putInt(operationId).putInt(fingerprint).putInt(outcome);
+            operations++;
+        }
+
+        @Override
+        public void writeTransaction(Transaction transaction) {
+            ensureRemaining(TRANSACTION_SIZE);
+            buffer.putInt(transaction.getAccountId())
+                    .putInt(transaction.getOperationId())
+                    .put((byte) transaction.getType().ordinal())
+                    .putLong(transaction.getAmount())
+                    .putLong(transaction.getTimestamp());
+            transactions++;
+        }
+
+        private SnapshotInfo finish(long journalPosition) throws IOException {
+            drain();
+            buffer.clear();
+            buffer.putInt(MAGIC).putLong(journalPosition).putInt(lastAccountId).putLong(accounts)
+                    .putLong(operations).putLong(transactions);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+            return new SnapshotInfo(journalPosition, lastAccountId, accounts, operations, transactions);
+        }
+
+        private void ensureRemaining(int size) {
+            if (buffer.remaining() < size) {
+                try {
+                    drain();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Can not write snapshot", e);
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.dlopatin.account.journal;
+
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.model.Transaction;
+
+/**
+ * Writes content of snapshot. All accounts must be written before operations, operations before transactions.
+ */
+public interface SnapshotWriter {
+
+    void writeAccount(int id, Currency currency, long balance, int version);
+
+    void writeOperation(int operationId, int fingerprint, int outcome);
+
+    /**
+     * Transactions of account are written in order they were made.
+     */
+    void writeTransaction(Transaction transaction);
+}
@@ -0,0 +1,183 @@
+package com.dlopatin.account.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Samples account lock acquisitions and keeps the most contended accounts by time spent waiting for their locks.
+ * <p>
+ * Only one of {@link #getSampleRate()} lock acquisitions is measured. Top accounts are kept by Space-Saving
+ * algorithm with bounded capacity: an account not tracked yet replaces the least waited one and inherits its
+ * wait time as possible error, so heavy hitters are never lost while memory stays constant. Accounts acquired
+ * without waiting, i.e. faster than a microsecond, are not tracked unless they are tracked already. Samples are dropped rather than waited for
+ * if another thread is recording at the moment, so profiler never blocks transfers.
+ */
+public class ContentionProfiler {
+
+    /**
+     * Profiler which never samples.
+     */
+    public static final ContentionProfiler DISABLED = new ContentionProfiler(0, 1);
+
+    public static final int DEFAULT_SAMPLE_RATE = 64;
+    public static final int DEFAULT_CAPACITY = 32;
+
+    // uncontended lock with time measurement takes tens of nanoseconds
+    private static final long CONTENDED_WAIT_NANOS = 1_000;
+
+    private final int sampleRate;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Entry> entries;
+    private long samples;
+    private long contendedSamples;
+    private final LongAdder dropped = new LongAdder();
+    private long waitNanos;
+
+    /**
+     * @param sampleRate one of how many lock acquisitions is measured, zero disables sampling
+     * @param capacity   max number of tracked accounts
+     */
+    public ContentionProfiler(int sampleRate, int capacity) {
+        if (sampleRate < 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Sample rate must not be negative and capacity must be positive");
+        }
+        this.sampleRate = sampleRate;
+        this.capacity = capacity;
+        this.entries = new HashMap<>(capacity * 2);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return whether locks acquired by the caller now should be measured
+     */
+    public boolean shouldSample() {
+        return sampleRate > 0 && (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0);
+    }
+
+    /**
+     * Records sampled lock acquisition.
+     *
+     * @param accountId account whose lock was acquired
+     * @param waitNanos time spent waiting for the lock
+     * @param holdNanos time the lock was held
+     */
+    public void record(int accountId, long waitNanos, long holdNanos) {
+        if (!lock.tryLock()) {
+            dropped.increment();
+            return;
+        }
+        try {
+            samples++;
+            this.waitNanos += waitNanos;
+            boolean contended = waitNanos >= CONTENDED_WAIT_NANOS;
+            if (contended) {
+                contendedSamples++;
+            }
+            Entry entry = entries.get(accountId);
+            if (entry == null) {
+                if (!contended) {
+                    return;
+                }
+                entry = track(accountId);
+            }
+            entry.samples++;
+            entry.waitNanos += waitNanos;
+            entry.holdNanos += holdNanos;
+            entry.maxWaitNanos = Math.max(entry.maxWaitNanos, waitNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry track(int accountId) {
+        Entry entry = new Entry(accountId);
+        if (entries.size() >= capacity) {
+            Entry least = entries.values().stream()
+                    .min(Comparator.comparingLong(candidate -> candidate.waitNanos))
+                    .orElseThrow();
+            entries.remove(least.accountId);
+            // evicted account may have waited that much before, so new one is overestimated by at most that
+            entry.waitNanos = least.waitNanos;
+            entry.errorNanos = least.waitNanos;
+        }
+        entries.put(accountId, entry);
+        return entry;
+    }
+
+    /**
+     * Forgets everything recorded, e.g. to profile a new time window.
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            entries.clear();
+            samples = 0;
+            contendedSamples = 0;
+            dropped.reset();
+            waitNanos = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return summary and tracked accounts ordered by wait time as nested maps to be serialized to JSON,
+     * times are in milliseconds and cover sampled acquisitions only
+     */
+    public Map<String, Object> toMap() {
+        lock.lock();
+        try {
+            List<Entry> top = new ArrayList<>(entries.values());
+            top.sort(Comparator.comparingLong((Entry entry) -> entry.waitNanos).reversed());
+            List<Map<String, Object>> accounts = new ArrayList<>(top.size());
+            for (Entry entry : top) {
+                Map<String, Object> account = new LinkedHashMap<>();
+                account.put("accountId", entry.accountId);
+                account.put("samples", entry.samples);
+                account.put("waitMillis", millis(entry.waitNanos));
+                account.put("waitErrorMillis", millis(entry.errorNanos));
+                account.put("maxWaitMillis", millis(entry.maxWaitNanos));
+                account.put("holdMillis", millis(entry.holdNanos));
+                accounts.add(account);
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("sampleRate", sampleRate);
+            result.put("samples", samples);
+            result.put("contendedSamples", contendedSamples);
+            result.put("droppedSamples", dropped.sum());
+            result.put("waitMillis", millis(waitNanos));
+            result.put("accounts", accounts);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static final class Entry {
+        private final int accountId;
+        private long samples;
+        private long waitNanos;
+        private long errorNanos;
+        private long maxWaitNanos;
+        private long holdNanos;
+
+        private Entry(int accountId) {
+            this.accountId = accountId;
+        }
+    }
+}
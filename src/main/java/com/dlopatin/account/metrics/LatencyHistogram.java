@@ -0,0 +1,83 @@
+package com.dlopatin.account.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies with fixed buckets, the same as Prometheus histogram has. Recording is lock-free
+ * and every counter is striped, so concurrent requests do not contend on a single memory location.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bounds of buckets in microseconds, inclusive. Values above the last one fall into unbounded bucket.
+     */
+    public static final long[] BUCKET_BOUNDS_MICROS = {
+            50, 100, 250, 500,
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000};
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length + 1];
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long micros = nanos / 1_000;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    /**
+     * @return number of values per bucket, the last one is unbounded. Taken while values are recorded,
+     * so it may miss some of them, but never counts a value twice
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    public long getSumMicros() {
+        return sumMicros.sum();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * Estimates percentile by bucket counts.
+     *
+     * @param counts     bucket counts taken by {@link #getBucketCounts()}
+     * @param percentile percentile from 0 to 100
+     * @return upper bound of bucket the percentile falls into, or max value for unbounded bucket
+     */
+    public long getPercentileMicros(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(BUCKET_BOUNDS_MICROS[i], getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+}
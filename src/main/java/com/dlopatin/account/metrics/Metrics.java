@@ -0,0 +1,296 @@
+package com.dlopatin.account.metrics;
+
+import com.dlopatin.account.service.TransferException.TransferError;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Application metrics: latency and responses per route, transfer outcomes, sizes of coalesced transfer batches,
+ * registered gauges and JVM figures.
+ * Recording methods are lock-free and safe to call from any thread. Values are collected on demand and rendered
+ * in Prometheus text format or as a map to be serialized to JSON.
+ */
+public class Metrics {
+
+    private static final String TRANSFER_SUCCESSFUL = "OK";
+    /**
+     * Upper bounds of coalesced batch size buckets, inclusive. Sizes above the last one fall into unbounded bucket.
+     */
+    static final int[] BATCH_SIZE_BOUNDS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512};
+
+    private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+    // indexed by transfer error ordinal, the last one counts successful transfers
+    private final LongAdder[] transfers = new LongAdder[TransferError.values().length + 1];
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final LongAdder[] batchSizes = new LongAdder[BATCH_SIZE_BOUNDS.length + 1];
+    private final LongAdder batchedTransfers = new LongAdder();
+    private final LongAccumulator maxBatchSize = new LongAccumulator(Math::max, 0);
+
+    public Metrics() {
+        for (int i = 0; i < transfers.length; i++) {
+            transfers[i] = new LongAdder();
+        }
+        for (int i = 0; i < batchSizes.length; i++) {
+            batchSizes[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return metrics of route, created on the first call
+     */
+    public RouteMetrics route(String method, String path) {
+        return routes.computeIfAbsent(method + ' ' + path, key -> new RouteMetrics(method, path));
+    }
+
+    /**
+     * @param error transfer error or <code>null</code> if transfer is successful
+     */
+    public void recordTransfer(TransferError error) {
+        transfers[error == null ? transfers.length - 1 : error.ordinal()].increment();
+    }
+
+    /**
+     * @param size number of single transfers coalesced into one executed batch
+     */
+    public void recordCoalescedBatch(int size) {
+        int bucket = 0;
+        while (bucket < BATCH_SIZE_BOUNDS.length && size > BATCH_SIZE_BOUNDS[bucket]) {
+            bucket++;
+        }
+        batchSizes[bucket].increment();
+        batchedTransfers.add(size);
+        maxBatchSize.accumulate(size);
+    }
+
+    /**
+     * Registers value to be read every time metrics are collected.
+     *
+     * @param name  metric name in Prometheus format
+     * @param help  metric description
+     * @param value supplier of current value, must be thread safe
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * @return metrics in Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        List<RouteMetrics> sortedRoutes = sortedRoutes();
+
+        header(out, "http_requests_total", "counter", "Number of HTTP requests by route and response status");
+        for (RouteMetrics route : sortedRoutes) {
+            route.getStatusCounts().forEach((status, count) -> {
+                out.append("http_requests_total{");
+                routeLabels(out, route).append(",status=\"").append(status).append("\"} ").append(count).append('\n');
+            });
+        }
+
+        header(out, "http_request_duration_seconds", "histogram", "Time from request receiving till response");
+        for (RouteMetrics route : sortedRoutes) {
+            LatencyHistogram latency = route.getLatency();
+            long[] counts = latency.getBucketCounts();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                out.append("http_request_duration_seconds_bucket{");
+                routeLabels(out, route).append(",le=\"")
+                        .append(i < LatencyHistogram.BUCKET_BOUNDS_MICROS.length
+                                ? seconds(LatencyHistogram.BUCKET_BOUNDS_MICROS[i]) : "+Inf")
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("http_request_duration_seconds_sum{");
+            routeLabels(out, route).append("} ").append(seconds(latency.getSumMicros())).append('\n');
+            out.append("http_request_duration_seconds_count{");
+            routeLabels(out, route).append("} ").append(cumulative).append('\n');
+        }
+
+        header(out, "transfers_total", "counter", "Number of processed transfers by outcome");
+        transferCounts().forEach((outcome, count) -> out.append("transfers_total{outcome=\"").append(outcome)
+                .append("\"} ").append(count).append('\n'));
+
+        header(out, "coalesced_transfer_batch_size", "histogram", "Number of single transfers executed as one batch");
+        long batches = 0;
+        for (int i = 0; i < batchSizes.length; i++) {
+            batches += batchSizes[i].sum();
+            out.append("coalesced_transfer_batch_size_bucket{le=\"")
+                    .append(i < BATCH_SIZE_BOUNDS.length ? String.valueOf(BATCH_SIZE_BOUNDS[i]) : "+Inf")
+                    .append("\"} ").append(batches).append('\n');
+        }
+        out.append("coalesced_transfer_batch_size_sum ").append(batchedTransfers.sum()).append('\n');
+        out.append("coalesced_transfer_batch_size_count ").append(batches).append('\n');
+
+        new TreeMap<>(gauges).forEach((name, gauge) -> {
+            header(out, name, "gauge", gauge.help);
+            out.append(name).append(' ').append(gauge.value.getAsLong()).append('\n');
+        });
+
+        header(out, "jvm_gc_collections_total", "counter", "Number of garbage collections by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            out.append("jvm_gc_collections_total{gc=\"").append(escape(gc.getName())).append("\"} ")
+                    .append(Math.max(0, gc.getCollectionCount())).append('\n');
+        }
+        header(out, "jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collections by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            out.append("jvm_gc_collection_seconds_total{gc=\"").append(escape(gc.getName())).append("\"} ")
+                    .append(seconds(Math.max(0, gc.getCollectionTime()) * 1_000)).append('\n');
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(out, "jvm_memory_heap_used_bytes", "gauge", "Used heap memory");
+        out.append("jvm_memory_heap_used_bytes ").append(heap.getUsed()).append('\n');
+        header(out, "jvm_memory_heap_committed_bytes", "gauge", "Committed heap memory");
+        out.append("jvm_memory_heap_committed_bytes ").append(heap.getCommitted()).append('\n');
+        long allocated = allocatedBytes();
+        if (allocated >= 0) {
+            header(out, "jvm_threads_allocated_bytes", "gauge", "Bytes allocated by live threads");
+            out.append("jvm_threads_allocated_bytes ").append(allocated).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return metrics as nested maps to be serialized to JSON, latencies are in milliseconds
+     */
+    public Map<String, Object> toMap() {
+        List<Map<String, Object>> routeList = new ArrayList<>();
+        for (RouteMetrics route : sortedRoutes()) {
+            LatencyHistogram latency = route.getLatency();
+            long[] counts = latency.getBucketCounts();
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            Map<String, Object> latencyMillis = new LinkedHashMap<>();
+            latencyMillis.put("mean", count == 0 ? 0 : millis(latency.getSumMicros() / count));
+            latencyMillis.put("p50", millis(latency.getPercentileMicros(counts, 50)));
+            latencyMillis.put("p99", millis(latency.getPercentileMicros(counts, 99)));
+            latencyMillis.put("p999", millis(latency.getPercentileMicros(counts, 99.9)));
+            latencyMillis.put("max", millis(latency.getMaxMicros()));
+
+            Map<String, Object> routeMap = new LinkedHashMap<>();
+            routeMap.put("method", route.getMethod());
+            routeMap.put("path", route.getPath());
+            routeMap.put("count", count);
+            routeMap.put("statuses", route.getStatusCounts());
+            routeMap.put("latencyMillis", latencyMillis);
+            routeList.add(routeMap);
+        }
+
+        Map<String, Object> gaugeMap = new TreeMap<>();
+        gauges.forEach((name, gauge) -> gaugeMap.put(name, gauge.value.getAsLong()));
+
+        Map<String, Object> gcMap = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Map<String, Object> collector = new LinkedHashMap<>();
+            collector.put("collections", Math.max(0, gc.getCollectionCount()));
+            collector.put("timeMillis", Math.max(0, gc.getCollectionTime()));
+            gcMap.put(gc.getName(), collector);
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("gc", gcMap);
+        jvm.put("heapUsedBytes", heap.getUsed());
+        jvm.put("heapCommittedBytes", heap.getCommitted());
+        jvm.put("threadsAllocatedBytes", allocatedBytes());
+
+        long batches = 0;
+        for (LongAdder batchSize : batchSizes) {
+            batches += batchSize.sum();
+        }
+        Map<String, Object> batchMap = new LinkedHashMap<>();
+        batchMap.put("count", batches);
+        batchMap.put("meanSize", batches == 0 ? 0 : (double) batchedTransfers.sum() / batches);
+        batchMap.put("maxSize", maxBatchSize.get());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("routes", routeList);
+        result.put("transfers", transferCounts());
+        result.put("coalescedBatches", batchMap);
+        result.put("gauges", gaugeMap);
+        result.put("jvm", jvm);
+        return result;
+    }
+
+    private List<RouteMetrics> sortedRoutes() {
+        List<RouteMetrics> sorted = new ArrayList<>(routes.values());
+        sorted.sort(Comparator.comparing(RouteMetrics::getPath).thenComparing(RouteMetrics::getMethod));
+        return sorted;
+    }
+
+    private Map<String, Long> transferCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put(TRANSFER_SUCCESSFUL, transfers[transfers.length - 1].sum());
+        for (TransferError error : TransferError.values()) {
+            counts.put(error.name(), transfers[error.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    /**
+     * @return bytes allocated by live threads, or -1 if JVM doesn't support it
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        if (!allocation.isThreadAllocatedMemorySupported() || !allocation.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : allocation.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            // -1 for threads died meanwhile
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static StringBuilder routeLabels(StringBuilder out, RouteMetrics route) {
+        return out.append("method=\"").append(escape(route.getMethod()))
+                .append("\",route=\"").append(escape(route.getPath())).append('"');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long micros) {
+        return BigDecimal.valueOf(micros, 6).stripTrailingZeros().toPlainString();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1_000.0;
+    }
+
+    private static final class Gauge {
+        private final String help;
+        private final LongSupplier value;
+
+        private Gauge(String help, LongSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.dlopatin.account.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and number of responses by status code of one route.
+ */
+public class RouteMetrics {
+
+    private final String method;
+    private final String path;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    RouteMetrics(String method, String path) {
+        this.method = method;
+        this.path = path;
+    }
+
+    /**
+     * @param nanos  time from request receiving till response is written
+     * @param status response status code
+     */
+    public void record(long nanos, int status) {
+        latency.record(nanos);
+        LongAdder counter = statuses.get(status);
+        if (counter == null) {
+            counter = statuses.computeIfAbsent(status, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return number of responses by status code, ordered by status code
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        statuses.forEach((status, counter) -> counts.put(status, counter.sum()));
+        return counts;
+    }
+}
@@ -1,21 +1,50 @@
 package com.dlopatin.account.model;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Objects;
+import java.util.function.IntConsumer;
 
 /**
  * Account entity
+ * <p>
+ * Balance and version are changed together by a single writer, e.g. holding account lock, and can be read
+ * consistently without the lock by {@link #snapshot()}. Change is guarded by sequence lock: stamp holds
+ * doubled version and is odd while balance is being changed, so reader retries if stamp has changed
+ * or was odd while balance was read.
+ * <p>
+ * Hot account, which receives a lot of concurrent credits, keeps credits in {@link CreditStripes} instead,
+ * so {@link #credit(long, IntConsumer)} needs neither account lock nor the single balance. Every other change
+ * and every read of hot account merges stripes while holding all their locks.
  */
 public class Account {
+    private static final VarHandle STAMP;
+
+    static {
+        try {
+            STAMP = MethodHandles.lookup().findVarHandle(Account.class, "stamp", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final int id;
-    private int version;
+    // version * 2, plus one while change is in progress
+    private volatile int stamp;
     private final Currency currency;
     // balance is stored in cents, pinnies, etc. To avoid work with BigDecimal
     private long balance;
+    private volatile CreditStripes stripes;
 
     private final Object lock = new Object();
 
     public Account(int id, Currency currency, long balance) {
+        this(id, 0, currency, balance);
+    }
+
+    public Account(int id, int version, Currency currency, long balance) {
         this.id = id;
+        this.stamp = version << 1;
         this.currency = currency;
         this.balance = balance;
     }
@@ -25,29 +54,191 @@ public class Account {
     }
 
     public int getVersion() {
-        return version;
+        return readStamp() >>> 1;
     }
 
     public Currency getCurrency() {
         return currency;
     }
 
+    /**
+     * @return balance, which may be in the middle of change unless called by writer. Balance of hot account
+     * is read holding all stripe locks, as credits drained into balance meanwhile would be missed otherwise
+     */
     public long getBalance() {
-        return balance;
+        CreditStripes credits = readStripes();
+        if (credits == null) {
+            return readBalance();
+        }
+        credits.lockAll();
+        try {
+            return readBalance() + credits.sum();
+        } finally {
+            credits.unlockAll();
+        }
     }
 
-    public void setBalance(long balance) {
-        this.balance = balance;
+    public boolean isHot() {
+        return readStripes() != null;
     }
 
-    public int incrementVersion() {
-        return ++version;
+    /**
+     * Makes account hot, so credits go to one of given number of stripes. Must be called by the only writer.
+     * Account stays hot for the rest of its life in memory.
+     */
+    public void makeHot(int stripeCount) {
+        if (readStripes() == null) {
+            writeStripes(new CreditStripes(stripeCount));
+        }
+    }
+
+    /**
+     * Adds amount to balance and increments version as one change. Must be called by the only writer.
+     *
+     * @param amount amount to be added, negative to withdraw money
+     * @return new version
+     */
+    public int addToBalance(long amount) {
+        CreditStripes credits = readStripes();
+        if (credits == null) {
+            return change(amount);
+        }
+        credits.lockAll();
+        try {
+            return change(credits.drain() + amount);
+        } finally {
+            credits.unlockAll();
+        }
+    }
+
+    /**
+     * Puts money to hot account without its lock, concurrently with other credits.
+     *
+     * @param amount     amount to be added, not negative
+     * @param onCredited receives new version, called before credit is visible to {@link #snapshot()} and other
+     *                   changes, e.g. to journal it
+     * @return new version
+     * @throws IllegalStateException if account is not hot
+     */
+    public int credit(long amount, IntConsumer onCredited) {
+        CreditStripes credits = readStripes();
+        if (credits == null) {
+            throw new IllegalStateException("Account is not hot: " + getId());
+        }
+        CreditStripes.Stripe stripe = credits.current();
+        stripe.lock();
+        try {
+            stripe.add(amount);
+            // stamp stays even, as writers changing balance hold all stripe locks
+            int version = addToStamp(2) >>> 1;
+            onCredited.accept(version);
+            return version;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private int change(long amount) {
+        int current = readStamp();
+        writeStamp(current + 1);
+        // balance must not be written before readers can see that change started
+        VarHandle.storeStoreFence();
+        writeBalance(readBalance() + amount);
+        writeStamp(current + 2);
+        return (current + 2) >>> 1;
+    }
+
+    /**
+     * Reads balance and version of the same moment without blocking writer.
+     *
+     * @return detached copy of account
+     */
+    public Account snapshot() {
+        CreditStripes credits = readStripes();
+        if (credits != null) {
+            credits.lockAll();
+            try {
+                return new Account(getId(), getVersion(), getCurrency(), readBalance() + credits.sum());
+            } finally {
+                credits.unlockAll();
+            }
+        }
+        while (true) {
+            int before = readStamp();
+            long currentBalance = readBalance();
+            // balance must be read before stamp is checked again
+            VarHandle.loadLoadFence();
+            if ((before & 1) == 0 && before == readStamp()) {
+                return new Account(getId(), before >>> 1, getCurrency(), currentBalance);
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * The same as {@link #snapshot()}, but runs given action at the moment of copy, e.g. to read state changed
+     * together with account. Must be called by the only writer, e.g. holding account lock, so hot account is
+     * the only one changing meanwhile and it's copied holding all stripe locks.
+     */
+    public Account snapshot(Runnable atCopy) {
+        CreditStripes credits = readStripes();
+        if (credits == null) {
+            Account copy = snapshot();
+            atCopy.run();
+            return copy;
+        }
+        credits.lockAll();
+        try {
+            atCopy.run();
+            return new Account(getId(), getVersion(), getCurrency(), readBalance() + credits.sum());
+        } finally {
+            credits.unlockAll();
+        }
     }
 
     public Object getLock() {
         return lock;
     }
 
+    /**
+     * Reads stamp with volatile semantics.
+     */
+    protected int readStamp() {
+        return stamp;
+    }
+
+    /**
+     * Writes stamp with volatile semantics.
+     */
+    protected void writeStamp(int stamp) {
+        this.stamp = stamp;
+    }
+
+    /**
+     * Atomically adds delta to stamp.
+     *
+     * @return new stamp
+     */
+    protected int addToStamp(int delta) {
+        return (int) STAMP.getAndAdd(this, delta) + delta;
+    }
+
+    protected CreditStripes readStripes() {
+        return stripes;
+    }
+
+    protected void writeStripes(CreditStripes stripes) {
+        this.stripes = stripes;
+    }
+
+    protected long readBalance() {
+        return balance;
+    }
+
+    protected void writeBalance(long balance) {
+        this.balance = balance;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -57,14 +248,14 @@ public class Account {
             return false;
         }
         Account account = (Account) o;
-        return id == account.id &&
-                version == account.version &&
-                balance == account.balance &&
-                currency == account.currency;
+        return getId() == account.getId() &&
+                getVersion() == account.getVersion() &&
+                getBalance() == account.getBalance() &&
+                getCurrency() == account.getCurrency();
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, version, currency, balance);
+        return Objects.hash(getId(), getVersion(), getCurrency(), getBalance());
     }
 }
@@ -0,0 +1,94 @@
+package com.dlopatin.account.model;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Credits of a hot account not merged into its balance yet. Credits are spread over stripes by thread,
+ * every stripe has its own lock, so concurrent credits rarely wait for each other. Whoever needs the whole
+ * balance takes all stripe locks in order.
+ */
+public final class CreditStripes {
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    /**
+     * @param count number of stripes, rounded up to power of two
+     */
+    CreditStripes(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count) * 2 - 1);
+        stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        mask = size - 1;
+    }
+
+    int size() {
+        return stripes.length;
+    }
+
+    /**
+     * @return stripe of the current thread, the same for the same thread
+     */
+    Stripe current() {
+        long id = Thread.currentThread().getId();
+        // spreads sequential thread ids over stripes
+        int hash = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+        return stripes[hash & mask];
+    }
+
+    void lockAll() {
+        for (Stripe stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
+    /**
+     * @return sum of credits, exact if all stripes are locked, otherwise only grows meanwhile
+     */
+    long sum() {
+        long sum = 0;
+        for (Stripe stripe : stripes) {
+            sum += stripe.credits;
+        }
+        return sum;
+    }
+
+    /**
+     * Takes all credits out of stripes. All stripes must be locked by caller.
+     *
+     * @return sum of taken credits
+     */
+    long drain() {
+        long sum = 0;
+        for (Stripe stripe : stripes) {
+            sum += stripe.credits;
+            stripe.credits = 0;
+        }
+        return sum;
+    }
+
+    static final class Stripe extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        // volatile as the sum is read without locks
+        private volatile long credits;
+        // keeps credits of neighbour stripes in different cache lines
+        @SuppressWarnings("unused")
+        private long p1, p2, p3, p4, p5, p6, p7;
+
+        /**
+         * Must be called holding the stripe lock.
+         */
+        void add(long amount) {
+            credits += amount;
+        }
+    }
+}
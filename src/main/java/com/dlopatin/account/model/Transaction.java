@@ -9,12 +9,15 @@ public class Transaction {
     private final int accountId;
     private final TransactionType type;
     private final long amount;
+    // epoch millis
+    private final long timestamp;
 
-    public Transaction(int operationId, int accountId, TransactionType type, long amount) {
+    public Transaction(int operationId, int accountId, TransactionType type, long amount, long timestamp) {
         this.accountId = accountId;
         this.type = type;
         this.amount = amount;
         this.operationId = operationId;
+        this.timestamp = timestamp;
     }
 
     public int getAccountId() {
@@ -33,6 +36,10 @@ public class Transaction {
         return operationId;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
     @Override
     public String toString() {
         return "Transaction{" +
@@ -40,6 +47,7 @@ public class Transaction {
                 ", type=" + type +
                 ", amount=" + amount +
                 ", operationId=" + operationId +
+                ", timestamp=" + timestamp +
                 '}';
     }
 }
@@ -0,0 +1,312 @@
+package com.dlopatin.account.replication;
+
+import com.dlopatin.account.journal.JournalListener;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.service.AccountService;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.StaleReadException;
+import com.dlopatin.account.service.Transfer;
+import com.dlopatin.account.service.TransferResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static com.dlopatin.account.replication.ReplicationProtocol.*;
+
+/**
+ * Read-only account service of follower, state is streamed from leader by {@link ReplicationProtocol} and applied
+ * by a single thread in order leader journaled it. Accounts are served as they are on follower, which is
+ * behind leader by {@link #getLagMillis()}, a client needing its own change reads with version of account seen
+ * after the change, see {@link #get(int, int)}.
+ * <p>
+ * State lives in memory only and is copied from leader on start. Lost connection is reopened, follower
+ * continues from its record if leader still keeps it, otherwise state is copied again, and reads are served
+ * by the previous copy till then. Transactions are not served, as follower has them since it started only.
+ */
+public class ReplicaAccountService implements AccountService, Closeable {
+
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+    private static final int READ_BUFFER_SIZE = 64 << 10;
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String leaderHost;
+    private final int leaderPort;
+    private final Supplier<AccountServiceImpl> replicaFactory;
+    private final long readTimeoutMillis;
+    private final Thread thread;
+    // notified once records up to heartbeat are applied
+    private final Object applied = new Object();
+    // held while transfer is applied, so accounts read together never show it half applied
+    private final Object applying = new Object();
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    // copy serving reads, null till the first one is made
+    private volatile AccountServiceImpl replica;
+    // leader time of the last heartbeat, zero till the first one
+    private volatile long leaderTimeMillis;
+
+    // owned by replication thread
+    private AccountServiceImpl target;
+    private JournalListener listener;
+    private long epoch;
+    private long nextSequence = FROM_SNAPSHOT;
+
+    /**
+     * @param replicaFactory    creates empty service state of leader is copied to
+     * @param readTimeoutMillis max time read waits for account version requested
+     */
+    public ReplicaAccountService(String leaderHost, int leaderPort, Supplier<AccountServiceImpl> replicaFactory,
+                                 long readTimeoutMillis) {
+        this.leaderHost = leaderHost;
+        this.leaderPort = leaderPort;
+        this.replicaFactory = replicaFactory;
+        this.readTimeoutMillis = readTimeoutMillis;
+        thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts following leader in background.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * @return time since leader state the follower has caught up with, growing while leader is not reachable,
+     * <code>-1</code> till state is copied
+     */
+    public long getLagMillis() {
+        long leaderTime = leaderTimeMillis;
+        return replica == null || leaderTime == 0 ? -1 : Math.max(0, System.currentTimeMillis() - leaderTime);
+    }
+
+    @Override
+    public Optional<Account> get(int id) {
+        return current().get(id);
+    }
+
+    @Override
+    public Account[] getAll(int[] ids) {
+        AccountServiceImpl current = current();
+        synchronized (applying) {
+            return current.getAll(ids);
+        }
+    }
+
+    @Override
+    public boolean isReadAtOnce(int[] ids) {
+        return current().isReadAtOnce(ids);
+    }
+
+    /**
+     * Waits till follower applies version of account requested, up to read timeout. Account not created
+     * on follower yet is waited for as well.
+     */
+    @Override
+    public Optional<Account> get(int id, int minVersion) {
+        Optional<Account> account = awaitVersion(id, minVersion, readTimeoutMillis);
+        if (account.map(Account::getVersion).orElse(-1) < minVersion) {
+            throw new StaleReadException(String.format("Version %d of account %d is not replicated in %d ms",
+                    minVersion, id, readTimeoutMillis));
+        }
+        return account;
+    }
+
+    /**
+     * Checks account every time records up to heartbeat are applied.
+     */
+    @Override
+    public Optional<Account> awaitChange(int id, int version, long timeoutMillis) {
+        Optional<Account> account = get(id);
+        return account.isEmpty() ? account : awaitVersion(id, version + 1, timeoutMillis);
+    }
+
+    /**
+     * @return account of given version or later, or account as is if time is out or thread is interrupted
+     */
+    private Optional<Account> awaitVersion(int id, int minVersion, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        Optional<Account> account = get(id);
+        while (account.map(Account::getVersion).orElse(-1) < minVersion) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return account;
+            }
+            // a missed notification costs a heartbeat interval at most
+            synchronized (applied) {
+                try {
+                    applied.wait(Math.min(remaining, HEARTBEAT_INTERVAL_MILLIS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return account;
+                }
+            }
+            account = get(id);
+        }
+        return account;
+    }
+
+    private AccountServiceImpl current() {
+        AccountServiceImpl current = replica;
+        if (current == null) {
+            throw new StaleReadException("State of leader is not copied yet");
+        }
+        return current;
+    }
+
+    @Override
+    public Account create(Currency currency, long balance) {
+        throw readOnly();
+    }
+
+    @Override
+    public int[] createBatch(Currency[] currencies, long[] balances) {
+        throw readOnly();
+    }
+
+    @Override
+    public Optional<List<Transaction>> getTransactions(int id, int after, int limit) {
+        throw transactionsNotKept();
+    }
+
+    @Override
+    public boolean exportTransactions(int id, Consumer<Transaction> action) {
+        throw transactionsNotKept();
+    }
+
+    @Override
+    public void exportTransactions(long from, long to, Consumer<Transaction> action) {
+        throw transactionsNotKept();
+    }
+
+    @Override
+    public void transfer(int from, int to, long amount, int operationId) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<TransferResult> transferBatch(List<Transfer> transfers) {
+        throw readOnly();
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Follower is read-only, changes are made by leader");
+    }
+
+    private static UnsupportedOperationException transactionsNotKept() {
+        return new UnsupportedOperationException("Transactions are served by leader");
+    }
+
+    /**
+     * Stops following leader, state copied so far is still served.
+     */
+    @Override
+    public void close() {
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                log.debug("Connection failed to close: {}", e.toString());
+            }
+        }
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket connection = new Socket(leaderHost, leaderPort)) {
+                socket = connection;
+                follow(connection);
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Replication from {}:{} failed, reconnecting: {}", leaderHost, leaderPort,
+                            e.toString());
+                }
+            } catch (RuntimeException e) {
+                // e.g. record of account missing in copy, which can not be repaired by the next records
+                log.error("Record of leader failed to apply, state is copied again", e);
+                nextSequence = FROM_SNAPSHOT;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(Socket connection) throws IOException {
+        connection.setTcpNoDelay(true);
+        DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+        out.writeLong(epoch);
+        out.writeLong(nextSequence);
+        out.flush();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(),
+                READ_BUFFER_SIZE));
+        byte[] bytes = new byte[FRAME_SIZE];
+        ByteBuffer frame = ByteBuffer.wrap(bytes);
+        while (running) {
+            in.readFully(bytes);
+            frame.clear();
+            byte type = frame.get();
+            switch (type) {
+                case CREATE:
+                    listener.onCreate(frame.getInt(), CURRENCIES[frame.get()], frame.getLong());
+                    nextSequence++;
+                    break;
+                case TRANSFER:
+                    synchronized (applying) {
+                        listener.onTransfer(frame.getInt(), frame.getInt(), frame.getInt(), frame.getInt(),
+                                frame.getInt(), frame.getLong(), frame.getLong());
+                    }
+                    nextSequence++;
+                    break;
+                case HEARTBEAT:
+                    leaderTimeMillis = frame.getLong();
+                    synchronized (applied) {
+                        applied.notifyAll();
+                    }
+                    break;
+                case SNAPSHOT:
+                    nextSequence = FROM_SNAPSHOT;
+                    target = replicaFactory.get();
+                    listener = null;
+                    break;
+                case ACCOUNT:
+                    target.restoreAccount(frame.getInt(), CURRENCIES[frame.get()], frame.getLong(), frame.getInt());
+                    break;
+                case STREAM:
+                    if (listener == null) {
+                        // records streamed next may be included in the copy, listener skips them
+                        listener = target.replicaListener();
+                        replica = target;
+                        log.info("State of leader {}:{} copied", leaderHost, leaderPort);
+                    }
+                    epoch = frame.getLong();
+                    nextSequence = frame.getLong();
+                    break;
+                default:
+                    throw new IOException("Unknown replication frame type " + type);
+            }
+        }
+    }
+}
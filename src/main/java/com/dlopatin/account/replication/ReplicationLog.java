@@ -0,0 +1,178 @@
+package com.dlopatin.account.replication;
+
+import com.dlopatin.account.journal.Journal;
+import com.dlopatin.account.journal.JournalListener;
+import com.dlopatin.account.model.Currency;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static com.dlopatin.account.replication.ReplicationProtocol.*;
+
+/**
+ * Journal of leader keeping the latest records in memory for followers, records are stored by journal it wraps.
+ * <p>
+ * Records are numbered in order they are appended and kept as {@link ReplicationProtocol} frames in a ring of
+ * fixed capacity, so follower behind by less than capacity continues from its record after reconnect, and
+ * the oldest records are overwritten by new ones. Records become visible to followers once flushed, so
+ * followers never see changes leader may lose on crash, as far as {@link #flush()} of wrapped journal
+ * guarantees that.
+ */
+public class ReplicationLog implements Journal {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final Journal delegate;
+    private final int capacity;
+    private final long epoch = new SecureRandom().nextLong();
+
+    // guarded by this
+    private final ByteBuffer records;
+    private long appended;
+    private long published;
+
+    /**
+     * @param capacity max number of the latest records kept in memory
+     */
+    public ReplicationLog(Journal delegate, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.delegate = delegate;
+        this.capacity = capacity;
+        records = ByteBuffer.allocate(capacity * FRAME_SIZE);
+    }
+
+    @Override
+    public void appendCreate(int accountId, Currency currency, long balance) {
+        delegate.appendCreate(accountId, currency, balance);
+        synchronized (this) {
+            next().put(CREATE)
+                    .putInt(accountId)
+                    .put((byte) currency.ordinal())
+                    .putLong(balance);
+        }
+    }
+
+    @Override
+    public void appendTransfer(int operationId, int fromId, int fromVersion, int toId, int toVersion,
+                               long amount, long timestamp) {
+        delegate.appendTransfer(operationId, fromId, fromVersion, toId, toVersion, amount, timestamp);
+        synchronized (this) {
+            next().put(TRANSFER)
+                    .putInt(operationId)
+                    .putInt(fromId)
+                    .putInt(fromVersion)
+                    .putInt(toId)
+                    .putInt(toVersion)
+                    .putLong(amount)
+                    .putLong(timestamp);
+        }
+    }
+
+    /**
+     * @return buffer positioned at cleared frame of the next record, which is taken by the call
+     */
+    private ByteBuffer next() {
+        int offset = (int) (appended++ % capacity) * FRAME_SIZE;
+        Arrays.fill(records.array(), offset, offset + FRAME_SIZE, (byte) 0);
+        return records.position(offset);
+    }
+
+    /**
+     * Flushes wrapped journal, then publishes records appended before the call.
+     */
+    @Override
+    public void flush() {
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+        delegate.flush();
+        synchronized (this) {
+            if (published < target) {
+                published = target;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return random number of this log, as sequence numbers of another log are not comparable
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return sequence number of the oldest record kept
+     */
+    public synchronized long oldest() {
+        return Math.max(0, appended - capacity);
+    }
+
+    /**
+     * @return sequence number after the last published record
+     */
+    public synchronized long published() {
+        return published;
+    }
+
+    /**
+     * Waits till a record at or after given sequence number is published.
+     *
+     * @return sequence number after the last published record, not greater than given one if time is out
+     */
+    public synchronized long awaitPublished(long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (published <= sequence && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return published;
+    }
+
+    /**
+     * Copies frames of published records starting from given sequence number, as many as fit to target.
+     *
+     * @return number of records copied, <code>-1</code> if the first of them is overwritten already
+     */
+    public synchronized int read(long sequence, ByteBuffer target) {
+        if (sequence < Math.max(0, appended - capacity)) {
+            return -1;
+        }
+        int count = (int) Math.min(published - sequence, target.remaining() / FRAME_SIZE);
+        for (int i = 0; i < count; i++) {
+            int offset = (int) ((sequence + i) % capacity) * FRAME_SIZE;
+            target.put(records.array(), offset, FRAME_SIZE);
+        }
+        return Math.max(0, count);
+    }
+
+    @Override
+    public void sync() {
+        delegate.sync();
+    }
+
+    @Override
+    public long position() {
+        return delegate.position();
+    }
+
+    @Override
+    public void replay(long fromPosition, JournalListener listener) {
+        delegate.replay(fromPosition, listener);
+    }
+
+    @Override
+    public void truncate(long beforePosition) {
+        delegate.truncate(beforePosition);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
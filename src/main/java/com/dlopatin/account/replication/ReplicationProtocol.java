@@ -0,0 +1,44 @@
+package com.dlopatin.account.replication;
+
+/**
+ * Protocol streaming state of leader to followers, shared by {@link ReplicationServer} and
+ * {@link ReplicaAccountService}. Follower connects and sends epoch of leader it followed and sequence number
+ * of the next record it needs, or {@link #FROM_SNAPSHOT} if it has no state yet. Epoch is chosen by leader
+ * on start, as sequence numbers start over. Leader answers with frames of fixed size, big-endian, padded
+ * with zeros:
+ * <pre>
+ *   SNAPSHOT    -
+ *   ACCOUNT     int id | byte currency | long balance | int version
+ *   STREAM      long epoch | long sequence
+ *   CREATE      int id | byte currency | long balance
+ *   TRANSFER    int operation id | int from | int from version | int to | int to version | long amount
+ *               | long timestamp
+ *   HEARTBEAT   long leader time millis
+ * </pre>
+ * State is copied by SNAPSHOT followed by ACCOUNT per account, then STREAM names sequence of the next record.
+ * If follower asked for a record of the same epoch leader still keeps, leader starts with STREAM right away.
+ * CREATE and TRANSFER are journal records of leader in order they were appended, numbered from STREAM sequence
+ * on. HEARTBEAT follows records published before leader time it carries and is sent at least every
+ * {@link #HEARTBEAT_INTERVAL_MILLIS} without records, so follower knows how far behind it is.
+ * <p>
+ * Snapshot is written while leader runs, so records streamed after it may be included in it already, see
+ * {@link com.dlopatin.account.service.AccountServiceImpl#replicaListener()}.
+ */
+public final class ReplicationProtocol {
+
+    public static final long FROM_SNAPSHOT = -1;
+    public static final long HEARTBEAT_INTERVAL_MILLIS = 100;
+
+    static final byte CREATE = 1;
+    static final byte TRANSFER = 2;
+    static final byte SNAPSHOT = 3;
+    static final byte ACCOUNT = 4;
+    static final byte STREAM = 5;
+    static final byte HEARTBEAT = 6;
+
+    // type, operation id, from id, from version, to id, to version, amount, timestamp of the largest frame
+    static final int FRAME_SIZE = 1 + 4 + 4 + 4 + 4 + 4 + 8 + 8;
+
+    private ReplicationProtocol() {
+    }
+}
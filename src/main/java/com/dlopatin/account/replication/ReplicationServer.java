@@ -0,0 +1,209 @@
+package com.dlopatin.account.replication;
+
+import com.dlopatin.account.journal.SnapshotWriter;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.service.AccountServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.dlopatin.account.replication.ReplicationProtocol.*;
+
+/**
+ * Streams state of leader to followers by {@link ReplicationProtocol}, a thread per follower. Follower gets
+ * records kept by {@link ReplicationLog} if it's behind by less than log capacity, otherwise snapshot of all
+ * accounts first. Follower too slow to keep up with log is disconnected and gets snapshot on reconnect.
+ */
+public class ReplicationServer {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicationServer.class);
+
+    private static final int FRAMES_PER_WRITE = 1024;
+
+    private final int port;
+    private final ReplicationLog replicationLog;
+    private final AccountServiceImpl accountService;
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * @param port           port to listen to, zero lets system choose a free port
+     * @param replicationLog journal of account service
+     */
+    public ReplicationServer(int port, ReplicationLog replicationLog, AccountServiceImpl accountService) {
+        this.port = port;
+        this.replicationLog = replicationLog;
+        this.accountService = accountService;
+    }
+
+    /**
+     * @return port the server listens to
+     */
+    public int start() {
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        running = true;
+        Thread acceptor = new Thread(this::accept, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops serving and disconnects followers.
+     */
+    public void stop() {
+        running = false;
+        closeQuietly(serverSocket);
+        followers.forEach(ReplicationServer::closeQuietly);
+    }
+
+    /**
+     * @return number of connected followers
+     */
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                followers.add(socket);
+                Thread sender = new Thread(() -> serve(socket), "replication-sender-" + socket.getPort());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.error("Follower failed to connect", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            long epoch = in.readLong();
+            long sequence = in.readLong();
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), FRAMES_PER_WRITE * FRAME_SIZE);
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+            long next;
+            if (epoch == replicationLog.getEpoch() && sequence >= replicationLog.oldest()
+                    && sequence <= replicationLog.published()) {
+                next = sequence;
+                log.info("Follower {} continues from record {}", socket.getRemoteSocketAddress(), next);
+            } else {
+                // records kept are streamed from the oldest one, as creations of accounts appended
+                // before the first record to stream may be not visible to snapshot yet
+                next = replicationLog.oldest();
+                log.info("Follower {} gets snapshot", socket.getRemoteSocketAddress());
+                writeSnapshot(out, frame);
+            }
+            write(out, frame.put(STREAM).putLong(replicationLog.getEpoch()).putLong(next));
+            stream(socket, out, frame, next);
+        } catch (SocketException e) {
+            log.info("Follower {} disconnected: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Replication to follower {} failed", socket.getRemoteSocketAddress(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(socket);
+        }
+    }
+
+    private void writeSnapshot(OutputStream out, ByteBuffer frame) throws IOException {
+        write(out, frame.put(SNAPSHOT));
+        accountService.writeAccounts(new SnapshotWriter() {
+            @Override
+            public void writeAccount(int id, Currency currency, long balance, int version) {
+                try {
+                    write(out, frame.put(ACCOUNT)
+                            .putInt(id)
+                            .put((byte) currency.ordinal())
+                            .putLong(balance)
+                            .putInt(version));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void writeOperation(int operationId, int fingerprint, int outcome) {
+                // followers do not take transfers
+            }
+
+            @Override
+            public void writeTransaction(Transaction transaction) {
+                // transactions are served by leader
+            }
+        });
+    }
+
+    private void stream(Socket socket, OutputStream out, ByteBuffer frame, long next)
+            throws IOException, InterruptedException {
+        ByteBuffer frames = ByteBuffer.allocate(FRAMES_PER_WRITE * FRAME_SIZE);
+        while (running) {
+            replicationLog.awaitPublished(next, HEARTBEAT_INTERVAL_MILLIS);
+            // records published before this time are sent before heartbeat
+            long time = System.currentTimeMillis();
+            long published = replicationLog.published();
+            while (next < published) {
+                frames.clear();
+                int count = replicationLog.read(next, frames);
+                if (count < 0) {
+                    log.warn("Follower {} is behind by more than records kept, disconnected",
+                            socket.getRemoteSocketAddress());
+                    return;
+                }
+                out.write(frames.array(), 0, frames.position());
+                next += count;
+            }
+            write(out, frame.put(HEARTBEAT).putLong(time));
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes frame filled since it was cleared, padded to frame size, and clears it.
+     */
+    private static void write(OutputStream out, ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            frame.put((byte) 0);
+        }
+        out.write(frame.array(), 0, FRAME_SIZE);
+        frame.clear();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.debug("Failed to close: {}", e.toString());
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.dlopatin.account.repository;
+
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.CreditStripes;
+import com.dlopatin.account.model.Currency;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Stores accounts in primitive arrays indexed by account id, so an account costs a few bytes
+ * instead of a map node, a boxed key, an entity and a lock object.
+ * <p>
+ * Arrays are split into pages allocated on demand, so storage grows without copying.
+ * Accounts of the same id range share one lock, range is small enough to keep contention low.
+ * As lock ranges grow together with ids, locking accounts in id order keeps locks ordered as well.
+ * <p>
+ * Accounts returned by {@link #get(int)} are views over the arrays, so updates made through them
+ * are stored immediately. Versions array keeps sequence lock stamps of {@link Account}, so consistent reads
+ * cost no extra memory.
+ */
+public class AccountArrayDao implements AccountDao {
+
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int LOCK_SHIFT = 4;
+    private static final int MAX_PAGES = 1 << (Integer.SIZE - 1 - PAGE_SHIFT);
+
+    private static final byte ABSENT = 0;
+    private static final Currency[] CURRENCIES = Currency.values();
+    private static final VarHandle CURRENCY = MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final VarHandle STAMP = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle STRIPES = MethodHandles.arrayElementVarHandle(CreditStripes[].class);
+
+    private volatile Page[] pages = new Page[16];
+
+    @Override
+    public boolean create(Account account) {
+        int id = account.getId();
+        if (id < 0) {
+            throw new IllegalArgumentException("Account id is negative");
+        }
+        Page page = page(id, true);
+        int index = id & PAGE_MASK;
+        synchronized (page.lock(index)) {
+            if ((byte) CURRENCY.getAcquire(page.currencies, index) != ABSENT) {
+                return false;
+            }
+            page.balances[index] = account.getBalance();
+            page.stamps[index] = account.getVersion() << 1;
+            // currency is written last as it marks account as stored
+            CURRENCY.setRelease(page.currencies, index, (byte) (account.getCurrency().ordinal() + 1));
+            return true;
+        }
+    }
+
+    /**
+     * Fills arrays page by page, taking every lock of the range once instead of once per account.
+     * Every lock range is checked before it's filled, so an account stored already is never overwritten.
+     */
+    @Override
+    public void createAll(int firstId, Currency[] currencies, long[] balances) {
+        if (firstId < 0) {
+            throw new IllegalArgumentException("Account id is negative");
+        }
+        for (int i = 0; i < currencies.length; i++) {
+            checkNotStored(firstId + i);
+        }
+        int i = 0;
+        while (i < currencies.length) {
+            int id = firstId + i;
+            Page page = page(id, true);
+            int index = id & PAGE_MASK;
+            // accounts up to the end of lock range or of batch
+            int end = Math.min(currencies.length, i + (((index >>> LOCK_SHIFT) + 1) << LOCK_SHIFT) - index);
+            synchronized (page.lock(index)) {
+                // an account of the range may be created after the check above
+                for (int j = i; j < end; j++) {
+                    checkNotStored(firstId + j);
+                }
+                for (; i < end; i++, index++) {
+                    page.balances[index] = balances[i];
+                    page.stamps[index] = 0;
+                    CURRENCY.setRelease(page.currencies, index, (byte) (currencies[i].ordinal() + 1));
+                }
+            }
+        }
+    }
+
+    private void checkNotStored(int id) {
+        Page page = page(id, false);
+        if (page != null && (byte) CURRENCY.getAcquire(page.currencies, id & PAGE_MASK) != ABSENT) {
+            throw new IllegalArgumentException(String.format("Account %d is already stored", id));
+        }
+    }
+
+    @Override
+    public void update(Account account) {
+        // no action as account views write directly to the storage
+    }
+
+    @Override
+    public Optional<Account> get(int id) {
+        if (id < 0) {
+            return Optional.empty();
+        }
+        Page page = page(id, false);
+        if (page == null) {
+            return Optional.empty();
+        }
+        int index = id & PAGE_MASK;
+        byte currency = (byte) CURRENCY.getAcquire(page.currencies, index);
+        if (currency == ABSENT) {
+            return Optional.empty();
+        }
+        return Optional.of(new AccountView(id, CURRENCIES[currency - 1], page, index));
+    }
+
+    /**
+     * Looks page up once for ids of the same page in a row, e.g. ids sorted.
+     */
+    @Override
+    public Account[] getAll(int[] ids) {
+        Account[] accounts = new Account[ids.length];
+        Page page = null;
+        int pageIndex = -1;
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            if (id < 0) {
+                continue;
+            }
+            if (id >>> PAGE_SHIFT != pageIndex) {
+                pageIndex = id >>> PAGE_SHIFT;
+                page = page(id, false);
+            }
+            if (page == null) {
+                continue;
+            }
+            int index = id & PAGE_MASK;
+            byte currency = (byte) CURRENCY.getAcquire(page.currencies, index);
+            if (currency != ABSENT) {
+                accounts[i] = new AccountView(id, CURRENCIES[currency - 1], page, index);
+            }
+        }
+        return accounts;
+    }
+
+    @Override
+    public void forEach(Consumer<Account> action) {
+        Page[] current = pages;
+        for (int pageIndex = 0; pageIndex < current.length; pageIndex++) {
+            Page page = current[pageIndex];
+            if (page == null) {
+                continue;
+            }
+            for (int index = 0; index < PAGE_SIZE; index++) {
+                byte currency = (byte) CURRENCY.getAcquire(page.currencies, index);
+                if (currency != ABSENT) {
+                    int id = pageIndex << PAGE_SHIFT | index;
+                    action.accept(new AccountView(id, CURRENCIES[currency - 1], page, index));
+                }
+            }
+        }
+    }
+
+    private Page page(int id, boolean allocate) {
+        int pageIndex = id >>> PAGE_SHIFT;
+        Page[] current = pages;
+        if (pageIndex < current.length && current[pageIndex] != null) {
+            return current[pageIndex];
+        }
+        if (!allocate) {
+            return null;
+        }
+        synchronized (this) {
+            current = pages;
+            if (pageIndex >= current.length) {
+                Page[] grown = new Page[Math.min(MAX_PAGES, Math.max(pageIndex + 1, current.length * 2))];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                current = grown;
+            }
+            if (current[pageIndex] == null) {
+                current[pageIndex] = new Page();
+            }
+            // publishes page together with possibly grown array
+            pages = current;
+            return current[pageIndex];
+        }
+    }
+
+    private static class Page {
+        // balance is stored in cents, pinnies, etc. To avoid work with BigDecimal
+        private final long[] balances = new long[PAGE_SIZE];
+        private final int[] stamps = new int[PAGE_SIZE];
+        private final byte[] currencies = new byte[PAGE_SIZE];
+        private final Object[] locks = new Object[PAGE_SIZE >>> LOCK_SHIFT];
+        // allocated once the first account of the page becomes hot
+        private volatile CreditStripes[] stripes;
+
+        private Page() {
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        private Object lock(int index) {
+            return locks[index >>> LOCK_SHIFT];
+        }
+    }
+
+    /**
+     * Account backed by page arrays. All reads and writes go directly to the storage.
+     */
+    private static class AccountView extends Account {
+
+        private final Page page;
+        private final int index;
+
+        private AccountView(int id, Currency currency, Page page, int index) {
+            super(id, currency, 0);
+            this.page = page;
+            this.index = index;
+        }
+
+        @Override
+        protected int readStamp() {
+            return (int) STAMP.getVolatile(page.stamps, index);
+        }
+
+        @Override
+        protected void writeStamp(int stamp) {
+            STAMP.setVolatile(page.stamps, index, stamp);
+        }
+
+        @Override
+        protected int addToStamp(int delta) {
+            return (int) STAMP.getAndAdd(page.stamps, index, delta) + delta;
+        }
+
+        @Override
+        protected CreditStripes readStripes() {
+            CreditStripes[] stripes = page.stripes;
+            return stripes == null ? null : (CreditStripes) STRIPES.getVolatile(stripes, index);
+        }
+
+        @Override
+        protected void writeStripes(CreditStripes stripes) {
+            synchronized (page) {
+                if (page.stripes == null) {
+                    page.stripes = new CreditStripes[PAGE_SIZE];
+                }
+            }
+            STRIPES.setVolatile(page.stripes, index, stripes);
+        }
+
+        @Override
+        protected long readBalance() {
+            return page.balances[index];
+        }
+
+        @Override
+        protected void writeBalance(long balance) {
+            page.balances[index] = balance;
+        }
+
+        @Override
+        public Object getLock() {
+            return page.lock(index);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.dlopatin.account.repository;
 
 import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
 
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * Provides interface to work with account repository.
@@ -17,6 +19,22 @@ public interface AccountDao {
      */
     boolean create(Account account);
 
+    /**
+     * Stores accounts with consecutive ids, none of them must be stored yet.
+     *
+     * @param firstId    id of the first account, the next ones follow in order
+     * @param currencies currency per account
+     * @param balances   balance per account
+     * @throws IllegalArgumentException if an account is stored already, accounts of ids before it may be stored
+     */
+    default void createAll(int firstId, Currency[] currencies, long[] balances) {
+        for (int i = 0; i < currencies.length; i++) {
+            if (!create(new Account(firstId + i, currencies[i], balances[i]))) {
+                throw new IllegalArgumentException(String.format("Account %d is already stored", firstId + i));
+            }
+        }
+    }
+
     /**
      * Updates existing account
      *
@@ -31,4 +49,25 @@ public interface AccountDao {
      * @return account wrapped in optional class
      */
     Optional<Account> get(int id);
+
+    /**
+     * Retrieves accounts by their ids in one call.
+     *
+     * @param ids account ids, may repeat
+     * @return account per id in the same order, <code>null</code> if there is no account with that id
+     */
+    default Account[] getAll(int[] ids) {
+        Account[] accounts = new Account[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            accounts[i] = get(ids[i]).orElse(null);
+        }
+        return accounts;
+    }
+
+    /**
+     * Passes every stored account to given action. Accounts created meanwhile may be skipped.
+     *
+     * @param action action to be performed for each account
+     */
+    void forEach(Consumer<Account> action);
 }
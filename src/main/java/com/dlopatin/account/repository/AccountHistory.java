@@ -0,0 +1,133 @@
+package com.dlopatin.account.repository;
+
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.model.TransactionType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Append-only transactions of one account in order they were stored. Fields are kept in primitive columns
+ * split into chunks of fixed size, so append costs no allocation besides a new chunk once in a while, and
+ * a page is found by position without scanning preceding transactions. The first chunk starts small and grows,
+ * as most accounts have a few transactions.
+ * <p>
+ * Appends are serialized, reads run concurrently with them without locks.
+ */
+public final class AccountHistory {
+
+    static final int CHUNK_SHIFT = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_CAPACITY = 4;
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private final int accountId;
+    private volatile Chunk[] chunks = {new Chunk(INITIAL_CAPACITY)};
+    // published after transaction is written, so reader sees every transaction below it
+    private volatile int size;
+
+    public AccountHistory(int accountId) {
+        this.accountId = accountId;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public synchronized void append(int operationId, TransactionType type, long amount, long timestamp) {
+        int index = size;
+        int chunkIndex = index >>> CHUNK_SHIFT;
+        int offset = index & CHUNK_MASK;
+        Chunk[] current = chunks;
+        if (chunkIndex == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            chunks = current;
+        }
+        Chunk chunk = current[chunkIndex];
+        if (chunk == null) {
+            chunk = new Chunk(CHUNK_SIZE);
+            current[chunkIndex] = chunk;
+        } else if (offset == chunk.capacity()) {
+            chunk = new Chunk(chunk, Math.min(CHUNK_SIZE, offset * 2));
+            current[chunkIndex] = chunk;
+        }
+        chunk.operationIds[offset] = operationId;
+        chunk.types[offset] = (byte) type.ordinal();
+        chunk.amounts[offset] = amount;
+        chunk.timestamps[offset] = timestamp;
+        size = index + 1;
+    }
+
+    /**
+     * @param after position to start after, i.e. number of transactions to skip
+     * @param limit max number of transactions
+     * @return transactions stored at the moment, starting from given position
+     */
+    public List<Transaction> list(int after, int limit) {
+        int end = (int) Math.min(size, (long) after + limit);
+        Chunk[] current = chunks;
+        List<Transaction> page = new ArrayList<>(Math.max(0, end - after));
+        for (int index = Math.max(0, after); index < end; index++) {
+            Chunk chunk = current[index >>> CHUNK_SHIFT];
+            int offset = index & CHUNK_MASK;
+            page.add(new Transaction(chunk.operationIds[offset], accountId, TYPES[chunk.types[offset]],
+                    chunk.amounts[offset], chunk.timestamps[offset]));
+        }
+        return page;
+    }
+
+    /**
+     * Passes transactions stored at the moment of call to action one by one, so no more than one of them is kept
+     * in memory unless action keeps them. Transactions appended meanwhile are not passed.
+     */
+    public void forEach(Consumer<Transaction> action) {
+        forEach(size, action);
+    }
+
+    /**
+     * Passes the first transactions, up to given number, to action one by one.
+     */
+    public void forEach(int limit, Consumer<Transaction> action) {
+        int end = Math.min(size, limit);
+        Chunk[] current = chunks;
+        for (int index = 0; index < end; index++) {
+            Chunk chunk = current[index >>> CHUNK_SHIFT];
+            int offset = index & CHUNK_MASK;
+            action.accept(new Transaction(chunk.operationIds[offset], accountId, TYPES[chunk.types[offset]],
+                    chunk.amounts[offset], chunk.timestamps[offset]));
+        }
+    }
+
+    private static final class Chunk {
+        // final, so a grown copy replacing chunk is seen filled by readers
+        private final int[] operationIds;
+        private final byte[] types;
+        private final long[] amounts;
+        private final long[] timestamps;
+
+        private Chunk(int capacity) {
+            operationIds = new int[capacity];
+            types = new byte[capacity];
+            amounts = new long[capacity];
+            timestamps = new long[capacity];
+        }
+
+        private Chunk(Chunk chunk, int capacity) {
+            operationIds = Arrays.copyOf(chunk.operationIds, capacity);
+            types = Arrays.copyOf(chunk.types, capacity);
+            amounts = Arrays.copyOf(chunk.amounts, capacity);
+            timestamps = Arrays.copyOf(chunk.timestamps, capacity);
+        }
+
+        private int capacity() {
+            return operationIds.length;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.dlopatin.account.model.Account;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class AccountInMemoryDao implements AccountDao {
     private final Map<Integer, Account> accountStorage;
@@ -15,8 +16,7 @@ public class AccountInMemoryDao implements AccountDao {
 
     @Override
     public boolean create(Account account) {
-        Account stored = accountStorage.putIfAbsent(account.getId(), account);
-        return account.equals(stored);
+        return accountStorage.putIfAbsent(account.getId(), account) == null;
     }
 
     @Override
@@ -28,4 +28,18 @@ public class AccountInMemoryDao implements AccountDao {
     public Optional<Account> get(int id) {
         return Optional.ofNullable(accountStorage.get(id));
     }
+
+    @Override
+    public Account[] getAll(int[] ids) {
+        Account[] accounts = new Account[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            accounts[i] = accountStorage.get(ids[i]);
+        }
+        return accounts;
+    }
+
+    @Override
+    public void forEach(Consumer<Account> action) {
+        accountStorage.values().forEach(action);
+    }
 }
@@ -3,6 +3,7 @@ package com.dlopatin.account.repository;
 import com.dlopatin.account.model.Transaction;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Provides interface to work with transaction repository.
@@ -10,26 +11,43 @@ import java.util.List;
 public interface TransactionDao {
 
     /**
-     * Stores transaction.
+     * Stores transaction. Every transaction is appended to history of its account, even if another one
+     * with the same operation id is stored, as operation id may be reused once duplicates are not checked.
      *
      * @param transaction transaction to be stored
-     * @return <code>true</code> if transaction was created, <code>false</code> otherwise
      */
-    boolean insert(Transaction transaction);
+    void insert(Transaction transaction);
 
     /**
-     * List existing transactions by operation id.
+     * Lists transactions of account in order they were stored.
      *
-     * @param operationId unique operation id provided by client
-     * @return list of stored transactions
+     * @param accountId account id
+     * @param after     position to start after, i.e. number of transactions of account to skip
+     * @param limit     max number of transactions
+     * @return page of stored transactions, empty if there are no more
      */
-    List<Transaction> list(int operationId);
+    List<Transaction> listByAccount(int accountId, int after, int limit);
 
     /**
-     * Checks whether transactions exist by given operation id.
+     * Passes transactions of account stored at the moment of call to action one by one, in order they were stored.
      *
-     * @param operationId unique operation id provided by client
-     * @return <code>true</code> if any transaction exists, <code>false</code> otherwise
+     * @param accountId account id
+     * @param action    receives transactions
      */
-    boolean hasTransactions(int operationId);
+    void forEachByAccount(int accountId, Consumer<Transaction> action);
+
+    /**
+     * Passes the first transactions of account to action one by one, in order they were stored.
+     *
+     * @param accountId account id
+     * @param limit     max number of transactions, e.g. number of transactions account had at some moment
+     * @param action    receives transactions
+     */
+    void forEachByAccount(int accountId, int limit, Consumer<Transaction> action);
+
+    /**
+     * @param accountId account id
+     * @return number of transactions of account stored at the moment
+     */
+    int countByAccount(int accountId);
 }
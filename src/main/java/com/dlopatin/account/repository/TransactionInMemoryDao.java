@@ -2,54 +2,59 @@ package com.dlopatin.account.repository;
 
 import com.dlopatin.account.model.Transaction;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class TransactionInMemoryDao implements TransactionDao {
 
     /**
-     * Stores transactions mapped by operation id
+     * Stores transactions of every account in order they were inserted
      */
-    private final Map<Integer, Transaction> debitTransactionStorage;
-    /**
-     * Stores transactions mapped by operation id
-     */
-    private final Map<Integer, Transaction> creditTransactionStorage;
+    private final Map<Integer, AccountHistory> histories;
 
     public TransactionInMemoryDao() {
-        debitTransactionStorage = new ConcurrentHashMap<>();
-        creditTransactionStorage = new ConcurrentHashMap<>();
+        histories = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void insert(Transaction transaction) {
+        // operation id may be reused once it's forgotten by idempotency index, history keeps both transfers
+        history(transaction.getAccountId()).append(transaction.getOperationId(), transaction.getType(),
+                transaction.getAmount(), transaction.getTimestamp());
     }
 
     @Override
-    public boolean insert(Transaction transaction) {
-        Transaction stored;
-        switch (transaction.getType()) {
-            case CREDIT:
-                stored = creditTransactionStorage.putIfAbsent(transaction.getOperationId(), transaction);
-                break;
-            case DEBIT:
-                stored = debitTransactionStorage.putIfAbsent(transaction.getOperationId(), transaction);
-                break;
-            default:
-                throw new UnsupportedOperationException("Transaction type not supported: " + transaction.getType());
+    public List<Transaction> listByAccount(int accountId, int after, int limit) {
+        AccountHistory history = histories.get(accountId);
+        return history == null ? List.of() : history.list(after, limit);
+    }
+
+    @Override
+    public void forEachByAccount(int accountId, Consumer<Transaction> action) {
+        AccountHistory history = histories.get(accountId);
+        if (history != null) {
+            history.forEach(action);
         }
-        return transaction.equals(stored);
     }
 
     @Override
-    public List<Transaction> list(int operationId) {
-        List<Transaction> transactions = new ArrayList<>();
-        Optional.ofNullable(debitTransactionStorage.get(operationId)).ifPresent(transactions::add);
-        Optional.ofNullable(creditTransactionStorage.get(operationId)).ifPresent(transactions::add);
-        return transactions;
+    public void forEachByAccount(int accountId, int limit, Consumer<Transaction> action) {
+        AccountHistory history = histories.get(accountId);
+        if (history != null) {
+            history.forEach(limit, action);
+        }
     }
 
     @Override
-    public boolean hasTransactions(int operationId) {
-        return !list(operationId).isEmpty();
+    public int countByAccount(int accountId) {
+        AccountHistory history = histories.get(accountId);
+        return history == null ? 0 : history.size();
+    }
+
+    private AccountHistory history(int accountId) {
+        AccountHistory history = histories.get(accountId);
+        return history != null ? history : histories.computeIfAbsent(accountId, AccountHistory::new);
     }
 }
@@ -2,14 +2,32 @@ package com.dlopatin.account.service;
 
 import com.dlopatin.account.model.Account;
 import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.model.Transaction;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * Performs operation with account.
  */
 public interface AccountService {
 
+    /**
+     * Max number of transfers accepted by {@link #transferBatch(List)}.
+     */
+    int MAX_TRANSFER_BATCH_SIZE = 1000;
+
+    /**
+     * Max number of accounts retrieved by {@link #getAll(int[])}.
+     */
+    int MAX_GET_BATCH_SIZE = 1000;
+
+    /**
+     * Max number of transactions returned by {@link #getTransactions(int, int, int)}.
+     */
+    int MAX_TRANSACTION_PAGE_SIZE = 1000;
+
     /**
      * Creates new account with given balance. It's a simple test application, so money come from air.
      * No need in any system account.
@@ -21,6 +39,19 @@ public interface AccountService {
      */
     Account create(Currency currency, long balance);
 
+    /**
+     * Creates accounts in bulk, e.g. on migration. Ids are reserved as one block and accounts are stored
+     * together, so an account costs a fraction of {@link #create(Currency, long)}. Node of cluster takes ids
+     * it owns one by one and shares only journal flush. Either all accounts are created or none if arguments
+     * are incorrect.
+     *
+     * @param currencies currency per account
+     * @param balances   initial balance per account, the same number as of currencies
+     * @return ids of accounts in order given, consecutive unless ids are owned by nodes of cluster
+     * @throws IllegalArgumentException in case of incorrect arguments
+     */
+    int[] createBatch(Currency[] currencies, long[] balances);
+
     /**
      * Retrieves account by it' id.
      *
@@ -30,6 +61,80 @@ public interface AccountService {
     Optional<Account> get(int id);
 
     /**
+     * Retrieves accounts as of the same moment, so no transfer between them is seen half done, unless
+     * {@link #isReadAtOnce(int[])} tells otherwise.
+     *
+     * @param ids account ids, up to {@link #MAX_GET_BATCH_SIZE}, may repeat
+     * @return account per id in the same order, <code>null</code> if account is not found
+     * @throws IllegalArgumentException in case of incorrect arguments
+     */
+    Account[] getAll(int[] ids);
+
+    /**
+     * @return whether {@link #getAll(int[])} reads given accounts as of the same moment, rather than one by one
+     */
+    default boolean isReadAtOnce(int[] ids) {
+        return true;
+    }
+
+    /**
+     * Retrieves account by it' id, at least of given version, so a client reading from replica sees its own
+     * changes. Service of the latest state returns account as is.
+     *
+     * @param id         account id
+     * @param minVersion version account must have at least, e.g. one seen by client before
+     * @return account wrapped in optional
+     * @throws StaleReadException if account of that version is not available in time
+     */
+    default Optional<Account> get(int id, int minVersion) {
+        return get(id);
+    }
+
+    /**
+     * Waits till account gets newer than given version, so client polling account is answered once it changes.
+     *
+     * @param id            account id
+     * @param version       version of account client has already
+     * @param timeoutMillis max time to wait for a newer version
+     * @return account of a newer version, or account as is if time is out, empty optional if account is not found
+     * @throws RemoteAccountException if account is kept by another node
+     */
+    Optional<Account> awaitChange(int id, int version, long timeoutMillis);
+
+    /**
+     * Lists transactions of account in order they were made.
+     *
+     * @param id    account id
+     * @param after number of transactions to skip, i.e. position the previous page ended at
+     * @param limit max number of transactions, up to {@link #MAX_TRANSACTION_PAGE_SIZE}
+     * @return page of transactions wrapped in optional, empty optional if account is not found
+     * @throws IllegalArgumentException in case of incorrect arguments
+     */
+    Optional<List<Transaction>> getTransactions(int id, int after, int limit);
+
+    /**
+     * Passes all transactions of account to action one by one in order they were made, so the whole history
+     * is never kept in memory. Transactions made meanwhile may be missed.
+     *
+     * @param id     account id
+     * @param action receives transactions
+     * @return <code>false</code> if account is not found
+     */
+    boolean exportTransactions(int id, Consumer<Transaction> action);
+
+    /**
+     * Passes transactions of all accounts made within given time range to action one by one, grouped
+     * by account in order of account storage.
+     *
+     * @param from   epoch millis transactions are made at or after
+     * @param to     epoch millis transactions are made before
+     * @param action receives transactions
+     */
+    void exportTransactions(long from, long to, Consumer<Transaction> action);
+
+    /**
+     * Moves money between accounts. Repeated transfer with the same operation id replays original outcome.
+     *
      * @param from        account id to withdraw money
      * @param to          account id to put money
      * @param amount      amount in cents, pennies etc
@@ -37,4 +142,14 @@ public interface AccountService {
      * @throws TransferException if transfer can not be completed
      */
     void transfer(int from, int to, long amount, int operationId);
+
+    /**
+     * Processes transfers in given order. Every account touched by the batch is locked only once.
+     *
+     * @param transfers transfers to be processed, up to {@link #MAX_TRANSFER_BATCH_SIZE}
+     * @return result per transfer in the same order as requested, cluster node may return results of a prefix
+     * of the batch only, see {@code ClusterAccountService#transferBatch(List)}
+     * @throws IllegalArgumentException in case of incorrect arguments
+     */
+    List<TransferResult> transferBatch(List<Transfer> transfers);
 }
@@ -1,5 +1,13 @@
 package com.dlopatin.account.service;
 
+import com.dlopatin.account.journal.Journal;
+import com.dlopatin.account.journal.JournalListener;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.journal.SnapshotInfo;
+import com.dlopatin.account.journal.SnapshotListener;
+import com.dlopatin.account.journal.SnapshotStore;
+import com.dlopatin.account.journal.SnapshotWriter;
+import com.dlopatin.account.metrics.ContentionProfiler;
 import com.dlopatin.account.model.Account;
 import com.dlopatin.account.model.Currency;
 import com.dlopatin.account.model.Transaction;
@@ -7,20 +15,223 @@ import com.dlopatin.account.model.TransactionType;
 import com.dlopatin.account.repository.AccountDao;
 import com.dlopatin.account.repository.TransactionDao;
 import com.dlopatin.account.service.TransferException.TransferError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 
-public class AccountServiceImpl implements AccountService {
+public class AccountServiceImpl implements AccountService, CreditParticipant {
+
+    /**
+     * Takes every id for created accounts.
+     */
+    public static final IntPredicate ALL_IDS = id -> true;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final AtomicInteger accountIdGenerator = new AtomicInteger();
+    // ids are skipped on cluster, so accounts are counted as they are stored
+    private final AtomicInteger accountCount = new AtomicInteger();
+    private volatile long recoveryTimeMillis;
 
     private final AccountDao accountDao;
     private final TransactionDao transactionDao;
+    private final IdempotencyIndex idempotencyIndex;
+    private final Journal journal;
+    private final ContentionProfiler contentionProfiler;
+    private final IntPredicate ownedIds;
+    // time credits were prepared at by coordinators of other nodes, operations are acquired till commit or abort
+    private final Map<Integer, Long> preparedCredits = new ConcurrentHashMap<>();
+    private final VersionWatcher versionWatcher = new VersionWatcher();
 
     public AccountServiceImpl(AccountDao accountDao, TransactionDao transactionDao) {
+        this(accountDao, transactionDao, new IdempotencyIndex(), NoJournal.INSTANCE);
+    }
+
+    public AccountServiceImpl(AccountDao accountDao, TransactionDao transactionDao,
+                              IdempotencyIndex idempotencyIndex, Journal journal) {
+        this(accountDao, transactionDao, idempotencyIndex, journal, ContentionProfiler.DISABLED);
+    }
+
+    public AccountServiceImpl(AccountDao accountDao, TransactionDao transactionDao,
+                              IdempotencyIndex idempotencyIndex, Journal journal,
+                              ContentionProfiler contentionProfiler) {
+        this(accountDao, transactionDao, idempotencyIndex, journal, contentionProfiler, ALL_IDS);
+    }
+
+    /**
+     * @param ownedIds ids taken for created accounts, others are skipped as they are taken by other nodes
+     */
+    public AccountServiceImpl(AccountDao accountDao, TransactionDao transactionDao,
+                              IdempotencyIndex idempotencyIndex, Journal journal,
+                              ContentionProfiler contentionProfiler, IntPredicate ownedIds) {
         this.accountDao = accountDao;
         this.transactionDao = transactionDao;
+        this.idempotencyIndex = idempotencyIndex;
+        this.journal = journal;
+        this.contentionProfiler = contentionProfiler;
+        this.ownedIds = ownedIds;
+    }
+
+    /**
+     * Restores accounts and transactions from journal. Must be called before serving requests.
+     */
+    public void recover() {
+        recover(Optional.empty());
+    }
+
+    /**
+     * Restores accounts from the latest snapshot and the rest of changes from journal.
+     * Must be called before serving requests.
+     */
+    public void recover(SnapshotStore snapshotStore) {
+        recover(Optional.of(snapshotStore));
+    }
+
+    private void recover(Optional<SnapshotStore> snapshotStore) {
+        long started = System.nanoTime();
+        Optional<SnapshotInfo> snapshot = snapshotStore.flatMap(store -> store.load(new SnapshotListener() {
+            @Override
+            public void onAccount(int id, Currency currency, long balance, int version) {
+                restoreAccount(id, currency, balance, version);
+            }
+
+            @Override
+            public void onOperation(int operationId, int fingerprint, int outcome) {
+                idempotencyIndex.remember(operationId, fingerprint, outcome);
+            }
+
+            @Override
+            public void onTransaction(Transaction transaction) {
+                transactionDao.insert(transaction);
+            }
+        }));
+        snapshot.ifPresent(info -> accountIdGenerator.accumulateAndGet(info.getLastAccountId(), Math::max));
+        RecoveryListener listener = new RecoveryListener();
+        journal.replay(snapshot.map(SnapshotInfo::getJournalPosition).orElse(0L), listener);
+        recoveryTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        log.info("Recovered {} accounts from snapshot, {} accounts and {} transfers from journal in {} ms",
+                snapshot.map(SnapshotInfo::getAccounts).orElse(0L), listener.accounts, listener.transfers,
+                recoveryTimeMillis);
+    }
+
+    /**
+     * Restores account of state copied from another service, e.g. from leader by replication, before changes
+     * of it are applied by {@link #replicaListener()}.
+     */
+    public void restoreAccount(int id, Currency currency, long balance, int version) {
+        if (accountDao.create(new Account(id, version, currency, balance))) {
+            accountCount.incrementAndGet();
+        }
+        accountIdGenerator.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Applies records of another service's journal, e.g. streamed from leader, as they are appended. Sides
+     * of transfers included in restored accounts already are skipped, as they are by recovery. Records must be
+     * applied by a single thread, accounts can be read meanwhile.
+     */
+    public JournalListener replicaListener() {
+        return new RecoveryListener();
+    }
+
+    /**
+     * @return number of created accounts
+     */
+    public int getAccountCount() {
+        return accountCount.get();
+    }
+
+    /**
+     * @return number of transfer operations remembered to replay repeated transfers
+     */
+    public int getRememberedOperationCount() {
+        return idempotencyIndex.size();
+    }
+
+    /**
+     * @return number of accounts readers wait for change of, see {@link #awaitChange(int, int, long)}
+     */
+    public int getWatchedAccountCount() {
+        return versionWatcher.size();
+    }
+
+    /**
+     * @return time spent by the last recovery in milliseconds
+     */
+    public long getRecoveryTimeMillis() {
+        return recoveryTimeMillis;
+    }
+
+    /**
+     * Writes snapshot of all accounts, remembered operations and transactions, while other operations keep
+     * running. Journal records included in retained snapshots are dropped.
+     */
+    public void snapshot(SnapshotStore snapshotStore) {
+        long journalPosition = journal.position();
+        long retainedPosition = snapshotStore.write(journalPosition, writer -> {
+            HistorySizes historySizes = new HistorySizes();
+            writeAccounts(writer, historySizes);
+            // snapshot may include one side of transfer only, the other one must survive in journal
+            journal.sync();
+            idempotencyIndex.forEachCompleted(writer::writeOperation);
+            // transactions made after account was written are replayed from journal
+            accountDao.forEach(account -> transactionDao.forEachByAccount(account.getId(),
+                    historySizes.get(account.getId()), writer::writeTransaction));
+        });
+        journal.truncate(retainedPosition);
+    }
+
+    /**
+     * Writes consistent state of every account. Journal records of all changes included must be appended
+     * before return. Operations and transactions are not written.
+     */
+    public void writeAccounts(SnapshotWriter writer) {
+        writeAccounts(writer, new HistorySizes());
+    }
+
+    /**
+     * The same as {@link #writeAccounts(SnapshotWriter)}, but also takes number of transactions every account
+     * has at the moment it's read, so these are exactly transactions of changes the account includes.
+     */
+    void writeAccounts(SnapshotWriter writer, HistorySizes historySizes) {
+        accountDao.forEach(account -> {
+            Account snapshot;
+            // lock waits for journal records of locked transfers, hot credits are journaled under stripe locks
+            synchronized (account.getLock()) {
+                snapshot = account.snapshot(() -> historySizes.put(account.getId(),
+                        transactionDao.countByAccount(account.getId())));
+            }
+            writer.writeAccount(account.getId(), account.getCurrency(), snapshot.getBalance(),
+                    snapshot.getVersion());
+        });
+    }
+
+    /**
+     * Makes account hot, so concurrent credits to it do not wait for each other. Account stays hot until restart.
+     *
+     * @param stripeCount number of stripes credits are spread over
+     * @return <code>false</code> if account is not found
+     */
+    public boolean makeHot(int id, int stripeCount) {
+        Optional<Account> account = accountDao.get(id);
+        account.ifPresent(found -> {
+            synchronized (found.getLock()) {
+                found.makeHot(stripeCount);
+            }
+        });
+        return account.isPresent();
     }
 
     @Override
@@ -29,44 +240,701 @@ public class AccountServiceImpl implements AccountService {
         checkNotNegative(balance);
         // TODO: add operation id to avoid creation duplication
         // TODO: add transaction recording
-        Account newAccount = new Account(accountIdGenerator.incrementAndGet(), currency, balance);
+        int id;
+        do {
+            id = accountIdGenerator.incrementAndGet();
+        } while (!ownedIds.test(id));
+        Account newAccount = new Account(id, currency, balance);
+        // journaled before account becomes visible, so its transfers are never journaled before creation
+        journal.appendCreate(newAccount.getId(), currency, balance);
         accountDao.create(newAccount);
+        accountCount.incrementAndGet();
+        journal.flush();
         return newAccount;
     }
 
+    @Override
+    public int[] createBatch(Currency[] currencies, long[] balances) {
+        if (currencies.length != balances.length) {
+            throw new IllegalArgumentException("Number of currencies and balances differ");
+        }
+        for (int i = 0; i < currencies.length; i++) {
+            checkNotNull(currencies[i], "currency");
+            checkNotNegative(balances[i]);
+        }
+        int[] ids = new int[currencies.length];
+        if (ownedIds == ALL_IDS) {
+            // one increment reserves ids of the whole batch
+            int firstId = accountIdGenerator.getAndAdd(currencies.length) + 1;
+            for (int i = 0; i < currencies.length; i++) {
+                ids[i] = firstId + i;
+                journal.appendCreate(ids[i], currencies[i], balances[i]);
+            }
+            accountDao.createAll(firstId, currencies, balances);
+        } else {
+            // ids owned by other nodes are spread between owned ones, so accounts are stored one by one
+            for (int i = 0; i < currencies.length; i++) {
+                do {
+                    ids[i] = accountIdGenerator.incrementAndGet();
+                } while (!ownedIds.test(ids[i]));
+                journal.appendCreate(ids[i], currencies[i], balances[i]);
+                accountDao.create(new Account(ids[i], currencies[i], balances[i]));
+            }
+        }
+        accountCount.addAndGet(ids.length);
+        journal.flush();
+        return ids;
+    }
+
+    /**
+     * @return consistent copy of account, changes made after call are not visible through it
+     */
     @Override
     public Optional<Account> get(int id) {
-        return accountDao.get(id);
+        return accountDao.get(id).map(Account::snapshot);
+    }
+
+    /**
+     * Holds locks of all accounts while copying them, as transfers change both accounts holding their locks.
+     * Transfers of these accounts wait for the copying only, which takes no longer than a batch transfer.
+     */
+    @Override
+    public Account[] getAll(int[] ids) {
+        checkGetBatchSize(ids);
+        Account[] accounts = accountDao.getAll(ids);
+        Map<Integer, Account> toBeLocked = new TreeMap<>();
+        for (Account account : accounts) {
+            if (account != null) {
+                toBeLocked.put(account.getId(), account);
+            }
+        }
+        inLocks(new ArrayList<>(toBeLocked.values()), 0, null, () -> {
+            for (int i = 0; i < accounts.length; i++) {
+                if (accounts[i] != null) {
+                    accounts[i] = accounts[i].snapshot();
+                }
+            }
+        });
+        return accounts;
+    }
+
+    static void checkGetBatchSize(int[] ids) {
+        if (ids.length > MAX_GET_BATCH_SIZE) {
+            throw new IllegalArgumentException("Number of ids exceeds " + MAX_GET_BATCH_SIZE);
+        }
+    }
+
+    /**
+     * Waits without polling, writers wake readers waiting for account they changed.
+     */
+    @Override
+    public Optional<Account> awaitChange(int id, int version, long timeoutMillis) {
+        Optional<Account> account = accountDao.get(id);
+        if (account.isEmpty()) {
+            return Optional.empty();
+        }
+        Account stored = account.get();
+        versionWatcher.await(id, () -> stored.getVersion() > version, timeoutMillis);
+        return Optional.of(stored.snapshot());
+    }
+
+    @Override
+    public Optional<List<Transaction>> getTransactions(int id, int after, int limit) {
+        if (after < 0 || limit <= 0 || limit > MAX_TRANSACTION_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "Position must not be negative and limit must be from 1 to %d", MAX_TRANSACTION_PAGE_SIZE));
+        }
+        if (accountDao.get(id).isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(transactionDao.listByAccount(id, after, limit));
+    }
+
+    @Override
+    public boolean exportTransactions(int id, Consumer<Transaction> action) {
+        if (accountDao.get(id).isEmpty()) {
+            return false;
+        }
+        transactionDao.forEachByAccount(id, action);
+        return true;
+    }
+
+    @Override
+    public void exportTransactions(long from, long to, Consumer<Transaction> action) {
+        accountDao.forEach(account -> transactionDao.forEachByAccount(account.getId(), transaction -> {
+            if (transaction.getTimestamp() >= from && transaction.getTimestamp() < to) {
+                action.accept(transaction);
+            }
+        }));
     }
 
     @Override
     public void transfer(int fromId, int toId, long amount, int operationId) {
         checkNotNegative(amount);
-        Account from = get(fromId).orElseThrow(() -> new TransferException(TransferError.ACCOUNT_FROM_NOT_FOUND));
-        Account to = get(toId).orElseThrow(() -> new TransferException(TransferError.ACCOUNT_TO_NOT_FOUND));
-        if (from.getCurrency() != to.getCurrency()) {
-            throw new TransferException(TransferError.DIFFERENT_ACCOUNT_CURRENCIES);
+        int outcome = idempotencyIndex.acquire(operationId, TransferOutcome.fingerprint(fromId, toId, amount));
+        TransferError error = outcome == IdempotencyIndex.ACQUIRED
+                ? transferAcquired(fromId, toId, amount, operationId)
+                : TransferOutcome.decode(outcome);
+        if (error != null) {
+            throw new TransferException(error);
         }
-        Account first = from.getId() < to.getId() ? from : to;
-        Account second = from.getId() < to.getId() ? to : from;
+    }
+
+    /**
+     * Operation is released only if transfer fails before money is moved. Once it's moved, outcome is remembered
+     * even if journal fails to flush, so repeated operation replays it instead of moving money again.
+     */
+    private TransferError transferAcquired(int fromId, int toId, long amount, int operationId) {
+        TransferError error;
+        try {
+            error = executeTransfer(fromId, toId, amount, operationId);
+        } catch (RuntimeException e) {
+            idempotencyIndex.release(operationId);
+            throw e;
+        }
+        try {
+            if (error == null) {
+                journal.flush();
+            }
+        } finally {
+            idempotencyIndex.complete(operationId, TransferOutcome.encode(error));
+        }
+        return error;
+    }
+
+    /**
+     * Executes transfer of acquired operation, journal records are appended but not flushed yet.
+     *
+     * @return transfer error or <code>null</code> if transfer is successful
+     */
+    TransferError executeTransfer(int fromId, int toId, long amount, int operationId) {
+        Optional<Account> from = accountDao.get(fromId);
+        Optional<Account> to = accountDao.get(toId);
+        TransferError error = validate(from, to);
+        if (error != null) {
+            return error;
+        }
+        if (to.get().isHot() && fromId != toId) {
+            // credit takes a stripe of hot account instead of its lock
+            return executeLocked(from.get(), from.get(), from.get(), to.get(), amount, operationId);
+        }
+        Account first = fromId < toId ? from.get() : to.get();
+        Account second = fromId < toId ? to.get() : from.get();
+        return executeLocked(first, second, from.get(), to.get(), amount, operationId);
+    }
+
+    /**
+     * Executes transfer holding locks of given accounts, acquired in given order.
+     */
+    private TransferError executeLocked(Account first, Account second, Account from, Account to, long amount,
+                                        int operationId) {
+        if (contentionProfiler.shouldSample()) {
+            return executeSampled(first, second, from, to, amount, operationId);
+        }
+        synchronized (first.getLock()) {
+            synchronized (second.getLock()) {
+                return doTransfer(from, to, amount, operationId);
+            }
+        }
+    }
+
+    /**
+     * The same as transfer under locks, but measures how long every lock was waited for and held.
+     */
+    private TransferError executeSampled(Account first, Account second, Account from, Account to, long amount,
+                                         int operationId) {
+        TransferError error;
+        long started = System.nanoTime();
+        long firstLocked;
+        long secondLocked;
+        long released;
         synchronized (first.getLock()) {
+            firstLocked = System.nanoTime();
             synchronized (second.getLock()) {
-                if (amount > from.getBalance()) {
-                    throw new TransferException(TransferError.INSUFFICIENT_BALANCE);
+                secondLocked = System.nanoTime();
+                error = doTransfer(from, to, amount, operationId);
+            }
+            released = System.nanoTime();
+        }
+        contentionProfiler.record(first.getId(), firstLocked - started, released - firstLocked);
+        if (second != first) {
+            contentionProfiler.record(second.getId(), secondLocked - firstLocked, released - secondLocked);
+        }
+        return error;
+    }
+
+    /**
+     * Moves money to account kept by another node, as coordinator of two-phase transfer: participant prepares
+     * credit, money is withdrawn here, then participant commits credit. Withdrawal is the decision, so transfer
+     * is aborted only if money can not be withdrawn. Operation id is checked here, as by {@link #transfer}.
+     *
+     * @param participant node keeping account to put money
+     * @throws TransferException if transfer can not be completed
+     */
+    public void transferOut(int fromId, int toId, long amount, int operationId, CreditParticipant participant) {
+        checkNotNegative(amount);
+        int outcome = idempotencyIndex.acquire(operationId, TransferOutcome.fingerprint(fromId, toId, amount));
+        TransferError error = outcome == IdempotencyIndex.ACQUIRED
+                ? transferOutAcquired(fromId, toId, amount, operationId, participant)
+                : TransferOutcome.decode(outcome);
+        if (error != null) {
+            throw new TransferException(error);
+        }
+    }
+
+    /**
+     * Once money is withdrawn, credit is committed and outcome is remembered even if journal fails to flush,
+     * as by {@link #transferAcquired(int, int, long, int)}.
+     */
+    private TransferError transferOutAcquired(int fromId, int toId, long amount, int operationId,
+                                              CreditParticipant participant) {
+        TransferError error;
+        try {
+            Optional<Account> from = accountDao.get(fromId);
+            error = from.isEmpty()
+                    ? TransferError.ACCOUNT_FROM_NOT_FOUND
+                    : prepare(participant, operationId, fromId, toId, from.get().getCurrency(), amount);
+            if (error == null) {
+                error = withdrawPrepared(from.get(), toId, amount, operationId, participant);
+            }
+        } catch (RuntimeException e) {
+            idempotencyIndex.release(operationId);
+            throw e;
+        }
+        try {
+            if (error == null) {
+                try {
+                    journal.flush();
+                } finally {
+                    participant.commit(operationId, fromId, toId, amount);
+                }
+            }
+        } finally {
+            idempotencyIndex.complete(operationId, TransferOutcome.encode(error));
+        }
+        return error;
+    }
+
+    /**
+     * Prepares credit, aborts it if prepare fails, as participant may have prepared it before failure,
+     * e.g. if response timed out.
+     */
+    private static TransferError prepare(CreditParticipant participant, int operationId, int fromId, int toId,
+                                         Currency currency, long amount) {
+        try {
+            return participant.prepare(operationId, fromId, toId, currency, amount);
+        } catch (RuntimeException e) {
+            try {
+                participant.abort(operationId);
+            } catch (RuntimeException abortFailure) {
+                e.addSuppressed(abortFailure);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Withdraws money of prepared credit, aborts credit if money can not be withdrawn.
+     */
+    private TransferError withdrawPrepared(Account from, int toId, long amount, int operationId,
+                                           CreditParticipant participant) {
+        TransferError error;
+        try {
+            synchronized (from.getLock()) {
+                error = withdraw(from, toId, amount, operationId);
+            }
+        } catch (RuntimeException e) {
+            participant.abort(operationId);
+            throw e;
+        }
+        if (error != null) {
+            participant.abort(operationId);
+        }
+        return error;
+    }
+
+    /**
+     * Takes money from account, side of transfer to another node. Lock of account must be held by caller.
+     */
+    private TransferError withdraw(Account from, int toId, long amount, int operationId) {
+        if (amount > from.getBalance()) {
+            return TransferError.INSUFFICIENT_BALANCE;
+        }
+        from.addToBalance(-amount);
+        long timestamp = System.currentTimeMillis();
+        transactionDao.insert(new Transaction(operationId, from.getId(), TransactionType.DEBIT, amount, timestamp));
+        journal.appendTransfer(operationId, from.getId(), from.getVersion(), toId, Journal.REMOTE_VERSION, amount,
+                timestamp);
+        update(from);
+        return null;
+    }
+
+    @Override
+    public TransferError prepare(int operationId, int fromId, int toId, Currency currency, long amount) {
+        int outcome = idempotencyIndex.tryAcquire(operationId, TransferOutcome.fingerprint(fromId, toId, amount));
+        if (outcome == IdempotencyIndex.IN_FLIGHT) {
+            // coordinator repeats prepare, unless operation id is being used by transfer of this node
+            return preparedCredits.containsKey(operationId) ? null : TransferError.TRANSFER_ALREADY_PROCESSED;
+        }
+        if (outcome != IdempotencyIndex.ACQUIRED) {
+            return TransferOutcome.decode(outcome);
+        }
+        Optional<Account> to = accountDao.get(toId);
+        TransferError error = to.isEmpty()
+                ? TransferError.ACCOUNT_TO_NOT_FOUND
+                : to.get().getCurrency() != currency ? TransferError.DIFFERENT_ACCOUNT_CURRENCIES : null;
+        if (error != null) {
+            idempotencyIndex.complete(operationId, TransferOutcome.encode(error));
+            return error;
+        }
+        preparedCredits.put(operationId, System.nanoTime());
+        return null;
+    }
+
+    @Override
+    public void commit(int operationId, int fromId, int toId, long amount) {
+        if (preparedCredits.remove(operationId) == null) {
+            // prepared state is lost by restart or expired, or credit is committed already, maybe right now
+            int outcome = idempotencyIndex.acquire(operationId, TransferOutcome.fingerprint(fromId, toId, amount));
+            if (outcome != IdempotencyIndex.ACQUIRED) {
+                return;
+            }
+        }
+        try {
+            Account to = accountDao.get(toId).orElseThrow(() -> new IllegalStateException(
+                    "Credit to unknown account " + toId));
+            deposit(fromId, to, amount, operationId);
+        } catch (RuntimeException e) {
+            idempotencyIndex.release(operationId);
+            throw e;
+        }
+        // money is put, so commit repeated by coordinator is skipped even if journal fails to flush
+        try {
+            journal.flush();
+        } finally {
+            idempotencyIndex.complete(operationId, TransferOutcome.SUCCESSFUL);
+        }
+    }
+
+    /**
+     * Puts money to account, side of transfer from another node.
+     */
+    private void deposit(int fromId, Account to, long amount, int operationId) {
+        long timestamp = System.currentTimeMillis();
+        Transaction credit = new Transaction(operationId, to.getId(), TransactionType.CREDIT, amount, timestamp);
+        if (to.isHot()) {
+            to.credit(amount, toVersion -> {
+                transactionDao.insert(credit);
+                journal.appendTransfer(operationId, fromId, Journal.REMOTE_VERSION, to.getId(), toVersion, amount,
+                        timestamp);
+            });
+        } else {
+            synchronized (to.getLock()) {
+                to.addToBalance(amount);
+                transactionDao.insert(credit);
+                journal.appendTransfer(operationId, fromId, Journal.REMOTE_VERSION, to.getId(), to.getVersion(),
+                        amount, timestamp);
+            }
+        }
+        update(to);
+    }
+
+    @Override
+    public void abort(int operationId) {
+        if (preparedCredits.remove(operationId) != null) {
+            idempotencyIndex.release(operationId);
+        }
+    }
+
+    /**
+     * Aborts credits prepared longer than given time ago, e.g. by coordinator that is gone, so their operations
+     * are not held forever. Commit coming later still puts money, as it carries the whole credit.
+     *
+     * @return number of aborted credits
+     */
+    public int abortExpiredCredits(long timeoutMillis) {
+        long now = System.nanoTime();
+        int aborted = 0;
+        for (Map.Entry<Integer, Long> credit : preparedCredits.entrySet()) {
+            if (now - credit.getValue() >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+                    && preparedCredits.remove(credit.getKey(), credit.getValue())) {
+                idempotencyIndex.release(credit.getKey());
+                log.warn("Credit of operation {} is not committed in time, aborted", credit.getKey());
+                aborted++;
+            }
+        }
+        return aborted;
+    }
+
+    @Override
+    public List<TransferResult> transferBatch(List<Transfer> transfers) {
+        if (transfers.size() > MAX_TRANSFER_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size exceeds " + MAX_TRANSFER_BATCH_SIZE);
+        }
+        transfers.forEach(transfer -> checkNotNegative(transfer.getAmount()));
+
+        TransferResult[] results = new TransferResult[transfers.size()];
+        boolean[] acquired = new boolean[transfers.size()];
+        Account[] fromAccounts = new Account[transfers.size()];
+        Account[] toAccounts = new Account[transfers.size()];
+        Map<Integer, Optional<Account>> resolved = new HashMap<>();
+        // sorted by id to preserve the same lock order as single transfer
+        Map<Integer, Account> toBeLocked = new TreeMap<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            int outcome = idempotencyIndex.tryAcquire(transfer.getOperationId(),
+                    TransferOutcome.fingerprint(transfer.getFrom(), transfer.getTo(), transfer.getAmount()));
+            if (outcome == IdempotencyIndex.IN_FLIGHT) {
+                // processed after own operations are completed, waiting here could deadlock with another batch
+                continue;
+            }
+            if (outcome != IdempotencyIndex.ACQUIRED) {
+                results[i] = toResult(transfer, TransferOutcome.decode(outcome));
+                continue;
+            }
+            Optional<Account> from = resolved.computeIfAbsent(transfer.getFrom(), accountDao::get);
+            Optional<Account> to = resolved.computeIfAbsent(transfer.getTo(), accountDao::get);
+            TransferError error = validate(from, to);
+            if (error != null) {
+                idempotencyIndex.complete(transfer.getOperationId(), TransferOutcome.encode(error));
+                results[i] = toResult(transfer, error);
+                continue;
+            }
+            acquired[i] = true;
+            fromAccounts[i] = from.get();
+            toAccounts[i] = to.get();
+            toBeLocked.put(from.get().getId(), from.get());
+            toBeLocked.put(to.get().getId(), to.get());
+        }
+
+        List<Account> locked = new ArrayList<>(toBeLocked.values());
+        // time every lock was acquired at, if locks are sampled
+        long[] lockedAt = contentionProfiler.shouldSample() ? new long[locked.size() + 1] : null;
+        try {
+            if (lockedAt != null) {
+                lockedAt[0] = System.nanoTime();
+            }
+            inLocks(locked, 0, lockedAt, () -> {
+                for (int i = 0; i < results.length; i++) {
+                    if (acquired[i]) {
+                        Transfer transfer = transfers.get(i);
+                        results[i] = toResult(transfer, doTransfer(fromAccounts[i], toAccounts[i],
+                                transfer.getAmount(), transfer.getOperationId()));
+                    }
                 }
-                if (transactionDao.hasTransactions(operationId)) {
-                    throw new TransferException(TransferError.TRANSFER_ALREADY_PROCESSED);
+            });
+            if (lockedAt != null) {
+                recordLocks(locked, lockedAt, System.nanoTime());
+            }
+            journal.flush();
+        } finally {
+            // transfers done are remembered even if the rest failed or journal failed to flush
+            for (int i = 0; i < results.length; i++) {
+                if (acquired[i]) {
+                    int operationId = transfers.get(i).getOperationId();
+                    if (results[i] == null) {
+                        idempotencyIndex.release(operationId);
+                    } else {
+                        idempotencyIndex.complete(operationId, TransferOutcome.encode(results[i].getError()));
+                    }
                 }
-                from.setBalance(from.getBalance() - amount);
-                from.incrementVersion();
-                to.setBalance(to.getBalance() + amount);
-                to.incrementVersion();
-                transactionDao.insert(new Transaction(operationId, fromId, TransactionType.DEBIT, amount));
-                transactionDao.insert(new Transaction(operationId, toId, TransactionType.CREDIT, amount));
-                accountDao.update(first);
-                accountDao.update(second);
             }
         }
+
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                Transfer transfer = transfers.get(i);
+                try {
+                    transfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount(), transfer.getOperationId());
+                    results[i] = TransferResult.successful(transfer.getOperationId());
+                } catch (TransferException e) {
+                    results[i] = TransferResult.failed(transfer.getOperationId(), e.getTransferError());
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Checks that money can be moved between given accounts, regardless of balance.
+     *
+     * @return transfer error or <code>null</code> if accounts are fine
+     */
+    static TransferError validate(Optional<Account> from, Optional<Account> to) {
+        if (from.isEmpty()) {
+            return TransferError.ACCOUNT_FROM_NOT_FOUND;
+        }
+        if (to.isEmpty()) {
+            return TransferError.ACCOUNT_TO_NOT_FOUND;
+        }
+        if (from.get().getCurrency() != to.get().getCurrency()) {
+            return TransferError.DIFFERENT_ACCOUNT_CURRENCIES;
+        }
+        return null;
+    }
+
+    static TransferResult toResult(Transfer transfer, TransferError error) {
+        return error == null
+                ? TransferResult.successful(transfer.getOperationId())
+                : TransferResult.failed(transfer.getOperationId(), error);
+    }
+
+    /**
+     * Acquires locks of given accounts one by one and runs action holding all of them.
+     *
+     * @param lockedAt if not <code>null</code>, receives time every lock was acquired at, starting from index 1
+     */
+    private void inLocks(List<Account> accounts, int index, long[] lockedAt, Runnable action) {
+        if (index == accounts.size()) {
+            action.run();
+            return;
+        }
+        synchronized (accounts.get(index).getLock()) {
+            if (lockedAt != null) {
+                lockedAt[index + 1] = System.nanoTime();
+            }
+            inLocks(accounts, index + 1, lockedAt, action);
+        }
+    }
+
+    /**
+     * @param lockedAt time locking started at, followed by time every lock was acquired at
+     * @param released time all locks were released at
+     */
+    private void recordLocks(List<Account> accounts, long[] lockedAt, long released) {
+        for (int i = 0; i < accounts.size(); i++) {
+            contentionProfiler.record(accounts.get(i).getId(), lockedAt[i + 1] - lockedAt[i],
+                    released - lockedAt[i + 1]);
+        }
+    }
+
+    /**
+     * Moves money between accounts. Locks of both accounts must be held by caller, except lock of hot account
+     * money is put to.
+     *
+     * @return transfer error or <code>null</code> if transfer is successful
+     */
+    private TransferError doTransfer(Account from, Account to, long amount, int operationId) {
+        // credits of hot account only grow balance, so it can't become insufficient after check
+        if (amount > from.getBalance()) {
+            return TransferError.INSUFFICIENT_BALANCE;
+        }
+        from.addToBalance(-amount);
+        long timestamp = System.currentTimeMillis();
+        transactionDao.insert(new Transaction(operationId, from.getId(), TransactionType.DEBIT, amount, timestamp));
+        Transaction credit = new Transaction(operationId, to.getId(), TransactionType.CREDIT, amount, timestamp);
+        if (to.isHot()) {
+            int fromVersion = from.getVersion();
+            // stored and journaled before credit becomes visible to snapshot, as it would be under account lock
+            to.credit(amount, toVersion -> {
+                transactionDao.insert(credit);
+                journal.appendTransfer(operationId, from.getId(), fromVersion, to.getId(), toVersion, amount,
+                        timestamp);
+            });
+        } else {
+            to.addToBalance(amount);
+            transactionDao.insert(credit);
+            journal.appendTransfer(operationId, from.getId(), from.getVersion(), to.getId(), to.getVersion(), amount,
+                    timestamp);
+        }
+        Account first = from.getId() < to.getId() ? from : to;
+        Account second = from.getId() < to.getId() ? to : from;
+        update(first);
+        update(second);
+        return null;
+    }
+
+    /**
+     * Number of transactions of every account written to snapshot, by account id. Transaction is stored
+     * by the same writer which changes account, so the number read with account covers its changes only.
+     */
+    static final class HistorySizes {
+
+        private int[] sizes = new int[1024];
+
+        void put(int accountId, int size) {
+            if (accountId >= sizes.length) {
+                sizes = Arrays.copyOf(sizes, Math.max(accountId + 1, sizes.length * 2));
+            }
+            sizes[accountId] = size;
+        }
+
+        /**
+         * @return number of transactions, zero if account was not written
+         */
+        int get(int accountId) {
+            return accountId < sizes.length ? sizes[accountId] : 0;
+        }
+    }
+
+    /**
+     * Stores changed account and wakes readers waiting for its change.
+     */
+    void update(Account account) {
+        accountDao.update(account);
+        versionWatcher.changed(account.getId());
+    }
+
+    /**
+     * Applies journal records in order they were appended, skipping changes already restored from snapshot.
+     * <p>
+     * Records of one account may come out of version order, so every side of transfer is compared
+     * with version the account had before replay, not with the current one.
+     */
+    private class RecoveryListener implements JournalListener {
+
+        private int accounts;
+        private int transfers;
+        // version before replay plus one by account id, zero if account is not touched yet
+        private int[] initialVersions = new int[1024];
+
+        @Override
+        public void onCreate(int accountId, Currency currency, long balance) {
+            if (accountDao.create(new Account(accountId, currency, balance))) {
+                accountCount.incrementAndGet();
+            }
+            accountIdGenerator.accumulateAndGet(accountId, Math::max);
+            accounts++;
+        }
+
+        @Override
+        public void onTransfer(int operationId, int fromId, int fromVersion, int toId, int toVersion,
+                               long amount, long timestamp) {
+            // side kept by another node has no version here
+            if (fromVersion != Journal.REMOTE_VERSION) {
+                replay(fromId, fromVersion, -amount, new Transaction(operationId, fromId, TransactionType.DEBIT,
+                        amount, timestamp));
+            }
+            if (toVersion != Journal.REMOTE_VERSION) {
+                replay(toId, toVersion, amount, new Transaction(operationId, toId, TransactionType.CREDIT,
+                        amount, timestamp));
+            }
+            idempotencyIndex.remember(operationId, TransferOutcome.fingerprint(fromId, toId, amount),
+                    TransferOutcome.SUCCESSFUL);
+            transfers++;
+        }
+
+        private void replay(int accountId, int version, long amount, Transaction transaction) {
+            Account account = accountDao.get(accountId).orElseThrow(() -> new IllegalStateException(
+                    "Journal refers to unknown account " + accountId));
+            // snapshot may already include this side of transfer, with its transaction
+            if (initialVersion(account) < version) {
+                account.addToBalance(amount);
+                transactionDao.insert(transaction);
+            }
+            accountDao.update(account);
+        }
+
+        private int initialVersion(Account account) {
+            int id = account.getId();
+            if (id >= initialVersions.length) {
+                initialVersions = Arrays.copyOf(initialVersions, Math.max(id + 1, initialVersions.length * 2));
+            }
+            if (initialVersions[id] == 0) {
+                initialVersions[id] = account.getVersion() + 1;
+            }
+            return initialVersions[id] - 1;
+        }
     }
 
     private void checkNotNull(Object value, String fieldName) {
@@ -74,7 +942,7 @@ public class AccountServiceImpl implements AccountService {
                 String.format("%s can not be null", fieldName)));
     }
 
-    private void checkNotNegative(long value) {
+    void checkNotNegative(long value) {
         if (value < 0) {
             throw new IllegalArgumentException("Balance is negative");
         }
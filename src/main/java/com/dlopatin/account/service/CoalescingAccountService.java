@@ -0,0 +1,325 @@
+package com.dlopatin.account.service;
+
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.service.TransferException.TransferError;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Account service coalescing concurrent single transfers into batches, everything else is passed to the wrapped
+ * service as is.
+ * <p>
+ * Callers put transfers into a ring buffer and wait. A single thread takes the first waiting transfer, collects
+ * the ones coming within max delay after it, up to max batch size, and executes them by
+ * {@link AccountService#transferBatch(List)} of the wrapped service: every account is locked once and journal
+ * is flushed once per batch. Then every caller gets the outcome of own transfer. If the batch fails, e.g. journal
+ * fails to flush, some of its transfers may be done already, so every transfer is repeated alone with the same
+ * operation id: a transfer done replays its outcome, the rest are executed, and only callers of transfers failing
+ * alone get the failure.
+ * <p>
+ * Transfers are executed one at a time by the batching thread, so delay trades latency of a single transfer
+ * for throughput under load. With zero delay only transfers already waiting are batched.
+ */
+public class CoalescingAccountService implements AccountService, Closeable {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    // spinning makes sense only when the other side runs on another processor
+    private static final int SPINS_BEFORE_PARK = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+
+    private final AccountService delegate;
+    private final long maxDelayNanos;
+    private final int maxBatchSize;
+    private final IntConsumer batchSizeListener;
+    private final MpscRingBuffer<PendingTransfer> pending;
+    private final Thread thread;
+    private volatile boolean sleeping;
+    private volatile boolean running = true;
+
+    /**
+     * @param delegate          service executing batches and all other operations
+     * @param maxDelayMicros    max time the first transfer of a batch waits for others
+     * @param maxBatchSize      max number of transfers in a batch, up to {@link #MAX_TRANSFER_BATCH_SIZE}
+     * @param batchSizeListener receives size of every executed batch
+     */
+    public CoalescingAccountService(AccountService delegate, long maxDelayMicros, int maxBatchSize,
+                                    IntConsumer batchSizeListener) {
+        if (maxDelayMicros < 0 || maxBatchSize <= 0 || maxBatchSize > MAX_TRANSFER_BATCH_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "Delay must not be negative and batch size must be within 1..%d", MAX_TRANSFER_BATCH_SIZE));
+        }
+        this.delegate = delegate;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.maxBatchSize = maxBatchSize;
+        this.batchSizeListener = batchSizeListener;
+        // room for the batch being collected and the next one
+        this.pending = new MpscRingBuffer<>(maxBatchSize * 2);
+        this.thread = new Thread(this::run, "transfer-coalescer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public Account create(Currency currency, long balance) {
+        return delegate.create(currency, balance);
+    }
+
+    @Override
+    public int[] createBatch(Currency[] currencies, long[] balances) {
+        return delegate.createBatch(currencies, balances);
+    }
+
+    @Override
+    public Optional<Account> get(int id) {
+        return delegate.get(id);
+    }
+
+    @Override
+    public Account[] getAll(int[] ids) {
+        return delegate.getAll(ids);
+    }
+
+    @Override
+    public boolean isReadAtOnce(int[] ids) {
+        return delegate.isReadAtOnce(ids);
+    }
+
+    @Override
+    public Optional<Account> awaitChange(int id, int version, long timeoutMillis) {
+        return delegate.awaitChange(id, version, timeoutMillis);
+    }
+
+    @Override
+    public Optional<List<Transaction>> getTransactions(int id, int after, int limit) {
+        return delegate.getTransactions(id, after, limit);
+    }
+
+    @Override
+    public boolean exportTransactions(int id, Consumer<Transaction> action) {
+        return delegate.exportTransactions(id, action);
+    }
+
+    @Override
+    public void exportTransactions(long from, long to, Consumer<Transaction> action) {
+        delegate.exportTransactions(from, to, action);
+    }
+
+    /**
+     * Waits for transfer to be executed as a part of batch.
+     */
+    @Override
+    public void transfer(int from, int to, long amount, int operationId) {
+        if (amount < 0) {
+            // would fail the whole batch
+            throw new IllegalArgumentException("Balance is negative");
+        }
+        if (!running) {
+            throw closed();
+        }
+        PendingTransfer transfer = new PendingTransfer(new Transfer(from, to, amount, operationId));
+        while (!pending.offer(transfer)) {
+            if (!running) {
+                failPending();
+            }
+            Thread.yield();
+        }
+        if (!running) {
+            // batching thread may have stopped before transfer was offered
+            failPending();
+        } else if (sleeping) {
+            LockSupport.unpark(thread);
+        }
+        transfer.await();
+        if (transfer.failure != null) {
+            throw transfer.failure;
+        }
+        if (transfer.error != null) {
+            throw new TransferException(transfer.error);
+        }
+    }
+
+    /**
+     * Batch requested by caller is already coalesced, so it is executed as is.
+     */
+    @Override
+    public List<TransferResult> transferBatch(List<Transfer> transfers) {
+        return delegate.transferBatch(transfers);
+    }
+
+    /**
+     * Stops batching thread. Transfers it has not taken and transfers submitted after that fail
+     * with {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingTransfer> batch = new ArrayList<>(maxBatchSize);
+        List<Transfer> transfers = new ArrayList<>(maxBatchSize);
+        int idle = 0;
+        while (running) {
+            PendingTransfer first = pending.poll();
+            if (first == null) {
+                if (++idle < SPINS_BEFORE_PARK) {
+                    Thread.onSpinWait();
+                } else {
+                    sleeping = true;
+                    if (pending.isEmpty() && running) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                }
+                continue;
+            }
+            idle = 0;
+            batch.add(first);
+            collect(batch);
+            for (PendingTransfer transfer : batch) {
+                transfers.add(transfer.transfer);
+            }
+            execute(batch, transfers);
+            batch.clear();
+            transfers.clear();
+        }
+        drainPending();
+    }
+
+    /**
+     * Fails transfers left in ring buffer, once batching thread is stopped.
+     */
+    private void failPending() {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        drainPending();
+    }
+
+    /**
+     * Ring buffer has a single consumer, so it's drained by one thread at a time after batching thread is done.
+     */
+    private void drainPending() {
+        synchronized (pending) {
+            PendingTransfer transfer;
+            while ((transfer = pending.poll()) != null) {
+                transfer.fail(closed());
+            }
+        }
+    }
+
+    private static IllegalStateException closed() {
+        return new IllegalStateException("Transfer coalescing is stopped, service is closed");
+    }
+
+    /**
+     * Adds transfers coming within max delay after the first one, until batch is full. Callers do not wake
+     * batching thread up meanwhile, so it sleeps the whole delay unless batch gets full while it's draining.
+     */
+    private void collect(List<PendingTransfer> batch) {
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxBatchSize) {
+            PendingTransfer next = pending.poll();
+            if (next != null) {
+                batch.add(next);
+                continue;
+            }
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return;
+            }
+            LockSupport.parkNanos(this, left);
+        }
+    }
+
+    private void execute(List<PendingTransfer> batch, List<Transfer> transfers) {
+        List<TransferResult> results;
+        try {
+            results = delegate.transferBatch(transfers);
+        } catch (IllegalStateException e) {
+            // service is stopped, transfers alone would fail the same way
+            batch.forEach(transfer -> transfer.fail(e));
+            return;
+        } catch (RuntimeException e) {
+            batch.forEach(this::executeAlone);
+            batchSizeListener.accept(batch.size());
+            return;
+        }
+        batchSizeListener.accept(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).complete(results.get(i).getError());
+        }
+    }
+
+    private void executeAlone(PendingTransfer pending) {
+        Transfer transfer = pending.transfer;
+        try {
+            delegate.transfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount(), transfer.getOperationId());
+            pending.complete(null);
+        } catch (TransferException e) {
+            pending.complete(e.getTransferError());
+        } catch (RuntimeException e) {
+            pending.fail(e);
+        }
+    }
+
+    /**
+     * Transfer waiting to be executed. Caller waits for it, spinning for a while and then parking.
+     */
+    private static final class PendingTransfer {
+
+        private final Transfer transfer;
+        private final Thread caller = Thread.currentThread();
+        private volatile boolean completed;
+        // published by completed flag
+        private TransferError error;
+        private RuntimeException failure;
+
+        private PendingTransfer(Transfer transfer) {
+            this.transfer = transfer;
+        }
+
+        private void complete(TransferError error) {
+            this.error = error;
+            completed = true;
+            LockSupport.unpark(caller);
+        }
+
+        private void fail(RuntimeException e) {
+            failure = e;
+            complete(null);
+        }
+
+        private void await() {
+            for (int i = 0; i < SPINS_BEFORE_PARK && !completed; i++) {
+                Thread.onSpinWait();
+            }
+            while (!completed) {
+                LockSupport.park(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.dlopatin.account.service;
+
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.service.TransferException.TransferError;
+
+/**
+ * Side of two-phase transfer keeping account money is put to, while account money is taken from is kept
+ * by coordinator, see {@link AccountServiceImpl#transferOut(int, int, long, int, CreditParticipant)}.
+ * Operations are keyed by operation id of transfer and may be repeated.
+ */
+public interface CreditParticipant {
+
+    /**
+     * Checks that money can be put to account and promises to put it on commit. Repeated prepare of operation
+     * prepared or committed already succeeds.
+     *
+     * @param currency currency of account money is taken from
+     * @return transfer error or <code>null</code> if credit is prepared
+     */
+    TransferError prepare(int operationId, int fromId, int toId, Currency currency, long amount);
+
+    /**
+     * Puts money to account. Carries the whole credit, so it can be applied even if prepared state is lost.
+     * Repeated commit of committed operation does nothing.
+     */
+    void commit(int operationId, int fromId, int toId, long amount);
+
+    /**
+     * Forgets prepared credit, does nothing if it's not prepared.
+     */
+    void abort(int operationId);
+}
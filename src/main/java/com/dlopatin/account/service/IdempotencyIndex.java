@@ -0,0 +1,375 @@
+package com.dlopatin.account.service;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers outcomes of recent operations by operation id, so a repeated operation replays original outcome
+ * instead of being executed again.
+ * <p>
+ * Index is split into stripes by operation id, every stripe keeps a few generations of primitive open addressing
+ * tables. New operations go to the newest generation. When it's full or older than its part of retention window,
+ * the oldest generation is cleared and becomes the newest one. So memory is bounded and eviction costs nothing
+ * per operation, while at least configured number of operations (or operations for configured time) are kept.
+ * <p>
+ * Concurrent requests with the same operation id are collapsed: the first one acquires the operation,
+ * others wait for its outcome, but not forever, as operation may be held by a credit prepared for coordinator
+ * that is gone.
+ */
+public class IdempotencyIndex {
+
+    /**
+     * Returned when caller acquired operation and must execute it.
+     */
+    public static final int ACQUIRED = -1;
+    /**
+     * Returned when operation is already processed with different parameters.
+     */
+    public static final int CONFLICT = -2;
+    /**
+     * Returned by {@link #tryAcquire(int, int)} when operation is being executed by someone else.
+     */
+    public static final int IN_FLIGHT = -3;
+
+    public static final int DEFAULT_RETENTION_COUNT = 1 << 20;
+    public static final long DEFAULT_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(24);
+    public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private static final int STRIPES = 64;
+    private static final int GENERATIONS = 4;
+    private static final int MIN_GENERATION_CAPACITY = 256;
+    private static final double STRIPE_HEADROOM = 1.25;
+
+    private static final byte FREE = 0;
+    private static final byte PENDING = 1;
+    private static final byte DONE = 2;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public IdempotencyIndex() {
+        this(DEFAULT_RETENTION_COUNT, DEFAULT_RETENTION_MILLIS);
+    }
+
+    /**
+     * @param retentionCount  min number of operations to be remembered
+     * @param retentionMillis min time in milliseconds for operation to be remembered
+     */
+    public IdempotencyIndex(int retentionCount, long retentionMillis) {
+        if (retentionCount <= 0 || retentionMillis <= 0) {
+            throw new IllegalArgumentException("Retention must be positive");
+        }
+        // oldest generation is evicted, so the rest must hold whole retention count,
+        // with headroom for stripes getting more than average share of operations
+        int generationCapacity = Math.max(MIN_GENERATION_CAPACITY,
+                (int) Math.ceil(STRIPE_HEADROOM * retentionCount / STRIPES / (GENERATIONS - 1)));
+        long generationMillis = Math.max(1, retentionMillis / (GENERATIONS - 1));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(generationCapacity, generationMillis);
+        }
+    }
+
+    /**
+     * Acquires operation or waits for outcome of concurrent execution up to
+     * {@link #DEFAULT_ACQUIRE_TIMEOUT_MILLIS}.
+     *
+     * @param operationId unique operation id provided by client
+     * @param fingerprint hash of operation parameters, to detect reuse of operation id
+     * @return {@link #ACQUIRED}, {@link #CONFLICT} or outcome of already processed operation
+     * @throws IllegalStateException if operation is still in flight once wait times out
+     */
+    public int acquire(int operationId, int fingerprint) {
+        return acquire(operationId, fingerprint, DEFAULT_ACQUIRE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Acquires operation or waits for outcome of concurrent execution up to given time.
+     *
+     * @throws IllegalStateException if operation is still in flight once wait times out
+     */
+    public int acquire(int operationId, int fingerprint, long timeoutMillis) {
+        Stripe stripe = stripe(operationId);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (stripe) {
+            int outcome;
+            while ((outcome = stripe.acquire(operationId, fingerprint)) == IN_FLIGHT) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw new IllegalStateException("Operation " + operationId + " is still in flight");
+                }
+                stripe.waiters++;
+                try {
+                    stripe.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for operation " + operationId, e);
+                } finally {
+                    stripe.waiters--;
+                }
+            }
+            return outcome;
+        }
+    }
+
+    /**
+     * Acquires operation without waiting.
+     *
+     * @return {@link #ACQUIRED}, {@link #CONFLICT}, {@link #IN_FLIGHT} or outcome of already processed operation
+     */
+    public int tryAcquire(int operationId, int fingerprint) {
+        Stripe stripe = stripe(operationId);
+        synchronized (stripe) {
+            return stripe.acquire(operationId, fingerprint);
+        }
+    }
+
+    /**
+     * Stores outcome of acquired operation and wakes up waiting duplicates.
+     *
+     * @param outcome non negative operation outcome
+     */
+    public void complete(int operationId, int outcome) {
+        if (outcome < 0) {
+            throw new IllegalArgumentException("Outcome must not be negative");
+        }
+        Stripe stripe = stripe(operationId);
+        synchronized (stripe) {
+            stripe.complete(operationId, outcome);
+            if (stripe.waiters > 0) {
+                stripe.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Forgets acquired operation that could not be executed, so it can be acquired again.
+     */
+    public void release(int operationId) {
+        Stripe stripe = stripe(operationId);
+        synchronized (stripe) {
+            stripe.release(operationId);
+            if (stripe.waiters > 0) {
+                stripe.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stores outcome of operation processed elsewhere, e.g. restored from storage.
+     */
+    public void remember(int operationId, int fingerprint, int outcome) {
+        if (tryAcquire(operationId, fingerprint) == ACQUIRED) {
+            complete(operationId, outcome);
+        }
+    }
+
+    /**
+     * @return number of remembered operations
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Passes every completed operation to given visitor, stripe by stripe.
+     */
+    public void forEachCompleted(OperationVisitor visitor) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Generation generation : stripe.generations) {
+                    for (int slot = 0; slot < generation.states.length; slot++) {
+                        if (generation.states[slot] == DONE) {
+                            visitor.visit(generation.keys[slot], generation.fingerprints[slot],
+                                    generation.outcomes[slot]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Stripe stripe(int operationId) {
+        return stripes[mix(operationId) & (STRIPES - 1)];
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @FunctionalInterface
+    public interface OperationVisitor {
+
+        void visit(int operationId, int fingerprint, int outcome);
+    }
+
+    /**
+     * Generations of one stripe, guarded by stripe monitor.
+     */
+    private static class Stripe {
+
+        private final Generation[] generations = new Generation[GENERATIONS];
+        private final int generationCapacity;
+        private final long generationMillis;
+        private int newest;
+        private int waiters;
+
+        private Stripe(int generationCapacity, long generationMillis) {
+            this.generationCapacity = generationCapacity;
+            this.generationMillis = generationMillis;
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < GENERATIONS; i++) {
+                generations[i] = new Generation(generationCapacity, now);
+            }
+        }
+
+        private int acquire(int operationId, int fingerprint) {
+            for (int i = 0; i < GENERATIONS; i++) {
+                Generation generation = generations[(newest - i + GENERATIONS) % GENERATIONS];
+                int slot = generation.find(operationId);
+                if (slot >= 0) {
+                    if (generation.fingerprints[slot] != fingerprint) {
+                        return CONFLICT;
+                    }
+                    return generation.states[slot] == PENDING ? IN_FLIGHT : generation.outcomes[slot];
+                }
+            }
+            rotateIfNeeded();
+            generations[newest].insert(operationId, fingerprint, PENDING, 0);
+            return ACQUIRED;
+        }
+
+        private void complete(int operationId, int outcome) {
+            for (Generation generation : generations) {
+                int slot = generation.find(operationId);
+                if (slot >= 0) {
+                    generation.states[slot] = DONE;
+                    generation.outcomes[slot] = outcome;
+                    return;
+                }
+            }
+        }
+
+        private void release(int operationId) {
+            for (Generation generation : generations) {
+                int slot = generation.find(operationId);
+                if (slot >= 0) {
+                    generation.remove(slot);
+                    return;
+                }
+            }
+        }
+
+        private int size() {
+            int size = 0;
+            for (Generation generation : generations) {
+                size += generation.count;
+            }
+            return size;
+        }
+
+        private void rotateIfNeeded() {
+            Generation current = generations[newest];
+            long now = System.currentTimeMillis();
+            if (current.count < generationCapacity && now - current.createdAt < generationMillis) {
+                return;
+            }
+            newest = (newest + 1) % GENERATIONS;
+            generations[newest].clear(now);
+        }
+    }
+
+    /**
+     * Open addressing table with linear probing, sized to be at most half full.
+     */
+    private static class Generation {
+
+        private final int[] keys;
+        private final int[] fingerprints;
+        private final int[] outcomes;
+        private final byte[] states;
+        private final int mask;
+        private int count;
+        private long createdAt;
+
+        private Generation(int capacity, long createdAt) {
+            int size = Integer.highestOneBit(capacity * 2 - 1) << 1;
+            keys = new int[size];
+            fingerprints = new int[size];
+            outcomes = new int[size];
+            states = new byte[size];
+            mask = size - 1;
+            this.createdAt = createdAt;
+        }
+
+        private int find(int key) {
+            for (int slot = mix(key) & mask; states[slot] != FREE; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(int key, int fingerprint, byte state, int outcome) {
+            int slot = mix(key) & mask;
+            while (states[slot] != FREE) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            fingerprints[slot] = fingerprint;
+            outcomes[slot] = outcome;
+            states[slot] = state;
+            count++;
+        }
+
+        private void remove(int slot) {
+            states[slot] = FREE;
+            count--;
+            // re-inserts the rest of probe chain, as linear probing doesn't allow holes
+            for (int next = (slot + 1) & mask; states[next] != FREE; next = (next + 1) & mask) {
+                byte state = states[next];
+                states[next] = FREE;
+                count--;
+                insert(keys[next], fingerprints[next], state, outcomes[next]);
+            }
+        }
+
+        /**
+         * Evicts all completed operations. Operations still in flight must survive eviction,
+         * otherwise their duplicates would be executed again.
+         */
+        private void clear(long now) {
+            createdAt = now;
+            int pending = 0;
+            for (byte state : states) {
+                if (state == PENDING) {
+                    pending++;
+                }
+            }
+            if (pending == 0) {
+                Arrays.fill(states, FREE);
+                count = 0;
+                return;
+            }
+            int[] pendingKeys = new int[pending];
+            int[] pendingFingerprints = new int[pending];
+            for (int slot = 0, i = 0; slot < states.length; slot++) {
+                if (states[slot] == PENDING) {
+                    pendingKeys[i] = keys[slot];
+                    pendingFingerprints[i++] = fingerprints[slot];
+                }
+            }
+            Arrays.fill(states, FREE);
+            count = 0;
+            for (int i = 0; i < pending; i++) {
+                insert(pendingKeys[i], pendingFingerprints[i], PENDING, 0);
+            }
+        }
+    }
+}
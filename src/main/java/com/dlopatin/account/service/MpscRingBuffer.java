@@ -0,0 +1,94 @@
+package com.dlopatin.account.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * <p>
+ * Every slot has a sequence telling whose turn it is: producer claims slot by moving tail,
+ * fills it and publishes it by sequence, consumer takes published slot and releases it for the next lap.
+ * No locks and no allocation per element.
+ *
+ * @param <E> element type
+ */
+class MpscRingBuffer<E> {
+
+    private static final VarHandle SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final Object[] elements;
+    private final long[] sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // used by consumer only
+    private long head;
+
+    /**
+     * @param capacity max number of elements, rounded up to power of two
+     */
+    MpscRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Unsupported capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity * 2 - 1);
+        elements = new Object[size];
+        sequences = new long[size];
+        for (int i = 0; i < size; i++) {
+            sequences[i] = i;
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Adds element if there is free space. May be called by any thread.
+     *
+     * @return <code>false</code> if buffer is full
+     */
+    boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long sequence = (long) SEQUENCE.getAcquire(sequences, slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[slot] = element;
+                    SEQUENCE.setRelease(sequences, slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (sequence < position) {
+                // slot is not consumed since the previous lap
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest element. Must be called by consumer thread only.
+     *
+     * @return element or <code>null</code> if there is no published element
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        int slot = (int) head & mask;
+        if ((long) SEQUENCE.getAcquire(sequences, slot) != head + 1) {
+            return null;
+        }
+        E element = (E) elements[slot];
+        elements[slot] = null;
+        SEQUENCE.setRelease(sequences, slot, head + elements.length);
+        head++;
+        return element;
+    }
+
+    /**
+     * Must be called by consumer thread only. Slots claimed but not published yet count as not empty,
+     * so consumer checking it after announcing sleep never misses wake up of producer.
+     */
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+}
@@ -0,0 +1,486 @@
+package com.dlopatin.account.service;
+
+import com.dlopatin.account.journal.Journal;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.journal.SnapshotWriter;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.model.TransactionType;
+import com.dlopatin.account.repository.AccountDao;
+import com.dlopatin.account.repository.TransactionDao;
+import com.dlopatin.account.service.TransferException.TransferError;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Account service where every account is changed by a single thread only, so transfers take no locks.
+ * <p>
+ * Accounts are split into partitions by id. Every partition has its own thread consuming requests
+ * from bounded lock-free ring buffer. Transfer between accounts of the same partition is done at once.
+ * Transfer between partitions is done in two ordered steps: partition of the source account withdraws money
+ * and hands transfer off to partition of the target account, which puts money and journals transfer.
+ * Money can always be put, as account existence and currency are checked before withdrawal.
+ * <p>
+ * Callers wait for their transfers, journal is flushed by callers, so partition threads never wait for disk.
+ * <p>
+ * Withdrawal can't be undone by partition putting money, so failure after money is withdrawn, e.g. journal failing
+ * to append, stops transfers and snapshots: money is missing in memory, but not in journal, and restart recovers
+ * accounts from journal.
+ */
+public class PartitionedAccountService extends AccountServiceImpl implements Closeable {
+
+    public static final int DEFAULT_RING_CAPACITY = 4096;
+
+    // spinning makes sense only when the other side runs on another processor
+    private static final int SPINS_BEFORE_PARK = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+
+    private final AccountDao accountDao;
+    private final TransactionDao transactionDao;
+    private final IdempotencyIndex idempotencyIndex;
+    private final Journal journal;
+    private final Partition[] partitions;
+    private volatile RuntimeException fatalFailure;
+
+    public PartitionedAccountService(AccountDao accountDao, TransactionDao transactionDao, int partitionCount) {
+        this(accountDao, transactionDao, new IdempotencyIndex(), NoJournal.INSTANCE, partitionCount,
+                DEFAULT_RING_CAPACITY);
+    }
+
+    /**
+     * @param partitionCount number of partitions, every partition occupies one thread
+     * @param ringCapacity   max number of requests waiting in partition
+     */
+    public PartitionedAccountService(AccountDao accountDao, TransactionDao transactionDao,
+                                     IdempotencyIndex idempotencyIndex, Journal journal,
+                                     int partitionCount, int ringCapacity) {
+        super(accountDao, transactionDao, idempotencyIndex, journal);
+        if (partitionCount <= 0) {
+            throw new IllegalArgumentException("Partition count must be positive");
+        }
+        this.accountDao = accountDao;
+        this.transactionDao = transactionDao;
+        this.idempotencyIndex = idempotencyIndex;
+        this.journal = journal;
+        partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(i, ringCapacity);
+        }
+        for (Partition partition : partitions) {
+            partition.thread.start();
+        }
+    }
+
+    @Override
+    TransferError executeTransfer(int fromId, int toId, long amount, int operationId) {
+        checkNoFatalFailure();
+        Optional<Account> from = accountDao.get(fromId);
+        Optional<Account> to = accountDao.get(toId);
+        TransferError error = validate(from, to);
+        if (error != null) {
+            return error;
+        }
+        TransferTask task = new TransferTask(from.get(), to.get(), amount, operationId);
+        partition(fromId).submit(task);
+        task.await();
+        task.rethrowFailure();
+        return task.error;
+    }
+
+    /**
+     * Submits transfers in batch order. Transfer withdrawing from account, which is going to receive money
+     * from earlier transfer of another partition, is submitted when earlier transfers are done,
+     * so outcomes are the same as if transfers were executed one by one.
+     */
+    @Override
+    public List<TransferResult> transferBatch(List<Transfer> transfers) {
+        if (transfers.size() > MAX_TRANSFER_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size exceeds " + MAX_TRANSFER_BATCH_SIZE);
+        }
+        transfers.forEach(transfer -> checkNotNegative(transfer.getAmount()));
+        checkNoFatalFailure();
+
+        TransferResult[] results = new TransferResult[transfers.size()];
+        TransferTask[] tasks = new TransferTask[transfers.size()];
+        Map<Integer, Optional<Account>> resolved = new HashMap<>();
+        List<TransferTask> submitted = new ArrayList<>();
+        Set<Integer> pendingCredits = new HashSet<>();
+        RuntimeException failure = null;
+        try {
+            for (int i = 0; i < transfers.size(); i++) {
+                Transfer transfer = transfers.get(i);
+                int outcome = idempotencyIndex.tryAcquire(transfer.getOperationId(),
+                        TransferOutcome.fingerprint(transfer.getFrom(), transfer.getTo(), transfer.getAmount()));
+                if (outcome == IdempotencyIndex.IN_FLIGHT) {
+                    // processed after own operations are completed, as single transfers do
+                    continue;
+                }
+                if (outcome != IdempotencyIndex.ACQUIRED) {
+                    results[i] = toResult(transfer, TransferOutcome.decode(outcome));
+                    continue;
+                }
+                Optional<Account> from = resolved.computeIfAbsent(transfer.getFrom(), accountDao::get);
+                Optional<Account> to = resolved.computeIfAbsent(transfer.getTo(), accountDao::get);
+                TransferError error = validate(from, to);
+                if (error != null) {
+                    idempotencyIndex.complete(transfer.getOperationId(), TransferOutcome.encode(error));
+                    results[i] = toResult(transfer, error);
+                    continue;
+                }
+                if (pendingCredits.contains(transfer.getFrom())) {
+                    submitted.forEach(Task::await);
+                    pendingCredits.clear();
+                }
+                tasks[i] = new TransferTask(from.get(), to.get(), transfer.getAmount(), transfer.getOperationId());
+                partition(transfer.getFrom()).submit(tasks[i]);
+                submitted.add(tasks[i]);
+                if (partition(transfer.getFrom()) != partition(transfer.getTo())) {
+                    pendingCredits.add(transfer.getTo());
+                }
+            }
+            submitted.forEach(Task::await);
+            submitted.forEach(Task::rethrowFailure);
+            journal.flush();
+        } catch (RuntimeException e) {
+            failure = e;
+            // operations can be released only when their tasks are not running anymore
+            submitted.forEach(Task::await);
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            if (tasks[i] == null) {
+                continue;
+            }
+            Transfer transfer = transfers.get(i);
+            // transfer done is remembered even if another one failed or journal failed to flush
+            if (!tasks[i].failed()) {
+                results[i] = toResult(transfer, tasks[i].error);
+                idempotencyIndex.complete(transfer.getOperationId(), TransferOutcome.encode(tasks[i].error));
+            } else {
+                idempotencyIndex.release(transfer.getOperationId());
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                Transfer transfer = transfers.get(i);
+                try {
+                    transfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount(), transfer.getOperationId());
+                    results[i] = TransferResult.successful(transfer.getOperationId());
+                } catch (TransferException e) {
+                    results[i] = TransferResult.failed(transfer.getOperationId(), e.getTransferError());
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Accounts are read one by one, as partitions take no locks. Transfer between partitions may be seen
+     * withdrawn, but not put yet.
+     */
+    @Override
+    public Account[] getAll(int[] ids) {
+        checkGetBatchSize(ids);
+        Account[] accounts = accountDao.getAll(ids);
+        for (int i = 0; i < accounts.length; i++) {
+            if (accounts[i] != null) {
+                accounts[i] = accounts[i].snapshot();
+            }
+        }
+        return accounts;
+    }
+
+    @Override
+    public boolean isReadAtOnce(int[] ids) {
+        return ids.length <= 1;
+    }
+
+    /**
+     * Accounts are read by their partitions one partition after another. Then every partition is passed
+     * once more, so transfers handed off before are journaled.
+     */
+    @Override
+    void writeAccounts(SnapshotWriter writer, HistorySizes historySizes) {
+        checkNoFatalFailure();
+        for (Partition partition : partitions) {
+            Task scan = new Task() {
+                @Override
+                void run(Partition current) {
+                    accountDao.forEach(account -> {
+                        if (partition(account.getId()) == current) {
+                            historySizes.put(account.getId(), transactionDao.countByAccount(account.getId()));
+                            writer.writeAccount(account.getId(), account.getCurrency(), account.getBalance(),
+                                    account.getVersion());
+                        }
+                    });
+                }
+            };
+            partition.submit(scan);
+            scan.await();
+            scan.rethrowFailure();
+        }
+        List<Task> barriers = new ArrayList<>();
+        for (Partition partition : partitions) {
+            Task barrier = new Task() {
+                @Override
+                void run(Partition current) {
+                    // handoffs are always taken before the next request
+                }
+            };
+            partition.submit(barrier);
+            barriers.add(barrier);
+        }
+        barriers.forEach(Task::await);
+        // transfer read withdrawn may have failed to put money meanwhile
+        checkNoFatalFailure();
+    }
+
+    private void checkNoFatalFailure() {
+        RuntimeException failure = fatalFailure;
+        if (failure != null) {
+            throw new IllegalStateException("Transfer failed after money was withdrawn, restart to recover "
+                    + "accounts from journal", failure);
+        }
+    }
+
+    /**
+     * Stops partition threads, requests submitted after that are never executed.
+     */
+    @Override
+    public void close() {
+        for (Partition partition : partitions) {
+            partition.running = false;
+            LockSupport.unpark(partition.thread);
+        }
+        for (Partition partition : partitions) {
+            try {
+                partition.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Partition partition(int accountId) {
+        return partitions[Math.floorMod(accountId, partitions.length)];
+    }
+
+    /**
+     * Thread owning accounts of one partition. Requests come from callers, handoffs come from other partitions.
+     * Handoffs never produce new messages, so partitions waiting for space in each other's handoff buffer
+     * keep draining their own handoffs and never deadlock.
+     */
+    private class Partition implements Runnable {
+
+        private final MpscRingBuffer<Task> requests;
+        private final MpscRingBuffer<TransferTask> handoffs;
+        private final Thread thread;
+        private volatile boolean sleeping;
+        private volatile boolean running = true;
+
+        private Partition(int index, int ringCapacity) {
+            requests = new MpscRingBuffer<>(ringCapacity);
+            handoffs = new MpscRingBuffer<>(ringCapacity);
+            thread = new Thread(this, "account-partition-" + index);
+            thread.setDaemon(true);
+        }
+
+        private void submit(Task task) {
+            while (!requests.offer(task)) {
+                Thread.yield();
+            }
+            wakeUp();
+        }
+
+        /**
+         * Must be called by thread of the current partition.
+         */
+        private void handOff(TransferTask task, Partition current) {
+            while (!handoffs.offer(task)) {
+                current.drainHandoffs();
+                Thread.onSpinWait();
+            }
+            wakeUp();
+        }
+
+        private void wakeUp() {
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running) {
+                boolean worked = drainHandoffs();
+                Task task = requests.poll();
+                if (task != null) {
+                    task.execute(this);
+                    worked = true;
+                }
+                if (worked) {
+                    idle = 0;
+                } else if (++idle < SPINS_BEFORE_PARK) {
+                    Thread.onSpinWait();
+                } else {
+                    sleeping = true;
+                    if (requests.isEmpty() && handoffs.isEmpty() && running) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                    idle = 0;
+                }
+            }
+        }
+
+        private boolean drainHandoffs() {
+            boolean drained = false;
+            TransferTask task;
+            while ((task = handoffs.poll()) != null) {
+                task.credit();
+                drained = true;
+            }
+            return drained;
+        }
+    }
+
+    /**
+     * Request executed by partition thread. Caller waits for it, spinning for a while and then parking.
+     */
+    private abstract static class Task {
+
+        private final Thread caller = Thread.currentThread();
+        private volatile boolean completed;
+        private RuntimeException failure;
+
+        abstract void run(Partition current);
+
+        private void execute(Partition current) {
+            try {
+                run(current);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Marks task done, unless it's handed off to another partition. Wakes up waiting caller.
+         */
+        void complete() {
+            completed = true;
+            LockSupport.unpark(caller);
+        }
+
+        void fail(RuntimeException e) {
+            failure = e;
+            complete();
+        }
+
+        void await() {
+            for (int i = 0; i < SPINS_BEFORE_PARK && !completed; i++) {
+                Thread.onSpinWait();
+            }
+            while (!completed) {
+                LockSupport.park(this);
+            }
+        }
+
+        /**
+         * Must be called after {@link #await()}.
+         */
+        boolean failed() {
+            return failure != null;
+        }
+
+        /**
+         * Must be called after {@link #await()}.
+         */
+        void rethrowFailure() {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private class TransferTask extends Task {
+
+        private final Account from;
+        private final Account to;
+        private final long amount;
+        private final int operationId;
+        private int fromVersion;
+        private long timestamp;
+        private TransferError error;
+
+        private TransferTask(Account from, Account to, long amount, int operationId) {
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.operationId = operationId;
+        }
+
+        @Override
+        void run(Partition current) {
+            if (amount > from.getBalance()) {
+                error = TransferError.INSUFFICIENT_BALANCE;
+                complete();
+                return;
+            }
+            fromVersion = from.addToBalance(-amount);
+            timestamp = System.currentTimeMillis();
+            try {
+                // stored by the thread changing account, so snapshot reads account and its transactions together
+                transactionDao.insert(new Transaction(operationId, from.getId(), TransactionType.DEBIT, amount,
+                        timestamp));
+                update(from);
+            } catch (RuntimeException e) {
+                failAfterWithdrawal(e);
+                return;
+            }
+            Partition target = partition(to.getId());
+            if (target == current) {
+                credit();
+            } else {
+                target.handOff(this, current);
+            }
+        }
+
+        private void credit() {
+            try {
+                int toVersion = to.addToBalance(amount);
+                transactionDao.insert(new Transaction(operationId, to.getId(), TransactionType.CREDIT, amount,
+                        timestamp));
+                // the same account on both sides is changed twice, as in lock based transfer
+                int recordedFromVersion = from.getId() == to.getId() ? toVersion : fromVersion;
+                journal.appendTransfer(operationId, from.getId(), recordedFromVersion, to.getId(), toVersion,
+                        amount, timestamp);
+                update(to);
+            } catch (RuntimeException e) {
+                failAfterWithdrawal(e);
+                return;
+            }
+            complete();
+        }
+
+        private void failAfterWithdrawal(RuntimeException e) {
+            // set before caller wakes up, so transfers after the failed one are rejected
+            if (fatalFailure == null) {
+                fatalFailure = e;
+            }
+            fail(e);
+        }
+    }
+}
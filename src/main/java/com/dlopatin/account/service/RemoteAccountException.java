@@ -0,0 +1,22 @@
+package com.dlopatin.account.service;
+
+/**
+ * Thrown if operation can be performed only by another node of cluster, the one keeping the account.
+ */
+public class RemoteAccountException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+    private final String nodeAddress;
+
+    /**
+     * @param nodeAddress base URL of node keeping the account, e.g. <code>http://host:4567</code>
+     */
+    public RemoteAccountException(int accountId, String nodeAddress) {
+        super(String.format("Account %d is kept by %s", accountId, nodeAddress));
+        this.nodeAddress = nodeAddress;
+    }
+
+    public String getNodeAddress() {
+        return nodeAddress;
+    }
+}
@@ -0,0 +1,13 @@
+package com.dlopatin.account.service;
+
+/**
+ * Thrown if replica can not serve state as recent as requested in time, e.g. while it's behind its leader.
+ */
+public class StaleReadException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public StaleReadException(String message) {
+        super(message);
+    }
+}
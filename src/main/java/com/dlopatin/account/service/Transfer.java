@@ -0,0 +1,46 @@
+package com.dlopatin.account.service;
+
+/**
+ * Single money transfer between two accounts, used for batch processing.
+ */
+public class Transfer {
+
+    private final int from;
+    private final int to;
+    // amount is stored in cents, pinnies, etc. To avoid work with BigDecimal
+    private final long amount;
+    private final int operationId;
+
+    public Transfer(int from, int to, long amount, int operationId) {
+        this.from = from;
+        this.to = to;
+        this.amount = amount;
+        this.operationId = operationId;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public int getOperationId() {
+        return operationId;
+    }
+
+    @Override
+    public String toString() {
+        return "Transfer{" +
+                "from=" + from +
+                ", to=" + to +
+                ", amount=" + amount +
+                ", operationId=" + operationId +
+                '}';
+    }
+}
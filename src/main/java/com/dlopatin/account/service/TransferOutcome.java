@@ -0,0 +1,43 @@
+package com.dlopatin.account.service;
+
+import com.dlopatin.account.service.TransferException.TransferError;
+
+/**
+ * Encodes transfer outcomes as ints to be stored in {@link IdempotencyIndex}.
+ */
+final class TransferOutcome {
+
+    static final int SUCCESSFUL = 0;
+
+    private static final TransferError[] ERRORS = TransferError.values();
+
+    private TransferOutcome() {
+    }
+
+    static int encode(TransferError error) {
+        return error == null ? SUCCESSFUL : error.ordinal() + 1;
+    }
+
+    /**
+     * @return transfer error or <code>null</code> if transfer is successful
+     */
+    static TransferError decode(int outcome) {
+        if (outcome == IdempotencyIndex.CONFLICT) {
+            return TransferError.TRANSFER_ALREADY_PROCESSED;
+        }
+        if (outcome < 0 || outcome > ERRORS.length) {
+            throw new IllegalArgumentException("Unknown transfer outcome: " + outcome);
+        }
+        return outcome == SUCCESSFUL ? null : ERRORS[outcome - 1];
+    }
+
+    /**
+     * Hash of transfer parameters to detect operation id reused for another transfer.
+     */
+    static int fingerprint(int from, int to, long amount) {
+        int result = from;
+        result = 31 * result + to;
+        result = 31 * result + Long.hashCode(amount);
+        return result;
+    }
+}
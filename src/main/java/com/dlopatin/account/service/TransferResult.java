@@ -0,0 +1,48 @@
+package com.dlopatin.account.service;
+
+import com.dlopatin.account.service.TransferException.TransferError;
+
+/**
+ * Outcome of a single transfer processed as a part of batch.
+ */
+public class TransferResult {
+
+    private final int operationId;
+    private final TransferError error;
+
+    private TransferResult(int operationId, TransferError error) {
+        this.operationId = operationId;
+        this.error = error;
+    }
+
+    public static TransferResult successful(int operationId) {
+        return new TransferResult(operationId, null);
+    }
+
+    public static TransferResult failed(int operationId, TransferError error) {
+        return new TransferResult(operationId, error);
+    }
+
+    public int getOperationId() {
+        return operationId;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    /**
+     * @return transfer error or <code>null</code> if transfer is successful
+     */
+    public TransferError getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferResult{" +
+                "operationId=" + operationId +
+                ", error=" + error +
+                '}';
+    }
+}
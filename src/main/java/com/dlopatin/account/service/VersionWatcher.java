@@ -0,0 +1,76 @@
+package com.dlopatin.account.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Lets readers wait for change of account instead of polling it. Writers report every change once it's visible
+ * to readers, which costs a check of empty map unless somebody waits for a change.
+ * <p>
+ * Waiter registers before it checks account and writer looks for waiters after it changed account, both
+ * by volatile access, so either waiter sees the change or writer sees the waiter.
+ */
+final class VersionWatcher {
+
+    // monitor per account somebody waits for, removed by the last waiter
+    private final ConcurrentHashMap<Integer, Watch> watches = new ConcurrentHashMap<>();
+
+    /**
+     * Wakes readers waiting for change of account, must be called after change is visible.
+     */
+    void changed(int id) {
+        if (watches.isEmpty()) {
+            return;
+        }
+        Watch watch = watches.get(id);
+        if (watch != null) {
+            synchronized (watch) {
+                watch.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits till condition on account holds, checking it every time account changes.
+     *
+     * @return <code>false</code> if time is out or thread is interrupted
+     */
+    boolean await(int id, BooleanSupplier condition, long timeoutMillis) {
+        Watch watch = watches.compute(id, (key, current) -> {
+            Watch registered = current == null ? new Watch() : current;
+            registered.waiters++;
+            return registered;
+        });
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            synchronized (watch) {
+                while (!condition.getAsBoolean()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(watch, remaining);
+                }
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            watches.computeIfPresent(id, (key, current) -> --current.waiters == 0 ? null : current);
+        }
+    }
+
+    /**
+     * @return number of accounts somebody waits for
+     */
+    int size() {
+        return watches.size();
+    }
+
+    private static final class Watch {
+        // changed by compute of map only
+        private int waiters;
+    }
+}
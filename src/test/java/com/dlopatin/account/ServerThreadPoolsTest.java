@@ -0,0 +1,62 @@
+package com.dlopatin.account;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ServerThreadPoolsTest {
+
+    @Test
+    void testCreate_pooled() {
+        Properties properties = new Properties();
+        properties.setProperty(AppConfig.SERVER_MAX_THREADS, "16");
+        properties.setProperty(AppConfig.SERVER_MIN_THREADS, "4");
+        properties.setProperty(AppConfig.SERVER_QUEUE_SIZE, "100");
+        properties.setProperty(AppConfig.SERVER_IDLE_TIMEOUT_MILLIS, "5000");
+
+        ThreadPool pool = ServerThreadPools.create(new AppConfig(properties));
+
+        QueuedThreadPool queued = (QueuedThreadPool) pool;
+        assertThat(queued.getMaxThreads(), is(16));
+        assertThat(queued.getMinThreads(), is(4));
+        assertThat(queued.getIdleTimeout(), is(5000));
+        assertThat(queued.getQueueSize(), is(0));
+    }
+
+    @Test
+    void testPooled_minAboveMax() {
+        assertThrows(IllegalArgumentException.class, () -> ServerThreadPools.pooled(4, 8, 0, 1000));
+    }
+
+    @Test
+    void testVirtual_unsupportedJdk() {
+        assumeTrue(Runtime.version().feature() < 19);
+
+        assertThrows(IllegalStateException.class, ServerThreadPools::virtual);
+    }
+
+    @Test
+    void testExecutorPool_stop() throws Exception {
+        ExecutorServiceThreadPool pool = new ExecutorServiceThreadPool(Executors.newCachedThreadPool());
+        pool.start();
+        CountDownLatch done = new CountDownLatch(1);
+
+        pool.execute(done::countDown);
+        pool.stop();
+        pool.join();
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(pool.isStopped(), is(true));
+        assertThat(pool.isLowOnThreads(), is(false));
+    }
+}
@@ -0,0 +1,112 @@
+package com.dlopatin.account.binary;
+
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.TransferException;
+import com.dlopatin.account.service.TransferException.TransferError;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BinaryServerTest {
+
+    private AccountServiceImpl accountService;
+    private BinaryServer server;
+    private BinaryClient client;
+    private int port;
+
+    @BeforeEach
+    public void before() throws IOException {
+        accountService = new AccountServiceImpl(new AccountInMemoryDao(), new TransactionInMemoryDao());
+        server = new BinaryServer(0, accountService, new Metrics(), new QueuedThreadPool());
+        port = server.start();
+        client = BinaryClient.connect("localhost", port);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testCreateAndGet() {
+        Account created = client.create(Currency.GBP, 100).join();
+
+        Optional<Account> account = client.get(created.getId()).join();
+        assertThat(account.isPresent(), is(true));
+        assertThat(account.get().getId(), is(created.getId()));
+        assertThat(account.get().getCurrency(), is(Currency.GBP));
+        assertThat(account.get().getBalance(), is(100L));
+        assertThat(client.get(created.getId() + 1).join().isPresent(), is(false));
+    }
+
+    @Test
+    public void testPipelinedTransfers_allApplied() {
+        int from = accountService.create(Currency.USD, 1000).getId();
+        int to = accountService.create(Currency.USD, 0).getId();
+
+        List<CompletableFuture<Void>> transfers = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            transfers.add(client.transfer(from, to, 1, i));
+        }
+        CompletableFuture.allOf(transfers.toArray(new CompletableFuture[0])).join();
+
+        assertThat(accountService.get(from).orElseThrow().getBalance(), is(0L));
+        assertThat(accountService.get(to).orElseThrow().getBalance(), is(1000L));
+    }
+
+    @Test
+    public void testTransfer_errors() {
+        int from = accountService.create(Currency.USD, 10).getId();
+        int to = accountService.create(Currency.USD, 0).getId();
+
+        ExecutionException insufficient = assertThrows(ExecutionException.class,
+                () -> client.transfer(from, to, 11, 1).get());
+        assertThat(insufficient.getCause(), instanceOf(TransferException.class));
+        assertThat(((TransferException) insufficient.getCause()).getTransferError(),
+                is(TransferError.INSUFFICIENT_BALANCE));
+        ExecutionException invalid = assertThrows(ExecutionException.class,
+                () -> client.transfer(from, to, 0, 2).get());
+        assertThat(invalid.getCause(), instanceOf(IllegalArgumentException.class));
+    }
+
+    @Test
+    public void testUnknownOperation_badRequest() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write(ByteBuffer.allocate(9).putInt(5).put((byte) 42).putInt(7).array());
+
+            ByteBuffer response = ByteBuffer.wrap(socket.getInputStream().readNBytes(9));
+            assertThat(response.getInt(), is(5));
+            assertThat(response.get(), is(BinaryProtocol.BAD_REQUEST));
+            assertThat(response.getInt(), is(7));
+        }
+    }
+
+    @Test
+    public void testOversizedFrame_connectionClosed() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write(ByteBuffer.allocate(4).putInt(1_000_000).array());
+
+            assertThat(socket.getInputStream().read(), is(-1));
+        }
+    }
+}
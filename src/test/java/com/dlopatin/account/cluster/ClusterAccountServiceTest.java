@@ -0,0 +1,347 @@
+package com.dlopatin.account.cluster;
+
+import com.dlopatin.account.binary.BinaryServer;
+import com.dlopatin.account.controller.AccountController;
+import com.dlopatin.account.http.NioHttpServer;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.metrics.ContentionProfiler;
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountService;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import com.dlopatin.account.service.RemoteAccountException;
+import com.dlopatin.account.service.Transfer;
+import com.dlopatin.account.service.TransferException;
+import com.dlopatin.account.service.TransferException.TransferError;
+import com.dlopatin.account.service.TransferResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+/**
+ * Cluster of three nodes on localhost, talking to each other by binary protocol.
+ */
+public class ClusterAccountServiceTest {
+
+    private static final int NODES = 3;
+
+    private final ConsistentHashRing ring = new ConsistentHashRing(NODES, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    private final List<ClusterNode> nodes = new ArrayList<>();
+    private final AccountServiceImpl[] locals = new AccountServiceImpl[NODES];
+    private final ClusterAccountService[] services = new ClusterAccountService[NODES];
+    private final BinaryServer[] servers = new BinaryServer[NODES];
+
+    @BeforeEach
+    public void before() throws IOException {
+        for (int node = 0; node < NODES; node++) {
+            // HTTP ports are only named in redirects
+            nodes.add(new ClusterNode("localhost", 8000 + node, freePort()));
+        }
+        for (int node = 0; node < NODES; node++) {
+            int self = node;
+            locals[node] = new AccountServiceImpl(new AccountInMemoryDao(), new TransactionInMemoryDao(),
+                    new IdempotencyIndex(), NoJournal.INSTANCE, ContentionProfiler.DISABLED,
+                    id -> ring.owner(id) == self);
+            services[node] = new ClusterAccountService(locals[node], nodes, node, ring);
+            servers[node] = new BinaryServer(nodes.get(node).getBinaryPort(), services[node], locals[node],
+                    new Metrics(), new QueuedThreadPool());
+            servers[node].start();
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (int node = 0; node < NODES; node++) {
+            services[node].close();
+            servers[node].stop();
+        }
+    }
+
+    @Test
+    public void testCreate_idsOwnedByCreatingNode_readFromAnyNode() {
+        Set<Integer> ids = new HashSet<>();
+        for (int node = 0; node < NODES; node++) {
+            for (int i = 0; i < 10; i++) {
+                int id = services[node].create(Currency.EUR, node * 100 + i).getId();
+                assertThat(ring.owner(id), is(node));
+                assertThat(ids.add(id), is(true));
+                long balance = services[(node + 1) % NODES].get(id).orElseThrow().getBalance();
+                assertThat(balance, is((long) node * 100 + i));
+            }
+        }
+        assertThat(services[1].get(1_000_000).isPresent(), is(false));
+    }
+
+    @Test
+    public void testCreateBatch_idsOwnedByCreatingNode() {
+        int single = services[0].create(Currency.EUR, 1).getId();
+
+        int[] ids = services[1].createBatch(new Currency[]{Currency.GBP, Currency.USD, Currency.EUR},
+                new long[]{10, 20, 30});
+
+        assertThat(ids.length, is(3));
+        for (int i = 0; i < ids.length; i++) {
+            assertThat(ring.owner(ids[i]), is(1));
+            assertThat(ids[i], not(single));
+            assertThat(services[2].get(ids[i]).orElseThrow().getBalance(), is(10L * (i + 1)));
+        }
+        assertThat(services[1].get(ids[2]).orElseThrow().getCurrency(), is(Currency.EUR));
+        assertThat(locals[0].getAccountCount(), is(1));
+        assertThat(locals[1].getAccountCount(), is(3));
+    }
+
+    @Test
+    public void testGetAll_accountsOfAllNodes_inOrderRequested() {
+        int first = services[0].create(Currency.EUR, 10).getId();
+        int second = services[1].create(Currency.EUR, 20).getId();
+        int third = services[2].create(Currency.EUR, 30).getId();
+
+        Account[] accounts = services[1].getAll(new int[]{third, unusedId(0), first, second, first});
+
+        assertThat(accounts[0].getBalance(), is(30L));
+        assertThat(accounts[1], is(nullValue()));
+        assertThat(accounts[2].getBalance(), is(10L));
+        assertThat(accounts[3].getBalance(), is(20L));
+        assertThat(accounts[4].getId(), is(first));
+    }
+
+    @Test
+    public void testTransfer_betweenNodes_sentToThirdNode() {
+        int from = services[0].create(Currency.USD, 100).getId();
+        int to = services[1].create(Currency.USD, 0).getId();
+
+        services[2].transfer(from, to, 30, 1);
+        // repeated transfer is replayed by coordinator
+        services[1].transfer(from, to, 30, 1);
+
+        assertThat(balance(from), is(70L));
+        assertThat(balance(to), is(30L));
+        TransferException reused = assertThrows(TransferException.class, () -> services[2].transfer(from, to, 31, 1));
+        assertThat(reused.getTransferError(), is(TransferError.TRANSFER_ALREADY_PROCESSED));
+    }
+
+    @Test
+    public void testTransfer_withinNode_byLocalTransfers() {
+        int from = services[0].create(Currency.USD, 100).getId();
+        int local = services[0].create(Currency.USD, 0).getId();
+        int remote = services[1].create(Currency.USD, 0).getId();
+        AccountService localTransfers = mock(AccountService.class);
+        ClusterAccountService service = new ClusterAccountService(locals[0], localTransfers, nodes, 0, ring);
+        try {
+            service.transfer(from, local, 10, 1);
+            service.transfer(from, remote, 20, 2);
+
+            verify(localTransfers).transfer(from, local, 10, 1);
+            verifyNoMoreInteractions(localTransfers);
+            assertThat(balance(from), is(80L));
+            assertThat(balance(remote), is(20L));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testTransfer_betweenNodes_errorsChangeNothing() {
+        int from = services[0].create(Currency.USD, 100).getId();
+        int to = services[1].create(Currency.USD, 0).getId();
+        int otherCurrency = services[1].create(Currency.GBP, 0).getId();
+
+        assertTransferError(() -> services[0].transfer(from, to, 101, 1), TransferError.INSUFFICIENT_BALANCE);
+        assertTransferError(() -> services[0].transfer(from, otherCurrency, 1, 2),
+                TransferError.DIFFERENT_ACCOUNT_CURRENCIES);
+        assertTransferError(() -> services[0].transfer(from, unusedId(1), 1, 3), TransferError.ACCOUNT_TO_NOT_FOUND);
+        assertTransferError(() -> services[1].transfer(unusedId(0), to, 1, 4), TransferError.ACCOUNT_FROM_NOT_FOUND);
+
+        assertThat(balance(from), is(100L));
+        assertThat(balance(to), is(0L));
+        // aborted operation is released by participant, coordinator keeps outcome
+        assertTransferError(() -> services[0].transfer(from, to, 101, 1), TransferError.INSUFFICIENT_BALANCE);
+        services[0].transfer(from, to, 100, 5);
+        assertThat(balance(to), is(100L));
+    }
+
+    @Test
+    public void testTransferBatch_acrossNodes_resultsInOrder() {
+        int from = services[0].create(Currency.USD, 100).getId();
+        int to = services[1].create(Currency.USD, 0).getId();
+
+        List<TransferResult> results = services[2].transferBatch(List.of(
+                new Transfer(from, to, 60, 1),
+                new Transfer(from, to, 60, 2),
+                new Transfer(to, from, 10, 3)));
+
+        assertThat(results.get(0).getError(), nullValue());
+        assertThat(results.get(1).getError(), is(TransferError.INSUFFICIENT_BALANCE));
+        assertThat(results.get(2).getError(), nullValue());
+        assertThat(balance(from), is(50L));
+        assertThat(balance(to), is(50L));
+    }
+
+    @Test
+    public void testTransferBatch_nodeDownMidBatch_resultsBeforeIt() {
+        int from = services[0].create(Currency.USD, 100).getId();
+        int to = services[0].create(Currency.USD, 0).getId();
+        int remote = services[1].create(Currency.USD, 100).getId();
+        servers[1].stop();
+
+        List<TransferResult> results = services[0].transferBatch(List.of(
+                new Transfer(from, to, 10, 1),
+                new Transfer(remote, to, 10, 2),
+                new Transfer(from, to, 10, 3)));
+
+        assertThat(results.size(), is(1));
+        assertThat(results.get(0).getOperationId(), is(1));
+        assertThat(results.get(0).isSuccessful(), is(true));
+        assertThat(balance(to), is(10L));
+        assertThrows(RuntimeException.class, () -> services[0].transferBatch(List.of(
+                new Transfer(remote, to, 10, 2))));
+    }
+
+    @Test
+    public void testTransfer_concurrentAcrossNodes_moneyConserved() throws Exception {
+        List<Integer> accounts = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            accounts.add(services[i % NODES].create(Currency.USD, 1000).getId());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int firstOperation = thread * 1000;
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 200; i++) {
+                        try {
+                            services[random.nextInt(NODES)].transfer(accounts.get(random.nextInt(accounts.size())),
+                                    accounts.get(random.nextInt(accounts.size())), random.nextInt(1, 300),
+                                    firstOperation + i);
+                        } catch (TransferException e) {
+                            assertThat(e.getTransferError(), is(TransferError.INSUFFICIENT_BALANCE));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long total = 0;
+        for (int id : accounts) {
+            total += balance(id);
+        }
+        assertThat(total, is(30_000L));
+    }
+
+    @Test
+    public void testGetAll_acrossNodes_readOneByOneInResponse() throws Exception {
+        int first = services[0].create(Currency.EUR, 10).getId();
+        int second = services[0].create(Currency.EUR, 20).getId();
+        int remote = services[1].create(Currency.EUR, 30).getId();
+        assertThat(services[0].isReadAtOnce(new int[]{first, second}), is(true));
+        assertThat(services[0].isReadAtOnce(new int[]{remote}), is(true));
+        assertThat(services[0].isReadAtOnce(new int[]{first, remote}), is(false));
+
+        NioHttpServer server = new NioHttpServer(0, new QueuedThreadPool());
+        new AccountController(services[0], new ObjectMapper()).init(server);
+        int port = server.start();
+        try {
+            HttpResponse<String> local = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                    .uri(URI.create(String.format("http://localhost:%d/api/v1/account?ids=%d,%d", port, first,
+                            second)))
+                    .GET()
+                    .build(), BodyHandlers.ofString());
+            HttpResponse<String> acrossNodes = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                    .uri(URI.create(String.format("http://localhost:%d/api/v1/account?ids=%d,%d", port, first,
+                            remote)))
+                    .GET()
+                    .build(), BodyHandlers.ofString());
+
+            assertThat(local.headers().firstValue("X-Read-Consistency").orElseThrow(), is("snapshot"));
+            assertThat(acrossNodes.statusCode(), is(200));
+            assertThat(acrossNodes.headers().firstValue("X-Read-Consistency").orElseThrow(), is("per-account"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testGetTransactions_remoteAccount_redirectedToOwner() throws Exception {
+        int id = services[1].create(Currency.USD, 0).getId();
+        RemoteAccountException exception = assertThrows(RemoteAccountException.class,
+                () -> services[0].getTransactions(id, 0, 10));
+        assertThat(exception.getNodeAddress(), is("http://localhost:8001"));
+
+        NioHttpServer server = new NioHttpServer(0, new QueuedThreadPool());
+        new AccountController(services[0], new ObjectMapper()).init(server);
+        int port = server.start();
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                    .uri(URI.create(String.format("http://localhost:%d/api/v1/account/%d/transactions", port, id)))
+                    .GET()
+                    .build(), BodyHandlers.ofString());
+
+            assertThat(response.statusCode(), is(307));
+            assertThat(response.headers().firstValue("Location").orElseThrow(), is(String.format(
+                    "http://localhost:8001/api/v1/account/%d/transactions?after=0&limit=100", id)));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private long balance(int id) {
+        return services[0].get(id).orElseThrow().getBalance();
+    }
+
+    /**
+     * @return id owned by node, not taken by any account yet
+     */
+    private int unusedId(int node) {
+        int id = 1_000_000;
+        while (ring.owner(id) != node) {
+            id++;
+        }
+        return id;
+    }
+
+    private static void assertTransferError(Runnable transfer, TransferError error) {
+        TransferException exception = assertThrows(TransferException.class, transfer::run);
+        assertThat(exception.getTransferError(), is(error));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.dlopatin.account.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ConsistentHashRingTest {
+
+    private static final int ACCOUNTS = 100_000;
+
+    @Test
+    public void testOwner_accountsSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(4, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+
+        int[] counts = new int[4];
+        for (int id = 1; id <= ACCOUNTS; id++) {
+            counts[ring.owner(id)]++;
+        }
+        for (int count : counts) {
+            assertThat(count, both(greaterThan(ACCOUNTS / 4 * 3 / 4)).and(lessThan(ACCOUNTS / 4 * 5 / 4)));
+        }
+    }
+
+    @Test
+    public void testOwner_appendedNodeTakesAccountsOfOthersOnly() {
+        ConsistentHashRing before = new ConsistentHashRing(3, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        ConsistentHashRing after = new ConsistentHashRing(4, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+
+        int moved = 0;
+        for (int id = 1; id <= ACCOUNTS; id++) {
+            if (after.owner(id) != before.owner(id)) {
+                assertThat(after.owner(id), is(3));
+                moved++;
+            }
+        }
+        assertThat(moved, both(greaterThan(ACCOUNTS / 4 * 3 / 4)).and(lessThan(ACCOUNTS / 4 * 5 / 4)));
+    }
+}
@@ -1,9 +1,10 @@
 package com.dlopatin.account.controller;
 
+import com.dlopatin.account.http.HttpServer;
+import com.dlopatin.account.http.SparkHttpServer;
+import com.dlopatin.account.metrics.Metrics;
 import com.dlopatin.account.model.Account;
 import com.dlopatin.account.model.Currency;
-import com.dlopatin.account.model.Transaction;
-import com.dlopatin.account.model.TransactionType;
 import com.dlopatin.account.repository.AccountDao;
 import com.dlopatin.account.repository.AccountInMemoryDao;
 import com.dlopatin.account.repository.TransactionDao;
@@ -15,45 +16,74 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
-import spark.Spark;
 
 import java.io.IOException;
+import java.net.Socket;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static com.jayway.jsonpath.matchers.JsonPathMatchers.hasJsonPath;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class AccountControllerFunctionalTest {
 
     private static final int PORT = 8081;
+    private static final int MAX_WAITERS = 1;
+    private HttpServer server;
     private AccountDao accountDao;
     private TransactionDao transactionDao;
+    private AccountServiceImpl accountService;
 
     @BeforeEach
-    public void before() {
-        Spark.port(PORT);
+    public void before() throws InterruptedException {
+        server = createServer(PORT);
         accountDao = new AccountInMemoryDao();
         transactionDao = new TransactionInMemoryDao();
-        new AccountController(new AccountServiceImpl(accountDao, transactionDao), new ObjectMapper()).init();
-        Spark.awaitInitialization();
+        accountService = new AccountServiceImpl(accountDao, transactionDao);
+        new AccountController(accountService, new ObjectMapper(), new Metrics(), MAX_WAITERS).init(server);
+        new ErrorController(new ObjectMapper()).init(server);
+        server.start();
+    }
+
+    /**
+     * Creates server the routes are tested on, Spark by default.
+     */
+    protected HttpServer createServer(int port) throws InterruptedException {
+        SparkTests.port(port);
+        return new SparkHttpServer(port, null);
     }
 
     @AfterEach
     public void tearDown() throws InterruptedException {
-        Spark.stop();
+        server.stop();
         // dirty hack to wait for termination
         TimeUnit.MILLISECONDS.sleep(500);
     }
 
+    @Test
+    public void testUnknownRoute_notFound() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("unknown")))
+                .GET()
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(404));
+        assertThat(response.headers().firstValue("Content-Type").orElseThrow(), startsWith("application/json"));
+        assertThat(response.body(), hasJsonPath("$.errors[0].code", is("REQUEST_HANDLER_NOT_FOUND")));
+    }
+
     @Test
     @Disabled("For unknown reason Spark doesn't check content type")
     public void testCreateAccount_incorrectContentType() throws IOException, InterruptedException {
@@ -87,6 +117,53 @@ public class AccountControllerFunctionalTest {
         assertThat(account.get().getVersion(), is(0));
     }
 
+    @Test
+    public void testCreateAccountBatch_idsInOrder() throws IOException, InterruptedException {
+        HttpRequest createRequest = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/batch")))
+                .POST(BodyPublishers.ofString("[{\"currency\":\"GBP\", \"balance\":10}, "
+                        + "{\"currency\":\"USD\", \"balance\":\"20\"}, {\"currency\":\"EUR\"}]"))
+                .header("Content-Type", "application/json")
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(createRequest, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(201));
+        assertThat(response.body(), is("[1,2,3]"));
+
+        assertThat(accountDao.get(1).orElseThrow().getCurrency(), is(Currency.GBP));
+        assertThat(accountDao.get(2).orElseThrow().getBalance(), is(20L));
+        assertThat(accountDao.get(3).orElseThrow().getBalance(), is(0L));
+    }
+
+    @Test
+    public void testCreateAccountBatch_invalidAccount() throws IOException, InterruptedException {
+        HttpRequest createRequest = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/batch")))
+                .POST(BodyPublishers.ofString("[{\"currency\":\"GBP\", \"balance\":10}, "
+                        + "{\"balance\":-20}]"))
+                .header("Content-Type", "application/json")
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(createRequest, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(400));
+        assertThat(response.body(), hasJsonPath("$.errors[*].detail", contains(
+                "Account [1]: Currency must be set", "Account [1]: Balance must not be negative")));
+        assertThat(accountDao.get(1).isPresent(), is(false));
+    }
+
+    @Test
+    public void testCreateAccountBatch_unknownCurrency() throws IOException, InterruptedException {
+        HttpRequest createRequest = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/batch")))
+                .POST(BodyPublishers.ofString("[{\"currency\":\"XYZ\", \"balance\":10}]"))
+                .header("Content-Type", "application/json")
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(createRequest, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(400));
+        assertThat(response.body(), hasJsonPath("$.errors[0].code", is("MALFORMED_REQUEST")));
+    }
+
     @Test
     public void testCreateAccount_notEmptyBalance() throws IOException, InterruptedException {
         HttpRequest createRequest = HttpRequest.newBuilder()
@@ -138,6 +215,188 @@ public class AccountControllerFunctionalTest {
         assertThat(response.body(), hasJsonPath("$.balance", is(100)));
     }
 
+    @Test
+    public void testGetAccounts_inOrderRequested_notFoundEntries() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+        givenAccount(2, Currency.EUR, 200);
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account?ids=2,10,1")))
+                .GET()
+                .build(), BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.body(), hasJsonPath("$.length()", is(3)));
+        assertThat(response.body(), hasJsonPath("$[0].balance", is(200)));
+        assertThat(response.body(), hasJsonPath("$[0].currency", is("EUR")));
+        assertThat(response.body(), hasJsonPath("$[1].id", is(10)));
+        assertThat(response.body(), hasJsonPath("$[1].error", is("ACCOUNT_NOT_FOUND")));
+        assertThat(response.body(), hasJsonPath("$[2].id", is(1)));
+        assertThat(response.body(), hasJsonPath("$[2].version", is(0)));
+        assertThat(response.headers().firstValue("X-Read-Consistency").orElseThrow(), is("snapshot"));
+    }
+
+    @Test
+    public void testGetAccounts_incorrectIds_badRequest() throws IOException, InterruptedException {
+        for (String query : new String[]{"", "?ids=1,x", "?ids=" + "1,".repeat(1001)}) {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                    .uri(URI.create(makeUrl("account" + query)))
+                    .GET()
+                    .build(), BodyHandlers.ofString());
+            assertThat(query, response.statusCode(), is(400));
+            assertThat(response.body(), hasJsonPath("$.errors[0].code", is("VALIDATION_ERROR")));
+        }
+    }
+
+    @Test
+    public void testLookupAccounts_idsInBody() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/lookup")))
+                .POST(BodyPublishers.ofString("[1, 3]"))
+                .header("Content-Type", "application/json")
+                .build(), BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.body(), hasJsonPath("$[0].balance", is(100)));
+        assertThat(response.body(), hasJsonPath("$[1].error", is("ACCOUNT_NOT_FOUND")));
+
+        HttpResponse<String> malformed = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/lookup")))
+                .POST(BodyPublishers.ofString("{\"ids\":[1]}"))
+                .header("Content-Type", "application/json")
+                .build(), BodyHandlers.ofString());
+        assertThat(malformed.statusCode(), is(400));
+        assertThat(malformed.body(), hasJsonPath("$.errors[0].code", is("MALFORMED_REQUEST")));
+    }
+
+    @Test
+    public void testGetAccount_versionKnown_notModified() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/1")))
+                .GET()
+                .build(), BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.body(), hasJsonPath("$.version", is(0)));
+        String etag = response.headers().firstValue("ETag").orElseThrow();
+        assertThat(etag, is("\"0\""));
+
+        HttpResponse<String> notModified = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/1")))
+                .GET()
+                .header("If-None-Match", "\"7\", W/" + etag)
+                .build(), BodyHandlers.ofString());
+        assertThat(notModified.statusCode(), is(304));
+        assertThat(notModified.body(), is(""));
+        assertThat(notModified.headers().firstValue("ETag").orElseThrow(), is(etag));
+    }
+
+    @Test
+    public void testGetAccount_waitForChange_changedAccount() throws Exception {
+        givenAccount(1, Currency.GBP, 100);
+        givenAccount(2, Currency.GBP, 0);
+
+        CompletableFuture<HttpResponse<String>> changed = HttpClient.newHttpClient().sendAsync(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/2?waitMillis=5000")))
+                .GET()
+                .header("If-None-Match", "\"0\"")
+                .build(), BodyHandlers.ofString());
+        TimeUnit.MILLISECONDS.sleep(200);
+        accountService.transfer(1, 2, 30, 1);
+
+        HttpResponse<String> response = changed.get(5, TimeUnit.SECONDS);
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.body(), hasJsonPath("$.balance", is(30)));
+        assertThat(response.headers().firstValue("ETag").orElseThrow(), is("\"1\""));
+    }
+
+    @Test
+    public void testGetAccount_tooManyWaiting_currentStateAtOnce() throws Exception {
+        givenAccount(1, Currency.GBP, 100);
+        givenAccount(2, Currency.GBP, 0);
+        CompletableFuture<HttpResponse<String>> waiting = HttpClient.newHttpClient().sendAsync(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/2?waitMillis=5000")))
+                .GET()
+                .header("If-None-Match", "\"0\"")
+                .build(), BodyHandlers.ofString());
+        while (accountService.getWatchedAccountCount() < MAX_WAITERS) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/2?waitMillis=5000")))
+                .GET()
+                .header("If-None-Match", "\"0\"")
+                .build(), BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(304));
+        assertThat(response.headers().firstValue("Retry-After").orElseThrow(), is("1"));
+        assertFalse(waiting.isDone());
+
+        accountService.transfer(1, 2, 30, 1);
+        assertThat(waiting.get(5, TimeUnit.SECONDS).statusCode(), is(200));
+    }
+
+    @Test
+    public void testGetAccount_waitForChange_timeOutNotModified() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/1?waitMillis=100")))
+                .GET()
+                .header("If-None-Match", "\"0\"")
+                .build(), BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(304));
+        assertThat(response.headers().firstValue("ETag").orElseThrow(), is("\"0\""));
+    }
+
+    @Test
+    public void testGetAccount_waitMillisTooLong_badRequest() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/1?waitMillis=60001")))
+                .GET()
+                .build(), BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(400));
+        assertThat(response.body(), hasJsonPath("$.errors[0].code", is("VALIDATION_ERROR")));
+    }
+
+    @Test
+    public void testGetAccount_malformedQueryEscape_badRequest() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+
+        // HTTP client does not send malformed URI
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET /api/v1/account/1?waitMillis=%zz HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+            assertThat(response, startsWith("HTTP/1.1 400 "));
+            assertThat(response, containsStringIgnoringCase("Content-Type: application/json"));
+            assertThat(response, containsString("\"BAD_REQUEST\""));
+        }
+    }
+
+    @Test
+    public void testGetAccount_jsonNotAccepted_notFound() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+
+        HttpResponse<String> html = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/1")))
+                .header("Accept", "text/html")
+                .GET()
+                .build(), BodyHandlers.ofString());
+        HttpResponse<String> json = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/1")))
+                .header("Accept", "application/json")
+                .GET()
+                .build(), BodyHandlers.ofString());
+        assertThat(html.statusCode(), is(404));
+        assertThat(json.statusCode(), is(200));
+        assertThat(json.body(), hasJsonPath("$.balance", is(100)));
+    }
+
     @Test
     public void testTransfer_fromAccountNegative() throws IOException, InterruptedException {
         HttpRequest createRequest = HttpRequest.newBuilder()
@@ -272,8 +531,13 @@ public class AccountControllerFunctionalTest {
     public void testTransfer_operationAlreadyProcessed() throws IOException, InterruptedException {
         givenAccount(1, Currency.GBP, 100);
         givenAccount(2, Currency.GBP, 200);
-        givenTransaction(1, 1, TransactionType.CREDIT, 10);
-        HttpRequest createRequest = givenAccountTransferRequest();
+        HttpClient.newHttpClient().send(givenAccountTransferRequest(), BodyHandlers.ofString());
+        HttpRequest createRequest = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/transfer")))
+                .POST(BodyPublishers.ofString(
+                        "{\"accountFrom\":\"1\", \"accountTo\":\"2\", \"amount\":\"20\", \"operationId\":1}"))
+                .header("Content-Type", "application/json")
+                .build();
 
         HttpResponse<String> response = HttpClient.newHttpClient().send(createRequest, BodyHandlers.ofString());
         assertThat(response.statusCode(), is(400));
@@ -281,6 +545,21 @@ public class AccountControllerFunctionalTest {
                 is(TransferError.TRANSFER_ALREADY_PROCESSED.toString())));
     }
 
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    public void testTransfer_repeatedOperationReplayed() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+        givenAccount(2, Currency.GBP, 200);
+        HttpClient.newHttpClient().send(givenAccountTransferRequest(), BodyHandlers.ofString());
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(givenAccountTransferRequest(),
+                BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.body(), hasJsonPath("$.message", is("ok")));
+        assertThat(accountDao.get(1).get().getBalance(), is(90L));
+        assertThat(accountDao.get(2).get().getBalance(), is(210L));
+    }
+
     @SuppressWarnings("OptionalGetWithoutIsPresent")
     @Test
     public void testTransfer_correctBehaviour() throws IOException, InterruptedException {
@@ -297,15 +576,153 @@ public class AccountControllerFunctionalTest {
         assertThat(accountDao.get(2).get().getVersion(), is(1));
         assertThat(accountDao.get(2).get().getBalance(), is(210L));
 
-        assertThat(transactionDao.list(1), hasSize(2));
+        assertThat(transactionDao.countByAccount(1), is(1));
+        assertThat(transactionDao.countByAccount(2), is(1));
     }
 
-    private void givenAccount(int id, Currency currency, long balance) {
-        accountDao.create(new Account(id, currency, balance));
+    @Test
+    public void testTransferBatch_validationError() throws IOException, InterruptedException {
+        HttpRequest createRequest = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/transfer/batch")))
+                .POST(BodyPublishers.ofString("[" +
+                        "{\"accountFrom\":\"1\", \"accountTo\":\"2\", \"amount\":\"10\", \"operationId\":1}," +
+                        "{\"accountFrom\":\"1\", \"accountTo\":\"2\", \"amount\":\"0\", \"operationId\":2}]"))
+                .header("Content-Type", "application/json")
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(createRequest, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(400));
+        assertThat(response.body(), hasJsonPath("$.errors[0].code", is("VALIDATION_ERROR")));
+        assertThat(response.body(), hasJsonPath("$.errors[0].detail", startsWith("Transfer [1]")));
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    public void testTransferBatch_correctBehaviour() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+        givenAccount(2, Currency.GBP, 200);
+        HttpRequest createRequest = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/transfer/batch")))
+                .POST(BodyPublishers.ofString("[" +
+                        "{\"accountFrom\":\"1\", \"accountTo\":\"2\", \"amount\":\"10\", \"operationId\":1}," +
+                        "{\"accountFrom\":\"1\", \"accountTo\":\"2\", \"amount\":\"500\", \"operationId\":2}," +
+                        "{\"accountFrom\":\"2\", \"accountTo\":\"1\", \"amount\":\"30\", \"operationId\":3}]"))
+                .header("Content-Type", "application/json")
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(createRequest, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.body(), hasJsonPath("$.results", hasSize(3)));
+        assertThat(response.body(), hasJsonPath("$.results[0].operationId", is(1)));
+        assertThat(response.body(), hasJsonPath("$.results[0].status", is("ok")));
+        assertThat(response.body(), hasJsonPath("$.results[1].status", is("failed")));
+        assertThat(response.body(), hasJsonPath("$.results[1].error",
+                is(TransferError.INSUFFICIENT_BALANCE.toString())));
+        assertThat(response.body(), hasJsonPath("$.results[2].status", is("ok")));
+
+        assertThat(accountDao.get(1).get().getBalance(), is(120L));
+        assertThat(accountDao.get(2).get().getBalance(), is(180L));
+    }
+
+    @Test
+    public void testTransfer_malformedBody() throws IOException, InterruptedException {
+        HttpRequest createRequest = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/transfer")))
+                .POST(BodyPublishers.ofString("{\"accountFrom\":1, \"accountTo\":"))
+                .header("Content-Type", "application/json")
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(createRequest, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(400));
+        assertThat(response.headers().firstValue("Content-Type").orElseThrow(), startsWith("application/json"));
+        assertThat(response.body(), hasJsonPath("$.errors[0].code", is("MALFORMED_REQUEST")));
+    }
+
+    @Test
+    public void testTransferBatch_incorrectFieldType() throws IOException, InterruptedException {
+        HttpRequest createRequest = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/transfer/batch")))
+                .POST(BodyPublishers.ofString(
+                        "[{\"accountFrom\":\"1\", \"accountTo\":\"2\", \"amount\":\"ten\", \"operationId\":1}]"))
+                .header("Content-Type", "application/json")
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(createRequest, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(400));
+        assertThat(response.body(), hasJsonPath("$.errors[0].code", is("MALFORMED_REQUEST")));
+        assertThat(response.body(), hasJsonPath("$.errors[0].detail", containsString("ten")));
+    }
+
+    @Test
+    public void testCreateAccount_emptyBody() throws IOException, InterruptedException {
+        for (String body : new String[]{"", "null"}) {
+            HttpRequest createRequest = HttpRequest.newBuilder()
+                    .uri(URI.create(makeUrl("account")))
+                    .POST(BodyPublishers.ofString(body))
+                    .header("Content-Type", "application/json")
+                    .build();
+
+            HttpResponse<String> response = HttpClient.newHttpClient().send(createRequest, BodyHandlers.ofString());
+            assertThat(response.statusCode(), is(400));
+            assertThat(response.body(), hasJsonPath("$.errors[0].code", is("MALFORMED_REQUEST")));
+        }
+    }
+
+    @Test
+    public void testGetTransactions_paged() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+        givenAccount(2, Currency.GBP, 200);
+        HttpClient.newHttpClient().send(givenAccountTransferRequest(), BodyHandlers.ofString());
+        HttpRequest firstPage = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/2/transactions?limit=1")))
+                .GET()
+                .build();
+        HttpRequest lastPage = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/2/transactions?after=1&limit=1")))
+                .GET()
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(firstPage, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.body(), hasJsonPath("$.transactions", hasSize(1)));
+        assertThat(response.body(), hasJsonPath("$.transactions[0].operationId", is(1)));
+        assertThat(response.body(), hasJsonPath("$.transactions[0].type", is("CREDIT")));
+        assertThat(response.body(), hasJsonPath("$.transactions[0].amount", is(10)));
+        assertThat(response.body(), hasJsonPath("$.next", is(1)));
+
+        response = HttpClient.newHttpClient().send(lastPage, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.body(), hasJsonPath("$.transactions", empty()));
+        assertThat(response.body(), hasJsonPath("$.next", nullValue()));
+    }
+
+    @Test
+    public void testGetTransactions_incorrectLimit() throws IOException, InterruptedException {
+        givenAccount(1, Currency.GBP, 100);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/1/transactions?limit=abc")))
+                .GET()
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(400));
+        assertThat(response.body(), hasJsonPath("$.errors[0].code", is("VALIDATION_ERROR")));
     }
 
-    private void givenTransaction(int operationId, int accountId, TransactionType transactionType, long amount) {
-        transactionDao.insert(new Transaction(operationId, accountId, transactionType, amount));
+    @Test
+    public void testGetTransactions_accountNotExists() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(makeUrl("account/10/transactions")))
+                .GET()
+                .build();
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request, BodyHandlers.ofString());
+        assertThat(response.statusCode(), is(404));
+        assertThat(response.body(), hasJsonPath("$.errors[0].code", is("ACCOUNT_NOT_FOUND")));
+    }
+
+    private void givenAccount(int id, Currency currency, long balance) {
+        accountDao.create(new Account(id, currency, balance));
     }
 
     private HttpRequest givenAccountTransferRequest() {
@@ -0,0 +1,133 @@
+package com.dlopatin.account.controller;
+
+import com.dlopatin.account.http.HttpServer;
+import com.dlopatin.account.http.SparkHttpServer;
+import com.dlopatin.account.metrics.Metrics;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.model.TransactionType;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.jayway.jsonpath.matchers.JsonPathMatchers.hasJsonPath;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ExportControllerFunctionalTest {
+
+    private static final int PORT = 8081;
+    private static final int TRANSACTIONS = 50_000;
+    private HttpServer server;
+    private AccountServiceImpl accountService;
+    private TransactionDao transactionDao;
+
+    @BeforeEach
+    public void before() throws InterruptedException {
+        server = createServer(PORT);
+        transactionDao = new TransactionInMemoryDao();
+        accountService = new AccountServiceImpl(new AccountInMemoryDao(), transactionDao);
+        new ExportController(accountService, new ObjectMapper(), new Metrics()).init(server);
+        server.start();
+    }
+
+    /**
+     * Creates server the routes are tested on, Spark by default.
+     */
+    protected HttpServer createServer(int port) throws InterruptedException {
+        SparkTests.port(port);
+        return new SparkHttpServer(port, null);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        server.stop();
+        // dirty hack to wait for termination
+        TimeUnit.MILLISECONDS.sleep(500);
+    }
+
+    @Test
+    public void testExportAccount_everyTransactionInOrder() throws IOException, InterruptedException {
+        accountService.create(Currency.GBP, 0);
+        for (int i = 1; i <= TRANSACTIONS; i++) {
+            transactionDao.insert(new Transaction(i, 1, TransactionType.CREDIT, i, 1_000 + i));
+        }
+
+        HttpResponse<InputStream> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder().uri(URI.create(makeUrl("account/1/transactions/export"))).GET().build(),
+                BodyHandlers.ofInputStream());
+
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.headers().firstValue("Content-Type").orElseThrow(), startsWith("application/x-ndjson"));
+        assertThat(response.headers().firstValue("Content-Length").isPresent(), is(false));
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+            int lines = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                assertThat(line, hasJsonPath("$.operationId", is(lines)));
+                if (lines == 1) {
+                    assertThat(line, is("{\"accountId\":1,\"operationId\":1,\"type\":\"CREDIT\",\"amount\":1,"
+                            + "\"timestamp\":1001}"));
+                }
+            }
+            assertThat(lines, is(TRANSACTIONS));
+        }
+    }
+
+    @Test
+    public void testExportRange_filteredByTime() throws IOException, InterruptedException {
+        accountService.create(Currency.GBP, 0);
+        accountService.create(Currency.GBP, 0);
+        transactionDao.insert(new Transaction(1, 1, TransactionType.DEBIT, 10, 100));
+        transactionDao.insert(new Transaction(1, 2, TransactionType.CREDIT, 10, 100));
+        transactionDao.insert(new Transaction(2, 2, TransactionType.DEBIT, 20, 200));
+        transactionDao.insert(new Transaction(2, 1, TransactionType.CREDIT, 20, 200));
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder().uri(URI.create(makeUrl("transactions/export?from=150&to=300"))).GET().build(),
+                BodyHandlers.ofString());
+
+        assertThat(response.statusCode(), is(200));
+        List<String> lines = response.body().lines().sorted().collect(Collectors.toList());
+        assertThat(lines, hasSize(2));
+        assertThat(lines.get(0), hasJsonPath("$.accountId", is(1)));
+        assertThat(lines.get(0), hasJsonPath("$.type", is("CREDIT")));
+        assertThat(lines.get(1), hasJsonPath("$.accountId", is(2)));
+        assertThat(lines.get(1), hasJsonPath("$.timestamp", is(200)));
+    }
+
+    @Test
+    public void testExportAccount_notExists() throws IOException, InterruptedException {
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder().uri(URI.create(makeUrl("account/10/transactions/export"))).GET().build(),
+                BodyHandlers.ofString());
+
+        assertThat(response.statusCode(), is(404));
+        assertThat(response.body(), hasJsonPath("$.errors[0].code", is("ACCOUNT_NOT_FOUND")));
+    }
+
+    private String makeUrl(String path) {
+        return String.format("http://localhost:%d/api/v1/%s", PORT, path);
+    }
+}
@@ -0,0 +1,16 @@
+package com.dlopatin.account.controller;
+
+import com.dlopatin.account.http.HttpServer;
+import com.dlopatin.account.http.NioHttpServer;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Runs the same tests on NIO engine.
+ */
+public class ExportControllerNioFunctionalTest extends ExportControllerFunctionalTest {
+
+    @Override
+    protected HttpServer createServer(int port) {
+        return new NioHttpServer(port, new QueuedThreadPool());
+    }
+}
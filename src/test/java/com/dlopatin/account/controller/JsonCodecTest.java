@@ -0,0 +1,87 @@
+package com.dlopatin.account.controller;
+
+import com.dlopatin.account.controller.dto.ErrorMessage;
+import com.dlopatin.account.controller.dto.ErrorResponse;
+import com.dlopatin.account.controller.dto.GetAccountBatchResponse;
+import com.dlopatin.account.controller.dto.GetAccountResponse;
+import com.dlopatin.account.controller.dto.NewAccountRequest;
+import com.dlopatin.account.controller.dto.TransferRequest;
+import com.dlopatin.account.controller.dto.TransferResponse;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonCodec codec = new JsonCodec(objectMapper);
+
+    @Test
+    void testRead_transferAsObjectMapper() throws IOException {
+        String body = "{\"accountFrom\":\"1\", \"accountTo\":2, \"amount\":\"300\", \"operationId\":null}";
+
+        TransferRequest request = codec.read(body(body), TransferRequest.class);
+
+        assertThat(request.toString(), is(objectMapper.readValue(body, TransferRequest.class).toString()));
+        assertThat(request.getAccountFrom(), is(1));
+        assertThat(request.getAccountTo(), is(2));
+        assertThat(request.getAmount(), is(300L));
+        assertThat(request.getOperationId(), is(0));
+    }
+
+    @Test
+    void testRead_transferBatch() throws IOException {
+        TransferRequest[] requests = codec.read(body(
+                "[{\"accountFrom\":1,\"accountTo\":2,\"amount\":3,\"operationId\":4},"
+                        + "{\"accountFrom\":5,\"accountTo\":6,\"amount\":7,\"operationId\":8}]"),
+                TransferRequest[].class);
+
+        assertThat(requests.length, is(2));
+        assertThat(requests[1].getOperationId(), is(8));
+        assertThat(codec.read(body("[]"), TransferRequest[].class).length, is(0));
+    }
+
+    @Test
+    void testRead_malformed() {
+        for (String body : new String[]{"", "null", "{\"accountFrom\":1,", "{\"accountFrom\":\"one\"}",
+                "{\"unknown\":1}", "{\"accountFrom\":3000000000}", "{\"accountFrom\":{}}", "[1]"}) {
+            assertThrows(MalformedRequestException.class, () -> codec.read(body(body), TransferRequest.class),
+                    body);
+            if (!body.isEmpty()) {
+                assertThrows(MalformedRequestException.class, () -> codec.read(body("[" + body + "]"),
+                        TransferRequest[].class), body);
+            }
+        }
+        assertThrows(MalformedRequestException.class, () -> codec.read(body("{\"currency\":\"XXX\"}"),
+                NewAccountRequest.class));
+    }
+
+    @Test
+    void testWrite_asObjectMapper() throws IOException {
+        for (Object value : new Object[]{GetAccountResponse.from(new Account(7, Currency.EUR, 100)),
+                TransferResponse.successful(), new ErrorResponse(new ErrorMessage("CODE", "detail")),
+                new GetAccountBatchResponse(new int[]{7, 8},
+                        new Account[]{new Account(7, 3, Currency.GBP, 5), null})}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            codec.write(out, value);
+
+            assertThat(out.toString(StandardCharsets.UTF_8), is(objectMapper.writeValueAsString(value)));
+        }
+    }
+
+    private static InputStream body(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,43 @@
+package com.dlopatin.account.controller;
+
+import com.dlopatin.account.controller.dto.ErrorMessage;
+import com.dlopatin.account.controller.dto.ErrorResponse;
+import com.dlopatin.account.controller.dto.TransferResponse;
+import com.dlopatin.account.service.TransferException.TransferError;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class ResponseCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ResponseCache responses = new ResponseCache(objectMapper);
+
+    @Test
+    void testBodiesAsObjectMapper() throws IOException {
+        assertThat(responses.transferSuccessful(), is(objectMapper.writeValueAsBytes(TransferResponse.successful())));
+        for (TransferError error : TransferError.values()) {
+            assertThat(responses.transferError(error), is(objectMapper.writeValueAsBytes(
+                    new ErrorResponse(new ErrorMessage(error.toString())))));
+        }
+        assertThat(responses.handlerNotFound(), is(objectMapper.writeValueAsBytes(
+                new ErrorResponse(new ErrorMessage("REQUEST_HANDLER_NOT_FOUND")))));
+        assertThat(responses.internalServerError(), is(objectMapper.writeValueAsBytes(
+                new ErrorResponse(new ErrorMessage("INTERNAL_SERVER_ERROR")))));
+    }
+
+    @Test
+    void testWrite_cachedBodyAsIs() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new JsonCodec(objectMapper).write(out, responses.transferError(TransferError.INSUFFICIENT_BALANCE));
+
+        assertThat(out.toString(), is(objectMapper.writeValueAsString(
+                new ErrorResponse(new ErrorMessage("INSUFFICIENT_BALANCE")))));
+    }
+}
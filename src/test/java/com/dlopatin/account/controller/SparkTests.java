@@ -0,0 +1,35 @@
+package com.dlopatin.account.controller;
+
+import spark.Spark;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers for functional tests running Spark server.
+ */
+final class SparkTests {
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    private SparkTests() {
+    }
+
+    /**
+     * Sets port of the next server. Server of the previous test is stopped in background and sometimes Jetty
+     * takes seconds to stop its thread pool, port can be set only after that.
+     */
+    static void port(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_TIMEOUT_SECONDS);
+        while (true) {
+            try {
+                Spark.port(port);
+                return;
+            } catch (IllegalStateException e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+        }
+    }
+}
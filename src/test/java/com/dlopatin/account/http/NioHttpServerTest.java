@@ -0,0 +1,145 @@
+package com.dlopatin.account.http;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class NioHttpServerTest {
+
+    private NioHttpServer server;
+    private int port;
+
+    @BeforeEach
+    public void before() {
+        server = new NioHttpServer(0, new QueuedThreadPool());
+        server.get("/echo/:value", (request, response) -> request.param("value") + request.queryParam("suffix"));
+        server.post("/length", (request, response) -> String.valueOf(request.body().readAllBytes().length));
+        server.get("/json", "application/json", (request, response) -> "json");
+        server.get("/fail", (request, response) -> {
+            throw new IllegalStateException("Failed");
+        });
+        server.notFound((request, response) -> "missing");
+        server.badRequest((request, response) -> "malformed");
+        server.internalServerError((request, response) -> "failed");
+        port = server.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testPipelinedRequests_respondedInOrder() throws IOException {
+        String response = exchange("GET /echo/a?suffix=1 HTTP/1.1\r\nHost: test\r\n\r\n"
+                + "POST /length HTTP/1.1\r\nHost: test\r\nContent-Length: 5\r\n\r\nhello"
+                + "GET /echo/b?suffix=%32 HTTP/1.1\r\nHost: test\r\nConnection: close\r\n\r\n");
+
+        assertThat(response, stringContainsInOrder("200 OK", "Content-Length: 2\r\n\r\na1",
+                "200 OK", "Content-Length: 1\r\n\r\n5",
+                "200 OK", "Connection: close", "\r\n\r\nb2"));
+    }
+
+    @Test
+    public void testHttp10_connectionClosed() throws IOException {
+        String response = exchange("GET /echo/a?suffix=1 HTTP/1.0\r\n\r\n");
+
+        assertThat(response, startsWith("HTTP/1.1 200 OK\r\n"));
+        assertThat(response, containsString("Connection: close\r\n"));
+        assertThat(response, endsWith("\r\n\r\na1"));
+    }
+
+    @Test
+    public void testUnmatchedAndFailedRequests() throws IOException {
+        String response = exchange("GET /unknown HTTP/1.1\r\n\r\nGET /fail HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+        assertThat(response, stringContainsInOrder("404 Not Found", "missing", "500 Internal Server Error",
+                "failed"));
+    }
+
+    @Test
+    public void testMalformedRequest_badRequest() throws IOException {
+        String response = exchange("GET\r\n\r\n");
+
+        assertThat(response, startsWith("HTTP/1.1 400 Bad Request\r\n"));
+    }
+
+    @Test
+    public void testMalformedQueryEscape_badRequestHandler() throws IOException {
+        String response = exchange("GET /echo/a?suffix=%zz HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+        assertThat(response, startsWith("HTTP/1.1 400 Bad Request\r\n"));
+        assertThat(response, endsWith("\r\n\r\nmalformed"));
+    }
+
+    @Test
+    public void testMalformedPathEscape_badRequest() throws IOException {
+        String response = exchange("GET /echo/a%z HTTP/1.1\r\n\r\n");
+
+        assertThat(response, startsWith("HTTP/1.1 400 Bad Request\r\n"));
+    }
+
+    @Test
+    public void testEscapedPathParam_decoded() throws IOException {
+        String response = exchange("GET /echo/a%20b?suffix=c HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+        assertThat(response, endsWith("\r\n\r\na bc"));
+    }
+
+    @Test
+    public void testAcceptType_matchedByRange() throws IOException {
+        String response = exchange("GET /json HTTP/1.1\r\n\r\n"
+                + "GET /json HTTP/1.1\r\nAccept: text/html, application/*;q=0.9\r\n\r\n"
+                + "GET /json HTTP/1.1\r\nAccept: text/html\r\nConnection: close\r\n\r\n");
+
+        assertThat(response, stringContainsInOrder("200 OK", "json", "200 OK", "json", "404 Not Found", "missing"));
+    }
+
+    @Test
+    public void testChunkedRequest_notImplemented() throws IOException {
+        String response = exchange("POST /length HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n0\r\n\r\n");
+
+        assertThat(response, startsWith("HTTP/1.1 501 Not Implemented\r\n"));
+    }
+
+    @Test
+    public void testExpectContinue_interimResponseBeforeBody() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("POST /length HTTP/1.1\r\nExpect: 100-continue\r\nContent-Length: 5\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            byte[] interim = socket.getInputStream().readNBytes("HTTP/1.1 100 Continue\r\n\r\n".length());
+            assertThat(new String(interim, StandardCharsets.ISO_8859_1), is("HTTP/1.1 100 Continue\r\n\r\n"));
+
+            socket.getOutputStream().write("hello".getBytes(StandardCharsets.ISO_8859_1));
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+            assertThat(response, startsWith("HTTP/1.1 200 OK\r\n"));
+            assertThat(response, endsWith("\r\n\r\n5"));
+        }
+    }
+
+    /**
+     * Sends requests and reads until server closes connection.
+     */
+    private String exchange(String requests) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(requests.getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toString(StandardCharsets.ISO_8859_1);
+        }
+    }
+}
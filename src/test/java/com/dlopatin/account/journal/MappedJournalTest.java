@@ -0,0 +1,193 @@
+package com.dlopatin.account.journal;
+
+import com.dlopatin.account.metrics.ContentionProfiler;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import com.dlopatin.account.service.TransferException;
+import com.dlopatin.account.service.TransferException.TransferError;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testReplay_emptyJournal() {
+        try (MappedJournal journal = new MappedJournal(directory, DurabilityMode.BATCHED)) {
+            RecordingListener listener = new RecordingListener();
+            journal.replay(listener);
+            assertThat(listener.records, empty());
+        }
+    }
+
+    @Test
+    void testReplay_recordsInAppendOrder() {
+        for (DurabilityMode mode : DurabilityMode.values()) {
+            Path modeDirectory = directory.resolve(mode.name());
+            try (MappedJournal journal = new MappedJournal(modeDirectory, mode)) {
+                journal.appendCreate(1, Currency.GBP, 100);
+                journal.appendCreate(2, Currency.GBP, 0);
+                journal.appendTransfer(7, 1, 1, 2, 1, 40, 1234L);
+                journal.flush();
+            }
+
+            RecordingListener listener = new RecordingListener();
+            new MappedJournal(modeDirectory, mode).replay(listener);
+            assertThat(listener.records, contains(
+                    "create 1 GBP 100",
+                    "create 2 GBP 0",
+                    "transfer 7 1 1 2 1 40 1234"));
+        }
+    }
+
+    @Test
+    void testReplay_severalSegmentsAndRestarts() {
+        int segmentSize = MappedJournal.TRANSFER_SIZE * 3;
+        try (MappedJournal journal = new MappedJournal(directory, DurabilityMode.BATCHED, segmentSize)) {
+            for (int i = 0; i < 10; i++) {
+                journal.appendTransfer(i, 1, i, 2, i, i, i);
+            }
+        }
+        try (MappedJournal journal = new MappedJournal(directory, DurabilityMode.BATCHED, segmentSize)) {
+            journal.appendCreate(3, Currency.EUR, 5);
+        }
+
+        RecordingListener listener = new RecordingListener();
+        new MappedJournal(directory, DurabilityMode.BATCHED, segmentSize).replay(listener);
+        assertThat(listener.records, hasSize(11));
+        assertThat(listener.records.get(9), is("transfer 9 1 9 2 9 9 9"));
+        assertThat(listener.records.get(10), is("create 3 EUR 5"));
+    }
+
+    @Test
+    void testReplay_tornRecordSkipped() throws IOException {
+        try (MappedJournal journal = new MappedJournal(directory, DurabilityMode.PER_OP)) {
+            journal.appendCreate(1, Currency.GBP, 100);
+            journal.appendCreate(2, Currency.GBP, 200);
+        }
+        try (Stream<Path> files = Files.list(directory);
+             RandomAccessFile file = new RandomAccessFile(files.findFirst().orElseThrow().toFile(), "rw")) {
+            // damages balance of the second record
+            file.seek(MappedJournal.CREATE_SIZE + 8);
+            file.write(42);
+        }
+
+        RecordingListener listener = new RecordingListener();
+        new MappedJournal(directory, DurabilityMode.PER_OP).replay(listener);
+        assertThat(listener.records, contains("create 1 GBP 100"));
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testRecover_restoresServiceState() {
+        try (MappedJournal journal = new MappedJournal(directory, DurabilityMode.BATCHED)) {
+            AccountServiceImpl service = givenService(new AccountInMemoryDao(), journal);
+            Account first = service.create(Currency.GBP, 100);
+            Account second = service.create(Currency.GBP, 0);
+            service.transfer(first.getId(), second.getId(), 30, 1);
+            service.transfer(second.getId(), first.getId(), 10, 2);
+            assertThrows(TransferException.class, () -> service.transfer(first.getId(), second.getId(), 500, 3));
+        }
+
+        AccountInMemoryDao accountDao = new AccountInMemoryDao();
+        try (MappedJournal journal = new MappedJournal(directory, DurabilityMode.BATCHED)) {
+            AccountServiceImpl service = givenService(accountDao, journal);
+            service.recover();
+
+            assertThat(accountDao.get(1).get().getBalance(), is(80L));
+            assertThat(accountDao.get(1).get().getVersion(), is(2));
+            assertThat(accountDao.get(2).get().getBalance(), is(20L));
+            assertThat(service.create(Currency.USD, 0).getId(), is(3));
+
+            // repeated transfer is replayed, failed one wasn't journaled
+            service.transfer(1, 2, 30, 1);
+            TransferException exception = assertThrows(TransferException.class,
+                    () -> service.transfer(1, 2, 31, 1));
+            assertThat(exception.getTransferError(), is(TransferError.TRANSFER_ALREADY_PROCESSED));
+            service.transfer(1, 2, 50, 3);
+            assertThat(accountDao.get(1).get().getBalance(), is(30L));
+        }
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testRecover_transferBetweenNodes_sidePerNode() {
+        try (MappedJournal oddJournal = new MappedJournal(directory.resolve("odd"), DurabilityMode.BATCHED);
+             MappedJournal evenJournal = new MappedJournal(directory.resolve("even"), DurabilityMode.BATCHED)) {
+            AccountServiceImpl odd = givenNodeService(new AccountInMemoryDao(), oddJournal, 1);
+            AccountServiceImpl even = givenNodeService(new AccountInMemoryDao(), evenJournal, 0);
+            assertThat(odd.create(Currency.GBP, 100).getId(), is(1));
+            assertThat(even.create(Currency.GBP, 0).getId(), is(2));
+            odd.transferOut(1, 2, 30, 1, even);
+        }
+
+        AccountInMemoryDao oddDao = new AccountInMemoryDao();
+        AccountInMemoryDao evenDao = new AccountInMemoryDao();
+        try (MappedJournal oddJournal = new MappedJournal(directory.resolve("odd"), DurabilityMode.BATCHED);
+             MappedJournal evenJournal = new MappedJournal(directory.resolve("even"), DurabilityMode.BATCHED)) {
+            AccountServiceImpl odd = givenNodeService(oddDao, oddJournal, 1);
+            AccountServiceImpl even = givenNodeService(evenDao, evenJournal, 0);
+            odd.recover();
+            even.recover();
+
+            assertThat(oddDao.get(1).get().getBalance(), is(70L));
+            assertThat(oddDao.get(2).isPresent(), is(false));
+            assertThat(evenDao.get(2).get().getBalance(), is(30L));
+            assertThat(odd.getTransactions(1, 0, 10).get(), hasSize(1));
+            assertThat(even.getTransactions(2, 0, 10).get(), hasSize(1));
+            // repeated transfer is replayed by coordinator, repeated commit is ignored by participant
+            odd.transferOut(1, 2, 30, 1, even);
+            even.commit(1, 1, 2, 30);
+            assertThat(oddDao.get(1).get().getBalance(), is(70L));
+            assertThat(evenDao.get(2).get().getBalance(), is(30L));
+        }
+    }
+
+    private AccountServiceImpl givenService(AccountInMemoryDao accountDao, Journal journal) {
+        return new AccountServiceImpl(accountDao, new TransactionInMemoryDao(), new IdempotencyIndex(), journal);
+    }
+
+    private AccountServiceImpl givenNodeService(AccountInMemoryDao accountDao, Journal journal, int parity) {
+        return new AccountServiceImpl(accountDao, new TransactionInMemoryDao(), new IdempotencyIndex(), journal,
+                ContentionProfiler.DISABLED, id -> id % 2 == parity);
+    }
+
+    private static class RecordingListener implements JournalListener {
+
+        private final List<String> records = new ArrayList<>();
+
+        @Override
+        public void onCreate(int accountId, Currency currency, long balance) {
+            records.add(Stream.of("create", accountId, currency, balance)
+                    .map(String::valueOf)
+                    .collect(Collectors.joining(" ")));
+        }
+
+        @Override
+        public void onTransfer(int operationId, int fromId, int fromVersion, int toId, int toVersion,
+                               long amount, long timestamp) {
+            records.add(Stream.of("transfer", operationId, fromId, fromVersion, toId, toVersion, amount, timestamp)
+                    .map(String::valueOf)
+                    .collect(Collectors.joining(" ")));
+        }
+    }
+}
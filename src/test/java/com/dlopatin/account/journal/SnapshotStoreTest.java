@@ -0,0 +1,334 @@
+package com.dlopatin.account.journal;
+
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.model.TransactionType;
+import com.dlopatin.account.repository.AccountArrayDao;
+import com.dlopatin.account.repository.AccountDao;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import com.dlopatin.account.service.TransferException;
+import com.dlopatin.account.service.TransferException.TransferError;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SnapshotStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testLoad_noSnapshot() {
+        SnapshotStore store = new SnapshotStore(directory);
+
+        assertFalse(store.load(new RecordingListener()).isPresent());
+    }
+
+    @Test
+    void testLoad_latestSnapshot() {
+        SnapshotStore store = new SnapshotStore(directory);
+        store.write(10, writer -> writer.writeAccount(1, Currency.GBP, 1, 1));
+        store.write(20, writer -> {
+            for (int id = 1; id <= 200_000; id++) {
+                writer.writeAccount(id, Currency.EUR, id * 10L, id % 7);
+            }
+            writer.writeOperation(5, 6, 0);
+            writer.writeTransaction(new Transaction(5, 7, TransactionType.DEBIT, 30, 1_000));
+            writer.writeTransaction(new Transaction(5, 8, TransactionType.CREDIT, 30, 1_000));
+        });
+
+        RecordingListener listener = new RecordingListener();
+        Optional<SnapshotInfo> info = store.load(listener);
+
+        assertThat(info.map(SnapshotInfo::getJournalPosition), is(Optional.of(20L)));
+        assertThat(info.map(SnapshotInfo::getLastAccountId), is(Optional.of(200_000)));
+        assertThat(listener.accounts.size(), is(200_000));
+        assertThat(listener.accounts.get(123_456), is("EUR 1234560 " + 123_456 % 7));
+        assertThat(listener.operations, is(Map.of(5, "6 0")));
+        assertThat(listener.transactions, contains("7 5 DEBIT 30 1000", "8 5 CREDIT 30 1000"));
+    }
+
+    @Test
+    void testLoad_snapshotWithoutTimestamps() throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(SnapshotStore.HEADER_SIZE + SnapshotStore.ACCOUNT_SIZE
+                + SnapshotStore.OPERATION_SIZE + SnapshotStore.NO_TIMESTAMP_TRANSACTION_SIZE);
+        content.putInt(SnapshotStore.NO_TIMESTAMPS_MAGIC).putLong(10).putInt(1).putLong(1).putLong(1).putLong(1);
+        content.putInt(1).put((byte) Currency.GBP.ordinal()).putLong(100).putInt(3);
+        content.putInt(5).putInt(6).putInt(0);
+        content.putInt(1).putInt(5).put((byte) TransactionType.CREDIT.ordinal()).putLong(30);
+        Files.write(directory.resolve("snapshot-000000000000000a.snap"), content.array());
+
+        RecordingListener listener = new RecordingListener();
+        Optional<SnapshotInfo> info = new SnapshotStore(directory).load(listener);
+
+        assertThat(info.map(SnapshotInfo::getTransactions), is(Optional.of(1L)));
+        assertThat(listener.accounts, is(Map.of(1, "GBP 100 3")));
+        assertThat(listener.operations, is(Map.of(5, "6 0")));
+        assertThat(listener.transactions, contains("1 5 CREDIT 30 0"));
+    }
+
+    @Test
+    void testWrite_keepsTwoLatestSnapshots() throws IOException {
+        SnapshotStore store = new SnapshotStore(directory);
+
+        assertThat(store.write(10, writer -> {
+        }), is(10L));
+        assertThat(store.write(20, writer -> {
+        }), is(10L));
+        assertThat(store.write(30, writer -> {
+        }), is(20L));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.count(), is(2L));
+        }
+    }
+
+    @Test
+    void testWrite_accountsAfterOperations() {
+        SnapshotStore store = new SnapshotStore(directory);
+
+        assertThrows(IllegalStateException.class, () -> store.write(10, writer -> {
+            writer.writeOperation(1, 1, 1);
+            writer.writeAccount(1, Currency.GBP, 1, 1);
+        }));
+        assertThrows(IllegalStateException.class, () -> store.write(20, writer -> {
+            writer.writeTransaction(new Transaction(1, 1, TransactionType.CREDIT, 1, 1));
+            writer.writeOperation(1, 1, 1);
+        }));
+    }
+
+    @Test
+    void testRecover_transactionsBeforeSnapshotKept() {
+        Path journalDir = directory.resolve("journal");
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"));
+        try (MappedJournal journal = new MappedJournal(journalDir, DurabilityMode.BATCHED, 1024)) {
+            AccountServiceImpl service = givenService(new AccountInMemoryDao(), journal);
+            service.create(Currency.GBP, 100);
+            service.create(Currency.GBP, 100);
+            for (int i = 1; i <= 40; i++) {
+                service.transfer(i % 2 + 1, 2 - i % 2, i, i);
+            }
+            service.snapshot(store);
+            service.transfer(1, 2, 5, 100);
+        }
+
+        TransactionInMemoryDao transactionDao = new TransactionInMemoryDao();
+        try (MappedJournal journal = new MappedJournal(journalDir, DurabilityMode.BATCHED, 1024)) {
+            new AccountServiceImpl(new AccountInMemoryDao(), transactionDao, new IdempotencyIndex(), journal)
+                    .recover(store);
+
+            List<Transaction> transactions = new ArrayList<>();
+            transactionDao.forEachByAccount(1, Integer.MAX_VALUE, transactions::add);
+            assertThat(transactions, hasSize(41));
+            assertThat(transactions.get(0).getOperationId(), is(1));
+            assertThat(transactions.get(0).getType(), is(TransactionType.CREDIT));
+            assertThat(transactions.get(39).getAmount(), is(40L));
+            assertThat(transactions.get(40).getOperationId(), is(100));
+            assertThat(transactions.get(40).getType(), is(TransactionType.DEBIT));
+            assertThat(transactionDao.countByAccount(2), is(41));
+        }
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testRecover_snapshotAndJournalTail() {
+        Path journalDir = directory.resolve("journal");
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"));
+        try (MappedJournal journal = new MappedJournal(journalDir, DurabilityMode.BATCHED, 1024)) {
+            AccountServiceImpl service = givenService(new AccountInMemoryDao(), journal);
+            for (int i = 0; i < 50; i++) {
+                service.create(Currency.GBP, 100);
+            }
+            for (int i = 1; i < 50; i++) {
+                service.transfer(i, i + 1, 10, i);
+            }
+            service.snapshot(store);
+            service.transfer(1, 50, 5, 100);
+            service.create(Currency.USD, 7);
+        }
+
+        AccountArrayDao accountDao = new AccountArrayDao();
+        try (MappedJournal journal = new MappedJournal(journalDir, DurabilityMode.BATCHED, 1024)) {
+            AccountServiceImpl service = givenService(accountDao, journal);
+            service.recover(store);
+
+            assertThat(accountDao.get(1).get().getBalance(), is(85L));
+            assertThat(accountDao.get(1).get().getVersion(), is(2));
+            assertThat(accountDao.get(2).get().getBalance(), is(100L));
+            assertThat(accountDao.get(50).get().getBalance(), is(115L));
+            assertThat(accountDao.get(51).get().getCurrency(), is(Currency.USD));
+            assertThat(service.create(Currency.USD, 0).getId(), is(52));
+            TransferException exception = assertThrows(TransferException.class,
+                    () -> service.transfer(2, 3, 11, 2));
+            assertThat(exception.getTransferError(), is(TransferError.TRANSFER_ALREADY_PROCESSED));
+        }
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testRecover_fuzzySnapshotIncludesJournalTail() {
+        Path journalDir = directory.resolve("journal");
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"));
+        try (MappedJournal journal = new MappedJournal(journalDir, DurabilityMode.BATCHED)) {
+            AccountInMemoryDao accountDao = new AccountInMemoryDao();
+            AccountServiceImpl service = givenService(accountDao, journal);
+            service.create(Currency.GBP, 100);
+            service.create(Currency.GBP, 100);
+            long snapshotStart = journal.position();
+            service.transfer(1, 2, 10, 1);
+            // snapshot reads the first account before the second transfer, the second one after it
+            Account first = accountDao.get(1).get();
+            Account second = accountDao.get(2).get();
+            long firstBalance = first.getBalance();
+            int firstVersion = first.getVersion();
+            service.transfer(2, 1, 30, 2);
+            store.write(snapshotStart, writer -> {
+                writer.writeAccount(1, Currency.GBP, firstBalance, firstVersion);
+                writer.writeAccount(2, Currency.GBP, second.getBalance(), second.getVersion());
+            });
+        }
+
+        AccountInMemoryDao accountDao = new AccountInMemoryDao();
+        try (MappedJournal journal = new MappedJournal(journalDir, DurabilityMode.BATCHED)) {
+            givenService(accountDao, journal).recover(store);
+
+            assertThat(accountDao.get(1).get().getBalance(), is(120L));
+            assertThat(accountDao.get(1).get().getVersion(), is(2));
+            assertThat(accountDao.get(2).get().getBalance(), is(80L));
+            assertThat(accountDao.get(2).get().getVersion(), is(2));
+        }
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testRecover_recordsOutOfVersionOrder() {
+        Path journalDir = directory.resolve("journal");
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"));
+        store.write(0, writer -> {
+            writer.writeAccount(1, Currency.GBP, 100, 5);
+            writer.writeAccount(2, Currency.GBP, 100, 5);
+        });
+        try (MappedJournal journal = new MappedJournal(journalDir, DurabilityMode.BATCHED)) {
+            // included in snapshot
+            journal.appendTransfer(1, 1, 5, 2, 5, 10, 0);
+            // the second account receives money before withdrawal, journaled after it is handed off
+            journal.appendTransfer(3, 1, 7, 2, 7, 20, 0);
+            journal.appendTransfer(2, 2, 6, 1, 6, 30, 0);
+        }
+
+        AccountInMemoryDao accountDao = new AccountInMemoryDao();
+        try (MappedJournal journal = new MappedJournal(journalDir, DurabilityMode.BATCHED)) {
+            givenService(accountDao, journal).recover(store);
+
+            assertThat(accountDao.get(1).get().getBalance(), is(110L));
+            assertThat(accountDao.get(1).get().getVersion(), is(7));
+            assertThat(accountDao.get(2).get().getBalance(), is(90L));
+            assertThat(accountDao.get(2).get().getVersion(), is(7));
+        }
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testRecover_hotAccountCreditedWhileSnapshotWritten() throws Exception {
+        Path journalDir = directory.resolve("journal");
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"));
+        int accounts = 20;
+        Map<Integer, Long> balances = new HashMap<>();
+        try (MappedJournal journal = new MappedJournal(journalDir, DurabilityMode.BATCHED)) {
+            AccountInMemoryDao accountDao = new AccountInMemoryDao();
+            AccountServiceImpl service = givenService(accountDao, journal);
+            for (int i = 0; i < accounts; i++) {
+                service.create(Currency.GBP, 1_000);
+            }
+            service.makeHot(1, 4);
+            AtomicInteger operationIds = new AtomicInteger();
+            List<CompletableFuture<Void>> clients = new ArrayList<>();
+            for (int client = 0; client < 4; client++) {
+                clients.add(CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        int from = ThreadLocalRandom.current().nextInt(accounts) + 1;
+                        try {
+                            service.transfer(from, from % 3 == 0 ? 2 : 1, 1, operationIds.incrementAndGet());
+                        } catch (TransferException e) {
+                            // balance is drained
+                        }
+                    }
+                }));
+            }
+            service.transfer(1, 3, 500, 1_000_000);
+            service.snapshot(store);
+            service.transfer(1, 3, 200, 1_000_001);
+            CompletableFuture.allOf(clients.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            accountDao.forEach(account -> balances.put(account.getId(), account.getBalance()));
+        }
+
+        AccountInMemoryDao accountDao = new AccountInMemoryDao();
+        TransactionInMemoryDao transactionDao = new TransactionInMemoryDao();
+        try (MappedJournal journal = new MappedJournal(journalDir, DurabilityMode.BATCHED)) {
+            new AccountServiceImpl(accountDao, transactionDao, new IdempotencyIndex(), journal).recover(store);
+
+            for (int id = 1; id <= accounts; id++) {
+                Account account = accountDao.get(id).get();
+                assertThat(account.getBalance(), is(balances.get(id)));
+                // every change is in history once, whether it's in snapshot or replayed from journal
+                assertThat(transactionDao.countByAccount(id), is(account.getVersion()));
+                long[] balance = {1_000};
+                transactionDao.forEachByAccount(id, Integer.MAX_VALUE, transaction -> balance[0] +=
+                        transaction.getType() == TransactionType.CREDIT ? transaction.getAmount()
+                                : -transaction.getAmount());
+                assertThat(balance[0], is(account.getBalance()));
+            }
+            assertThat(balances.values().stream().mapToLong(Long::longValue).sum(), is(accounts * 1_000L));
+        }
+    }
+
+    private AccountServiceImpl givenService(AccountDao accountDao, Journal journal) {
+        return new AccountServiceImpl(accountDao, new TransactionInMemoryDao(), new IdempotencyIndex(), journal);
+    }
+
+    private static class RecordingListener implements SnapshotListener {
+
+        private final Map<Integer, String> accounts = new ConcurrentHashMap<>();
+        private final Map<Integer, String> operations = new ConcurrentHashMap<>();
+        private final List<String> transactions = new ArrayList<>();
+
+        @Override
+        public void onAccount(int id, Currency currency, long balance, int version) {
+            accounts.put(id, currency + " " + balance + " " + version);
+        }
+
+        @Override
+        public void onOperation(int operationId, int fingerprint, int outcome) {
+            operations.put(operationId, fingerprint + " " + outcome);
+        }
+
+        @Override
+        public void onTransaction(Transaction transaction) {
+            transactions.add(transaction.getAccountId() + " " + transaction.getOperationId() + " "
+                    + transaction.getType() + " " + transaction.getAmount() + " " + transaction.getTimestamp());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.dlopatin.account.metrics;
+
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountDao;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentionProfilerTest {
+
+    @Test
+    void testShouldSample() {
+        assertFalse(ContentionProfiler.DISABLED.shouldSample());
+        assertTrue(new ContentionProfiler(1, 4).shouldSample());
+    }
+
+    @Test
+    void testRecord_uncontendedNotTracked() {
+        ContentionProfiler profiler = new ContentionProfiler(1, 4);
+
+        profiler.record(1, 100, 1_000);
+
+        assertThat(accounts(profiler), is(empty()));
+        assertThat(profiler.toMap(), hasEntry("samples", 1L));
+        assertThat(profiler.toMap(), hasEntry("contendedSamples", 0L));
+    }
+
+    @Test
+    void testRecord_evictsLeastWaited() {
+        ContentionProfiler profiler = new ContentionProfiler(1, 2);
+        profiler.record(1, 5_000_000, 0);
+        profiler.record(2, 1_000_000, 0);
+        profiler.record(1, 5_000_000, 0);
+
+        profiler.record(3, 2_000_000, 0);
+
+        List<Map<String, Object>> accounts = accounts(profiler);
+        assertThat(accounts, hasSize(2));
+        assertThat(accounts.get(0), hasEntry("accountId", 1));
+        assertThat(accounts.get(0), hasEntry("waitMillis", 10.0));
+        assertThat(accounts.get(1), hasEntry("accountId", 3));
+        assertThat(accounts.get(1), hasEntry("waitMillis", 3.0));
+        assertThat(accounts.get(1), hasEntry("waitErrorMillis", 1.0));
+    }
+
+    @Test
+    void testReset() {
+        ContentionProfiler profiler = new ContentionProfiler(1, 2);
+        profiler.record(1, 5_000_000, 0);
+
+        profiler.reset();
+
+        assertThat(accounts(profiler), is(empty()));
+        assertThat(profiler.toMap(), hasEntry("samples", 0L));
+    }
+
+    @Test
+    void testTransfer_waitForLockedAccount() throws Exception {
+        ContentionProfiler profiler = new ContentionProfiler(1, 4);
+        AccountDao accountDao = new AccountInMemoryDao();
+        AccountServiceImpl service = new AccountServiceImpl(accountDao, new TransactionInMemoryDao(),
+                new IdempotencyIndex(), NoJournal.INSTANCE, profiler);
+        Account from = service.create(Currency.GBP, 100);
+        Account to = service.create(Currency.GBP, 0);
+        Object lock = accountDao.get(to.getId()).orElseThrow().getLock();
+
+        CountDownLatch locked = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (lock) {
+                locked.countDown();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        locked.await();
+        service.transfer(from.getId(), to.getId(), 10, 1);
+        holder.join();
+
+        List<Map<String, Object>> accounts = accounts(profiler);
+        assertThat(accounts.get(0), hasEntry("accountId", to.getId()));
+        assertThat((Double) accounts.get(0).get("waitMillis"), greaterThan(10.0));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> accounts(ContentionProfiler profiler) {
+        return (List<Map<String, Object>>) profiler.toMap().get("accounts");
+    }
+}
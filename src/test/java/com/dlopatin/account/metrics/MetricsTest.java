@@ -0,0 +1,82 @@
+package com.dlopatin.account.metrics;
+
+import com.dlopatin.account.service.TransferException.TransferError;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class MetricsTest {
+
+    @Test
+    void testRecord_bucketsAndPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(80));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.SECONDS.toNanos(20));
+
+        long[] counts = histogram.getBucketCounts();
+        assertThat(counts[1], is(98L));
+        assertThat(counts[6], is(1L));
+        assertThat(counts[counts.length - 1], is(1L));
+        assertThat(histogram.getPercentileMicros(counts, 50), is(100L));
+        assertThat(histogram.getPercentileMicros(counts, 99), is(5_000L));
+        assertThat(histogram.getPercentileMicros(counts, 100), is(20_000_000L));
+        assertThat(histogram.getMaxMicros(), is(20_000_000L));
+        assertThat(histogram.getSumMicros(), is(98 * 80 + 3_000 + 20_000_000L));
+    }
+
+    @Test
+    void testToPrometheus() {
+        Metrics metrics = new Metrics();
+        RouteMetrics route = metrics.route("GET", "/api/v1/account/:id");
+        route.record(TimeUnit.MICROSECONDS.toNanos(200), 200);
+        route.record(TimeUnit.MICROSECONDS.toNanos(300), 404);
+        metrics.recordTransfer(null);
+        metrics.recordTransfer(TransferError.INSUFFICIENT_BALANCE);
+        metrics.gauge("accounts", "Number of accounts", () -> 42);
+        metrics.recordCoalescedBatch(1);
+        metrics.recordCoalescedBatch(3);
+
+        String text = metrics.toPrometheus();
+
+        assertThat(text, containsString(
+                "http_requests_total{method=\"GET\",route=\"/api/v1/account/:id\",status=\"404\"} 1\n"));
+        assertThat(text, containsString(
+                "http_request_duration_seconds_bucket{method=\"GET\",route=\"/api/v1/account/:id\",le=\"0.00025\"} 1\n"));
+        assertThat(text, containsString(
+                "http_request_duration_seconds_bucket{method=\"GET\",route=\"/api/v1/account/:id\",le=\"+Inf\"} 2\n"));
+        assertThat(text, containsString(
+                "http_request_duration_seconds_sum{method=\"GET\",route=\"/api/v1/account/:id\"} 0.0005\n"));
+        assertThat(text, containsString("transfers_total{outcome=\"OK\"} 1\n"));
+        assertThat(text, containsString("transfers_total{outcome=\"INSUFFICIENT_BALANCE\"} 1\n"));
+        assertThat(text, containsString("# TYPE accounts gauge\naccounts 42\n"));
+        assertThat(text, containsString("coalesced_transfer_batch_size_bucket{le=\"2\"} 1\n"));
+        assertThat(text, containsString("coalesced_transfer_batch_size_bucket{le=\"4\"} 2\n"));
+        assertThat(text, containsString("coalesced_transfer_batch_size_sum 4\n"));
+        assertThat(text, containsString("jvm_gc_collections_total"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testToMap() {
+        Metrics metrics = new Metrics();
+        metrics.route("POST", "/api/v1/account/transfer").record(TimeUnit.MILLISECONDS.toNanos(2), 200);
+        metrics.recordTransfer(TransferError.TRANSFER_ALREADY_PROCESSED);
+
+        Map<String, Object> map = metrics.toMap();
+
+        List<Map<String, Object>> routes = (List<Map<String, Object>>) map.get("routes");
+        assertThat(routes, hasSize(1));
+        assertThat(routes.get(0), hasEntry("count", 1L));
+        assertThat((Map<String, Object>) routes.get(0).get("latencyMillis"), hasEntry("p99", 2.0));
+        assertThat((Map<String, Long>) map.get("transfers"), hasEntry("TRANSFER_ALREADY_PROCESSED", 1L));
+        assertThat(map, hasKey("jvm"));
+    }
+}
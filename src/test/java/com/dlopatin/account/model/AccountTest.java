@@ -0,0 +1,181 @@
+package com.dlopatin.account.model;
+
+import com.dlopatin.account.repository.AccountArrayDao;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AccountTest {
+
+    private static final long STEP = 10;
+    private static final int CHANGES = 1_000_000;
+
+    @Test
+    void testAddToBalance() {
+        Account account = new Account(1, 3, Currency.GBP, 100);
+
+        assertThat(account.addToBalance(-30), is(4));
+        assertThat(account.getBalance(), is(70L));
+        assertThat(account.getVersion(), is(4));
+    }
+
+    @Test
+    void testSnapshot_detached() {
+        Account account = new Account(1, 3, Currency.GBP, 100);
+
+        Account snapshot = account.snapshot();
+        account.addToBalance(10);
+
+        assertThat(snapshot, is(new Account(1, 3, Currency.GBP, 100)));
+    }
+
+    @Test
+    void testSnapshot_consistentWhileChanged() throws Exception {
+        assertConsistentSnapshots(new Account(1, Currency.GBP, 0));
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testSnapshot_consistentWhileChanged_arrayStorage() throws Exception {
+        AccountArrayDao accountDao = new AccountArrayDao();
+        accountDao.create(new Account(1, Currency.GBP, 0));
+
+        assertConsistentSnapshots(accountDao.get(1).get());
+    }
+
+    @Test
+    void testCredit_hot() {
+        Account account = new Account(1, 3, Currency.GBP, 100);
+        account.makeHot(4);
+        int[] credited = new int[1];
+
+        assertThat(account.credit(10, version -> credited[0] = version), is(4));
+        assertThat(credited[0], is(4));
+        assertThat(account.getBalance(), is(110L));
+        assertThat(account.addToBalance(-110), is(5));
+        assertThat(account.snapshot(), is(new Account(1, 5, Currency.GBP, 0)));
+    }
+
+    @Test
+    void testCredit_notHot() {
+        Account account = new Account(1, 3, Currency.GBP, 100);
+
+        assertThrows(IllegalStateException.class, () -> account.credit(10, version -> {
+        }));
+    }
+
+    @Test
+    void testSnapshot_consistentWhileCredited() throws Exception {
+        Account account = new Account(1, Currency.GBP, 0);
+        account.makeHot(4);
+
+        assertConsistentHotSnapshots(account);
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testSnapshot_consistentWhileCredited_arrayStorage() throws Exception {
+        AccountArrayDao accountDao = new AccountArrayDao();
+        accountDao.create(new Account(1, Currency.GBP, 0));
+        Account account = accountDao.get(1).get();
+        account.makeHot(4);
+
+        assertThat(accountDao.get(1).get().isHot(), is(true));
+        assertConsistentHotSnapshots(account);
+    }
+
+    @Test
+    void testGetBalance_hotDrainedWhileRead_creditsCounted() throws Exception {
+        CompletableFuture<?>[] drain = new CompletableFuture<?>[1];
+        Account account = new Account(1, Currency.GBP, 100) {
+            @Override
+            protected long readBalance() {
+                long balance = super.readBalance();
+                if (drain[0] == null && Thread.currentThread().getName().equals("reader")) {
+                    // writer merges credits into balance right after reader has read it, unless reader blocks it
+                    drain[0] = CompletableFuture.runAsync(() -> {
+                        synchronized (getLock()) {
+                            addToBalance(0);
+                        }
+                    });
+                    try {
+                        drain[0].get(200, TimeUnit.MILLISECONDS);
+                    } catch (Exception e) {
+                        // blocked by reader
+                    }
+                }
+                return balance;
+            }
+        };
+        account.makeHot(4);
+        account.credit(10, version -> {
+        });
+
+        long[] balance = new long[1];
+        Thread reader = new Thread(() -> balance[0] = account.getBalance(), "reader");
+        reader.start();
+        reader.join();
+        drain[0].get(10, TimeUnit.SECONDS);
+
+        assertThat(balance[0], is(110L));
+        assertThat(account.getBalance(), is(110L));
+    }
+
+    /**
+     * Credits from several threads interleave with changes merging the credits, all of them add the same amount.
+     */
+    private void assertConsistentHotSnapshots(Account account) throws Exception {
+        int writers = 3;
+        int changes = CHANGES / 10;
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[writers];
+        for (int w = 0; w < writers; w++) {
+            boolean merging = w == 0;
+            futures[w] = CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < changes; i++) {
+                    if (merging) {
+                        synchronized (account.getLock()) {
+                            account.addToBalance(STEP);
+                        }
+                    } else {
+                        account.credit(STEP, version -> {
+                        });
+                    }
+                }
+            });
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures);
+        int reads = 0;
+        while (!all.isDone() || reads == 0) {
+            Account snapshot = account.snapshot();
+            assertThat(snapshot.getBalance(), is(snapshot.getVersion() * STEP));
+            reads++;
+        }
+        all.get(10, TimeUnit.SECONDS);
+        assertThat(account.snapshot().getBalance(), is(writers * changes * STEP));
+        assertThat(account.getVersion(), is(writers * changes));
+    }
+
+    /**
+     * Every change adds the same amount, so balance of consistent snapshot is always proportional to version.
+     */
+    private void assertConsistentSnapshots(Account account) throws Exception {
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < CHANGES; i++) {
+                account.addToBalance(STEP);
+            }
+        });
+        int reads = 0;
+        while (!writer.isDone() || reads == 0) {
+            Account snapshot = account.snapshot();
+            assertThat(snapshot.getBalance(), is(snapshot.getVersion() * STEP));
+            reads++;
+        }
+        writer.get(10, TimeUnit.SECONDS);
+        assertThat(account.snapshot().getBalance(), is(CHANGES * STEP));
+    }
+}
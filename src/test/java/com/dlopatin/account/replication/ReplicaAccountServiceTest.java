@@ -0,0 +1,201 @@
+package com.dlopatin.account.replication;
+
+import com.dlopatin.account.controller.AccountController;
+import com.dlopatin.account.http.NioHttpServer;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.AccountServiceImpl;
+import com.dlopatin.account.service.IdempotencyIndex;
+import com.dlopatin.account.service.StaleReadException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.jsonpath.matchers.JsonPathMatchers.hasJsonPath;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ReplicaAccountServiceTest {
+
+    private static final long READ_TIMEOUT_MILLIS = 5000;
+
+    private ReplicationLog replicationLog;
+    private AccountServiceImpl leader;
+    private ReplicationServer server;
+    private ReplicaAccountService follower;
+    private int leaderPort;
+
+    @AfterEach
+    public void tearDown() {
+        if (follower != null) {
+            follower.close();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testFollower_stateBeforeStart_copiedWithOverlappingRecords() {
+        // records before follower starts are overwritten partially, the rest overlaps snapshot
+        givenLeader(8);
+        for (int i = 0; i < 20; i++) {
+            leader.create(Currency.USD, 100);
+        }
+        for (int i = 0; i < 10; i++) {
+            leader.transfer(i + 1, i + 2, 10, i);
+        }
+
+        givenFollower(READ_TIMEOUT_MILLIS);
+
+        for (int id = 1; id <= 20; id++) {
+            Account expected = leader.get(id).orElseThrow();
+            Account replicated = follower.get(id, expected.getVersion()).orElseThrow();
+            assertThat(replicated.getBalance(), is(expected.getBalance()));
+            assertThat(replicated.getVersion(), is(expected.getVersion()));
+        }
+        assertThat(follower.getLagMillis(), greaterThanOrEqualTo(0L));
+    }
+
+    @Test
+    public void testFollower_changesStreamed() {
+        givenLeader(ReplicationLog.DEFAULT_CAPACITY);
+        int from = leader.create(Currency.EUR, 100).getId();
+        givenFollower(READ_TIMEOUT_MILLIS);
+        follower.get(from, 0);
+
+        int to = leader.create(Currency.EUR, 0).getId();
+        leader.transfer(from, to, 30, 1);
+        leader.transfer(from, to, 20, 2);
+
+        assertThat(follower.get(from, 2).orElseThrow().getBalance(), is(50L));
+        assertThat(follower.get(to, 2).orElseThrow().getBalance(), is(50L));
+        assertThat(follower.get(to + 1).isPresent(), is(false));
+    }
+
+    @Test
+    public void testFollower_reconnected_continuesWithChangesMissed() throws InterruptedException {
+        givenLeader(ReplicationLog.DEFAULT_CAPACITY);
+        int from = leader.create(Currency.EUR, 100).getId();
+        int to = leader.create(Currency.EUR, 0).getId();
+        givenFollower(READ_TIMEOUT_MILLIS);
+        follower.get(to, 0);
+        server.stop();
+
+        leader.transfer(from, to, 30, 1);
+        restartServer();
+
+        assertThat(follower.get(to, 1).orElseThrow().getBalance(), is(30L));
+        assertThat(follower.get(from).orElseThrow().getBalance(), is(70L));
+    }
+
+    @Test
+    public void testGet_versionNotReplicated_staleRead() {
+        givenLeader(ReplicationLog.DEFAULT_CAPACITY);
+        int id = leader.create(Currency.EUR, 100).getId();
+        givenFollower(200);
+        follower.get(id, 0);
+
+        StaleReadException exception = assertThrows(StaleReadException.class, () -> follower.get(id, 1));
+        assertThat(exception.getMessage(), containsString("Version 1 of account " + id));
+    }
+
+    @Test
+    public void testGet_notCopiedYet_staleRead() {
+        follower = new ReplicaAccountService("localhost", 1, () -> new AccountServiceImpl(
+                new AccountInMemoryDao(), new TransactionInMemoryDao()), READ_TIMEOUT_MILLIS);
+
+        assertThrows(StaleReadException.class, () -> follower.get(1));
+        assertThat(follower.getLagMillis(), is(-1L));
+        assertThrows(UnsupportedOperationException.class, () -> follower.create(Currency.EUR, 1));
+        assertThrows(UnsupportedOperationException.class, () -> follower.transfer(1, 2, 1, 1));
+    }
+
+    @Test
+    public void testHttp_readsWithVersion_changesNotImplemented() throws Exception {
+        givenLeader(ReplicationLog.DEFAULT_CAPACITY);
+        int from = leader.create(Currency.EUR, 100).getId();
+        int to = leader.create(Currency.EUR, 0).getId();
+        givenFollower(200);
+        leader.transfer(from, to, 30, 1);
+
+        NioHttpServer http = new NioHttpServer(0, new QueuedThreadPool());
+        new AccountController(follower, new ObjectMapper()).init(http);
+        int port = http.start();
+        try {
+            HttpResponse<String> account = send(port, "GET", "/api/v1/account/" + to + "?minVersion=1");
+            assertThat(account.statusCode(), is(200));
+            assertThat(account.body(), hasJsonPath("$.balance", is(30)));
+            assertThat(account.body(), hasJsonPath("$.version", is(1)));
+
+            HttpResponse<String> behind = send(port, "GET", "/api/v1/account/" + to + "?minVersion=2");
+            assertThat(behind.statusCode(), is(503));
+            assertThat(behind.body(), hasJsonPath("$.errors[0].code", is("REPLICA_BEHIND")));
+
+            HttpResponse<String> transfer = send(port, "POST", "/api/v1/account/transfer");
+            assertThat(transfer.statusCode(), is(501));
+            assertThat(transfer.body(), hasJsonPath("$.errors[0].code", is("NOT_SUPPORTED")));
+        } finally {
+            http.stop();
+        }
+    }
+
+    private void givenLeader(int capacity) {
+        replicationLog = new ReplicationLog(NoJournal.INSTANCE, capacity);
+        leader = new AccountServiceImpl(new AccountInMemoryDao(), new TransactionInMemoryDao(),
+                new IdempotencyIndex(), replicationLog);
+        server = new ReplicationServer(0, replicationLog, leader);
+    }
+
+    private void givenFollower(long readTimeoutMillis) {
+        leaderPort = server.start();
+        follower = new ReplicaAccountService("localhost", leaderPort, () -> new AccountServiceImpl(
+                new AccountInMemoryDao(), new TransactionInMemoryDao()), readTimeoutMillis);
+        follower.start();
+        long deadline = System.currentTimeMillis() + READ_TIMEOUT_MILLIS;
+        while (follower.getLagMillis() < 0 && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Starts server again on the same port, which may be taken for a while by another socket once released.
+     */
+    private void restartServer() throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            server = new ReplicationServer(leaderPort, replicationLog, leader);
+            try {
+                server.start();
+                return;
+            } catch (UncheckedIOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+        }
+    }
+
+    private static HttpResponse<String> send(int port, String method, String path) throws Exception {
+        String body = "{\"accountFrom\":1,\"accountTo\":2,\"amount\":1,\"operationId\":7}";
+        return HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + port + path))
+                .method(method, method.equals("GET")
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body))
+                .build(), BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,119 @@
+package com.dlopatin.account.repository;
+
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccountArrayDaoTest {
+
+    @Test
+    void testGet_notStored() {
+        AccountArrayDao accountDao = new AccountArrayDao();
+        accountDao.create(new Account(1, Currency.GBP, 10));
+
+        assertFalse(accountDao.get(2).isPresent());
+        assertFalse(accountDao.get(10_000_000).isPresent());
+        assertFalse(accountDao.get(-1).isPresent());
+    }
+
+    @Test
+    void testGetAll_acrossPages_nullIfNotStored() {
+        AccountArrayDao accountDao = new AccountArrayDao();
+        accountDao.create(new Account(1, Currency.GBP, 10));
+        accountDao.create(new Account(3_000_000, Currency.RUB, 20));
+
+        Account[] accounts = accountDao.getAll(new int[]{3_000_000, 2, 1, -1, 10_000_000, 1});
+
+        assertThat(accounts[0].getBalance(), is(20L));
+        assertThat(accounts[1], is(nullValue()));
+        assertThat(accounts[2].getCurrency(), is(Currency.GBP));
+        assertThat(accounts[3], is(nullValue()));
+        assertThat(accounts[4], is(nullValue()));
+        assertThat(accounts[5].getId(), is(1));
+    }
+
+    @Test
+    void testCreate_stored() {
+        AccountArrayDao accountDao = new AccountArrayDao();
+
+        assertTrue(accountDao.create(new Account(1, Currency.GBP, 10)));
+        assertTrue(accountDao.create(new Account(3_000_000, Currency.RUB, 20)));
+
+        Optional<Account> account = accountDao.get(3_000_000);
+        assertTrue(account.isPresent());
+        assertThat(account.get().getId(), is(3_000_000));
+        assertThat(account.get().getCurrency(), is(Currency.RUB));
+        assertThat(account.get().getBalance(), is(20L));
+        assertThat(account.get().getVersion(), is(0));
+    }
+
+    @Test
+    void testCreateAll_acrossPages() {
+        AccountArrayDao accountDao = new AccountArrayDao();
+        int count = 150_000;
+        Currency[] currencies = new Currency[count];
+        long[] balances = new long[count];
+        for (int i = 0; i < count; i++) {
+            currencies[i] = Currency.values()[i % Currency.values().length];
+            balances[i] = i;
+        }
+
+        accountDao.createAll(5, currencies, balances);
+
+        assertFalse(accountDao.get(4).isPresent());
+        assertFalse(accountDao.get(5 + count).isPresent());
+        for (int i = 0; i < count; i++) {
+            Account account = accountDao.get(5 + i).orElseThrow();
+            assertThat(account.getCurrency(), is(currencies[i]));
+            assertThat(account.getBalance(), is((long) i));
+            assertThat(account.getVersion(), is(0));
+        }
+    }
+
+    @Test
+    void testCreateAll_alreadyStored_nothingOverwritten() {
+        AccountArrayDao accountDao = new AccountArrayDao();
+        accountDao.create(new Account(20, Currency.GBP, 10));
+        Currency[] currencies = new Currency[30];
+        long[] balances = new long[30];
+        Arrays.fill(currencies, Currency.EUR);
+
+        assertThrows(IllegalArgumentException.class, () -> accountDao.createAll(1, currencies, balances));
+
+        assertThat(accountDao.get(20).map(Account::getBalance), is(Optional.of(10L)));
+        assertFalse(accountDao.get(1).isPresent());
+        assertFalse(accountDao.get(30).isPresent());
+    }
+
+    @Test
+    void testCreate_alreadyStored() {
+        AccountArrayDao accountDao = new AccountArrayDao();
+
+        assertTrue(accountDao.create(new Account(1, Currency.GBP, 10)));
+        assertFalse(accountDao.create(new Account(1, Currency.EUR, 20)));
+        assertThat(accountDao.get(1).map(Account::getCurrency), is(Optional.of(Currency.GBP)));
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testUpdate_writesThroughView() {
+        AccountArrayDao accountDao = new AccountArrayDao();
+        accountDao.create(new Account(1, Currency.GBP, 10));
+        accountDao.create(new Account(2, Currency.GBP, 10));
+
+        Account account = accountDao.get(1).get();
+        account.addToBalance(40);
+
+        assertThat(accountDao.get(1).get().getBalance(), is(50L));
+        assertThat(accountDao.get(1).get().getVersion(), is(1));
+        assertThat(accountDao.get(2).get().getBalance(), is(10L));
+        assertSame(accountDao.get(1).get().getLock(), accountDao.get(2).get().getLock());
+    }
+}
@@ -0,0 +1,67 @@
+package com.dlopatin.account.repository;
+
+import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.model.TransactionType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class AccountHistoryTest {
+
+    @Test
+    void testList_pagesAcrossChunks() {
+        AccountHistory history = new AccountHistory(7);
+        int size = AccountHistory.CHUNK_SIZE * 3 + 5;
+        for (int i = 0; i < size; i++) {
+            history.append(i, i % 2 == 0 ? TransactionType.DEBIT : TransactionType.CREDIT, i * 10L, 1_000L + i);
+        }
+
+        int after = AccountHistory.CHUNK_SIZE - 2;
+        List<Transaction> page = history.list(after, 4);
+
+        assertThat(history.size(), is(size));
+        assertThat(page, hasSize(4));
+        for (int i = 0; i < page.size(); i++) {
+            Transaction transaction = page.get(i);
+            assertThat(transaction.getAccountId(), is(7));
+            assertThat(transaction.getOperationId(), is(after + i));
+            assertThat(transaction.getAmount(), is((after + i) * 10L));
+            assertThat(transaction.getTimestamp(), is(1_000L + after + i));
+        }
+        assertThat(page.get(0).getType(), is(TransactionType.DEBIT));
+        assertThat(page.get(1).getType(), is(TransactionType.CREDIT));
+        assertThat(history.list(size - 3, 10), hasSize(3));
+        assertThat(history.list(size, 10), is(empty()));
+        assertThat(history.list(Integer.MAX_VALUE - 1, 10), is(empty()));
+    }
+
+    @Test
+    void testList_whileAppended() throws Exception {
+        AccountHistory history = new AccountHistory(1);
+        int size = AccountHistory.CHUNK_SIZE * 20;
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < size; i++) {
+                history.append(i, TransactionType.CREDIT, i, i);
+            }
+        });
+        while (!writer.isDone()) {
+            int seen = history.size();
+            if (seen == 0) {
+                continue;
+            }
+            // every transaction below published size is complete, including ones in grown first chunk
+            for (Transaction transaction : history.list(Math.max(0, seen - 100), 100)) {
+                assertThat(transaction.getAmount(), is((long) transaction.getOperationId()));
+                assertThat(transaction.getTimestamp(), is((long) transaction.getOperationId()));
+            }
+            assertThat(history.list(0, 1).get(0).getType(), is(TransactionType.CREDIT));
+        }
+        writer.get(10, TimeUnit.SECONDS);
+        assertThat(history.list(size - 1, 10).get(0).getOperationId(), is(size - 1));
+    }
+}
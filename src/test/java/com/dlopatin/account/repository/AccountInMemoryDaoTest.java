@@ -0,0 +1,34 @@
+package com.dlopatin.account.repository;
+
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccountInMemoryDaoTest {
+
+    @Test
+    void testCreate_alreadyStored() {
+        AccountInMemoryDao accountDao = new AccountInMemoryDao();
+
+        assertTrue(accountDao.create(new Account(1, Currency.GBP, 10)));
+        assertFalse(accountDao.create(new Account(1, Currency.EUR, 20)));
+        assertThat(accountDao.get(1).map(Account::getCurrency), is(Optional.of(Currency.GBP)));
+    }
+
+    @Test
+    void testCreateAll_alreadyStored() {
+        AccountInMemoryDao accountDao = new AccountInMemoryDao();
+        accountDao.create(new Account(3, Currency.GBP, 10));
+
+        assertThrows(IllegalArgumentException.class, () -> accountDao.createAll(1,
+                new Currency[]{Currency.EUR, Currency.EUR, Currency.EUR}, new long[]{1, 2, 3}));
+
+        assertThat(accountDao.get(3).map(Account::getBalance), is(Optional.of(10L)));
+    }
+}
@@ -1,8 +1,12 @@
 package com.dlopatin.account.service;
 
+import com.dlopatin.account.journal.Journal;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.metrics.ContentionProfiler;
 import com.dlopatin.account.model.Account;
 import com.dlopatin.account.model.Currency;
 import com.dlopatin.account.model.Transaction;
+import com.dlopatin.account.model.TransactionType;
 import com.dlopatin.account.repository.AccountInMemoryDao;
 import com.dlopatin.account.repository.TransactionInMemoryDao;
 import com.dlopatin.account.service.TransferException.TransferError;
@@ -12,11 +16,21 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -49,6 +63,44 @@ class AccountServiceImplTest {
         assertThrows(IllegalArgumentException.class, () -> accountService.create(null, 2000));
     }
 
+    @Test
+    void testCreateBatch_consecutiveIds() {
+        accountService = new AccountServiceImpl(new AccountInMemoryDao(), transactionDao);
+        Account single = accountService.create(Currency.EUR, 1);
+
+        int[] ids = accountService.createBatch(new Currency[]{Currency.GBP, Currency.USD}, new long[]{10, 20});
+
+        assertThat(ids, is(new int[]{single.getId() + 1, single.getId() + 2}));
+        assertThat(accountService.get(ids[0]).orElseThrow().getCurrency(), is(Currency.GBP));
+        assertThat(accountService.get(ids[1]).orElseThrow().getBalance(), is(20L));
+        assertThat(accountService.create(Currency.EUR, 1).getId(), is(ids[1] + 1));
+    }
+
+    @Test
+    void testCreateBatch_ownedIdsOnly() {
+        accountService = new AccountServiceImpl(new AccountInMemoryDao(), transactionDao, new IdempotencyIndex(),
+                NoJournal.INSTANCE, ContentionProfiler.DISABLED, id -> id % 3 == 0);
+
+        int[] ids = accountService.createBatch(new Currency[]{Currency.GBP, Currency.USD}, new long[]{10, 20});
+
+        assertThat(ids, is(new int[]{3, 6}));
+        assertThat(accountService.get(3).orElseThrow().getCurrency(), is(Currency.GBP));
+        assertThat(accountService.get(6).orElseThrow().getBalance(), is(20L));
+        assertThat(accountService.create(Currency.EUR, 1).getId(), is(9));
+    }
+
+    @Test
+    void testCreateBatch_invalidAccount_noneCreated() {
+        assertThrows(IllegalArgumentException.class, () -> accountService.createBatch(
+                new Currency[]{Currency.GBP, Currency.USD}, new long[]{10, -20}));
+        assertThrows(IllegalArgumentException.class, () -> accountService.createBatch(
+                new Currency[]{Currency.GBP, null}, new long[]{10, 20}));
+        assertThrows(IllegalArgumentException.class, () -> accountService.createBatch(
+                new Currency[]{Currency.GBP}, new long[]{10, 20}));
+
+        verify(accountDao, never()).createAll(anyInt(), any(), any());
+    }
+
     @Test
     void testCreate_emptyBalance() {
         // when
@@ -105,6 +157,7 @@ class AccountServiceImplTest {
         when(account.getBalance()).thenReturn(100L);
         when(account.getCurrency()).thenReturn(Currency.USD);
         when(account.getVersion()).thenReturn(2);
+        when(account.snapshot()).thenReturn(account);
 
         // when
         when(accountDao.get(id)).thenReturn(Optional.of(account));
@@ -118,6 +171,64 @@ class AccountServiceImplTest {
         assertThat(result.get().getVersion(), is(2));
     }
 
+    @Test
+    void testGetTransactions_accountNotStored() {
+        when(accountDao.get(10)).thenReturn(Optional.empty());
+
+        assertFalse(accountService.getTransactions(10, 0, 10).isPresent());
+    }
+
+    @Test
+    void testGetTransactions_incorrectPage() {
+        assertThrows(IllegalArgumentException.class, () -> accountService.getTransactions(1, -1, 10));
+        assertThrows(IllegalArgumentException.class, () -> accountService.getTransactions(1, 0, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> accountService.getTransactions(1, 0, AccountService.MAX_TRANSACTION_PAGE_SIZE + 1));
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testGetTransactions_pagedInTransferOrder() {
+        AccountService service = new AccountServiceImpl(new AccountInMemoryDao(), new TransactionInMemoryDao());
+        service.create(Currency.GBP, 100);
+        service.create(Currency.GBP, 100);
+        service.transfer(1, 2, 10, 1);
+        service.transfer(2, 1, 20, 2);
+        service.transfer(1, 2, 30, 3);
+
+        List<Transaction> first = service.getTransactions(1, 0, 2).get();
+        List<Transaction> second = service.getTransactions(1, 2, 2).get();
+
+        assertThat(first, hasSize(2));
+        assertThat(first.get(0).getOperationId(), is(1));
+        assertThat(first.get(0).getType(), is(TransactionType.DEBIT));
+        assertThat(first.get(1).getOperationId(), is(2));
+        assertThat(first.get(1).getType(), is(TransactionType.CREDIT));
+        assertThat(first.get(1).getTimestamp(), greaterThan(0L));
+        assertThat(second, hasSize(1));
+        assertThat(second.get(0).getAmount(), is(30L));
+        assertThat(service.getTransactions(2, 3, 2).get(), is(empty()));
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    @Test
+    void testGetTransactions_operationIdReusedOnceForgotten_bothListed() {
+        AccountInMemoryDao accounts = new AccountInMemoryDao();
+        TransactionInMemoryDao transactions = new TransactionInMemoryDao();
+        AccountService service = new AccountServiceImpl(accounts, transactions);
+        service.create(Currency.GBP, 100);
+        service.create(Currency.GBP, 100);
+        service.transfer(1, 2, 10, 1);
+        // fresh idempotency index has forgotten the operation, as one evicted it
+        new AccountServiceImpl(accounts, transactions).transfer(1, 2, 20, 1);
+
+        List<Transaction> debits = service.getTransactions(1, 0, 10).get();
+
+        assertThat(debits, hasSize(2));
+        assertThat(debits.get(1).getAmount(), is(20L));
+        assertThat(service.get(1).get().getBalance(), is(70L));
+    }
+
     @Test
     void testTransfer_amountNegative() {
         assertThrows(IllegalArgumentException.class,
@@ -180,13 +291,46 @@ class AccountServiceImplTest {
         when(accountDao.get(toId)).thenReturn(Optional.of(new Account(fromId, Currency.EUR, 100)));
 
         int operationId = 1;
-        when(transactionDao.hasTransactions(operationId)).thenReturn(true);
+        accountService.transfer(fromId, toId, 100, operationId);
 
         TransferException exception = assertThrows(TransferException.class,
-                () -> accountService.transfer(fromId, toId, 100, operationId));
+                () -> accountService.transfer(fromId, toId, 50, operationId));
         assertThat(exception.getTransferError(), is(TransferError.TRANSFER_ALREADY_PROCESSED));
     }
 
+    @Test
+    void testTransfer_repeatedTransferReplaysSuccess() {
+        int fromId = 1;
+        int toId = 2;
+        Account fromAccount = new Account(fromId, Currency.EUR, 200);
+        Account toAccount = new Account(toId, Currency.EUR, 100);
+        when(accountDao.get(fromId)).thenReturn(Optional.of(fromAccount));
+        when(accountDao.get(toId)).thenReturn(Optional.of(toAccount));
+
+        accountService.transfer(fromId, toId, 100, 1);
+        accountService.transfer(fromId, toId, 100, 1);
+
+        verify(transactionDao, times(2)).insert(Mockito.any(Transaction.class));
+        assertThat(fromAccount.getBalance(), is(100L));
+        assertThat(toAccount.getBalance(), is(200L));
+    }
+
+    @Test
+    void testTransfer_repeatedTransferReplaysError() {
+        int fromId = 1;
+        int toId = 2;
+        Account fromAccount = new Account(fromId, Currency.EUR, 20);
+        when(accountDao.get(fromId)).thenReturn(Optional.of(fromAccount));
+        when(accountDao.get(toId)).thenReturn(Optional.of(new Account(toId, Currency.EUR, 100)));
+
+        assertThrows(TransferException.class, () -> accountService.transfer(fromId, toId, 100, 1));
+        fromAccount.addToBalance(480);
+
+        TransferException exception = assertThrows(TransferException.class,
+                () -> accountService.transfer(fromId, toId, 100, 1));
+        assertThat(exception.getTransferError(), is(TransferError.INSUFFICIENT_BALANCE));
+        verify(transactionDao, never()).insert(Mockito.any(Transaction.class));
+    }
 
     @Test
     void testTransfer_normalProcessing() {
@@ -248,6 +392,276 @@ class AccountServiceImplTest {
         inOrder.verify(toAccount).getLock();
     }
 
+    @Test
+    void testTransferBatch_tooLarge() {
+        List<Transfer> transfers = new ArrayList<>();
+        for (int i = 0; i <= AccountService.MAX_TRANSFER_BATCH_SIZE; i++) {
+            transfers.add(new Transfer(1, 2, 1, i));
+        }
+        assertThrows(IllegalArgumentException.class, () -> accountService.transferBatch(transfers));
+    }
+
+    @Test
+    void testTransferBatch_amountNegative() {
+        assertThrows(IllegalArgumentException.class, () -> accountService.transferBatch(List.of(
+                new Transfer(1, 2, 100, 1),
+                new Transfer(1, 2, -100, 2))));
+    }
+
+    @Test
+    void testTransferBatch_resultPerTransfer() {
+        Account first = new Account(1, Currency.EUR, 100);
+        Account second = new Account(2, Currency.EUR, 0);
+        Account third = new Account(3, Currency.RUB, 0);
+        when(accountDao.get(1)).thenReturn(Optional.of(first));
+        when(accountDao.get(2)).thenReturn(Optional.of(second));
+        when(accountDao.get(3)).thenReturn(Optional.of(third));
+        when(accountDao.get(4)).thenReturn(Optional.empty());
+
+        List<TransferResult> results = accountService.transferBatch(List.of(
+                new Transfer(1, 2, 70, 1),
+                new Transfer(1, 2, 70, 2),
+                new Transfer(2, 1, 20, 3),
+                new Transfer(1, 3, 10, 4),
+                new Transfer(4, 1, 10, 5),
+                new Transfer(1, 4, 10, 6)));
+
+        assertThat(results, hasSize(6));
+        assertTrue(results.get(0).isSuccessful());
+        assertThat(results.get(1).getError(), is(TransferError.INSUFFICIENT_BALANCE));
+        assertTrue(results.get(2).isSuccessful());
+        assertThat(results.get(3).getError(), is(TransferError.DIFFERENT_ACCOUNT_CURRENCIES));
+        assertThat(results.get(4).getError(), is(TransferError.ACCOUNT_FROM_NOT_FOUND));
+        assertThat(results.get(5).getError(), is(TransferError.ACCOUNT_TO_NOT_FOUND));
+        assertThat(results.get(2).getOperationId(), is(3));
+
+        assertThat(first.getBalance(), is(50L));
+        assertThat(first.getVersion(), is(2));
+        assertThat(second.getBalance(), is(50L));
+        assertThat(second.getVersion(), is(2));
+        verify(transactionDao, times(4)).insert(Mockito.any(Transaction.class));
+        verify(accountDao, times(1)).get(1);
+    }
+
+    @Test
+    void testTransferBatch_repeatedOperations() {
+        Account first = new Account(1, Currency.EUR, 100);
+        Account second = new Account(2, Currency.EUR, 0);
+        when(accountDao.get(1)).thenReturn(Optional.of(first));
+        when(accountDao.get(2)).thenReturn(Optional.of(second));
+        accountService.transfer(1, 2, 10, 1);
+
+        List<TransferResult> results = accountService.transferBatch(List.of(
+                new Transfer(1, 2, 10, 1),
+                new Transfer(1, 2, 20, 2),
+                new Transfer(1, 2, 20, 2),
+                new Transfer(1, 2, 30, 2)));
+
+        assertTrue(results.get(0).isSuccessful());
+        assertTrue(results.get(1).isSuccessful());
+        assertTrue(results.get(2).isSuccessful());
+        assertThat(results.get(3).getError(), is(TransferError.TRANSFER_ALREADY_PROCESSED));
+        assertThat(first.getBalance(), is(70L));
+        assertThat(second.getBalance(), is(30L));
+    }
+
+    @Test
+    void testTransfer_journalFlushFails_repeatReplaysSuccess() {
+        Account first = new Account(1, Currency.EUR, 100);
+        Account second = new Account(2, Currency.EUR, 0);
+        when(accountDao.get(1)).thenReturn(Optional.of(first));
+        when(accountDao.get(2)).thenReturn(Optional.of(second));
+        accountService = new AccountServiceImpl(accountDao, transactionDao, new IdempotencyIndex(),
+                givenFailingJournal(2));
+
+        assertThrows(UncheckedIOException.class, () -> accountService.transfer(1, 2, 10, 1));
+        assertThrows(UncheckedIOException.class, () -> accountService.transferBatch(List.of(
+                new Transfer(1, 2, 20, 2), new Transfer(2, 1, 5, 3))));
+        accountService.transfer(1, 2, 10, 1);
+        List<TransferResult> results = accountService.transferBatch(List.of(
+                new Transfer(1, 2, 20, 2), new Transfer(2, 1, 5, 3)));
+
+        assertTrue(results.get(0).isSuccessful());
+        assertTrue(results.get(1).isSuccessful());
+        assertThat(first.getBalance(), is(75L));
+        assertThat(second.getBalance(), is(25L));
+    }
+
+    @Test
+    void testCommit_journalFlushFails_repeatedCommitSkipped() {
+        Account account = new Account(1, Currency.EUR, 100);
+        when(accountDao.get(1)).thenReturn(Optional.of(account));
+        AccountServiceImpl participant = new AccountServiceImpl(accountDao, transactionDao,
+                new IdempotencyIndex(), givenFailingJournal(1));
+
+        assertThat(participant.prepare(1, 5, 1, Currency.EUR, 10), is(nullValue()));
+        assertThrows(UncheckedIOException.class, () -> participant.commit(1, 5, 1, 10));
+        participant.commit(1, 5, 1, 10);
+
+        assertThat(account.getBalance(), is(110L));
+    }
+
+    @Test
+    void testAbortExpiredCredits_operationReleased_laterCommitApplied() {
+        Account account = new Account(1, Currency.EUR, 100);
+        when(accountDao.get(1)).thenReturn(Optional.of(account));
+        IdempotencyIndex idempotencyIndex = new IdempotencyIndex();
+        AccountServiceImpl participant = new AccountServiceImpl(accountDao, transactionDao, idempotencyIndex,
+                NoJournal.INSTANCE);
+        assertThat(participant.prepare(1, 5, 1, Currency.EUR, 10), is(nullValue()));
+
+        assertThat(participant.abortExpiredCredits(TimeUnit.MINUTES.toMillis(1)), is(0));
+        assertThat(idempotencyIndex.tryAcquire(1, TransferOutcome.fingerprint(5, 1, 10)),
+                is(IdempotencyIndex.IN_FLIGHT));
+        assertThat(participant.abortExpiredCredits(0), is(1));
+        participant.commit(1, 5, 1, 10);
+        participant.commit(1, 5, 1, 10);
+
+        assertThat(account.getBalance(), is(110L));
+    }
+
+    @Test
+    void testTransferOut_journalFlushFails_creditCommittedOnce() {
+        Account from = new Account(1, Currency.EUR, 100);
+        Account to = new Account(2, Currency.EUR, 0);
+        when(accountDao.get(1)).thenReturn(Optional.of(from));
+        AccountServiceImpl coordinator = new AccountServiceImpl(accountDao, transactionDao,
+                new IdempotencyIndex(), givenFailingJournal(1));
+        AccountInMemoryDao participantAccounts = new AccountInMemoryDao();
+        participantAccounts.create(to);
+        AccountServiceImpl participant = new AccountServiceImpl(participantAccounts, new TransactionInMemoryDao());
+
+        assertThrows(UncheckedIOException.class, () -> coordinator.transferOut(1, 2, 10, 1, participant));
+        coordinator.transferOut(1, 2, 10, 1, participant);
+
+        assertThat(from.getBalance(), is(90L));
+        assertThat(to.getBalance(), is(10L));
+    }
+
+    @Test
+    void testTransferOut_prepareFails_creditAborted() {
+        Account from = new Account(1, Currency.EUR, 100);
+        when(accountDao.get(1)).thenReturn(Optional.of(from));
+        CreditParticipant participant = mock(CreditParticipant.class);
+        when(participant.prepare(1, 1, 2, Currency.EUR, 10))
+                .thenThrow(new IllegalStateException("Timed out"))
+                .thenReturn(null);
+        AccountServiceImpl coordinator = new AccountServiceImpl(accountDao, transactionDao);
+
+        assertThrows(IllegalStateException.class, () -> coordinator.transferOut(1, 2, 10, 1, participant));
+        verify(participant).abort(1);
+        coordinator.transferOut(1, 2, 10, 1, participant);
+
+        verify(participant).commit(1, 1, 2, 10);
+        assertThat(from.getBalance(), is(90L));
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    @Test
+    void testTransferBatch_accountLockOrder() {
+        Account first = givenMockedAccount(1);
+        Account second = givenMockedAccount(2);
+        Account third = givenMockedAccount(3);
+        when(accountDao.get(1)).thenReturn(Optional.of(first));
+        when(accountDao.get(2)).thenReturn(Optional.of(second));
+        when(accountDao.get(3)).thenReturn(Optional.of(third));
+
+        accountService.transferBatch(List.of(
+                new Transfer(3, 1, 100, 1),
+                new Transfer(2, 3, 100, 2),
+                new Transfer(1, 2, 100, 3)));
+        InOrder inOrder = inOrder(first, second, third);
+        inOrder.verify(first).getLock();
+        inOrder.verify(second).getLock();
+        inOrder.verify(third).getLock();
+        verify(first, times(1)).getLock();
+        verify(second, times(1)).getLock();
+        verify(third, times(1)).getLock();
+    }
+
+    @Test
+    void testGetAll_concurrentTransfers_moneyConserved() throws Exception {
+        accountService = new AccountServiceImpl(new AccountInMemoryDao(), transactionDao);
+        int[] ids = new int[20];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = accountService.create(Currency.EUR, 100).getId();
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        CompletableFuture<Void> transfers = CompletableFuture.runAsync(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int operationId = 1; running.get(); operationId++) {
+                try {
+                    accountService.transfer(ids[random.nextInt(ids.length)], ids[random.nextInt(ids.length)],
+                            random.nextInt(1, 50), operationId);
+                } catch (TransferException e) {
+                    // insufficient balance
+                }
+            }
+        });
+
+        try {
+            for (int i = 0; i < 2000; i++) {
+                long total = 0;
+                for (Account account : accountService.getAll(ids)) {
+                    total += account.getBalance();
+                }
+                assertThat(total, is(100L * ids.length));
+            }
+        } finally {
+            running.set(false);
+        }
+        transfers.get(5, TimeUnit.SECONDS);
+        assertThat(accountService.getAll(new int[]{ids[0], 1_000, ids[0]})[1], is(nullValue()));
+        assertThrows(IllegalArgumentException.class,
+                () -> accountService.getAll(new int[AccountService.MAX_GET_BATCH_SIZE + 1]));
+    }
+
+    @Test
+    void testAwaitChange_transferMade_newVersion() throws Exception {
+        accountService = new AccountServiceImpl(new AccountInMemoryDao(), transactionDao);
+        int from = accountService.create(Currency.EUR, 100).getId();
+        int to = accountService.create(Currency.EUR, 0).getId();
+
+        CompletableFuture<Optional<Account>> changed = CompletableFuture.supplyAsync(
+                () -> accountService.awaitChange(to, 0, 5000));
+        TimeUnit.MILLISECONDS.sleep(100);
+        accountService.transfer(from, to, 30, 1);
+
+        Account account = changed.get(5, TimeUnit.SECONDS).orElseThrow();
+        assertThat(account.getVersion(), is(1));
+        assertThat(account.getBalance(), is(30L));
+        assertThat(((AccountServiceImpl) accountService).getWatchedAccountCount(), is(0));
+    }
+
+    @Test
+    void testAwaitChange_noChange_sameVersionAfterTimeout() {
+        accountService = new AccountServiceImpl(new AccountInMemoryDao(), transactionDao);
+        int id = accountService.create(Currency.EUR, 100).getId();
+
+        long started = System.nanoTime();
+        Account account = accountService.awaitChange(id, 0, 100).orElseThrow();
+
+        assertThat(account.getVersion(), is(0));
+        assertThat(System.nanoTime() - started, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100)));
+        assertThat(accountService.awaitChange(id, 0, 0).map(Account::getVersion), is(Optional.of(0)));
+        assertThat(accountService.awaitChange(id + 1, 0, 100).isPresent(), is(false));
+    }
+
+    /**
+     * @return journal failing to flush given number of times, then flushing fine
+     */
+    private static Journal givenFailingJournal(int failures) {
+        Journal journal = mock(Journal.class);
+        AtomicInteger flushes = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (flushes.incrementAndGet() <= failures) {
+                throw new UncheckedIOException(new IOException("No space left on device"));
+            }
+            return null;
+        }).when(journal).flush();
+        return journal;
+    }
+
     private Account givenMockedAccount(int id) {
         Account mock = mock(Account.class);
         when(mock.getId()).thenReturn(id);
@@ -0,0 +1,200 @@
+package com.dlopatin.account.service;
+
+import com.dlopatin.account.journal.Journal;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.TransferException.TransferError;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class CoalescingAccountServiceTest {
+
+    private static final int TRANSFERS = 32;
+
+    private final AccountServiceImpl accountService = new AccountServiceImpl(new AccountInMemoryDao(),
+            new TransactionInMemoryDao());
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    // long delay, so concurrent transfers surely meet in a batch
+    private final CoalescingAccountService service = new CoalescingAccountService(accountService, 50_000, 16,
+            batchSizes::add);
+
+    @AfterEach
+    void tearDown() {
+        service.close();
+    }
+
+    @Test
+    void testTransfer_concurrentCoalesced() {
+        Account from = service.create(Currency.GBP, 1_000);
+        Account to = service.create(Currency.GBP, 0);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<CompletableFuture<Void>> transfers = new ArrayList<>();
+        for (int i = 0; i < TRANSFERS; i++) {
+            int operationId = i + 1;
+            transfers.add(CompletableFuture.runAsync(() -> {
+                await(start);
+                service.transfer(from.getId(), to.getId(), 10, operationId);
+            }, runnable -> new Thread(runnable).start()));
+        }
+        start.countDown();
+        transfers.forEach(CompletableFuture::join);
+
+        assertThat(balance(from.getId()), is(1_000L - TRANSFERS * 10));
+        assertThat(balance(to.getId()), is(TRANSFERS * 10L));
+        assertThat(batchSizes.stream().mapToInt(Integer::intValue).sum(), is(TRANSFERS));
+        assertThat(batchSizes, everyItem(lessThanOrEqualTo(16)));
+        assertThat(batchSizes.size(), lessThan(TRANSFERS));
+    }
+
+    @Test
+    void testTransfer_errorsPerCaller() {
+        Account from = service.create(Currency.GBP, 100);
+        Account to = service.create(Currency.GBP, 0);
+
+        service.transfer(from.getId(), to.getId(), 60, 1);
+        TransferException insufficient = assertThrows(TransferException.class,
+                () -> service.transfer(from.getId(), to.getId(), 60, 2));
+        service.transfer(from.getId(), to.getId(), 60, 1);
+        TransferException notFound = assertThrows(TransferException.class,
+                () -> service.transfer(from.getId(), 42, 1, 3));
+
+        assertThat(insufficient.getTransferError(), is(TransferError.INSUFFICIENT_BALANCE));
+        assertThat(notFound.getTransferError(), is(TransferError.ACCOUNT_TO_NOT_FOUND));
+        assertThat(balance(from.getId()), is(40L));
+        assertThat(balance(to.getId()), is(60L));
+    }
+
+    @Test
+    void testTransfer_negativeAmount() {
+        assertThrows(IllegalArgumentException.class, () -> service.transfer(1, 2, -1, 1));
+    }
+
+    @Test
+    void testTransfer_serviceStopped_batchFailed() {
+        AccountService failing = mock(AccountService.class);
+        when(failing.transferBatch(anyList())).thenThrow(new IllegalStateException("Service is stopped"));
+        CoalescingAccountService coalescing = new CoalescingAccountService(failing, 0, 16, size -> {
+        });
+        try {
+            IllegalStateException e = assertThrows(IllegalStateException.class,
+                    () -> coalescing.transfer(1, 2, 10, 1));
+            assertThat(e.getMessage(), is("Service is stopped"));
+            verify(failing, never()).transfer(1, 2, 10, 1);
+        } finally {
+            coalescing.close();
+        }
+    }
+
+    @Test
+    void testTransfer_batchFailed_transfersRepeatedAlone() {
+        AccountService failing = mock(AccountService.class);
+        when(failing.transferBatch(anyList())).thenThrow(new UncheckedIOException(new IOException("Disk failed")));
+        doThrow(new TransferException(TransferError.INSUFFICIENT_BALANCE)).when(failing).transfer(1, 2, 10, 2);
+        doThrow(new UncheckedIOException(new IOException("Disk failed"))).when(failing).transfer(1, 2, 10, 3);
+        CoalescingAccountService coalescing = new CoalescingAccountService(failing, 0, 16, size -> {
+        });
+        try {
+            coalescing.transfer(1, 2, 10, 1);
+            TransferException insufficient = assertThrows(TransferException.class,
+                    () -> coalescing.transfer(1, 2, 10, 2));
+            assertThrows(UncheckedIOException.class, () -> coalescing.transfer(1, 2, 10, 3));
+
+            assertThat(insufficient.getTransferError(), is(TransferError.INSUFFICIENT_BALANCE));
+            verify(failing).transfer(1, 2, 10, 1);
+        } finally {
+            coalescing.close();
+        }
+    }
+
+    @Test
+    void testTransfer_journalFlushFails_doneTransfersReplayed() {
+        Journal journal = mock(Journal.class);
+        AccountServiceImpl journaled = new AccountServiceImpl(new AccountInMemoryDao(), new TransactionInMemoryDao(),
+                new IdempotencyIndex(), journal);
+        Account from = journaled.create(Currency.GBP, 100);
+        Account to = journaled.create(Currency.GBP, 0);
+        // the first batch is done, but not flushed
+        doThrow(new UncheckedIOException(new IOException("Disk failed"))).doNothing().when(journal).flush();
+        CoalescingAccountService coalescing = new CoalescingAccountService(journaled, 50_000, 16, size -> {
+        });
+        try {
+            CompletableFuture<Void> first = CompletableFuture.runAsync(
+                    () -> coalescing.transfer(from.getId(), to.getId(), 10, 1));
+            CompletableFuture<Void> second = CompletableFuture.runAsync(
+                    () -> coalescing.transfer(from.getId(), to.getId(), 20, 2));
+            first.join();
+            second.join();
+
+            assertThat(journaled.get(from.getId()).map(Account::getBalance).orElseThrow(), is(70L));
+            assertThat(journaled.get(to.getId()).map(Account::getBalance).orElseThrow(), is(30L));
+        } finally {
+            coalescing.close();
+        }
+    }
+
+    @Test
+    void testTransfer_afterClose_rejected() {
+        service.close();
+
+        assertThrows(IllegalStateException.class, () -> service.transfer(1, 2, 10, 1));
+    }
+
+    @Test
+    void testClose_waitingTransfersFailed() throws Exception {
+        CountDownLatch batchStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AccountService slow = mock(AccountService.class);
+        when(slow.transferBatch(anyList())).thenAnswer(invocation -> {
+            batchStarted.countDown();
+            await(release);
+            return List.of(TransferResult.successful(1));
+        });
+        CoalescingAccountService coalescing = new CoalescingAccountService(slow, 0, 1, size -> {
+        });
+        CompletableFuture<Void> executed = CompletableFuture.runAsync(() -> coalescing.transfer(1, 2, 10, 1));
+        await(batchStarted);
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> coalescing.transfer(1, 2, 10, 2));
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        // close waits for the batch being executed
+        CompletableFuture<Void> closed = CompletableFuture.runAsync(coalescing::close);
+        TimeUnit.MILLISECONDS.sleep(100);
+        release.countDown();
+
+        closed.get(5, TimeUnit.SECONDS);
+        executed.get(5, TimeUnit.SECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+    }
+
+    private long balance(int id) {
+        return service.get(id).map(Account::getBalance).orElseThrow();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
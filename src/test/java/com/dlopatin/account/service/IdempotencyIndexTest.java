@@ -0,0 +1,102 @@
+package com.dlopatin.account.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IdempotencyIndexTest {
+
+    @Test
+    void testAcquire_newOperation() {
+        IdempotencyIndex index = new IdempotencyIndex();
+
+        assertThat(index.acquire(1, 10), is(IdempotencyIndex.ACQUIRED));
+        assertThat(index.acquire(2, 10), is(IdempotencyIndex.ACQUIRED));
+        assertThat(index.size(), is(2));
+    }
+
+    @Test
+    void testAcquire_completedOperation() {
+        IdempotencyIndex index = new IdempotencyIndex();
+        index.acquire(1, 10);
+        index.complete(1, 3);
+
+        assertThat(index.acquire(1, 10), is(3));
+        assertThat(index.acquire(1, 11), is(IdempotencyIndex.CONFLICT));
+    }
+
+    @Test
+    void testAcquire_releasedOperation() {
+        IdempotencyIndex index = new IdempotencyIndex();
+        index.acquire(1, 10);
+        index.release(1);
+
+        assertThat(index.size(), is(0));
+        assertThat(index.acquire(1, 10), is(IdempotencyIndex.ACQUIRED));
+    }
+
+    @Test
+    void testTryAcquire_inFlight() {
+        IdempotencyIndex index = new IdempotencyIndex();
+        index.acquire(1, 10);
+
+        assertThat(index.tryAcquire(1, 10), is(IdempotencyIndex.IN_FLIGHT));
+    }
+
+    @Test
+    void testAcquire_waitsForInFlight() throws Exception {
+        IdempotencyIndex index = new IdempotencyIndex();
+        index.acquire(1, 10);
+
+        CompletableFuture<Integer> duplicate = CompletableFuture.supplyAsync(() -> index.acquire(1, 10));
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(duplicate.isDone());
+
+        index.complete(1, 0);
+        assertThat(duplicate.get(1, TimeUnit.SECONDS), is(0));
+    }
+
+    @Test
+    void testAcquire_inFlightTooLong_timedOut() {
+        IdempotencyIndex index = new IdempotencyIndex();
+        index.acquire(1, 10);
+
+        assertThrows(IllegalStateException.class, () -> index.acquire(1, 10, 50));
+        assertThat(index.tryAcquire(1, 10), is(IdempotencyIndex.IN_FLIGHT));
+    }
+
+    @Test
+    void testAcquire_evictsOldOperations() {
+        int retention = 100_000;
+        IdempotencyIndex index = new IdempotencyIndex(retention, TimeUnit.HOURS.toMillis(1));
+        for (int id = 0; id < retention * 10; id++) {
+            index.acquire(id, 0);
+            index.complete(id, 0);
+        }
+
+        assertThat(index.size(), lessThan(retention * 2));
+        for (int id = retention * 9; id < retention * 10; id++) {
+            assertThat(index.tryAcquire(id, 0), is(0));
+        }
+        assertThat(index.tryAcquire(0, 0), is(IdempotencyIndex.ACQUIRED));
+    }
+
+    @Test
+    void testAcquire_keepsInFlightOnEviction() {
+        int retention = 100_000;
+        IdempotencyIndex index = new IdempotencyIndex(retention, TimeUnit.HOURS.toMillis(1));
+        index.acquire(-1, 0);
+        for (int id = 0; id < retention * 10; id++) {
+            index.acquire(id, 0);
+            index.complete(id, 0);
+        }
+
+        assertThat(index.tryAcquire(-1, 0), is(IdempotencyIndex.IN_FLIGHT));
+    }
+}
@@ -0,0 +1,80 @@
+package com.dlopatin.account.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpscRingBufferTest {
+
+    @Test
+    void testOffer_full() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(3);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+
+        assertFalse(buffer.offer(4));
+        assertThat(buffer.poll(), is(0));
+        assertTrue(buffer.offer(4));
+    }
+
+    @Test
+    void testPoll_inOfferOrder() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        assertTrue(buffer.isEmpty());
+        assertThat(buffer.poll(), nullValue());
+
+        for (int lap = 0; lap < 3; lap++) {
+            buffer.offer(1);
+            buffer.offer(2);
+            assertFalse(buffer.isEmpty());
+            assertThat(buffer.poll(), is(1));
+            assertThat(buffer.poll(), is(2));
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void testPoll_concurrentProducers() throws Exception {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(64);
+        int producers = 4;
+        int perProducer = 20_000;
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int producer = 0; producer < producers; producer++) {
+            int first = producer * perProducer;
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int i = first; i < first + perProducer; i++) {
+                    while (!buffer.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+
+        int[] last = new int[producers];
+        for (int producer = 0; producer < producers; producer++) {
+            last[producer] = producer * perProducer - 1;
+        }
+        for (int received = 0; received < producers * perProducer; ) {
+            Integer element = buffer.poll();
+            if (element == null) {
+                continue;
+            }
+            int producer = element / perProducer;
+            // elements of one producer come in order
+            assertThat(element, is(last[producer] + 1));
+            last[producer] = element;
+            received++;
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        assertTrue(buffer.isEmpty());
+    }
+}
@@ -0,0 +1,212 @@
+package com.dlopatin.account.service;
+
+import com.dlopatin.account.journal.Journal;
+import com.dlopatin.account.journal.NoJournal;
+import com.dlopatin.account.journal.SnapshotWriter;
+import com.dlopatin.account.model.Account;
+import com.dlopatin.account.model.Currency;
+import com.dlopatin.account.repository.AccountArrayDao;
+import com.dlopatin.account.repository.AccountInMemoryDao;
+import com.dlopatin.account.repository.TransactionInMemoryDao;
+import com.dlopatin.account.service.TransferException.TransferError;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+class PartitionedAccountServiceTest {
+
+    private static final int PARTITIONS = 4;
+
+    private final PartitionedAccountService service = new PartitionedAccountService(
+            new AccountInMemoryDao(), new TransactionInMemoryDao(), PARTITIONS);
+
+    @AfterEach
+    void tearDown() {
+        service.close();
+    }
+
+    @Test
+    void testTransfer_samePartition() {
+        Account from = service.create(Currency.GBP, 100);
+        service.create(Currency.GBP, 0);
+        service.create(Currency.GBP, 0);
+        service.create(Currency.GBP, 0);
+        Account to = service.create(Currency.GBP, 0);
+
+        service.transfer(from.getId(), to.getId(), 30, 1);
+
+        assertThat(balance(from.getId()), is(70L));
+        assertThat(balance(to.getId()), is(30L));
+        assertThat(service.get(from.getId()).map(Account::getVersion), is(Optional.of(1)));
+    }
+
+    @Test
+    void testTransfer_anotherPartition() {
+        Account from = service.create(Currency.GBP, 100);
+        Account to = service.create(Currency.GBP, 0);
+
+        service.transfer(from.getId(), to.getId(), 30, 1);
+        service.transfer(to.getId(), from.getId(), 10, 2);
+
+        assertThat(balance(from.getId()), is(80L));
+        assertThat(balance(to.getId()), is(20L));
+    }
+
+    @Test
+    void testAwaitChange_transferByPartition_newVersion() throws Exception {
+        Account from = service.create(Currency.GBP, 100);
+        Account to = service.create(Currency.GBP, 0);
+
+        CompletableFuture<Optional<Account>> changed = CompletableFuture.supplyAsync(
+                () -> service.awaitChange(to.getId(), 0, 5000));
+        TimeUnit.MILLISECONDS.sleep(100);
+        service.transfer(from.getId(), to.getId(), 30, 1);
+
+        assertThat(changed.get(5, TimeUnit.SECONDS).map(Account::getBalance), is(Optional.of(30L)));
+    }
+
+    @Test
+    void testTransfer_sameAccount() {
+        Account account = service.create(Currency.GBP, 100);
+
+        service.transfer(account.getId(), account.getId(), 30, 1);
+
+        assertThat(balance(account.getId()), is(100L));
+    }
+
+    @Test
+    void testTransfer_errors() {
+        Account from = service.create(Currency.GBP, 100);
+        Account to = service.create(Currency.GBP, 0);
+        Account usd = service.create(Currency.USD, 0);
+
+        assertTransferError(() -> service.transfer(from.getId(), to.getId(), 101, 1),
+                TransferError.INSUFFICIENT_BALANCE);
+        assertTransferError(() -> service.transfer(-1, to.getId(), 1, 2), TransferError.ACCOUNT_FROM_NOT_FOUND);
+        assertTransferError(() -> service.transfer(from.getId(), 100, 1, 3), TransferError.ACCOUNT_TO_NOT_FOUND);
+        assertTransferError(() -> service.transfer(from.getId(), usd.getId(), 1, 4),
+                TransferError.DIFFERENT_ACCOUNT_CURRENCIES);
+        assertTransferError(() -> service.transfer(from.getId(), to.getId(), 1, 1),
+                TransferError.TRANSFER_ALREADY_PROCESSED);
+        assertThat(balance(from.getId()), is(100L));
+    }
+
+    @Test
+    void testTransfer_repeatedOperation() {
+        Account from = service.create(Currency.GBP, 100);
+        Account to = service.create(Currency.GBP, 0);
+
+        service.transfer(from.getId(), to.getId(), 30, 1);
+        service.transfer(from.getId(), to.getId(), 30, 1);
+
+        assertThat(balance(from.getId()), is(70L));
+    }
+
+    @Test
+    void testTransfer_journalFailsAfterWithdrawal_transfersStopped() {
+        Journal journal = mock(Journal.class);
+        doThrow(new UncheckedIOException(new IOException("No space left on device"))).when(journal)
+                .appendTransfer(anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), anyLong(), anyLong());
+        PartitionedAccountService failing = new PartitionedAccountService(new AccountInMemoryDao(),
+                new TransactionInMemoryDao(), new IdempotencyIndex(), journal, PARTITIONS,
+                PartitionedAccountService.DEFAULT_RING_CAPACITY);
+        try {
+            Account from = failing.create(Currency.GBP, 100);
+            Account to = failing.create(Currency.GBP, 0);
+
+            assertThrows(UncheckedIOException.class, () -> failing.transfer(from.getId(), to.getId(), 30, 1));
+
+            assertThrows(IllegalStateException.class, () -> failing.transfer(from.getId(), to.getId(), 30, 1));
+            assertThrows(IllegalStateException.class, () -> failing.transferBatch(
+                    List.of(new Transfer(to.getId(), from.getId(), 10, 2))));
+            assertThrows(IllegalStateException.class, () -> failing.writeAccounts(mock(SnapshotWriter.class)));
+        } finally {
+            failing.close();
+        }
+    }
+
+    @Test
+    void testTransferBatch_dependsOnEarlierTransfer() {
+        Account first = service.create(Currency.GBP, 100);
+        Account second = service.create(Currency.GBP, 0);
+        Account third = service.create(Currency.GBP, 0);
+
+        List<TransferResult> results = service.transferBatch(List.of(
+                new Transfer(first.getId(), second.getId(), 100, 1),
+                new Transfer(second.getId(), third.getId(), 60, 2),
+                new Transfer(third.getId(), first.getId(), 60, 3),
+                new Transfer(second.getId(), first.getId(), 41, 4),
+                new Transfer(first.getId(), third.getId(), 1, 1)));
+
+        assertThat(results.stream().map(TransferResult::getError).collect(Collectors.toList()), is(Arrays.asList(
+                null, null, null, TransferError.INSUFFICIENT_BALANCE, TransferError.TRANSFER_ALREADY_PROCESSED)));
+        assertThat(balance(first.getId()), is(60L));
+        assertThat(balance(second.getId()), is(40L));
+        assertThat(balance(third.getId()), is(0L));
+    }
+
+    @Test
+    void testTransfer_concurrentTransfersKeepMoney() throws Exception {
+        PartitionedAccountService arrayService = new PartitionedAccountService(new AccountArrayDao(),
+                new TransactionInMemoryDao(), new IdempotencyIndex(), NoJournal.INSTANCE,
+                PARTITIONS, 16);
+        try {
+            int accounts = 20;
+            for (int i = 0; i < accounts; i++) {
+                arrayService.create(Currency.GBP, 1_000);
+            }
+            AtomicInteger operationIds = new AtomicInteger();
+            List<CompletableFuture<Void>> clients = new ArrayList<>();
+            for (int client = 0; client < 8; client++) {
+                clients.add(CompletableFuture.runAsync(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 5_000; i++) {
+                        try {
+                            arrayService.transfer(random.nextInt(accounts) + 1, random.nextInt(accounts) + 1,
+                                    random.nextInt(100), operationIds.incrementAndGet());
+                        } catch (TransferException e) {
+                            assertThat(e.getTransferError(), is(TransferError.INSUFFICIENT_BALANCE));
+                        }
+                    }
+                }));
+            }
+            CompletableFuture.allOf(clients.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+            long total = 0;
+            for (int id = 1; id <= accounts; id++) {
+                total += arrayService.get(id).map(Account::getBalance).orElseThrow();
+            }
+            assertThat(total, is(accounts * 1_000L));
+        } finally {
+            arrayService.close();
+        }
+    }
+
+    private long balance(int id) {
+        return service.get(id).map(Account::getBalance).orElseThrow();
+    }
+
+    private void assertTransferError(Runnable transfer, TransferError error) {
+        TransferException exception = assertThrows(TransferException.class, transfer::run);
+        assertThat(exception.getTransferError(), is(error));
+    }
+}